@@ -1,8 +1,11 @@
 package com.velox.compiler;
 
+import com.velox.compiler.aot.ModuleCompiler;
+import com.velox.compiler.aot.RunnableJar;
 import com.velox.compiler.lexer.Lexer;
 import com.velox.compiler.parser.Parser;
 import com.velox.compiler.semantic.SemanticAnalyzer;
+import com.velox.compiler.semantic.TypeChecker;
 import com.velox.compiler.codegen.CodeGenerator;
 import com.velox.compiler.optimizer.Optimizer;
 import com.velox.compiler.ast.ModuleNode;
@@ -11,7 +14,10 @@ import com.velox.compiler.error.CompilationError;
 import com.velox.compiler.error.ErrorHandler;
 import com.velox.compiler.token.Token;
 import com.velox.compiler.util.PerformanceMetrics;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 
 public class Compiler {
     private final Lexer lexer;
@@ -26,28 +32,24 @@ public class Compiler {
         this.lexer = new Lexer();
         this.semanticAnalyzer = new SemanticAnalyzer(errorHandler);
         this.codeGenerator = new CodeGenerator();
-        this.optimizer = new Optimizer();
         this.performanceMonitor = new PerformanceMonitor();
+        this.optimizer = new Optimizer(performanceMonitor);
+        codeGenerator.setIrOptimizer(optimizer::optimize);
     }
 
     public Bytecode compile(String source) throws CompilationError {
         try {
-            // Start performance monitoring
-            performanceMonitor.startPhase("lexical_analysis");
-            
-            // Lexical Analysis
-            List<Token> tokens = lexer.tokenize(source);
-            performanceMonitor.endPhase("lexical_analysis");
-
-            // Syntax Analysis
-            performanceMonitor.startPhase("syntax_analysis");
-            Parser parser = new Parser(tokens);
-            ModuleNode ast = (ModuleNode) parser.parse();
-            performanceMonitor.endPhase("syntax_analysis");
+            ModuleNode ast = parse(source);
 
             // Semantic Analysis
             performanceMonitor.startPhase("semantic_analysis");
             semanticAnalyzer.analyze(ast);
+            // Types only drive opcode selection here, so checker errors are
+            // not reported; an unproven program just gets generic opcodes
+            ErrorHandler typeErrors = new ErrorHandler();
+            TypeChecker typeChecker = new TypeChecker(typeErrors);
+            typeChecker.check(ast);
+            codeGenerator.setTypeChecker(typeErrors.hadError() ? null : typeChecker);
             performanceMonitor.endPhase("semantic_analysis");
 
             // Code Generation
@@ -67,6 +69,53 @@ public class Compiler {
         }
     }
 
+    /**
+     * Compiles source ahead of time into a JAR that plain "java -jar" runs,
+     * with className as its main class. Only modules the IR models compile
+     * this way; see {@link ModuleCompiler}.
+     */
+    public void compileToJar(String source, String className, Path jar) throws IOException, CompilationError {
+        ModuleNode ast;
+        try {
+            ast = parse(source);
+            performanceMonitor.startPhase("semantic_analysis");
+            semanticAnalyzer.analyze(ast);
+            performanceMonitor.endPhase("semantic_analysis");
+        } catch (Exception e) {
+            errorHandler.handleError(new CompilationError("Compilation failed", e));
+            throw new CompilationError("Compilation failed", e);
+        }
+        performanceMonitor.startPhase("aot_compilation");
+        byte[] classFile = new ModuleCompiler(optimizer::optimize).compile(ast, className);
+        performanceMonitor.endPhase("aot_compilation");
+        RunnableJar.write(jar, className, classFile);
+    }
+
+    /**
+     * Lexes, parses and optimizes source up to semantic analysis.
+     */
+    private ModuleNode parse(String source) {
+        // Start performance monitoring
+        performanceMonitor.startPhase("lexical_analysis");
+
+        // Lexical Analysis
+        List<Token> tokens = lexer.tokenize(source);
+        performanceMonitor.endPhase("lexical_analysis");
+
+        // Syntax Analysis
+        performanceMonitor.startPhase("syntax_analysis");
+        Parser parser = new Parser(tokens);
+        ModuleNode ast = (ModuleNode) parser.parse();
+        performanceMonitor.endPhase("syntax_analysis");
+
+        // Tree optimization, before analysis so types describe the
+        // nodes code is generated from
+        performanceMonitor.startPhase("ast_optimization");
+        ast = (ModuleNode) optimizer.optimize(ast);
+        performanceMonitor.endPhase("ast_optimization");
+        return ast;
+    }
+
     public void setOptimizationLevel(int level) {
         optimizer.setLevel(level);
     }
@@ -78,4 +127,12 @@ public class Compiler {
     public PerformanceMetrics getPerformanceMetrics() {
         return performanceMonitor.getMetrics();
     }
+
+    /**
+     * Returns the counters recorded while compiling, such as the number of
+     * instructions each optimization pass removed.
+     */
+    public Map<String, Long> getPerformanceCounts() {
+        return performanceMonitor.getCounts();
+    }
 } 
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.velox.compiler;
 
 import com.velox.compiler.util.PerformanceMetrics;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -10,11 +11,13 @@ import java.util.Map;
 public class PerformanceMonitor {
     private final Map<String, Long> phaseStartTimes;
     private final Map<String, Long> phaseDurations;
+    private final Map<String, Long> counts;
     private String currentPhase;
 
     public PerformanceMonitor() {
         this.phaseStartTimes = new HashMap<>();
         this.phaseDurations = new HashMap<>();
+        this.counts = new HashMap<>();
     }
 
     public void startPhase(String phaseName) {
@@ -30,6 +33,22 @@ public class PerformanceMonitor {
         }
     }
 
+    /**
+     * Adds to a named counter, such as the number of instructions an
+     * optimization pass removed.
+     */
+    public void recordCount(String name, long count) {
+        counts.merge(name, count, Long::sum);
+    }
+
+    public long getCount(String name) {
+        return counts.getOrDefault(name, 0L);
+    }
+
+    public Map<String, Long> getCounts() {
+        return Collections.unmodifiableMap(counts);
+    }
+
     public PerformanceMetrics getMetrics() {
         Map<String, Double> averages = new HashMap<>();
         Map<String, Long> totals = new HashMap<>();
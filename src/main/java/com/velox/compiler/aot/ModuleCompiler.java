@@ -0,0 +1,256 @@
+package com.velox.compiler.aot;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.ClassFileWriter;
+import com.velox.compiler.bytecode.Function;
+import com.velox.compiler.bytecode.RegisterCode;
+import com.velox.compiler.bytecode.RegisterOp;
+import com.velox.compiler.bytecode.RegisterTranslator;
+import com.velox.compiler.error.CompilationError;
+import com.velox.compiler.ir.IrBuilder;
+import com.velox.compiler.ir.IrFunction;
+import com.velox.compiler.ir.RegisterLowering;
+import com.velox.compiler.token.Token;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+
+/**
+ * Compiles a whole module ahead of time to a single JVM class, without the
+ * interpreter: each top-level function becomes a public static method
+ * taking and returning Objects, the module's top-level code becomes the
+ * class's main method, and globals become static fields. Operations on
+ * values call {@link com.velox.compiler.bytecode.Operators}, the only
+ * Velox class the compiled program needs at run time.
+ *
+ * Functions go through the same IR and register lowering as for the
+ * REGISTER engine, so the module may only use what the IR models: no
+ * nested functions or classes, and functions are called by name rather
+ * than passed around as values.
+ */
+public final class ModuleCompiler {
+    /** Method holding the module's top-level code. */
+    static final String MODULE_METHOD = "module$";
+
+    private static final String OBJECT_DESCRIPTOR = "Ljava/lang/Object;";
+
+    private final UnaryOperator<IrFunction> irOptimizer;
+
+    /**
+     * Creates a compiler that runs each function's IR through irOptimizer
+     * before lowering it.
+     */
+    public ModuleCompiler(UnaryOperator<IrFunction> irOptimizer) {
+        this.irOptimizer = irOptimizer;
+    }
+
+    /**
+     * Compiles a module to the class file of a class with the given binary
+     * name, such as "hello" or "com/example/Hello".
+     *
+     * @throws CompilationError if the module uses something that cannot be
+     *         compiled ahead of time
+     */
+    public byte[] compile(ModuleNode module, String className) {
+        if (!module.getImports().isEmpty()) {
+            throw new CompilationError("Imports cannot be compiled ahead of time");
+        }
+        // Functions are declared in a scratch program, as the code
+        // generator declares them, for lowering to bind calls and globals to
+        Bytecode scratch = new Bytecode();
+        Map<String, Function> functions = new LinkedHashMap<>();
+        List<FunctionStmt> declarations = new ArrayList<>();
+        List<AST> topLevel = new ArrayList<>();
+        for (AST declaration : module.getDeclarations()) {
+            if (declaration instanceof FunctionStmt) {
+                FunctionStmt stmt = (FunctionStmt) declaration;
+                String name = stmt.getName().getLexeme();
+                if (functions.containsKey(name)) {
+                    throw new CompilationError("Function " + name + " is declared more than once");
+                }
+                functions.put(name, scratch.declareFunction(name, stmt.getParameters().size()));
+                declarations.add(stmt);
+            } else {
+                topLevel.add(declaration);
+            }
+        }
+
+        ClassFileWriter writer = new ClassFileWriter(className, "java/lang/Object");
+        TreeSet<Integer> globals = new TreeSet<>();
+        for (FunctionStmt stmt : declarations) {
+            String name = stmt.getName().getLexeme();
+            RegisterCode code = lower(stmt, "Function " + name, functions, scratch);
+            new MethodTranslator(writer, className, code, functions, scratch, globals)
+                .translate(name, stmt.getParameters().size());
+        }
+        FunctionStmt module$ = new FunctionStmt(token(TokenType.FUN, "fun"), token(TokenType.IDENTIFIER, MODULE_METHOD),
+            Collections.emptyList(), topLevel, null);
+        new MethodTranslator(writer, className, lower(module$, "Top-level code", functions, scratch),
+            functions, scratch, globals).translate(MODULE_METHOD, 0);
+
+        for (int slot : globals) {
+            writer.field(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC,
+                scratch.getGlobals().getName(slot), OBJECT_DESCRIPTOR);
+        }
+        MethodTranslator.emitMain(writer, className);
+        return writer.toByteArray();
+    }
+
+    private RegisterCode lower(FunctionStmt stmt, String what, Map<String, Function> functions, Bytecode scratch) {
+        IrFunction ir = new IrBuilder(functions).build(stmt);
+        if (ir == null) {
+            throw new CompilationError(what
+                + " uses nested functions, classes or properties, which cannot be compiled ahead of time");
+        }
+        return new RegisterLowering(scratch).lower(irOptimizer.apply(ir));
+    }
+
+    private static String descriptor(int arity) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < arity; i++) {
+            descriptor.append(OBJECT_DESCRIPTOR);
+        }
+        return descriptor.append(')').append(OBJECT_DESCRIPTOR).toString();
+    }
+
+    private static Token token(TokenType type, String lexeme) {
+        return new Token(type, lexeme, null, 1, 1);
+    }
+
+    /**
+     * Translates one function's register code to a static method whose
+     * parameters are the function's first registers.
+     */
+    private static final class MethodTranslator extends RegisterTranslator {
+        private final String className;
+        private final Map<String, Function> functions;
+        private final Bytecode scratch;
+        private final TreeSet<Integer> globals;
+        private String name;
+
+        MethodTranslator(ClassFileWriter writer, String className, RegisterCode code,
+                         Map<String, Function> functions, Bytecode scratch, TreeSet<Integer> globals) {
+            super(writer, code);
+            this.className = className;
+            this.functions = functions;
+            this.scratch = scratch;
+            this.globals = globals;
+        }
+
+        void translate(String name, int arity) {
+            this.name = name;
+            if (arity > 255) {
+                throw new CompilationError("Function " + name + " has more than 255 parameters");
+            }
+            assignLocals(arity, 0);
+            out = writer.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, name, descriptor(arity), arity);
+            // Clear the other locals so the verifier sees them assigned
+            for (int r = 0; r < registerCode.getRegisterCount(); r++) {
+                if (r >= arity && objectLocal(r) >= 0) {
+                    out.op(ACONST_NULL, 1);
+                    storeObject(r);
+                }
+                if (numberLocal(r) >= 0) {
+                    out.op(DCONST_0, 2);
+                    storeNumber(r);
+                }
+            }
+            emitBody();
+            if (out.length() > Short.MAX_VALUE) {
+                throw new CompilationError("Function " + name + " is too large to compile ahead of time");
+            }
+        }
+
+        @Override
+        protected void emitConstant(int index) {
+            Object value = constants[index];
+            if (value instanceof Double) {
+                out.op(LDC2_W, writer.doubleConstant((Double) value), 2);
+                box();
+            } else if (value instanceof String) {
+                out.ldc(writer.string((String) value));
+            } else if (value instanceof Boolean) {
+                out.op(GETSTATIC, writer.fieldRef(BOOLEAN, (Boolean) value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"), 1);
+            } else if (value instanceof Integer) {
+                pushInt((Integer) value);
+                out.op(INVOKESTATIC, writer.methodRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"), 0);
+            } else if (value instanceof Function) {
+                throw new CompilationError(where() + " uses function " + ((Function) value).getName()
+                    + " as a value, which cannot be compiled ahead of time");
+            } else {
+                throw new CompilationError(where() + " uses a constant that cannot be compiled ahead of time: " + value);
+            }
+        }
+
+        @Override
+        protected void emitGetGlobal(int slot) {
+            String global = global(slot);
+            if (functions.containsKey(global)) {
+                throw new CompilationError(where() + " uses function " + global
+                    + " as a value, which cannot be compiled ahead of time");
+            }
+            int defined = out.newLabel();
+            out.op(GETSTATIC, writer.fieldRef(className, global, OBJECT_DESCRIPTOR), 1);
+            out.op(DUP, 1);
+            out.jump(IFNONNULL, defined, -1);
+            emitThrow("Undefined global variable: " + global);
+            out.mark(defined, 1);
+        }
+
+        @Override
+        protected void emitSetGlobal(int slot, int register) {
+            loadObject(register);
+            out.op(PUTSTATIC, writer.fieldRef(className, global(slot), OBJECT_DESCRIPTOR), -1);
+        }
+
+        @Override
+        protected void emitCall(int pc, RegisterOp op) {
+            if (op == RegisterOp.CALL) {
+                throw new CompilationError(where()
+                    + " calls a value other than a top-level function, which cannot be compiled ahead of time");
+            }
+            Function callee = (Function) constants[code[pc + 2]];
+            int argumentCount = code[pc + 3];
+            if (argumentCount != callee.getArity()) {
+                // Fails when run, as in the interpreter
+                emitThrow("Expected " + callee.getArity() + " arguments but got "
+                    + argumentCount + " in call to " + callee.getName());
+                out.op(ACONST_NULL, 1);
+                return;
+            }
+            for (int i = 0; i < argumentCount; i++) {
+                loadObject(code[pc + 4 + i]);
+            }
+            out.op(INVOKESTATIC, writer.methodRef(className, callee.getName(), descriptor(argumentCount)),
+                1 - argumentCount);
+        }
+
+        /**
+         * Emits main, which runs the module's top-level code.
+         */
+        static void emitMain(ClassFileWriter writer, String className) {
+            ClassFileWriter.Code main = writer.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC,
+                "main", "([Ljava/lang/String;)V", 1);
+            main.op(INVOKESTATIC, writer.methodRef(className, MODULE_METHOD, descriptor(0)), 1);
+            main.op(POP, -1);
+            main.op(RETURN, 0);
+        }
+
+        private String global(int slot) {
+            globals.add(slot);
+            return scratch.getGlobals().getName(slot);
+        }
+
+        private String where() {
+            return name.equals(MODULE_METHOD) ? "Top-level code" : "Function " + name;
+        }
+    }
+}
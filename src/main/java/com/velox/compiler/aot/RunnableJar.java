@@ -0,0 +1,67 @@
+package com.velox.compiler.aot;
+
+import com.velox.compiler.bytecode.Operators;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Packages a module compiled by {@link ModuleCompiler} into a JAR that
+ * plain "java -jar" runs: the module's class as the Main-Class, plus the
+ * runtime classes it calls. Being ordinary classes on the class path, they
+ * can go into a CDS archive like any other application classes.
+ */
+public final class RunnableJar {
+    private static final Class<?>[] RUNTIME = {Operators.class};
+
+    private RunnableJar() {
+    }
+
+    /**
+     * Writes the JAR, replacing any file at the path. It is written to a
+     * temporary file first, so a JAR being run is never seen half-written.
+     */
+    public static void write(Path jar, String className, byte[] classFile) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className.replace('/', '.'));
+        manifest.getMainAttributes().put(new Attributes.Name("Created-By"), "Velox");
+
+        Path directory = jar.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, jar.getFileName().toString(), ".tmp");
+        try {
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(temp), manifest)) {
+                add(out, className + ".class", classFile);
+                for (Class<?> runtime : RUNTIME) {
+                    String name = runtime.getName().replace('.', '/') + ".class";
+                    try (InputStream in = runtime.getClassLoader().getResourceAsStream(name)) {
+                        if (in == null) {
+                            throw new IOException("Runtime class not found: " + name);
+                        }
+                        add(out, name, in.readAllBytes());
+                    }
+                }
+            }
+            try {
+                Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void add(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+}
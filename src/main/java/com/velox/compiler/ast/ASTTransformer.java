@@ -0,0 +1,300 @@
+package com.velox.compiler.ast;
+
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A visitor that rewrites a tree. Each visit returns the node to use in
+ * place of the one visited: the node itself if nothing under it changed, a
+ * rebuilt copy if a child was replaced, or null to remove a statement.
+ * Nodes are immutable, so a change rebuilds the path from the root down to
+ * it and shares every untouched subtree.
+ *
+ * This base class only recurses. A rewrite overrides the visits of the
+ * nodes it replaces, usually calling super first so it sees transformed
+ * children.
+ */
+public class ASTTransformer implements StmtVisitor {
+
+    /**
+     * Transforms a node, passing null through.
+     */
+    public AST transform(AST node) {
+        return node == null ? null : (AST) node.accept(this);
+    }
+
+    /**
+     * Transforms a list of statements, dropping the ones removed. Returns
+     * the list itself if nothing changed.
+     */
+    protected List<AST> transformStatements(List<AST> statements) {
+        List<AST> result = null;
+        for (int i = 0; i < statements.size(); i++) {
+            AST statement = statements.get(i);
+            AST replacement = transform(statement);
+            if (replacement != statement && result == null) {
+                result = new ArrayList<>(statements.subList(0, i));
+            }
+            if (result != null && replacement != null) {
+                result.add(replacement);
+            }
+        }
+        return result != null ? result : statements;
+    }
+
+    /**
+     * Transforms a statement that must stay a statement, such as a branch
+     * of an if: a removed one becomes an empty block.
+     */
+    protected AST transformBranch(AST branch) {
+        AST replacement = transform(branch);
+        if (replacement == null && branch != null) {
+            return new BlockStmt(branch.getToken(), new ArrayList<>());
+        }
+        return replacement;
+    }
+
+    @Override
+    public Object visitModuleNode(ModuleNode node) {
+        List<AST> statements = transformStatements(node.getStatements());
+        List<AST> declarations = transformStatements(node.getDeclarations());
+        if (statements == node.getStatements() && declarations == node.getDeclarations()) {
+            return node;
+        }
+        ModuleNode module = new ModuleNode(node.getToken(), node.getName());
+        node.getImports().forEach(module::addImport);
+        statements.forEach(module::addStatement);
+        declarations.forEach(module::addDeclaration);
+        return module;
+    }
+
+    @Override
+    public Object visitModule(ModuleNode node) {
+        return visitModuleNode(node);
+    }
+
+    @Override
+    public Object visitBlockStmt(BlockStmt stmt) {
+        List<AST> statements = transformStatements(stmt.getStatements());
+        return statements == stmt.getStatements() ? stmt : new BlockStmt(stmt.getToken(), statements);
+    }
+
+    @Override
+    public Object visitClassStmt(ClassStmt stmt) {
+        List<FunctionStmt> methods = new ArrayList<>();
+        boolean changed = false;
+        for (FunctionStmt method : stmt.getMethods()) {
+            AST replacement = transform(method);
+            if (replacement instanceof FunctionStmt) {
+                methods.add((FunctionStmt) replacement);
+                changed |= replacement != method;
+            } else {
+                methods.add(method);
+            }
+        }
+        return changed ? new ClassStmt(stmt.getToken(), stmt.getName(), stmt.getSuperclass(), methods) : stmt;
+    }
+
+    @Override
+    public Object visitExpressionStmt(ExpressionStmt stmt) {
+        AST expression = transform(stmt.getExpression());
+        return expression == stmt.getExpression() ? stmt : new ExpressionStmt(stmt.getToken(), expression);
+    }
+
+    @Override
+    public Object visitFunctionStmt(FunctionStmt stmt) {
+        List<AST> body = transformStatements(stmt.getBody());
+        if (body == stmt.getBody()) {
+            return stmt;
+        }
+        return new FunctionStmt(stmt.getToken(), stmt.getName(), stmt.getParameters(), body, stmt.getReturnType());
+    }
+
+    @Override
+    public Object visitIfStmt(IfStmt stmt) {
+        AST condition = transform(stmt.getCondition());
+        AST thenBranch = transformBranch(stmt.getThenBranch());
+        AST elseBranch = transform(stmt.getElseBranch());
+        if (condition == stmt.getCondition() && thenBranch == stmt.getThenBranch()
+                && elseBranch == stmt.getElseBranch()) {
+            return stmt;
+        }
+        return new IfStmt(stmt.getToken(), condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Object visitPrintStmt(PrintStmt stmt) {
+        AST expression = transform(stmt.getExpression());
+        return expression == stmt.getExpression() ? stmt : new PrintStmt(stmt.getToken(), expression);
+    }
+
+    @Override
+    public Object visitReturnStmt(ReturnStmt stmt) {
+        AST value = transform(stmt.getValue());
+        return value == stmt.getValue() ? stmt : new ReturnStmt(stmt.getToken(), value);
+    }
+
+    @Override
+    public Object visitThrowStmt(ThrowStmt stmt) {
+        AST value = transform(stmt.getValue());
+        return value == stmt.getValue() ? stmt : new ThrowStmt(stmt.getToken(), value);
+    }
+
+    @Override
+    public Object visitTryStmt(TryStmt stmt) {
+        AST body = transformBranch(stmt.getBody());
+        AST catchBody = transformBranch(stmt.getCatchBody());
+        if (body == stmt.getBody() && catchBody == stmt.getCatchBody()) {
+            return stmt;
+        }
+        return new TryStmt(stmt.getToken(), body, stmt.getCatchName(), catchBody);
+    }
+
+    @Override
+    public Object visitVarStmt(VarStmt stmt) {
+        AST initializer = transform(stmt.getInitializer());
+        if (initializer == stmt.getInitializer()) {
+            return stmt;
+        }
+        return new VarStmt(stmt.getToken(), stmt.getName(), initializer, stmt.getType());
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt) {
+        AST condition = transform(stmt.getCondition());
+        AST body = transformBranch(stmt.getBody());
+        if (condition == stmt.getCondition() && body == stmt.getBody()) {
+            return stmt;
+        }
+        return new WhileStmt(stmt.getToken(), condition, body);
+    }
+
+    @Override
+    public Object visitBinaryExpr(BinaryExpr expr) {
+        AST left = transform(expr.getLeft());
+        AST right = transform(expr.getRight());
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new BinaryExpr(expr.getOperator(), left, right);
+    }
+
+    @Override
+    public Object visitUnaryExpr(UnaryExpr expr) {
+        AST right = transform(expr.getRight());
+        return right == expr.getRight() ? expr : new UnaryExpr(expr.getOperator(), right);
+    }
+
+    @Override
+    public Object visitLiteralExpr(LiteralExpr expr) {
+        return expr;
+    }
+
+    @Override
+    public Object visitVariableExpr(VariableExpr expr) {
+        return expr;
+    }
+
+    @Override
+    public Object visitAssignExpr(AssignExpr expr) {
+        AST value = transform(expr.getValue());
+        return value == expr.getValue() ? expr : new AssignExpr(expr.getName(), value);
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr) {
+        AST callee = transform(expr.getCallee());
+        List<AST> arguments = new ArrayList<>(expr.getArguments().size());
+        boolean changed = callee != expr.getCallee();
+        for (AST argument : expr.getArguments()) {
+            AST replacement = transform(argument);
+            arguments.add(replacement);
+            changed |= replacement != argument;
+        }
+        return changed ? new CallExpr(callee, expr.getParen(), arguments) : expr;
+    }
+
+    @Override
+    public Object visitGetExpr(GetExpr expr) {
+        AST object = transform(expr.getObject());
+        if (object == expr.getObject()) {
+            return expr;
+        }
+        return new GetExpr(object, expr.getName());
+    }
+
+    @Override
+    public Object visitSetExpr(SetExpr expr) {
+        AST object = transform(expr.getObject());
+        AST value = transform(expr.getValue());
+        if (object == expr.getObject() && value == expr.getValue()) {
+            return expr;
+        }
+        return new SetExpr(object, expr.getName(), value);
+    }
+
+    @Override
+    public Object visitGroupingExpr(GroupingExpr expr) {
+        AST expression = transform(expr.getExpression());
+        return expression == expr.getExpression() ? expr : new GroupingExpr(expr.getToken(), expression);
+    }
+
+    @Override
+    public Object visitThisExpr(ThisExpr expr) {
+        return expr;
+    }
+
+    @Override
+    public Object visitSuperExpr(SuperExpr expr) {
+        return expr;
+    }
+
+    // Declarations without statements to rewrite are kept as they are
+
+    @Override
+    public Object visitParameter(Parameter param) {
+        return param;
+    }
+
+    @Override
+    public Object visitImport(ImportNode node) {
+        return node;
+    }
+
+    @Override
+    public Object visitTypeAnnotation(TypeAnnotation type) {
+        return type;
+    }
+
+    @Override
+    public Object visitClass(ClassNode node) {
+        return node;
+    }
+
+    @Override
+    public Object visitFunction(FunctionNode node) {
+        return node;
+    }
+
+    @Override
+    public Object visitMethod(MethodNode node) {
+        return node;
+    }
+
+    @Override
+    public Object visitField(FieldNode node) {
+        return node;
+    }
+
+    @Override
+    public Object visitConstructor(ConstructorNode node) {
+        return node;
+    }
+
+    @Override
+    public Object visitParameter(ParameterNode node) {
+        return node;
+    }
+}
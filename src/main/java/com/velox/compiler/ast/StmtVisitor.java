@@ -12,6 +12,8 @@ public interface StmtVisitor extends ASTVisitor {
     Object visitParameter(Parameter param);
     Object visitPrintStmt(com.velox.compiler.ast.statements.PrintStmt stmt);
     Object visitReturnStmt(ReturnStmt stmt);
+    Object visitThrowStmt(ThrowStmt stmt);
+    Object visitTryStmt(TryStmt stmt);
     Object visitVarStmt(VarStmt stmt);
     Object visitWhileStmt(WhileStmt stmt);
     Object visitModule(ModuleNode node);
@@ -1,5 +1,6 @@
 package com.velox.compiler.ast.expressions;
 
+import com.velox.compiler.ast.AST;
 import com.velox.compiler.ast.Expression;
 import com.velox.compiler.ast.ASTVisitor;
 import com.velox.compiler.token.Token;
@@ -9,9 +10,9 @@ import com.velox.compiler.token.Token;
  */
 public class AssignExpr extends Expression {
     private final Token name;
-    private final Expression value;
+    private final AST value;
 
-    public AssignExpr(Token name, Expression value) {
+    public AssignExpr(Token name, AST value) {
         this.name = name;
         this.value = value;
     }
@@ -20,7 +21,7 @@ public class AssignExpr extends Expression {
         return name;
     }
 
-    public Expression getValue() {
+    public AST getValue() {
         return value;
     }
 
@@ -1,22 +1,24 @@
 package com.velox.compiler.ast.expressions;
 
-import com.velox.compiler.ast.Expression;
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.ASTNode;
 import com.velox.compiler.ast.ASTVisitor;
 import com.velox.compiler.token.Token;
 
 /**
  * Represents a property access expression in the AST.
  */
-public class GetExpr extends Expression {
-    private final Expression object;
+public class GetExpr extends ASTNode {
+    private final AST object;
     private final Token name;
 
-    public GetExpr(Expression object, Token name) {
+    public GetExpr(AST object, Token name) {
+        super(name);
         this.object = object;
         this.name = name;
     }
 
-    public Expression getObject() {
+    public AST getObject() {
         return object;
     }
 
@@ -28,4 +30,4 @@ public class GetExpr extends Expression {
     public Object accept(ASTVisitor visitor) {
         return visitor.visitGetExpr(this);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,49 @@
+package com.velox.compiler.ast.statements;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.ASTVisitor;
+import com.velox.compiler.ast.Stmt;
+import com.velox.compiler.ast.StmtVisitor;
+import com.velox.compiler.token.Token;
+
+/**
+ * Represents a try statement in the AST: a body, and a catch block that
+ * runs with the thrown value bound to a variable if the body throws.
+ */
+public class TryStmt extends Stmt {
+    private final AST body;
+    private final Token catchName;
+    private final AST catchBody;
+
+    public TryStmt(Token token, AST body, Token catchName, AST catchBody) {
+        super(token);
+        this.body = body;
+        this.catchName = catchName;
+        this.catchBody = catchBody;
+    }
+
+    public AST getBody() {
+        return body;
+    }
+
+    public Token getCatchName() {
+        return catchName;
+    }
+
+    public AST getCatchBody() {
+        return catchBody;
+    }
+
+    @Override
+    public Object accept(ASTVisitor visitor) {
+        if (visitor instanceof StmtVisitor) {
+            return ((StmtVisitor) visitor).visitTryStmt(this);
+        }
+        throw new UnsupportedOperationException("Visitor must implement StmtVisitor");
+    }
+
+    @Override
+    public Object accept(StmtVisitor visitor) {
+        return visitor.visitTryStmt(this);
+    }
+}
@@ -0,0 +1,29 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * A method read off an instance as a value: calling it runs the method
+ * with the instance as this.
+ */
+public final class BoundMethod {
+    private final Instance receiver;
+    // Function or Closure
+    private final Object method;
+
+    public BoundMethod(Instance receiver, Object method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    public Instance getReceiver() {
+        return receiver;
+    }
+
+    public Object getMethod() {
+        return method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
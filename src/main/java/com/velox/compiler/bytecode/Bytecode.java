@@ -1,64 +1,154 @@
 package com.velox.compiler.bytecode;
 
+import com.velox.compiler.bytecode.instructions.GetPropertyInstruction;
+import com.velox.compiler.bytecode.instructions.InvokeInstruction;
+import com.velox.compiler.bytecode.instructions.SetPropertyInstruction;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
 /**
  * Manages bytecode generation and storage.
+ *
+ * A program is either emitted as a byte stream (by the code generator) or
+ * assembled from Instruction objects. Emitted code is decoded into
+ * instructions on first use, and either form is packed into an int[] for
+ * the switch engine.
  */
 public class Bytecode {
+    /** Largest operand that fits in the one-byte encoding. */
+    public static final int MAX_OPERAND = 0xFF;
+    /** Largest operand that fits in the two-byte (WIDE or jump) encoding. */
+    public static final int MAX_WIDE_OPERAND = 0xFFFF;
+    /** Maximum number of entries in the constant pool. */
+    public static final int MAX_CONSTANTS = MAX_WIDE_OPERAND + 1;
+
     private final List<Byte> code;
-    private final List<Object> constants;
-    private final List<Integer> lines;
-    private final Map<String, Integer> functionOffsets = new HashMap<>();
+    private final List<Constant> constants;
+    private LineTable lineTable = new LineTable();
+    private int currentLine;
+    private final List<Instruction> instructions;
+    private final Map<String, Function> functions = new HashMap<>();
+    // Every declared function, including ones whose name was later reused
+    private final List<Function> functionList = new ArrayList<>();
+    // Every exception handler, and the top-level code's own table
+    private final List<ExceptionHandler> handlerList = new ArrayList<>();
+    private ExceptionHandler[] handlers = new ExceptionHandler[0];
+    private final Map<Constant, Integer> constantIndices = new HashMap<>();
+    private final GlobalTable globals = new GlobalTable();
+    // Lines by instruction index, built when the code is decoded
+    private LineTable instructionLines = new LineTable();
+    private boolean decoded;
+    private int[] packedCode;
+    // Quickening's feedback per packed instruction
+    private byte[] typeFeedback;
+    private PropertyCache[] propertyCaches;
+    private MethodCache[] methodCaches;
+    private Object[] constantValues;
 
     public Bytecode() {
         this.code = new ArrayList<>();
         this.constants = new ArrayList<>();
-        this.lines = new ArrayList<>();
+        this.instructions = new ArrayList<>();
     }
 
     public void emit(OpCode opcode) {
+        lineTable.add(code.size(), currentLine);
         code.add((byte) opcode.ordinal());
-        lines.add(0); // TODO: Add proper line tracking
+        invalidate();
     }
 
     public void emit(byte value) {
+        lineTable.add(code.size(), currentLine);
         code.add(value);
-        lines.add(0);
+        invalidate();
     }
 
-    public void emit(OpCode opcode, Object value) {
-        emit(opcode);
-        if (value instanceof String) {
-            constants.add(value);
-            emit((byte) (constants.size() - 1));
-        } else if (value instanceof Number) {
-            constants.add(value);
-            emit((byte) (constants.size() - 1));
+    /**
+     * Emits an opcode followed by a raw operand: a local slot, argument count
+     * or jump distance. Operands that do not fit in a byte are written as two
+     * bytes behind a WIDE prefix.
+     */
+    public void emit(OpCode opcode, int operand) {
+        if (!opcode.hasOperand()) {
+            throw new IllegalArgumentException(opcode + " takes no operand");
+        }
+        if (opcode.operandWidth() == 3) {
+            throw new IllegalArgumentException(opcode + " is emitted with emitInvoke");
+        }
+        if (operand < 0 || operand > MAX_WIDE_OPERAND) {
+            throw new IllegalArgumentException("Operand out of range for " + opcode + ": " + operand);
+        }
+        if (opcode.operandWidth() == 1 && operand > MAX_OPERAND) {
+            emit(OpCode.WIDE);
+            emit(opcode);
+            emitShort(operand);
+        } else if (opcode.operandWidth() == 1) {
+            emit(opcode);
+            emit((byte) operand);
         } else {
+            emit(opcode);
+            emitShort(operand);
+        }
+    }
+
+    /**
+     * Emits an opcode whose operand is the index of a constant, reusing an
+     * existing pool entry for an equal value.
+     */
+    public void emit(OpCode opcode, Object value) {
+        if (!(value instanceof String) && !(value instanceof Number) && !(value instanceof Function)) {
             throw new IllegalArgumentException("Unsupported constant type: " + value.getClass());
         }
+        emit(opcode, constantIndex(Constant.of(value)));
+    }
+
+    /**
+     * Emits INVOKE_METHOD or INVOKE_SUPER: the argument count, then the
+     * constant index of the method name. Decoded, the operand holds the
+     * argument count above the 16-bit name index.
+     */
+    public void emitInvoke(OpCode opcode, String name, int argumentCount) {
+        if (opcode.operandWidth() != 3) {
+            throw new IllegalArgumentException(opcode + " is not an invoke opcode");
+        }
+        if (argumentCount < 0 || argumentCount > MAX_OPERAND) {
+            throw new IllegalArgumentException("Too many arguments for " + opcode + ": " + argumentCount);
+        }
+        int nameIndex = constantIndex(Constant.of(name));
+        emit(opcode);
+        emit((byte) argumentCount);
+        emitShort(nameIndex);
     }
 
     public int emitJump(OpCode opcode) {
         emit(opcode);
         int jumpPos = code.size();
-        emit((byte) 0); // Placeholder for jump offset
+        emitShort(0); // Placeholder for jump offset
         return jumpPos;
     }
 
     public void patchJump(int jumpPos) {
-        int jumpOffset = code.size() - jumpPos - 1;
-        code.set(jumpPos, (byte) jumpOffset);
+        int jumpOffset = code.size() - jumpPos - 2;
+        if (jumpOffset > MAX_WIDE_OPERAND) {
+            throw new IllegalStateException("Too much code to jump over: " + jumpOffset + " bytes");
+        }
+        code.set(jumpPos, (byte) (jumpOffset >> 8));
+        code.set(jumpPos + 1, (byte) jumpOffset);
+        invalidate();
     }
 
     public void emitLoop(int loopStart) {
-        emit(OpCode.JUMP);
-        int jumpOffset = code.size() - loopStart;
-        emit((byte) jumpOffset);
+        emit(OpCode.LOOP);
+        // Distance back from the end of this instruction
+        int jumpOffset = code.size() + 2 - loopStart;
+        if (jumpOffset > MAX_WIDE_OPERAND) {
+            throw new IllegalStateException("Loop body too large: " + jumpOffset + " bytes");
+        }
+        emitShort(jumpOffset);
     }
 
     public int getCurrentOffset() {
@@ -69,35 +159,371 @@ public class Bytecode {
         return code;
     }
 
-    public List<Object> getConstants() {
+    public List<Constant> getConstants() {
         return constants;
     }
 
-    public List<Integer> getLines() {
-        return lines;
+    /**
+     * Sets the source line of the code emitted from now on.
+     */
+    public void setLine(int line) {
+        currentLine = line;
+    }
+
+    /**
+     * Returns the source lines of emitted code by byte offset.
+     */
+    public LineTable getLineTable() {
+        return lineTable;
+    }
+
+    /**
+     * Returns the source line of the instruction at an index, or 0 if it is
+     * not known, as for programs built from Instruction objects.
+     */
+    public int getLine(int index) {
+        instructions();
+        return instructionLines.getLine(index);
+    }
+
+    /**
+     * Appends code that is already encoded, with its line table, as when a
+     * program is read back from a cache file.
+     */
+    void appendCode(byte[] bytes, LineTable lines) {
+        int base = code.size();
+        for (byte b : bytes) {
+            code.add(b);
+        }
+        for (int run = 0; run < lines.size(); run++) {
+            lineTable.add(base + lines.getStart(run), lines.getRunLine(run));
+        }
+        invalidate();
+    }
+
+    /**
+     * Replaces the emitted code and its line table, as an optimizer does
+     * after rewriting the program. Constants are kept; functions must be
+     * redefined at their new offsets.
+     */
+    public void replaceCode(byte[] bytes, LineTable lines) {
+        code.clear();
+        lineTable = new LineTable();
+        appendCode(bytes, lines);
+    }
+
+    public void addInstruction(Instruction instruction) {
+        instructions.add(instruction);
+        invalidate();
+    }
+
+    public int addConstant(Constant constant) {
+        if (constants.size() >= MAX_CONSTANTS) {
+            throw new IllegalStateException("Too many constants in one module: limit is " + MAX_CONSTANTS);
+        }
+        constants.add(constant);
+        constantIndices.putIfAbsent(constant, constants.size() - 1);
+        // Appending a constant leaves existing code valid
+        constantValues = null;
+        return constants.size() - 1;
+    }
+
+    /**
+     * Registers a function that accepts any number of arguments and uses one
+     * local slot per argument.
+     */
+    public Function addFunction(String name, int offset) {
+        Function function = declareFunction(name, Function.UNCHECKED_ARITY);
+        defineFunction(function, offset, 0);
+        return function;
+    }
+
+    /**
+     * Declares a function so that calls to it can be emitted before its
+     * body. The function becomes the one {@link #getFunction} returns for
+     * its name.
+     */
+    public Function declareFunction(String name, int arity) {
+        return declareFunction(name, arity, null);
+    }
+
+    /**
+     * Declares a local function that is only called directly while the
+     * enclosing function's frame is live. Its body reads that frame's locals
+     * in place instead of through a closure.
+     */
+    public Function declareFunction(String name, int arity, Function enclosing) {
+        Function function = new Function(name, arity, enclosing);
+        functions.put(name, function);
+        functionList.add(function);
+        return function;
+    }
+
+    /**
+     * Adds an upvalue to a function and returns its index. The kind is one
+     * of the Function.CAPTURE_ constants and says where CLOSURE finds the
+     * variable: a local slot or upvalue of the code creating the closure.
+     */
+    public int addCapture(Function function, int kind, int index) {
+        if (kind < Function.CAPTURE_LOCAL || kind > Function.CAPTURE_ENCLOSING) {
+            throw new IllegalArgumentException("Invalid capture kind: " + kind);
+        }
+        return function.addCapture(kind, index);
+    }
+
+    /**
+     * Sets where a declared function's body starts and how many local slots
+     * it uses, counting its parameters. The offset is a byte offset into
+     * emitted code, or an instruction index for programs built from
+     * Instruction objects.
+     */
+    public void defineFunction(Function function, int offset, int frameSize) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset for " + function + ": " + offset);
+        }
+        function.define(offset, frameSize);
+        invalidate();
+    }
+
+    /**
+     * Adds an entry to the exception handler table of a function, or of the
+     * top-level code if the function is null. Entries must be added
+     * innermost first. Positions are byte offsets into emitted code, or
+     * instruction indices for programs built from Instruction objects; the
+     * handler's position is its catch code.
+     *
+     * @param firstLocal the first local slot declared in the covered code,
+     *     whose upvalues are closed when the handler catches
+     */
+    public ExceptionHandler addHandler(Function function, int start, int end, int target, int firstLocal) {
+        ExceptionHandler handler = new ExceptionHandler(function, firstLocal);
+        defineHandler(handler, start, end, target);
+        handlerList.add(handler);
+        if (function == null) {
+            handlers = Arrays.copyOf(handlers, handlers.length + 1);
+            handlers[handlers.length - 1] = handler;
+        } else {
+            function.addHandler(handler);
+        }
+        return handler;
+    }
+
+    /**
+     * Moves a handler's range and catch code, as an optimizer does after
+     * rewriting the program.
+     */
+    public void defineHandler(ExceptionHandler handler, int start, int end, int target) {
+        if (start < 0 || end < start || target < 0) {
+            throw new IllegalArgumentException("Invalid handler range [" + start + ", " + end + ") -> " + target);
+        }
+        handler.define(start, end, target);
+        invalidate();
+    }
+
+    /**
+     * Every exception handler in the order they were added.
+     */
+    public List<ExceptionHandler> getHandlers() {
+        return Collections.unmodifiableList(handlerList);
+    }
+
+    /**
+     * The linked handler table of a function, or of the top-level code if
+     * the function is null.
+     */
+    ExceptionHandler[] handlersOf(Function function) {
+        instructions();
+        return function == null ? handlers : function.getHandlers();
+    }
+
+    /**
+     * Attaches a register form of a function's body for the REGISTER
+     * engine. A function that captures or shares variables must run on
+     * the stack, so it cannot have one.
+     */
+    public void defineRegisterCode(Function function, RegisterCode registerCode) {
+        if (function.getEnclosing() != null || function.getUpvalueCount() > 0) {
+            throw new IllegalArgumentException("Register code cannot access enclosing variables: " + function);
+        }
+        function.setRegisterCode(registerCode);
     }
 
     public int getInstructionCount() {
-        return code.size();
+        return instructions().size();
     }
 
     public Instruction getInstruction(int index) {
-        if (index < 0 || index >= code.size()) {
+        List<Instruction> program = instructions();
+        if (index < 0 || index >= program.size()) {
             throw new IndexOutOfBoundsException("Instruction index out of bounds: " + index);
         }
-        return Instruction.fromByte(code.get(index));
+        return program.get(index);
+    }
+
+    /**
+     * Returns the program packed one instruction per int, opcode in the low
+     * byte and operand above it, followed by a HALT sentinel. Common
+     * sequences are fused into superinstructions (see
+     * {@link Superinstructions}), and the switch engines quicken generic
+     * instructions in place (see {@link Quickening}).
+     */
+    public int[] getPackedCode() {
+        if (packedCode == null) {
+            packedCode = Linker.pack(instructions(), this);
+            Superinstructions.fuse(packedCode);
+            typeFeedback = new byte[packedCode.length];
+            propertyCaches = new PropertyCache[packedCode.length];
+            methodCaches = new MethodCache[packedCode.length];
+            List<Instruction> program = instructions();
+            for (int i = 0; i < program.size(); i++) {
+                Instruction instruction = program.get(i);
+                if (instruction instanceof GetPropertyInstruction) {
+                    propertyCaches[i] = ((GetPropertyInstruction) instruction).getCache();
+                } else if (instruction instanceof SetPropertyInstruction) {
+                    propertyCaches[i] = ((SetPropertyInstruction) instruction).getCache();
+                } else if (instruction instanceof InvokeInstruction) {
+                    methodCaches[i] = ((InvokeInstruction) instruction).getCache();
+                }
+            }
+        }
+        return packedCode;
+    }
+
+    /**
+     * Returns the type feedback matching {@link #getPackedCode()}: one byte
+     * per instruction, recording the operand kinds it has seen.
+     *
+     * @see Quickening
+     */
+    byte[] getTypeFeedback() {
+        getPackedCode();
+        return typeFeedback;
+    }
+
+    /**
+     * Returns the inline caches of the property instructions, indexed like
+     * {@link #getPackedCode()} and null elsewhere. Each is the cache its
+     * Instruction object holds, so every engine fills the same one.
+     */
+    PropertyCache[] getPropertyCaches() {
+        getPackedCode();
+        return propertyCaches;
+    }
+
+    /**
+     * Returns the inline caches of the invoke instructions, indexed like
+     * {@link #getPackedCode()} and null elsewhere.
+     */
+    MethodCache[] getMethodCaches() {
+        getPackedCode();
+        return methodCaches;
+    }
+
+    /**
+     * Returns the unwrapped constant pool matching {@link #getPackedCode()}.
+     */
+    public Object[] getConstantValues() {
+        getPackedCode();
+        if (constantValues == null) {
+            Object[] values = new Object[constants.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = constants.get(i).getValue();
+            }
+            constantValues = values;
+        }
+        return constantValues;
     }
 
     public Integer getFunctionOffset(String name) {
-        // Assuming there is a map or list that stores function names and their offsets
-        // This is a placeholder implementation
-        return functionOffsets.get(name);
+        Function function = functions.get(name);
+        return function != null && function.isDefined() ? function.getOffset() : null;
+    }
+
+    /**
+     * Returns the function last declared under a name, linked to the
+     * current program, or null if there is none.
+     */
+    public Function getFunction(String name) {
+        instructions();
+        return functions.get(name);
+    }
+
+    /**
+     * Every declared function in declaration order, including ones whose
+     * name was later reused.
+     */
+    public List<Function> getFunctions() {
+        return Collections.unmodifiableList(functionList);
     }
 
     public Constant getConstant(int index) {
         if (index < 0 || index >= constants.size()) {
             throw new IndexOutOfBoundsException("Constant index out of bounds: " + index);
         }
-        return (Constant) constants.get(index);
+        return constants.get(index);
+    }
+
+    /**
+     * Returns the global slot table. Global names are resolved to slots when
+     * the program is linked; names defined at runtime are appended.
+     */
+    public GlobalTable getGlobals() {
+        return globals;
+    }
+
+    /**
+     * Returns the index of an equal constant in the pool, adding the
+     * constant if there is none.
+     */
+    public int constantIndex(Constant constant) {
+        Integer index = constantIndices.get(constant);
+        return index != null ? index : addConstant(constant);
+    }
+
+    private void emitShort(int value) {
+        emit((byte) (value >> 8));
+        emit((byte) value);
+    }
+
+    private List<Instruction> instructions() {
+        if (!decoded && !code.isEmpty()) {
+            int[] indexOf = Linker.index(code);
+            instructions.clear();
+            instructions.addAll(Linker.decode(code, indexOf, constants));
+            // Function bodies were registered by byte offset
+            for (Function function : functionList) {
+                if (!function.isDefined()) {
+                    continue;
+                }
+                int offset = function.getOffset();
+                if (offset >= indexOf.length || indexOf[offset] < 0) {
+                    throw new IllegalStateException(function + " does not start at an instruction: offset " + offset);
+                }
+                function.link(indexOf[offset]);
+            }
+            for (ExceptionHandler handler : handlerList) {
+                handler.link(linkedIndex(indexOf, handler.getStart()), linkedIndex(indexOf, handler.getEnd()),
+                    linkedIndex(indexOf, handler.getTarget()));
+            }
+            instructionLines = lineTable.toInstructions(indexOf);
+            decoded = true;
+        }
+        return instructions;
+    }
+
+    private static int linkedIndex(int[] indexOf, int offset) {
+        if (offset >= indexOf.length || indexOf[offset] < 0) {
+            throw new IllegalStateException("Exception handler does not start or end at an instruction: offset " + offset);
+        }
+        return indexOf[offset];
+    }
+
+    private void invalidate() {
+        decoded = false;
+        packedCode = null;
+        typeFeedback = null;
+        propertyCaches = null;
+        methodCaches = null;
+        constantValues = null;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,334 @@
+package com.velox.compiler.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes compiled programs as .vlxc files, so a source file that
+ * has not changed since its last run is not lexed, parsed and compiled
+ * again.
+ *
+ * A file starts with a header: the magic number, the format version, the
+ * number of opcodes the writer knew, and a SHA-256 hash of the source it
+ * was compiled from. A file whose header does not match the running
+ * compiler or the current source is stale, and {@link #read} returns null
+ * so the caller recompiles. Files are read by memory-mapping them.
+ *
+ * After the header come the code bytes, the line table as runs, the
+ * functions in declaration order, the exception handlers, and the constant
+ * pool. A FUNCTION constant is stored as the index of its function. Global
+ * slots are not stored: they are resolved again when the loaded program is
+ * linked.
+ */
+public final class BytecodeFile {
+    /** File name extension of cache files. */
+    public static final String EXTENSION = ".vlxc";
+
+    private static final int MAGIC = 0x564C5843; // "VLXC"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HASH_LENGTH = 32;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_BOOLEAN = 1;
+    private static final int TAG_INTEGER = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_FLOAT = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_STRING = 6;
+    private static final int TAG_FUNCTION = 7;
+
+    private BytecodeFile() {
+    }
+
+    /**
+     * Returns the key a cache file is stored under: the SHA-256 hash of the
+     * source text.
+     */
+    public static byte[] hash(String source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Returns where the cache file of a source file lives: next to it, with
+     * the source's extension replaced by .vlxc.
+     */
+    public static Path cachePath(Path source) {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return source.resolveSibling(base + EXTENSION);
+    }
+
+    /**
+     * Writes a program to a cache file keyed by the hash of its source. The
+     * file is written beside the target and moved into place, so a
+     * concurrent reader sees either the old file or the complete new one.
+     */
+    public static void write(Bytecode bytecode, byte[] sourceHash, Path path) throws IOException {
+        if (sourceHash.length != HASH_LENGTH) {
+            throw new IllegalArgumentException("Expected a " + HASH_LENGTH + "-byte source hash");
+        }
+        if (bytecode.getCode().isEmpty() && bytecode.getInstructionCount() > 0) {
+            throw new IllegalArgumentException("Only emitted code can be cached");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeShort(OpCode.values().length);
+        out.write(sourceHash);
+
+        List<Byte> code = bytecode.getCode();
+        out.writeInt(code.size());
+        for (Byte b : code) {
+            out.writeByte(b);
+        }
+        LineTable lines = bytecode.getLineTable();
+        out.writeInt(lines.size());
+        for (int run = 0; run < lines.size(); run++) {
+            out.writeInt(lines.getStart(run));
+            out.writeInt(lines.getRunLine(run));
+        }
+
+        List<Function> functions = bytecode.getFunctions();
+        Map<Function, Integer> functionIndices = new IdentityHashMap<>();
+        for (int i = 0; i < functions.size(); i++) {
+            functionIndices.put(functions.get(i), i);
+        }
+        out.writeInt(functions.size());
+        for (Function function : functions) {
+            writeString(out, function.getName());
+            out.writeInt(function.getArity());
+            Function enclosing = function.getEnclosing();
+            out.writeInt(enclosing != null ? functionIndices.get(enclosing) : -1);
+            out.writeInt(function.getOffset());
+            out.writeInt(function.getFrameSize());
+            out.writeShort(function.getUpvalueCount());
+            for (int i = 0; i < function.getUpvalueCount(); i++) {
+                out.writeByte(function.getCaptureKind(i));
+                out.writeShort(function.getCaptureIndex(i));
+            }
+        }
+
+        List<ExceptionHandler> handlers = bytecode.getHandlers();
+        out.writeInt(handlers.size());
+        for (ExceptionHandler handler : handlers) {
+            Function function = handler.getFunction();
+            out.writeInt(function != null ? functionIndices.get(function) : -1);
+            out.writeInt(handler.getStart());
+            out.writeInt(handler.getEnd());
+            out.writeInt(handler.getTarget());
+            out.writeInt(handler.getFirstLocal());
+        }
+
+        List<Constant> constants = bytecode.getConstants();
+        out.writeInt(constants.size());
+        for (Constant constant : constants) {
+            out.writeByte(constant.getType().ordinal());
+            writeValue(out, constant.getValue(), functionIndices);
+        }
+        out.flush();
+
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes.toByteArray());
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Loads a program from a cache file, or returns null if there is no
+     * file or it is stale: written by another format version or instruction
+     * set, or compiled from a source with a different hash. A file that is
+     * current but cannot be decoded is reported as an IOException.
+     */
+    public static Bytecode read(Path path, byte[] sourceHash) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            if (buffer.remaining() < 8 + HASH_LENGTH
+                    || buffer.getInt() != MAGIC
+                    || buffer.getShort() != FORMAT_VERSION
+                    || buffer.getShort() != OpCode.values().length) {
+                return null;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            buffer.get(hash);
+            if (!Arrays.equals(hash, sourceHash)) {
+                return null;
+            }
+            return decode(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Malformed bytecode cache " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Bytecode decode(ByteBuffer buffer) {
+        Bytecode bytecode = new Bytecode();
+
+        byte[] code = new byte[count(buffer)];
+        buffer.get(code);
+        int runs = count(buffer);
+        LineTable lines = new LineTable();
+        for (int run = 0; run < runs; run++) {
+            lines.add(buffer.getInt(), buffer.getInt());
+        }
+        bytecode.appendCode(code, lines);
+
+        int functionCount = count(buffer);
+        List<Function> functions = new ArrayList<>(functionCount);
+        for (int i = 0; i < functionCount; i++) {
+            String name = readString(buffer);
+            int arity = buffer.getInt();
+            int enclosing = buffer.getInt();
+            if (enclosing >= i) {
+                throw new IllegalStateException("Function " + name + " is enclosed by a later function");
+            }
+            Function function = bytecode.declareFunction(name, arity, enclosing >= 0 ? functions.get(enclosing) : null);
+            int offset = buffer.getInt();
+            int frameSize = buffer.getInt();
+            if (offset >= 0) {
+                bytecode.defineFunction(function, offset, frameSize);
+            }
+            int upvalueCount = Short.toUnsignedInt(buffer.getShort());
+            for (int j = 0; j < upvalueCount; j++) {
+                int kind = buffer.get();
+                bytecode.addCapture(function, kind, Short.toUnsignedInt(buffer.getShort()));
+            }
+            functions.add(function);
+        }
+
+        int handlerCount = count(buffer);
+        for (int i = 0; i < handlerCount; i++) {
+            int function = buffer.getInt();
+            if (function < -1 || function >= functions.size()) {
+                throw new IllegalStateException("Exception handler of unknown function " + function);
+            }
+            bytecode.addHandler(function >= 0 ? functions.get(function) : null,
+                buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+        }
+
+        int constantCount = count(buffer);
+        Constant.ConstantType[] types = Constant.ConstantType.values();
+        for (int i = 0; i < constantCount; i++) {
+            int type = Byte.toUnsignedInt(buffer.get());
+            if (type >= types.length) {
+                throw new IllegalStateException("Unknown constant type " + type);
+            }
+            bytecode.addConstant(new Constant(readValue(buffer, functions), types[type]));
+        }
+        if (buffer.hasRemaining()) {
+            throw new IllegalStateException(buffer.remaining() + " trailing bytes");
+        }
+        return bytecode;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value, Map<Function, Integer> functions)
+            throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Function && functions.containsKey(value)) {
+            out.writeByte(TAG_FUNCTION);
+            out.writeInt(functions.get(value));
+        } else {
+            throw new IllegalArgumentException("Cannot cache constant: " + value);
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer, List<Function> functions) {
+        int tag = buffer.get();
+        switch (tag) {
+            case TAG_NULL: return null;
+            case TAG_BOOLEAN: return buffer.get() != 0;
+            case TAG_INTEGER: return buffer.getInt();
+            case TAG_LONG: return buffer.getLong();
+            case TAG_FLOAT: return buffer.getFloat();
+            case TAG_DOUBLE: return buffer.getDouble();
+            case TAG_STRING: return readString(buffer);
+            case TAG_FUNCTION: {
+                int index = buffer.getInt();
+                if (index < 0 || index >= functions.size()) {
+                    throw new IllegalStateException("Function index out of bounds: " + index);
+                }
+                return functions.get(index);
+            }
+            default:
+                throw new IllegalStateException("Unknown constant tag " + tag);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[count(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a length and checks it against what is left of the file, so a
+     * corrupt length fails before anything is allocated for it.
+     */
+    private static int count(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalStateException("Invalid length " + count);
+        }
+        return count;
+    }
+}
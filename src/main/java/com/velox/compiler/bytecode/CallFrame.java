@@ -1,35 +1,171 @@
 package com.velox.compiler.bytecode;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ * An activation record. A function's frame is a window into the VM's
+ * operand stack: its arguments are already in place there when it is called
+ * and become locals 0..n-1, so entering and leaving a frame copies and
+ * allocates nothing. The VM keeps one CallFrame per call depth and reuses it.
+ *
+ * Frames created through the public constructor own their locals instead;
+ * the VM uses one for the top-level script.
+ */
 public class CallFrame {
-    private final int returnAddress;
-    private final List<Object> locals;
-    private final int basePointer;
+    private int returnAddress;
+    private int basePointer;
+    private int resultSlot;
+    private int size;
+    private Function function;
+    private Closure closure;
+    private CallFrame enclosing;
+    private Object[] registers;
+    private long[] primitives;
+    private final boolean ownsRegisters;
 
     public CallFrame(int returnAddress, int numLocals, int basePointer) {
         this.returnAddress = returnAddress;
-        this.locals = new ArrayList<>(numLocals);
-        for (int i = 0; i < numLocals; i++) {
-            locals.add(null);
-        }
+        this.registers = new Object[Math.max(numLocals, 4)];
+        this.primitives = new long[registers.length];
+        this.basePointer = 0;
+        this.size = registers.length;
+        this.ownsRegisters = true;
+    }
+
+    /**
+     * Creates a frame that windows into the given register file.
+     */
+    CallFrame(Object[] registers, long[] primitives) {
+        this.registers = registers;
+        this.primitives = primitives;
+        this.ownsRegisters = false;
+    }
+
+    /**
+     * Points a windowed frame at a new activation.
+     */
+    void enter(int returnAddress, int basePointer, int size, int resultSlot,
+               Function function, Closure closure, CallFrame enclosing) {
+        this.returnAddress = returnAddress;
         this.basePointer = basePointer;
+        this.size = size;
+        this.resultSlot = resultSlot;
+        this.function = function;
+        this.closure = closure;
+        this.enclosing = enclosing;
     }
 
     public int getReturnAddress() {
         return returnAddress;
     }
 
+    /**
+     * Index of local 0 in the operand stack, or 0 for a frame that owns its
+     * locals.
+     */
+    public int getBasePointer() {
+        return basePointer;
+    }
+
+    /**
+     * Stack slot that receives the function's result: the callee's slot for
+     * CALL, or the first argument's for CALL_DIRECT, which pushes no callee.
+     */
+    public int getResultSlot() {
+        return resultSlot;
+    }
+
+    /**
+     * The function running in this frame, or null for the top-level script.
+     */
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * The closure being run, or null if the function was called without one.
+     */
+    public Closure getClosure() {
+        return closure;
+    }
+
+    /**
+     * The live frame of the function's enclosing function, for local
+     * functions that read it in place; otherwise null.
+     */
+    public CallFrame getEnclosing() {
+        return enclosing;
+    }
+
+    /**
+     * Number of local slots the frame holds.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * First operand stack slot above the frame's locals, where its
+     * expression temporaries start.
+     */
+    int getStackBase() {
+        return ownsRegisters ? 0 : basePointer + size;
+    }
+
     public Object getLocal(int index) {
-        return locals.get(index);
+        if (index >= size) {
+            if (ownsRegisters) {
+                return null;
+            }
+            throw outsideFrame(index);
+        }
+        return Slots.box(registers, primitives, basePointer + index);
     }
 
     public void setLocal(int index, Object value) {
-        locals.set(index, value);
+        ensureCapacity(index);
+        registers[basePointer + index] = value;
     }
 
-    public int getBasePointer() {
-        return basePointer;
+    /**
+     * Copies a local, tag and unboxed bits, onto the stack at sp.
+     */
+    void load(int index, Object[] stack, long[] stackPrimitives, int sp) {
+        if (index >= size) {
+            if (ownsRegisters) {
+                stack[sp] = null;
+                return;
+            }
+            throw outsideFrame(index);
+        }
+        stack[sp] = registers[basePointer + index];
+        stackPrimitives[sp] = primitives[basePointer + index];
+    }
+
+    /**
+     * Copies the stack slot at sp, tag and unboxed bits, into a local.
+     */
+    void store(int index, Object[] stack, long[] stackPrimitives, int sp) {
+        ensureCapacity(index);
+        registers[basePointer + index] = stack[sp];
+        primitives[basePointer + index] = stackPrimitives[sp];
+    }
+
+    private void ensureCapacity(int index) {
+        if (index < size) {
+            return;
+        }
+        if (!ownsRegisters) {
+            throw outsideFrame(index);
+        }
+        // Top-level locals are not known up front, so grow on demand
+        int newSize = Math.max(index + 1, registers.length * 2);
+        registers = Arrays.copyOf(registers, newSize);
+        primitives = Arrays.copyOf(primitives, newSize);
+        size = newSize;
+    }
+
+    private RuntimeException outsideFrame(int index) {
+        return new RuntimeException("Local slot " + index + " is outside a frame of " + size + " slots");
     }
-} 
\ No newline at end of file
+}
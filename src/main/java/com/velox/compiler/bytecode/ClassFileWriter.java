@@ -0,0 +1,409 @@
+package com.velox.compiler.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the small subset of the JVM class file format that the JIT and
+ * ahead-of-time compilation need: a constant pool, fields, and methods
+ * with code.
+ *
+ * Classes are written as version 49, whose verifier infers types itself,
+ * so no stack map frames are needed. Methods are limited to the 32K of
+ * code that 16-bit branch offsets can span.
+ */
+public final class ClassFileWriter {
+    public static final int VERSION = 49;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    public ClassFileWriter(String name, String superName, String... interfaceNames) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    public int utf8(String value) {
+        return entry("U" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    public int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        });
+    }
+
+    public int string(String value) {
+        int utf8 = utf8(value);
+        return entry("S" + value, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(utf8);
+        });
+    }
+
+    public int integer(int value) {
+        return entry("I" + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    /**
+     * A double takes two pool slots.
+     */
+    public int doubleConstant(double value) {
+        return entry("D" + Double.doubleToRawLongBits(value), 2, out -> {
+            out.writeByte(6);
+            out.writeDouble(value);
+        });
+    }
+
+    public int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    public int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    public int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(11, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        return entry(tag + owner + "." + name + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return entry("N" + name + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, int slots, EntryWriter writer) {
+        Integer index = entries.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            writer.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        index = poolCount;
+        poolCount += slots;
+        if (poolCount > 0xFFFF) {
+            throw new IllegalStateException("Constant pool overflow");
+        }
+        entries.put(key, index);
+        return index;
+    }
+
+    public void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Starts a method. Its code is written through the returned builder and
+     * taken when the class is written. maxLocals must count the receiver
+     * and parameters.
+     */
+    public Code method(int access, String name, String descriptor, int maxLocals) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), maxLocals);
+        methods.add(code);
+        return code;
+    }
+
+    public byte[] toByteArray() {
+        int codeAttribute = utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int index : interfaces) {
+                out.writeShort(index);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (Code method : methods) {
+                method.write(out, codeAttribute);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Bytecode of one method. Branches go to labels, which are resolved
+     * when the method is written; the deepest operand stack is tracked from
+     * the stack effect each caller passes in.
+     */
+    public static final class Code {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private int maxLocals;
+        private byte[] code = new byte[256];
+        private int length;
+        private int stack;
+        private int maxStack;
+        private int[] labels = new int[16];
+        private int labelCount;
+        // Offset of each branch instruction and its label, then for switch
+        // entries where the four-byte offset goes
+        private final List<int[]> branches = new ArrayList<>();
+
+        private Code(int access, int name, int descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Emits an instruction without operands that changes the depth of
+         * the operand stack by delta slots.
+         */
+        public void op(int opcode, int delta) {
+            u1(opcode);
+            adjust(delta);
+        }
+
+        /**
+         * Emits an instruction with a two-byte operand such as a pool index.
+         */
+        public void op(int opcode, int operand, int delta) {
+            u1(opcode);
+            u2(operand);
+            adjust(delta);
+        }
+
+        public void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(0x10);
+                u1(value);
+                adjust(1);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(0x11);
+                u2(value);
+                adjust(1);
+            } else {
+                throw new IllegalArgumentException("Use ldc for " + value);
+            }
+        }
+
+        /**
+         * Loads a single-slot pool constant.
+         */
+        public void ldc(int index) {
+            if (index < 256) {
+                u1(0x12);
+                u1(index);
+                adjust(1);
+            } else {
+                op(0x13, index, 1);
+            }
+        }
+
+        /**
+         * Loads or stores a local with the given xload/xstore opcode,
+         * widening the index if it needs to be.
+         */
+        public void local(int opcode, int index, int delta) {
+            if (index > 255) {
+                u1(0xC4);
+                u1(opcode);
+                u2(index);
+            } else {
+                u1(opcode);
+                u1(index);
+            }
+            adjust(delta);
+            int slots = opcode == 0x18 || opcode == 0x39 ? 2 : 1;
+            maxLocals = Math.max(maxLocals, index + slots);
+        }
+
+        public int newLabel() {
+            if (labelCount == labels.length) {
+                labels = Arrays.copyOf(labels, labelCount * 2);
+            }
+            labels[labelCount] = -1;
+            return labelCount++;
+        }
+
+        /**
+         * Places a label here. Code at a label starts with an empty operand
+         * stack.
+         */
+        public void mark(int label) {
+            mark(label, 0);
+        }
+
+        /**
+         * Places a label where every branch to it leaves stack slots on
+         * the operand stack.
+         */
+        public void mark(int label, int stack) {
+            labels[label] = length;
+            this.stack = stack;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        public void jump(int opcode, int label, int delta) {
+            branches.add(new int[] {length, label});
+            u1(opcode);
+            u2(0);
+            adjust(delta);
+        }
+
+        /**
+         * Emits a lookupswitch on the int on the stack.
+         */
+        public void lookupSwitch(int defaultLabel, int[] keys, int[] targets) {
+            int start = length;
+            u1(0xAB);
+            while (length % 4 != 0) {
+                u1(0);
+            }
+            branches.add(new int[] {start, defaultLabel, length});
+            u4(0);
+            u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                u4(keys[i]);
+                branches.add(new int[] {start, targets[i], length});
+                u4(0);
+            }
+            adjust(-1);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void u1(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        private void write(DataOutputStream out, int codeAttribute) throws IOException {
+            if (length > Short.MAX_VALUE) {
+                throw new IllegalStateException("Method too large: " + length + " bytes");
+            }
+            for (int[] branch : branches) {
+                int target = labels[branch[1]];
+                if (target < 0) {
+                    throw new IllegalStateException("Unplaced label " + branch[1]);
+                }
+                int offset = target - branch[0];
+                if (branch.length == 3) {
+                    // A four-byte switch offset
+                    int at = branch[2];
+                    code[at] = (byte) (offset >>> 24);
+                    code[at + 1] = (byte) (offset >>> 16);
+                    code[at + 2] = (byte) (offset >>> 8);
+                    code[at + 3] = (byte) offset;
+                } else {
+                    code[branch[0] + 1] = (byte) (offset >> 8);
+                    code[branch[0] + 2] = (byte) offset;
+                }
+            }
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+}
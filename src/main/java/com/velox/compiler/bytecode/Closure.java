@@ -0,0 +1,28 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * A function value together with the variables it captured. Functions that
+ * capture nothing are used as values directly, without a closure.
+ */
+public final class Closure {
+    private final Function function;
+    final Upvalue[] upvalues;
+
+    Closure(Function function, Upvalue[] upvalues) {
+        this.function = function;
+        this.upvalues = upvalues;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public int getUpvalueCount() {
+        return upvalues.length;
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
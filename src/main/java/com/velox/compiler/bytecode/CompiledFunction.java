@@ -0,0 +1,21 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * A function's register code compiled to a JVM class by {@link JitCompiler}.
+ */
+interface CompiledFunction {
+    /** Entry that starts a function from the top. */
+    int START = -1;
+
+    /**
+     * Runs the function in the register window starting at base. An entry
+     * of START starts it from the top with its arguments in the window; any
+     * other entry is the target of a loop's back edge, where it resumes
+     * from the state the interpreter left in the window.
+     *
+     * Returns the function's result, or {@link JitRuntime#DEOPTIMIZE} after
+     * writing its state back into the window and the instruction to resume
+     * at into the VM, when an assumption it was compiled under fails.
+     */
+    Object run(VirtualMachine vm, int base, int entry);
+}
@@ -11,6 +11,19 @@ public class Constant {
         this.type = type;
     }
 
+    /**
+     * Wraps a literal value, inferring its constant type.
+     */
+    public static Constant of(Object value) {
+        if (value == null) return new Constant(null, ConstantType.NULL);
+        if (value instanceof String) return new Constant(value, ConstantType.STRING);
+        if (value instanceof Boolean) return new Constant(value, ConstantType.BOOLEAN);
+        if (value instanceof Double || value instanceof Float) return new Constant(value, ConstantType.FLOAT);
+        if (value instanceof Number) return new Constant(value, ConstantType.INTEGER);
+        if (value instanceof Function) return new Constant(value, ConstantType.FUNCTION);
+        throw new IllegalArgumentException("Unsupported constant type: " + value.getClass());
+    }
+
     public Object getValue() {
         return value;
     }
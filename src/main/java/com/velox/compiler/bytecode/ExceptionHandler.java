@@ -0,0 +1,87 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * An entry in a function's exception handler table, compiled from a try
+ * statement: an exception raised by an instruction from start up to but
+ * not including end continues at the handler. The operand stack is cut
+ * back to the frame's locals, the upvalues of locals declared from
+ * firstLocal on are closed, and the thrown value is pushed for the catch
+ * block to store.
+ *
+ * A function lists its handlers innermost first, so the first whose range
+ * covers an instruction is the one that catches there. The top-level code
+ * has a table of its own, with a null function.
+ *
+ * As with function bodies, positions are registered as byte offsets into
+ * emitted code, or instruction indices for programs built from Instruction
+ * objects, and linked to instruction indices when the code is decoded.
+ */
+public final class ExceptionHandler {
+    private final Function function;
+    private final int firstLocal;
+    private int start;
+    private int end;
+    private int target;
+    // Instruction indices of the above once linked
+    int startIndex;
+    int endIndex;
+    int targetIndex;
+
+    ExceptionHandler(Function function, int firstLocal) {
+        this.function = function;
+        this.firstLocal = firstLocal;
+    }
+
+    /**
+     * The function whose code the handler covers, or null for the
+     * top-level code.
+     */
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * First local slot declared inside the try block.
+     */
+    public int getFirstLocal() {
+        return firstLocal;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Whether the handler catches exceptions raised by the instruction at
+     * an index.
+     */
+    boolean covers(int index) {
+        return index >= startIndex && index < endIndex;
+    }
+
+    void define(int start, int end, int target) {
+        this.start = start;
+        this.end = end;
+        this.target = target;
+        link(start, end, target);
+    }
+
+    void link(int startIndex, int endIndex, int targetIndex) {
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+        this.targetIndex = targetIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ") -> " + target;
+    }
+}
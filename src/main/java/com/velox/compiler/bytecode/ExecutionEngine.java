@@ -0,0 +1,29 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * Interpreter loops a VirtualMachine can run a program with. All run the
+ * same Bytecode and share the VM's stack, frames and globals.
+ */
+public enum ExecutionEngine {
+    /**
+     * Fetches an Instruction object per step and calls its execute method.
+     */
+    INSTRUCTION,
+
+    /**
+     * Decodes the packed int[] form inline in a single switch loop.
+     */
+    SWITCH,
+
+    /**
+     * Runs like SWITCH, except that functions that have {@link RegisterCode}
+     * run it on the register interpreter loop instead.
+     */
+    REGISTER,
+
+    /**
+     * Runs like REGISTER, and compiles register code that gets hot to JVM
+     * bytecode; see {@link VirtualMachine#setJitThreshold}.
+     */
+    JIT
+}
@@ -0,0 +1,39 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * Receives events from a VirtualMachine that runs with a listener set; see
+ * {@link VirtualMachine#setExecutionListener}. A VM with a listener runs the
+ * program on a separate instrumented loop over Instruction objects,
+ * whatever its engine, so the other loops carry no checks for one.
+ *
+ * Events arrive before an instruction runs, after it enters or leaves a
+ * function, and when it raises an exception, before any handler is looked
+ * for. A listener can inspect the VM's stack and frames, and stop() it to
+ * end the run before an instruction. A stopped run cannot be continued:
+ * execute() starts the program over.
+ */
+public interface ExecutionListener {
+    /**
+     * The instruction at an index is about to run.
+     */
+    default void onInstruction(VirtualMachine vm, int index) {
+    }
+
+    /**
+     * A call entered a function; its frame is the VM's current one.
+     */
+    default void onCall(VirtualMachine vm, Function function) {
+    }
+
+    /**
+     * A function returned; its result is on top of the stack.
+     */
+    default void onReturn(VirtualMachine vm, Function function) {
+    }
+
+    /**
+     * The instruction at an index raised an exception.
+     */
+    default void onThrow(VirtualMachine vm, RuntimeException exception, int index) {
+    }
+}
@@ -0,0 +1,165 @@
+package com.velox.compiler.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * A compiled function as a runtime value. Function objects live in the
+ * constant pool: CALL takes one from the stack, and CALL_DIRECT names one
+ * by constant index, so a call never looks its target up by name.
+ *
+ * A function is declared with its arity before its body is emitted, so
+ * calls can refer to it ahead of its definition; the body's location and
+ * frame size are filled in by {@link Bytecode#defineFunction}.
+ *
+ * A function that captures variables lists them as captures, and CLOSURE
+ * turns it into a {@link Closure} holding one upvalue per capture. A local
+ * function that never escapes instead has an enclosing function: it is only
+ * ever called directly while that function's frame is live, and reads the
+ * frame's locals in place with GET_ENCLOSING and SET_ENCLOSING.
+ *
+ * A function whose body has try statements has a table of
+ * {@link ExceptionHandler}s saying where exceptions raised in it are caught.
+ *
+ * A function may also carry its body as {@link RegisterCode}, which the
+ * REGISTER engine runs instead of the stack code.
+ */
+public final class Function {
+    /** Arity of functions registered without one; any argument count is accepted. */
+    public static final int UNCHECKED_ARITY = -1;
+
+    /** Captures a local of the frame creating the closure. */
+    public static final int CAPTURE_LOCAL = 0;
+    /** Captures an upvalue of the closure creating the closure. */
+    public static final int CAPTURE_UPVALUE = 1;
+    /** Captures a local of the enclosing frame of the function creating the closure. */
+    public static final int CAPTURE_ENCLOSING = 2;
+
+    private final String name;
+    private final int arity;
+    private final Function enclosing;
+    private int offset = -1;
+    private int entry = -1;
+    private int frameSize;
+    private int[] captureKinds = new int[0];
+    private int[] captureIndices = new int[0];
+    private RegisterCode registerCode;
+    private ExceptionHandler[] handlers = new ExceptionHandler[0];
+
+    Function(String name, int arity, Function enclosing) {
+        this.name = name;
+        this.arity = arity;
+        this.enclosing = enclosing;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of parameters, or {@link #UNCHECKED_ARITY}.
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * Number of local slots the body uses, counting its parameters.
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Where the body starts as registered: a byte offset into emitted code,
+     * or an instruction index for programs built from Instruction objects.
+     * Returns -1 if the function has only been declared.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Instruction index of the first instruction of the body, or -1 if the
+     * function has only been declared.
+     */
+    public int getEntry() {
+        return entry;
+    }
+
+    /**
+     * The function whose frame this one reads in place, or null.
+     */
+    public Function getEnclosing() {
+        return enclosing;
+    }
+
+    public int getUpvalueCount() {
+        return captureKinds.length;
+    }
+
+    /**
+     * One of the CAPTURE_ constants, saying where an upvalue is found when a
+     * closure is created.
+     */
+    public int getCaptureKind(int upvalue) {
+        return captureKinds[upvalue];
+    }
+
+    /**
+     * The local slot or upvalue index an upvalue is captured from.
+     */
+    public int getCaptureIndex(int upvalue) {
+        return captureIndices[upvalue];
+    }
+
+    /**
+     * The body in register form, or null if it has only stack code.
+     */
+    public RegisterCode getRegisterCode() {
+        return registerCode;
+    }
+
+    /**
+     * The function's exception handler table, innermost handlers first.
+     */
+    ExceptionHandler[] getHandlers() {
+        return handlers;
+    }
+
+    public boolean isDefined() {
+        return offset >= 0;
+    }
+
+    void define(int offset, int frameSize) {
+        this.offset = offset;
+        this.entry = offset;
+        this.frameSize = frameSize;
+    }
+
+    void setRegisterCode(RegisterCode registerCode) {
+        this.registerCode = registerCode;
+    }
+
+    int addCapture(int kind, int index) {
+        int count = captureKinds.length;
+        captureKinds = Arrays.copyOf(captureKinds, count + 1);
+        captureIndices = Arrays.copyOf(captureIndices, count + 1);
+        captureKinds[count] = kind;
+        captureIndices[count] = index;
+        return count;
+    }
+
+    void addHandler(ExceptionHandler handler) {
+        handlers = Arrays.copyOf(handlers, handlers.length + 1);
+        handlers[handlers.length - 1] = handler;
+    }
+
+    void link(int entry) {
+        this.entry = entry;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,46 @@
+package com.velox.compiler.bytecode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each global name an integer slot. Slots are handed out in order and
+ * never reassigned, so a slot resolved once stays valid for the lifetime of
+ * the table and can be cached by instructions.
+ */
+public final class GlobalTable {
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Returns the slot for a name, assigning the next free one if the name
+     * has not been seen.
+     */
+    public int resolve(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = names.size();
+            slots.put(name, slot);
+            names.add(name);
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the slot for a name, or -1 if it has none.
+     */
+    public int lookup(String name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    public String getName(int slot) {
+        return names.get(slot);
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
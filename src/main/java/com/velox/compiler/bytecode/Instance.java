@@ -0,0 +1,75 @@
+package com.velox.compiler.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * An instance of a {@link VeloxClass}. Its fields live in an array, laid
+ * out by its {@link Shape}; assigning a field it does not have yet moves it
+ * to the next shape. The lookups here by name are the slow path, taken when
+ * a {@link PropertyCache} misses.
+ */
+public final class Instance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    private final VeloxClass klass;
+    Shape shape;
+    Object[] fields;
+
+    public Instance(VeloxClass klass) {
+        this.klass = klass;
+        this.shape = klass.getRootShape();
+        this.fields = klass.fieldCapacity == 0 ? NO_FIELDS : new Object[klass.fieldCapacity];
+    }
+
+    public VeloxClass getKlass() {
+        return klass;
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * A field, or a method bound to this instance if no field has the name.
+     */
+    public Object get(String name) {
+        int slot = shape.slot(name);
+        if (slot >= 0) {
+            return fields[slot];
+        }
+        Object method = klass.findMethod(name);
+        if (method == null) {
+            throw new RuntimeException("Undefined property: " + name);
+        }
+        return new BoundMethod(this, method);
+    }
+
+    public void set(String name, Object value) {
+        int slot = shape.slot(name);
+        if (slot < 0) {
+            slot = grow(shape.with(name));
+        }
+        fields[slot] = value;
+    }
+
+    /**
+     * Moves to a shape with one more field, and returns the new field's
+     * index.
+     */
+    int grow(Shape next) {
+        int slot = shape.size();
+        if (slot == fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, slot * 2));
+        }
+        if (slot + 1 > klass.fieldCapacity) {
+            klass.fieldCapacity = slot + 1;
+        }
+        shape = next;
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + klass.getName() + " instance>";
+    }
+}
@@ -1,17 +1,18 @@
 package com.velox.compiler.bytecode;
 
-import java.util.Map;
-import java.util.HashMap;
-
 public interface Instruction {
     void execute(VirtualMachine vm);
     String toString();
 
-    static Instruction fromByte(Byte b) {
-        // Assuming there is a mapping from byte values to Instruction objects
-        // This is a placeholder implementation
-        return instructionMap.get(b);
-    }
+    /**
+     * The opcode this instruction is encoded as.
+     */
+    OpCode getOpCode();
 
-    public static final Map<Byte, Instruction> instructionMap = new HashMap<>();
-} 
\ No newline at end of file
+    /**
+     * The inline operand, or 0 if the opcode takes none.
+     */
+    default int getOperand() {
+        return 0;
+    }
+}
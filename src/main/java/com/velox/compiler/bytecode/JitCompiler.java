@@ -0,0 +1,331 @@
+package com.velox.compiler.bytecode;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compiles a function's register code to a JVM class implementing
+ * {@link CompiledFunction}, loaded as a hidden class so it can be unloaded
+ * once the function is no longer reachable. HotSpot then compiles the
+ * class like any other Java code.
+ *
+ * Generic arithmetic and comparisons the interpreter has only ever seen
+ * applied to numbers are compiled for numbers alone, behind a type check:
+ * if the check fails, the compiled code writes every register back into
+ * its window, records where it stopped, and returns
+ * {@link JitRuntime#DEOPTIMIZE} for the interpreter to carry on from there.
+ * Operations seen with anything else, or never run, call
+ * {@link Operators}.
+ *
+ * The targets of back edges are entry points too, so a function the
+ * interpreter is stuck in a long loop of can switch to compiled code at
+ * the loop's next iteration.
+ */
+final class JitCompiler extends RegisterTranslator {
+    /** Feedback bit: the operation has run with only numbers as operands. */
+    static final byte SEEN_NUMBERS = 1;
+    /** Feedback bit: the operation has run with some other operand. */
+    static final byte SEEN_OTHER = 2;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final String PACKAGE = "com/velox/compiler/bytecode/";
+    private static final String VM = PACKAGE + "VirtualMachine";
+    private static final String RUNTIME = PACKAGE + "JitRuntime";
+    private static final String RUN_DESCRIPTOR = "(L" + VM + ";II)Ljava/lang/Object;";
+
+    // Locals of run besides the registers'
+    private static final int THIS = 0;
+    private static final int MACHINE = 1;
+    private static final int BASE = 2;
+    private static final int ENTRY = 3;
+    private static final int DEOPTIMIZE_AT = 4;
+    private static final int OBJECT_WINDOW = 5;
+    private static final int NUMBER_WINDOW = 6;
+    private static final int FIRST_REGISTER = 7;
+
+    private final Function function;
+    private final String className;
+    private final Map<Integer, Integer> deoptimizationLabels = new TreeMap<>();
+
+    private JitCompiler(Function function, String className) {
+        super(new ClassFileWriter(className, OBJECT, PACKAGE + "CompiledFunction"), function.getRegisterCode());
+        this.function = function;
+        this.className = className;
+    }
+
+    /**
+     * Compiles a function that has register code, or returns null if its
+     * code is too large for a JVM method.
+     */
+    static CompiledFunction compile(Function function) {
+        String className = PACKAGE + "Compiled$" + function.getName().replaceAll("[^A-Za-z0-9_]", "_");
+        JitCompiler compiler = new JitCompiler(function, className);
+        byte[] bytes = compiler.generate();
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(bytes, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+                MethodType.methodType(void.class, Object[].class));
+            return (CompiledFunction) constructor.invoke(compiler.constants);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot load compiled " + function, e);
+        }
+    }
+
+    private byte[] generate() {
+        assignLocals(function.getArity(), FIRST_REGISTER);
+        writer.field(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "constants", "[Ljava/lang/Object;");
+        emitConstructor();
+        out = writer.method(ClassFileWriter.ACC_PUBLIC, "run", RUN_DESCRIPTOR, FIRST_REGISTER);
+        emitPrologue();
+        emitBody();
+        emitDeoptimization();
+        if (out.length() > Short.MAX_VALUE) {
+            return null;
+        }
+        return writer.toByteArray();
+    }
+
+    private void emitConstructor() {
+        ClassFileWriter.Code init = writer.method(ClassFileWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", 2);
+        init.local(ALOAD, THIS, 1);
+        init.op(INVOKESPECIAL, writer.methodRef(OBJECT, "<init>", "()V"), -1);
+        init.local(ALOAD, THIS, 1);
+        init.local(ALOAD, 1, 1);
+        init.op(PUTFIELD, writer.fieldRef(className, "constants", "[Ljava/lang/Object;"), -2);
+        init.op(RETURN, 0);
+    }
+
+    /**
+     * Clears every register local so the verifier sees them assigned, then
+     * either takes the arguments and starts at the top, or reloads every
+     * register from the window and jumps to the loop entry asked for.
+     */
+    private void emitPrologue() {
+        int registerCount = registerCode.getRegisterCount();
+        for (int r = 0; r < registerCount; r++) {
+            if (objectLocal(r) >= 0) {
+                out.op(ACONST_NULL, 1);
+                out.local(ASTORE, objectLocal(r), -1);
+            }
+            if (numberLocal(r) >= 0) {
+                out.op(DCONST_0, 2);
+                out.local(DSTORE, numberLocal(r), -2);
+            }
+        }
+        out.op(ICONST_0, 1);
+        out.local(ISTORE, DEOPTIMIZE_AT, -1);
+
+        int resume = out.newLabel();
+        out.local(ILOAD, ENTRY, 1);
+        out.jump(IFGE, resume, -1);
+        if (function.getArity() > 0) {
+            loadWindows(false);
+            for (int i = 0; i < function.getArity(); i++) {
+                out.local(ALOAD, OBJECT_WINDOW, 1);
+                windowIndex(i);
+                out.op(AALOAD, -1);
+                out.local(ASTORE, objectLocal(i), -1);
+            }
+        }
+        int start = out.newLabel();
+        out.jump(GOTO, start, 0);
+
+        out.mark(resume);
+        loadWindows(true);
+        for (int r = 0; r < registerCount; r++) {
+            if (objectLocal(r) >= 0) {
+                out.local(ALOAD, OBJECT_WINDOW, 1);
+                windowIndex(r);
+                out.op(AALOAD, -1);
+                out.local(ASTORE, objectLocal(r), -1);
+            }
+            if (numberLocal(r) >= 0) {
+                out.local(ALOAD, NUMBER_WINDOW, 1);
+                windowIndex(r);
+                out.op(DALOAD, 0);
+                out.local(DSTORE, numberLocal(r), -2);
+            }
+        }
+        int[] keys = new int[loopHeaders().size()];
+        int[] targets = new int[keys.length];
+        int i = 0;
+        for (int header : loopHeaders()) {
+            keys[i] = header;
+            targets[i++] = label(header);
+        }
+        int badEntry = out.newLabel();
+        out.local(ILOAD, ENTRY, 1);
+        out.lookupSwitch(badEntry, keys, targets);
+        out.mark(badEntry);
+        out.local(ILOAD, ENTRY, 1);
+        out.op(INVOKESTATIC, writer.methodRef(RUNTIME, "badEntry", "(I)Ljava/lang/RuntimeException;"), 0);
+        out.op(ATHROW, -1);
+
+        out.mark(start);
+    }
+
+    private void loadWindows(boolean numbers) {
+        out.local(ALOAD, MACHINE, 1);
+        out.op(GETFIELD, writer.fieldRef(VM, "registers", "[Ljava/lang/Object;"), 0);
+        out.local(ASTORE, OBJECT_WINDOW, -1);
+        if (numbers) {
+            out.local(ALOAD, MACHINE, 1);
+            out.op(GETFIELD, writer.fieldRef(VM, "numberRegisters", "[D"), 0);
+            out.local(ASTORE, NUMBER_WINDOW, -1);
+        }
+    }
+
+    /**
+     * Pushes base + offset.
+     */
+    private void windowIndex(int offset) {
+        out.local(ILOAD, BASE, 1);
+        pushInt(offset);
+        out.op(IADD, -1);
+    }
+
+    @Override
+    protected void emitConstant(int index) {
+        out.local(ALOAD, THIS, 1);
+        out.op(GETFIELD, writer.fieldRef(className, "constants", "[Ljava/lang/Object;"), 0);
+        pushInt(index);
+        out.op(AALOAD, -1);
+    }
+
+    @Override
+    protected void emitGetGlobal(int slot) {
+        out.local(ALOAD, MACHINE, 1);
+        pushInt(slot);
+        out.op(INVOKESTATIC, writer.methodRef(RUNTIME, "getGlobal", "(L" + VM + ";I)Ljava/lang/Object;"), -1);
+    }
+
+    @Override
+    protected void emitSetGlobal(int slot, int register) {
+        out.local(ALOAD, MACHINE, 1);
+        pushInt(slot);
+        loadObject(register);
+        out.op(INVOKEVIRTUAL, writer.methodRef(VM, "setGlobal", "(ILjava/lang/Object;)V"), -3);
+    }
+
+    /**
+     * Specializes on numbers when that is all the interpreter has seen.
+     */
+    @Override
+    protected void emitGeneric(int pc, RegisterOp op) {
+        if (registerCode.feedback[pc] != SEEN_NUMBERS) {
+            super.emitGeneric(pc, op);
+            return;
+        }
+        if (op == RegisterOp.NEGATE) {
+            guardNumber(pc, code[pc + 2]);
+            unbox(code[pc + 2]);
+            out.op(DNEG, 0);
+            box();
+            return;
+        }
+        guardNumber(pc, code[pc + 2]);
+        guardNumber(pc, code[pc + 3]);
+        unbox(code[pc + 2]);
+        unbox(code[pc + 3]);
+        switch (op) {
+            case LESS: doubleComparison(RegisterOp.DLT); break;
+            case LESS_EQUAL: doubleComparison(RegisterOp.DLE); break;
+            case GREATER: doubleComparison(RegisterOp.DGT); break;
+            case GREATER_EQUAL: doubleComparison(RegisterOp.DGE); break;
+            default:
+                doubleArithmetic(op == RegisterOp.ADD ? RegisterOp.DADD
+                    : op == RegisterOp.SUBTRACT ? RegisterOp.DSUB
+                    : op == RegisterOp.MULTIPLY ? RegisterOp.DMUL : RegisterOp.DDIV);
+                box();
+        }
+    }
+
+    /**
+     * Stores the arguments at the top of the window, where the callee's
+     * window will start, and calls through the VM.
+     */
+    @Override
+    protected void emitCall(int pc, RegisterOp op) {
+        int top = registerCode.getRegisterCount();
+        int argumentCount = code[pc + 3];
+        if (argumentCount > 0) {
+            out.local(ALOAD, MACHINE, 1);
+            windowIndex(top + argumentCount);
+            out.op(INVOKESTATIC, writer.methodRef(RUNTIME, "window", "(L" + VM + ";I)[Ljava/lang/Object;"), -1);
+            for (int i = 0; i < argumentCount; i++) {
+                out.op(DUP, 1);
+                windowIndex(top + i);
+                loadObject(code[pc + 4 + i]);
+                out.op(AASTORE, -3);
+            }
+            out.op(POP, -1);
+        }
+        out.local(ALOAD, MACHINE, 1);
+        if (op == RegisterOp.CALL) {
+            loadObject(code[pc + 2]);
+        } else {
+            emitConstant(code[pc + 2]);
+        }
+        windowIndex(top);
+        pushInt(argumentCount);
+        out.op(INVOKEVIRTUAL, writer.methodRef(VM, "callFromRegisters", "(Ljava/lang/Object;II)Ljava/lang/Object;"), -3);
+    }
+
+    private void guardNumber(int pc, int register) {
+        Integer label = deoptimizationLabels.get(pc);
+        if (label == null) {
+            label = out.newLabel();
+            deoptimizationLabels.put(pc, label);
+        }
+        loadObject(register);
+        out.op(INSTANCEOF, writer.classRef(DOUBLE), 0);
+        out.jump(IFEQ, label, -1);
+    }
+
+    /**
+     * One stub per guarded instruction records where to resume; they all
+     * share the code that writes the registers back.
+     */
+    private void emitDeoptimization() {
+        if (deoptimizationLabels.isEmpty()) {
+            return;
+        }
+        int writeBack = out.newLabel();
+        for (Map.Entry<Integer, Integer> stub : deoptimizationLabels.entrySet()) {
+            out.mark(stub.getValue());
+            pushInt(stub.getKey());
+            out.local(ISTORE, DEOPTIMIZE_AT, -1);
+            out.jump(GOTO, writeBack, 0);
+        }
+        out.mark(writeBack);
+        loadWindows(true);
+        for (int r = 0; r < registerCode.getRegisterCount(); r++) {
+            if (objectLocal(r) >= 0) {
+                out.local(ALOAD, OBJECT_WINDOW, 1);
+                windowIndex(r);
+                loadObject(r);
+                out.op(AASTORE, -3);
+            }
+            if (numberLocal(r) >= 0) {
+                out.local(ALOAD, NUMBER_WINDOW, 1);
+                windowIndex(r);
+                loadNumber(r);
+                out.op(DASTORE, -4);
+            }
+        }
+        out.local(ALOAD, MACHINE, 1);
+        out.local(ILOAD, DEOPTIMIZE_AT, 1);
+        out.op(PUTFIELD, writer.fieldRef(VM, "deoptimizeAt", "I"), -2);
+        out.op(GETSTATIC, writer.fieldRef(RUNTIME, "DEOPTIMIZE", "Ljava/lang/Object;"), 1);
+        out.op(ARETURN, -1);
+    }
+}
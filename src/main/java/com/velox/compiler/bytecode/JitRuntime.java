@@ -0,0 +1,33 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * Helpers compiled code calls into the VM through; operations on values
+ * are in {@link Operators}.
+ */
+final class JitRuntime {
+    /** Returned by compiled code that has handed back to the interpreter. */
+    static final Object DEOPTIMIZE = new Object();
+
+    private JitRuntime() {
+    }
+
+    /**
+     * Returns the register file, grown to at least size registers.
+     */
+    static Object[] window(VirtualMachine vm, int size) {
+        vm.ensureRegisters(size);
+        return vm.registers;
+    }
+
+    static Object getGlobal(VirtualMachine vm, int slot) {
+        Object value = vm.getGlobal(slot);
+        if (value == null) {
+            throw new RuntimeException("Undefined global variable: " + vm.getGlobalTable().getName(slot));
+        }
+        return value;
+    }
+
+    static RuntimeException badEntry(int entry) {
+        return new IllegalStateException("No loop entry at " + entry);
+    }
+}
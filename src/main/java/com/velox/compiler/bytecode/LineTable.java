@@ -0,0 +1,251 @@
+package com.velox.compiler.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * Maps code positions to source lines, stored as runs: each run is the
+ * first position of a stretch of code and the line all of it comes from.
+ * Runs are delta-encoded into a byte array, the position and line each as
+ * a varint difference from the previous run, so a run usually takes two
+ * bytes. Every {@value #CHECKPOINT_INTERVAL}th run is also kept decoded as
+ * a checkpoint: a lookup binary-searches the checkpoints and decodes at
+ * most that many runs after one.
+ *
+ * Positions are byte offsets in the table a program is emitted with, and
+ * instruction indices in the one {@link Bytecode#getLine} reads.
+ */
+public final class LineTable {
+    private static final int CHECKPOINT_INTERVAL = 16;
+
+    private byte[] data = new byte[16];
+    private int length;
+    private int encoded;
+    // The last encoded run, which the next one is a delta from
+    private int previousStart;
+    private int previousLine;
+    // Every CHECKPOINT_INTERVAL-th encoded run, and where the run after it
+    // starts in data
+    private int[] checkpointStarts = new int[4];
+    private int[] checkpointLines = new int[4];
+    private int[] checkpointPositions = new int[4];
+    // The newest run is held back until the next one starts, since a line
+    // that ends up without code is dropped again
+    private boolean pending;
+    private int pendingStart;
+    private int pendingLine;
+
+    /**
+     * Records that code from a position on comes from a line. Positions
+     * must not decrease; a line equal to the current run's extends it.
+     */
+    public void add(int position, int line) {
+        if (!pending) {
+            if (encoded > 0 && position < previousStart) {
+                throw new IllegalArgumentException("Position " + position + " is before " + previousStart);
+            }
+            if (encoded == 0 || previousLine != line) {
+                hold(position, line);
+            }
+            return;
+        }
+        if (position < pendingStart) {
+            throw new IllegalArgumentException("Position " + position + " is before " + pendingStart);
+        }
+        if (pendingLine == line) {
+            return;
+        }
+        if (position == pendingStart) {
+            // Nothing was emitted for the pending line
+            if (encoded > 0 && previousLine == line) {
+                pending = false;
+            } else {
+                pendingLine = line;
+            }
+            return;
+        }
+        encode(pendingStart, pendingLine);
+        hold(position, line);
+    }
+
+    /**
+     * Returns the line a position comes from, or 0 if it is unknown.
+     */
+    public int getLine(int position) {
+        if (pending && position >= pendingStart) {
+            return pendingLine;
+        }
+        int checkpoint = checkpointAtOrBefore(position);
+        if (checkpoint < 0) {
+            return 0;
+        }
+        int start = checkpointStarts[checkpoint];
+        int line = checkpointLines[checkpoint];
+        int offset = checkpointPositions[checkpoint];
+        int last = Math.min(encoded, (checkpoint + 1) * CHECKPOINT_INTERVAL);
+        for (int run = checkpoint * CHECKPOINT_INTERVAL + 1; run < last; run++) {
+            int delta = readVarint(offset);
+            offset = skipVarint(offset);
+            if (start + delta > position) {
+                break;
+            }
+            start += delta;
+            line += zigzagDecode(readVarint(offset));
+            offset = skipVarint(offset);
+        }
+        return line;
+    }
+
+    /**
+     * Number of runs in the table.
+     */
+    public int size() {
+        return encoded + (pending ? 1 : 0);
+    }
+
+    /**
+     * First position of a run.
+     */
+    public int getStart(int run) {
+        return decode(run)[0];
+    }
+
+    /**
+     * Line of every position in a run.
+     */
+    public int getRunLine(int run) {
+        return decode(run)[1];
+    }
+
+    /**
+     * Number of bytes the encoded runs take.
+     */
+    public int getEncodedSize() {
+        return length;
+    }
+
+    /**
+     * Translates a table of byte offsets to instruction indices, given the
+     * instruction starting at each offset or -1 inside an instruction. A
+     * run starting inside an instruction takes effect from the next one.
+     */
+    LineTable toInstructions(int[] indexOf) {
+        LineTable table = new LineTable();
+        int count = indexOf.length;
+        int runs = size();
+        for (int run = 0; run < runs; run++) {
+            int[] entry = decode(run);
+            int offset = entry[0];
+            while (offset < count && indexOf[offset] < 0) {
+                offset++;
+            }
+            if (offset < count) {
+                table.add(indexOf[offset], entry[1]);
+            }
+        }
+        return table;
+    }
+
+    private void hold(int position, int line) {
+        pending = true;
+        pendingStart = position;
+        pendingLine = line;
+    }
+
+    private void encode(int start, int line) {
+        ensureData(10);
+        writeVarint(start - previousStart);
+        writeVarint(zigzagEncode(line - previousLine));
+        if (encoded % CHECKPOINT_INTERVAL == 0) {
+            int checkpoint = encoded / CHECKPOINT_INTERVAL;
+            if (checkpoint == checkpointStarts.length) {
+                checkpointStarts = Arrays.copyOf(checkpointStarts, checkpoint * 2);
+                checkpointLines = Arrays.copyOf(checkpointLines, checkpoint * 2);
+                checkpointPositions = Arrays.copyOf(checkpointPositions, checkpoint * 2);
+            }
+            checkpointStarts[checkpoint] = start;
+            checkpointLines[checkpoint] = line;
+            checkpointPositions[checkpoint] = length;
+        }
+        previousStart = start;
+        previousLine = line;
+        encoded++;
+    }
+
+    /**
+     * Returns the start and line of a run.
+     */
+    private int[] decode(int run) {
+        if (run < 0 || run >= size()) {
+            throw new IndexOutOfBoundsException("Run index out of bounds: " + run);
+        }
+        if (run == encoded) {
+            return new int[] {pendingStart, pendingLine};
+        }
+        int checkpoint = run / CHECKPOINT_INTERVAL;
+        int start = checkpointStarts[checkpoint];
+        int line = checkpointLines[checkpoint];
+        int offset = checkpointPositions[checkpoint];
+        for (int i = checkpoint * CHECKPOINT_INTERVAL; i < run; i++) {
+            start += readVarint(offset);
+            offset = skipVarint(offset);
+            line += zigzagDecode(readVarint(offset));
+            offset = skipVarint(offset);
+        }
+        return new int[] {start, line};
+    }
+
+    private int checkpointAtOrBefore(int position) {
+        int low = 0;
+        int high = (encoded + CHECKPOINT_INTERVAL - 1) / CHECKPOINT_INTERVAL - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (checkpointStarts[mid] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    private int readVarint(int offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[offset++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private int skipVarint(int offset) {
+        while ((data[offset++] & 0x80) != 0) {
+            // continuation byte
+        }
+        return offset;
+    }
+
+    private void ensureData(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+
+    private static int zigzagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
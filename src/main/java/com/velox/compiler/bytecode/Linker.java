@@ -0,0 +1,254 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.bytecode.instructions.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts between the three program forms: the byte stream emitted by the
+ * code generator, Instruction objects, and the packed int[] run by the
+ * switch engine.
+ *
+ * Instruction objects and packed code share one addressing scheme: a program
+ * counter is an instruction index, so a jump target means the same thing in
+ * both and one Bytecode can be run by either engine.
+ */
+final class Linker {
+    static final int OPCODE_MASK = 0xFF;
+    static final int OPERAND_SHIFT = 8;
+    static final int MAX_OPERAND = 0xFFFFFF;
+
+    private static final OpCode[] OPCODES = OpCode.values();
+
+    private Linker() {
+    }
+
+    /**
+     * Maps each byte offset that starts an instruction to its index, and
+     * every other offset to -1. The entry past the last byte holds the
+     * instruction count.
+     */
+    static int[] index(List<Byte> code) {
+        int size = code.size();
+        int[] indexOf = new int[size + 1];
+        Arrays.fill(indexOf, -1);
+        int count = 0;
+        for (int offset = 0; offset < size; offset += length(code, offset)) {
+            indexOf[offset] = count++;
+        }
+        indexOf[size] = count;
+        return indexOf;
+    }
+
+    /**
+     * Decodes emitted code into Instruction objects, turning relative jump
+     * distances into absolute instruction indices.
+     */
+    static List<Instruction> decode(List<Byte> code, int[] indexOf, List<Constant> constants) {
+        int size = code.size();
+        List<Instruction> instructions = new ArrayList<>(indexOf[size]);
+        int offset = 0;
+        while (offset < size) {
+            int next = offset + length(code, offset);
+            if (next > size) {
+                throw new IllegalStateException("Truncated instruction at offset " + offset);
+            }
+            boolean wide = opcodeAt(code, offset) == OpCode.WIDE;
+            OpCode opcode = wide ? opcodeAt(code, offset + 1) : opcodeAt(code, offset);
+            int operandStart = wide ? offset + 2 : offset + 1;
+            int operand = 0;
+            for (int i = operandStart; i < next; i++) {
+                operand = operand << 8 | code.get(i) & 0xFF;
+            }
+            instructions.add(decode(opcode, operand, next, indexOf, constants));
+            offset = next;
+        }
+        return instructions;
+    }
+
+    /**
+     * Returns the encoded length in bytes of the instruction at the given
+     * offset, including a WIDE prefix.
+     */
+    private static int length(List<Byte> code, int offset) {
+        OpCode opcode = opcodeAt(code, offset);
+        if (opcode != OpCode.WIDE) {
+            return 1 + opcode.operandWidth();
+        }
+        if (offset + 1 >= code.size()) {
+            throw new IllegalStateException("Truncated WIDE prefix at offset " + offset);
+        }
+        OpCode widened = opcodeAt(code, offset + 1);
+        if (widened.operandWidth() != 1) {
+            throw new IllegalStateException("WIDE cannot prefix " + widened + " at offset " + offset);
+        }
+        return 4;
+    }
+
+    private static Instruction decode(OpCode opcode, int operand, int next, int[] indexOf, List<Constant> constants) {
+        switch (opcode) {
+            case CONSTANT: return new LoadConstantInstruction(operand);
+            case NIL: return new NilInstruction();
+            case TRUE: return new TrueInstruction();
+            case FALSE: return new FalseInstruction();
+            case ADD: return new AddInstruction();
+            case SUBTRACT: return new SubtractInstruction();
+            case MULTIPLY: return new MultiplyInstruction();
+            case DIVIDE: return new DivideInstruction();
+            case NEGATE: return new NegateInstruction();
+            case NOT: return new NotInstruction();
+            case AND: return new AndInstruction();
+            case OR: return new OrInstruction();
+            case EQUAL: return new EqualInstruction();
+            case NOT_EQUAL: return new NotEqualInstruction();
+            case LESS: return new LessInstruction();
+            case LESS_EQUAL: return new LessEqualInstruction();
+            case GREATER: return new GreaterInstruction();
+            case GREATER_EQUAL: return new GreaterEqualInstruction();
+            case IADD:
+            case ISUB:
+            case IMUL:
+            case ILT:
+            case ILE:
+            case IGT:
+            case IGE:
+            case DADD:
+            case DSUB:
+            case DMUL:
+            case DDIV:
+            case DLT:
+            case DLE:
+            case DGT:
+            case DGE:
+                return new TypedArithmeticInstruction(opcode);
+            case GET_LOCAL: return new LoadLocalInstruction(operand);
+            case SET_LOCAL: return new StoreLocalInstruction(operand);
+            case GET_GLOBAL: return new LoadGlobalInstruction(name(constants, operand));
+            case SET_GLOBAL: return new StoreGlobalInstruction(name(constants, operand));
+            case GET_UPVALUE: return new LoadUpvalueInstruction(operand);
+            case SET_UPVALUE: return new StoreUpvalueInstruction(operand);
+            case GET_ENCLOSING: return new LoadEnclosingInstruction(operand);
+            case SET_ENCLOSING: return new StoreEnclosingInstruction(operand);
+            case CLASS: return new ClassInstruction(operand, name(constants, operand));
+            case INHERIT: return new InheritInstruction();
+            case METHOD: return new MethodInstruction(operand, name(constants, operand));
+            case GET_PROPERTY: return new GetPropertyInstruction(operand, name(constants, operand));
+            case SET_PROPERTY: return new SetPropertyInstruction(operand, name(constants, operand));
+            case GET_SUPER: return new GetSuperInstruction(operand, name(constants, operand));
+            case INVOKE_METHOD:
+            case INVOKE_SUPER:
+                return new InvokeInstruction(opcode, operand & 0xFFFF, name(constants, operand & 0xFFFF), operand >>> 16);
+            case JUMP: return new JumpInstruction(target(indexOf, next + operand));
+            case JUMP_IF_FALSE: return new JumpIfFalseInstruction(target(indexOf, next + operand));
+            case LOOP: return new JumpInstruction(target(indexOf, next - operand));
+            case CALL: return new CallInstruction(operand);
+            case CALL_DIRECT: return new CallDirectInstruction(operand);
+            case CLOSURE: return new ClosureInstruction(operand);
+            case CLOSE_UPVALUES: return new CloseUpvaluesInstruction(operand);
+            case RETURN: return new ReturnInstruction();
+            case THROW: return new ThrowInstruction();
+            case HALT: return new HaltInstruction();
+            case POP: return new PopInstruction();
+            case DUP: return new DupInstruction();
+            case PRINT: return new PrintInstruction();
+            default:
+                throw new IllegalStateException("Opcode not supported by the interpreter: " + opcode);
+        }
+    }
+
+    /**
+     * Packs each instruction into one int: the opcode in the low byte and its
+     * operand in the upper 24 bits. Global names are resolved to slots here.
+     * A trailing HALT lets the interpreter loop run off the end of the
+     * program without bounds-checking the counter.
+     */
+    static int[] pack(List<Instruction> instructions, Bytecode bytecode) {
+        int count = instructions.size();
+        int[] packed = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            Instruction instruction = instructions.get(i);
+            OpCode opcode = instruction.getOpCode();
+            int operand;
+            if (instruction instanceof LoadGlobalInstruction) {
+                operand = bytecode.getGlobals().resolve(((LoadGlobalInstruction) instruction).getName());
+            } else if (instruction instanceof StoreGlobalInstruction) {
+                operand = bytecode.getGlobals().resolve(((StoreGlobalInstruction) instruction).getName());
+            } else {
+                operand = instruction.getOperand();
+            }
+
+            if (operand < 0 || operand > MAX_OPERAND) {
+                throw new IllegalStateException("Operand out of range for " + opcode + " at " + i + ": " + operand);
+            }
+            if ((opcode == OpCode.JUMP || opcode == OpCode.JUMP_IF_FALSE) && operand > count) {
+                throw new IllegalStateException("Jump target out of range at " + i + ": " + operand);
+            }
+            if (opcode == OpCode.CONSTANT && operand >= bytecode.getConstants().size()) {
+                throw new IllegalStateException("Constant index out of range at " + i + ": " + operand);
+            }
+            if (opcode == OpCode.CALL_DIRECT) {
+                checkDirectCall(bytecode, i, operand);
+            }
+            if (opcode == OpCode.CLOSURE && function(bytecode, operand) == null) {
+                throw new IllegalStateException("CLOSURE at " + i + " does not name a function: " + operand);
+            }
+            packed[i] = opcode.ordinal() | operand << OPERAND_SHIFT;
+        }
+        packed[count] = OpCode.HALT.ordinal();
+        return packed;
+    }
+
+    /**
+     * CALL_DIRECT takes its argument count from the callee, so the target
+     * must be a function with a fixed arity.
+     */
+    private static void checkDirectCall(Bytecode bytecode, int index, int operand) {
+        Function function = function(bytecode, operand);
+        if (function == null) {
+            throw new IllegalStateException("CALL_DIRECT at " + index + " does not name a function: " + operand);
+        }
+        if (function.getArity() == Function.UNCHECKED_ARITY) {
+            throw new IllegalStateException("CALL_DIRECT at " + index + " needs a fixed arity: " + function);
+        }
+    }
+
+    private static Function function(Bytecode bytecode, int index) {
+        if (index >= bytecode.getConstants().size()) {
+            return null;
+        }
+        Object value = bytecode.getConstants().get(index).getValue();
+        return value instanceof Function ? (Function) value : null;
+    }
+
+    static OpCode opcode(int word) {
+        return OPCODES[word & OPCODE_MASK];
+    }
+
+    static int operand(int word) {
+        return word >>> OPERAND_SHIFT;
+    }
+
+    private static OpCode opcodeAt(List<Byte> code, int offset) {
+        int value = code.get(offset) & 0xFF;
+        if (value >= OPCODES.length) {
+            throw new IllegalStateException("Invalid opcode " + value + " at offset " + offset);
+        }
+        return OPCODES[value];
+    }
+
+    private static int target(int[] indexOf, int offset) {
+        if (offset < 0 || offset >= indexOf.length || indexOf[offset] < 0) {
+            throw new IllegalStateException("Jump to invalid offset: " + offset);
+        }
+        return indexOf[offset];
+    }
+
+    private static String name(List<Constant> constants, int index) {
+        Object value = constants.get(index).getValue();
+        if (!(value instanceof String)) {
+            throw new IllegalStateException("Expected a name constant at index " + index + ": " + value);
+        }
+        return (String) value;
+    }
+}
@@ -0,0 +1,98 @@
+package com.velox.compiler.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * Inline cache of an INVOKE_METHOD or INVOKE_SUPER site, mapping what the
+ * site has seen to a vtable index.
+ *
+ * INVOKE_METHOD sites are keyed on the receiver's {@link Shape}, which
+ * fixes both its class and its fields: a field of the method's name holds
+ * the callee instead, and such entries record the field's index.
+ * INVOKE_SUPER sites are keyed on the superclass the method was declared
+ * in. As with {@link PropertyCache}, up to {@link #POLYMORPHIC_LIMIT} keys
+ * are checked in turn, after which the site is megamorphic and looks the
+ * name up on every call.
+ */
+public final class MethodCache {
+    static final int POLYMORPHIC_LIMIT = 4;
+
+    private final String name;
+    private final Object[] keys = new Object[POLYMORPHIC_LIMIT];
+    // Vtable index for each key, or -1 - slot for a field holding the callee
+    private final int[] targets = new int[POLYMORPHIC_LIMIT];
+    private int count;
+    private boolean megamorphic;
+
+    public MethodCache(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Resolves the method called on an instance: its vtable index in the
+     * instance's class, or -1 - slot if a field of that name holds the
+     * value to call instead.
+     */
+    public int lookup(Instance instance) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == shape) {
+                return targets[i];
+            }
+        }
+        int slot = shape.slot(name);
+        int target = slot >= 0 ? -1 - slot : instance.getKlass().methodIndex(name);
+        if (target == -1) {
+            throw new RuntimeException("Undefined property: " + name);
+        }
+        add(shape, target);
+        return target;
+    }
+
+    /**
+     * Resolves the vtable index of a superclass method.
+     */
+    public int lookupSuper(VeloxClass superclass) {
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == superclass) {
+                return targets[i];
+            }
+        }
+        int index = superclass.methodIndex(name);
+        if (index < 0) {
+            throw new RuntimeException("Undefined superclass method: " + name);
+        }
+        add(superclass, index);
+        return index;
+    }
+
+    private void add(Object key, int target) {
+        if (megamorphic) {
+            return;
+        }
+        if (count == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            count = 0;
+            Arrays.fill(keys, null);
+            return;
+        }
+        keys[count] = key;
+        targets[count] = target;
+        count++;
+    }
+
+    /**
+     * Number of keys cached.
+     */
+    int size() {
+        return count;
+    }
+
+    boolean isMegamorphic() {
+        return megamorphic;
+    }
+}
@@ -5,7 +5,7 @@ package com.velox.compiler.bytecode;
  */
 public enum OpCode {
     // Constants
-    CONSTANT,
+    CONSTANT(1),
     NIL,
     TRUE,
     FALSE,
@@ -18,6 +18,10 @@ public enum OpCode {
     NEGATE,
     NOT,
 
+    // Logical
+    AND,
+    OR,
+
     // Comparison
     EQUAL,
     NOT_EQUAL,
@@ -26,30 +30,118 @@ public enum OpCode {
     GREATER,
     GREATER_EQUAL,
 
+    // Typed arithmetic, emitted when operand types are known
+    IADD,
+    ISUB,
+    IMUL,
+    ILT,
+    ILE,
+    IGT,
+    IGE,
+    DADD,
+    DSUB,
+    DMUL,
+    DDIV,
+    DLT,
+    DLE,
+    DGT,
+    DGE,
+
+    // Quickened forms the switch engines rewrite generic instructions into
+    // from type feedback; never emitted
+    ADD_NUMBERS,
+    ADD_STRINGS,
+    SUBTRACT_NUMBERS,
+    MULTIPLY_NUMBERS,
+    DIVIDE_NUMBERS,
+    NEGATE_NUMBER,
+    LESS_NUMBERS,
+    LESS_EQUAL_NUMBERS,
+    GREATER_NUMBERS,
+    GREATER_EQUAL_NUMBERS,
+
+    // Superinstructions the linker fuses common sequences into; never
+    // emitted. See Superinstructions
+    GET_LOCALS(1),
+    ADD_LOCAL_CONSTANT(1),
+    LESS_LOCALS_JUMP(1),
+    LESS_LOCAL_CONSTANT_JUMP(1),
+
     // Variables
-    GET_LOCAL,
-    SET_LOCAL,
-    GET_GLOBAL,
-    SET_GLOBAL,
+    GET_LOCAL(1),
+    SET_LOCAL(1),
+    GET_GLOBAL(1),
+    SET_GLOBAL(1),
+    GET_UPVALUE(1),
+    SET_UPVALUE(1),
+    GET_ENCLOSING(1),
+    SET_ENCLOSING(1),
 
-    // Properties
-    GET_PROPERTY,
-    SET_PROPERTY,
+    // Classes and properties
+    CLASS(1),
+    INHERIT,
+    METHOD(1),
+    GET_PROPERTY(1),
+    SET_PROPERTY(1),
+    GET_SUPER(1),
+    INVOKE_METHOD(3),
+    INVOKE_SUPER(3),
 
     // Control flow
-    JUMP,
-    JUMP_IF_FALSE,
-    LOOP,
-    CALL,
+    JUMP(2),
+    JUMP_IF_FALSE(2),
+    LOOP(2),
+    CALL(1),
+    CALL_DIRECT(1),
+    CLOSURE(1),
+    CLOSE_UPVALUES(1),
     RETURN,
+    THROW,
+    HALT,
 
     // Stack operations
     POP,
+    DUP,
     PRINT,
 
     // Module operations
     IMPORT,
 
     // Type system
-    TYPE_INFO
-} 
\ No newline at end of file
+    TYPE_INFO,
+
+    // Operand encoding
+    WIDE;
+
+    private final int operandWidth;
+
+    OpCode() {
+        this(0);
+    }
+
+    OpCode(int operandWidth) {
+        this.operandWidth = operandWidth;
+    }
+
+    /**
+     * Whether the opcode is followed by an operand: a constant index, local
+     * slot, argument count or jump distance. CALL_DIRECT's operand is the
+     * constant index of the function it calls, and CLOSURE's the index of
+     * the function it closes over; CLOSE_UPVALUES closes the upvalues of
+     * locals from the given slot up.
+     */
+    public boolean hasOperand() {
+        return operandWidth > 0;
+    }
+
+    /**
+     * Number of operand bytes that follow the opcode. One-byte operands are
+     * widened to two bytes when the instruction is prefixed by WIDE; jump
+     * distances are always two bytes so they can be patched in place. The
+     * invoke opcodes take three: the argument count, then the two-byte
+     * constant index of the method name.
+     */
+    public int operandWidth() {
+        return operandWidth;
+    }
+}
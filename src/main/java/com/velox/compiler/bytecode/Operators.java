@@ -0,0 +1,166 @@
+package com.velox.compiler.bytecode;
+
+import java.util.Objects;
+
+/**
+ * The operations on Velox values, shared by the interpreters, the JIT's
+ * compiled code, and the classes ahead-of-time compilation writes. It
+ * depends on nothing but the JDK, so a compiled program can carry it into
+ * its JAR.
+ *
+ * Overloads taking doubles serve compiled code that has already unboxed
+ * its numbers.
+ */
+public final class Operators {
+    private Operators() {
+    }
+
+    public static Object add(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            if (left instanceof Double || right instanceof Double) {
+                return ((Number) left).doubleValue() + ((Number) right).doubleValue();
+            } else if (left instanceof Long || right instanceof Long) {
+                return ((Number) left).longValue() + ((Number) right).longValue();
+            }
+            return ((Number) left).intValue() + ((Number) right).intValue();
+        } else if (left instanceof String || right instanceof String) {
+            return String.valueOf(left) + right;
+        }
+        throw new RuntimeException("Invalid operands for addition");
+    }
+
+    public static Object subtract(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            if (left instanceof Double || right instanceof Double) {
+                return ((Number) left).doubleValue() - ((Number) right).doubleValue();
+            } else if (left instanceof Long || right instanceof Long) {
+                return ((Number) left).longValue() - ((Number) right).longValue();
+            }
+            return ((Number) left).intValue() - ((Number) right).intValue();
+        }
+        throw new RuntimeException("Invalid operands for subtraction");
+    }
+
+    public static Object multiply(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            if (left instanceof Double || right instanceof Double) {
+                return ((Number) left).doubleValue() * ((Number) right).doubleValue();
+            } else if (left instanceof Long || right instanceof Long) {
+                return ((Number) left).longValue() * ((Number) right).longValue();
+            }
+            return ((Number) left).intValue() * ((Number) right).intValue();
+        }
+        throw new RuntimeException("Invalid operands for multiplication");
+    }
+
+    public static Object divide(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            double rightValue = ((Number) right).doubleValue();
+            if (rightValue == 0) {
+                throw new RuntimeException("Division by zero");
+            }
+            return ((Number) left).doubleValue() / rightValue;
+        }
+        throw new RuntimeException("Invalid operands for division");
+    }
+
+    public static Object negate(Object value) {
+        if (value instanceof Double) {
+            return -(Double) value;
+        } else if (value instanceof Long) {
+            return -(Long) value;
+        } else if (value instanceof Integer) {
+            return -(Integer) value;
+        }
+        throw new RuntimeException("Invalid operand for negation");
+    }
+
+    public static boolean bool(Object value, String operation) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new RuntimeException("Invalid operands for " + operation);
+    }
+
+    public static boolean less(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() < ((Number) right).doubleValue();
+        }
+        return compareStrings(left, right) < 0;
+    }
+
+    public static boolean lessEqual(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() <= ((Number) right).doubleValue();
+        }
+        return compareStrings(left, right) <= 0;
+    }
+
+    public static boolean greater(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() > ((Number) right).doubleValue();
+        }
+        return compareStrings(left, right) > 0;
+    }
+
+    public static boolean greaterEqual(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() >= ((Number) right).doubleValue();
+        }
+        return compareStrings(left, right) >= 0;
+    }
+
+    private static int compareStrings(Object left, Object right) {
+        if (left instanceof String && right instanceof String) {
+            return ((String) left).compareTo((String) right);
+        }
+        throw new RuntimeException("Invalid operands for comparison");
+    }
+
+    public static double divide(double left, double right) {
+        if (right == 0) {
+            throw new RuntimeException("Division by zero");
+        }
+        return left / right;
+    }
+
+    public static Boolean less(double left, double right) {
+        return left < right;
+    }
+
+    public static Boolean lessEqual(double left, double right) {
+        return left <= right;
+    }
+
+    public static Boolean greater(double left, double right) {
+        return left > right;
+    }
+
+    public static Boolean greaterEqual(double left, double right) {
+        return left >= right;
+    }
+
+    public static Boolean equal(Object left, Object right) {
+        return Objects.equals(left, right);
+    }
+
+    public static Boolean notEqual(Object left, Object right) {
+        return !Objects.equals(left, right);
+    }
+
+    public static Boolean not(Object value) {
+        return !bool(value, "logical NOT");
+    }
+
+    /**
+     * Whether a value counts as true for JUMP_IF_FALSE: anything but nil,
+     * false, zero and the empty string.
+     */
+    public static boolean isTruthy(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Number) return ((Number) value).doubleValue() != 0;
+        if (value instanceof String) return !((String) value).isEmpty();
+        return true;
+    }
+}
@@ -0,0 +1,204 @@
+package com.velox.compiler.bytecode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampling profiler for Velox code. While started, a daemon thread takes a
+ * snapshot of a VirtualMachine's call frames at a fixed rate, without
+ * stopping or instrumenting the thread that runs the program; see
+ * {@link VirtualMachine#sample} for what a sample can see.
+ *
+ * Samples are kept as collapsed stacks, one line per distinct stack with
+ * function names outermost first and separated by semicolons, followed by
+ * its sample count, which flame graph tools read directly. The top-level
+ * code is named &lt;main&gt;. The report ranks the instructions the
+ * innermost frame was at by source line.
+ */
+public final class Profiler {
+    public static final int DEFAULT_RATE = 1000;
+    private static final String MAIN = "<main>";
+
+    private final VirtualMachine vm;
+    private final long intervalNanos;
+    private final Function[] functions;
+    private final int[] indices;
+    // Written by the sampling thread only, read once it has stopped
+    private final Map<String, Long> stacks;
+    private final Map<Site, Long> sites;
+    private long samples;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    public Profiler(VirtualMachine vm) {
+        this(vm, DEFAULT_RATE);
+    }
+
+    /**
+     * Creates a profiler that samples a VM a number of times per second.
+     */
+    public Profiler(VirtualMachine vm, int rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Sampling rate must be positive");
+        }
+        this.vm = vm;
+        this.intervalNanos = 1_000_000_000L / rate;
+        this.functions = new Function[vm.getMaxFrames()];
+        this.indices = new int[vm.getMaxFrames()];
+        this.stacks = new HashMap<>();
+        this.sites = new HashMap<>();
+    }
+
+    /**
+     * Starts sampling; the VM is sampled only while it is running.
+     */
+    public void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Profiler already started");
+        }
+        stopped = false;
+        thread = new Thread(this::run, "velox-profiler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops sampling and waits for the sampling thread to finish, after
+     * which the results can be read.
+     */
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        stopped = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (!stopped) {
+            next += intervalNanos;
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            } else {
+                // Fell behind; skip the missed samples rather than burst
+                next = System.nanoTime();
+            }
+            if (!stopped && vm.isRunning()) {
+                sample();
+            }
+        }
+    }
+
+    /**
+     * Takes one sample of the VM's frames.
+     */
+    void sample() {
+        int count = vm.sample(functions, indices);
+        if (count == 0) {
+            return;
+        }
+        StringBuilder stack = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                stack.append(';');
+            }
+            stack.append(name(functions[i]));
+        }
+        stacks.merge(stack.toString(), 1L, Long::sum);
+        sites.merge(new Site(functions[count - 1], indices[count - 1]), 1L, Long::sum);
+        samples++;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Sample counts by collapsed stack.
+     */
+    public Map<String, Long> getStacks() {
+        return new HashMap<>(stacks);
+    }
+
+    /**
+     * Returns the samples as collapsed stacks, one "a;b;c count" line per
+     * stack, most sampled first.
+     */
+    public String collapsed() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(stacks.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Long> entry : entries) {
+            out.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Returns a table of the functions and lines the most samples were
+     * taken in, at most top of them, with their share of all samples.
+     */
+    public String report(int top) {
+        Map<String, Long> lines = new HashMap<>();
+        Bytecode bytecode = vm.getBytecode();
+        for (Map.Entry<Site, Long> entry : sites.entrySet()) {
+            Site site = entry.getKey();
+            int line = site.index >= 0 && site.index < bytecode.getInstructionCount() ? bytecode.getLine(site.index) : 0;
+            String where = name(site.function) + (line > 0 ? ":" + line : "");
+            lines.merge(where, entry.getValue(), Long::sum);
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(lines.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%d samples%n", samples));
+        for (int i = 0; i < Math.min(top, entries.size()); i++) {
+            Map.Entry<String, Long> entry = entries.get(i);
+            out.append(String.format("%6.1f%% %8d  %s%n", 100.0 * entry.getValue() / samples,
+                entry.getValue(), entry.getKey()));
+        }
+        return out.toString();
+    }
+
+    private static String name(Function function) {
+        return function == null ? MAIN : function.getName();
+    }
+
+    /**
+     * An instruction of a function, or of the top-level code.
+     */
+    private static final class Site {
+        final Function function;
+        final int index;
+
+        Site(Function function, int index) {
+            this.function = function;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Site)) {
+                return false;
+            }
+            Site site = (Site) other;
+            return function == site.function && index == site.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(function) + index;
+        }
+    }
+}
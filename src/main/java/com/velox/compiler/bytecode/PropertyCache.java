@@ -0,0 +1,111 @@
+package com.velox.compiler.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * Inline cache of a GET_PROPERTY or SET_PROPERTY site, keyed on the
+ * {@link Shape} of the instances it has seen.
+ *
+ * A site that has seen one shape is monomorphic, and reading a field is a
+ * shape check and an array load. Up to {@link #POLYMORPHIC_LIMIT} shapes
+ * are checked in turn; past that the site is megamorphic, stops caching and
+ * looks every property up by name. A get whose name is a method caches the
+ * method, which is safe because a shape belongs to one class. A set that
+ * adds a field caches the transition as well, so constructors that assign
+ * the same fields in the same order also skip the lookup.
+ */
+public final class PropertyCache {
+    static final int POLYMORPHIC_LIMIT = 4;
+
+    private final String name;
+    private final Shape[] shapes = new Shape[POLYMORPHIC_LIMIT];
+    // Field index for each shape, or -1 where a get found a method
+    private final int[] slots = new int[POLYMORPHIC_LIMIT];
+    // For a get, the method found for the shape; for a set, the shape the
+    // instance ends up with, the same one unless the set adds the field
+    private final Object[] targets = new Object[POLYMORPHIC_LIMIT];
+    private int count;
+    private boolean megamorphic;
+
+    public PropertyCache(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Reads a property: a field, or failing that a method bound to the
+     * instance.
+     */
+    public Object get(Object object) {
+        Instance instance = instance(object);
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                int slot = slots[i];
+                return slot >= 0 ? instance.fields[slot] : new BoundMethod(instance, targets[i]);
+            }
+        }
+        Object value = instance.get(name);
+        if (!megamorphic) {
+            int slot = shape.slot(name);
+            add(shape, slot, slot >= 0 ? null : ((BoundMethod) value).getMethod());
+        }
+        return value;
+    }
+
+    /**
+     * Assigns a field, adding it if the instance does not have it yet.
+     */
+    public void set(Object object, Object value) {
+        Instance instance = instance(object);
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (targets[i] != shape) {
+                    instance.grow((Shape) targets[i]);
+                }
+                instance.fields[slots[i]] = value;
+                return;
+            }
+        }
+        instance.set(name, value);
+        if (!megamorphic) {
+            add(shape, instance.shape.slot(name), instance.shape);
+        }
+    }
+
+    private void add(Shape shape, int slot, Object target) {
+        if (count == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            count = 0;
+            Arrays.fill(shapes, null);
+            Arrays.fill(targets, null);
+            return;
+        }
+        shapes[count] = shape;
+        slots[count] = slot;
+        targets[count] = target;
+        count++;
+    }
+
+    private static Instance instance(Object object) {
+        if (!(object instanceof Instance)) {
+            throw new RuntimeException("Only instances have properties, got: " + object);
+        }
+        return (Instance) object;
+    }
+
+    /**
+     * Number of shapes cached.
+     */
+    int size() {
+        return count;
+    }
+
+    boolean isMegamorphic() {
+        return megamorphic;
+    }
+}
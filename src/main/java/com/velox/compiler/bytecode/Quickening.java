@@ -0,0 +1,142 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * Type feedback and quickening for the packed code the switch engines run.
+ *
+ * Each generic arithmetic and comparison instruction has a feedback byte
+ * recording the kinds of operands it has seen. While it has seen only one
+ * kind, and a quickened form handles that kind, the instruction is
+ * rewritten in place to the quickened form, which checks its operands and
+ * then skips the generic type dispatch; numeric results stay unboxed. If
+ * the check fails, the instruction is rewritten back and re-run generically,
+ * and having now seen two kinds it is never quickened again.
+ */
+final class Quickening {
+    /** Both operands are doubles. */
+    static final byte NUMBERS = 1;
+    /** Both operands are strings. */
+    static final byte STRINGS = 2;
+    /** Both operands are integers without a double among them. */
+    static final byte INTEGERS = 4;
+    /** Any other combination. */
+    static final byte OTHER = 8;
+
+    /** How many operand kinds an instruction has seen. */
+    enum State {
+        UNINITIALIZED,
+        MONOMORPHIC,
+        POLYMORPHIC,
+        MEGAMORPHIC
+    }
+
+    private Quickening() {
+    }
+
+    /**
+     * Records the operands of the generic instruction at pc, and quickens it
+     * if they are the only kind it has seen and a quickened form handles
+     * them. Unary instructions pass their operand as both. Returns whether
+     * the instruction was quickened.
+     */
+    static boolean observe(int[] code, byte[] feedback, int pc, Object left, Object right) {
+        byte kind = kind(left, right);
+        byte seen = feedback[pc];
+        if ((seen & kind) != 0) {
+            return false;
+        }
+        feedback[pc] = (byte) (seen | kind);
+        if (seen != 0) {
+            return false;
+        }
+        OpCode quickened = quickened(Linker.opcode(code[pc]), kind);
+        if (quickened == null) {
+            return false;
+        }
+        rewrite(code, pc, quickened);
+        return true;
+    }
+
+    /**
+     * Rewrites the quickened instruction at pc back to its generic form,
+     * after its operands failed its check.
+     */
+    static void dequicken(int[] code, int pc) {
+        rewrite(code, pc, generic(Linker.opcode(code[pc])));
+    }
+
+    /**
+     * Whether both operand slots hold doubles, boxed or unboxed: the check
+     * the quickened numeric forms make.
+     */
+    static boolean numbers(Object left, Object right) {
+        return number(left) && number(right);
+    }
+
+    static boolean number(Object value) {
+        return value == Slots.DOUBLE || value instanceof Double;
+    }
+
+    static State state(byte feedback) {
+        switch (Integer.bitCount(feedback & 0xFF)) {
+            case 0: return State.UNINITIALIZED;
+            case 1: return State.MONOMORPHIC;
+            case 2: return State.POLYMORPHIC;
+            default: return State.MEGAMORPHIC;
+        }
+    }
+
+    static byte kind(Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return NUMBERS;
+        } else if (left instanceof String && right instanceof String) {
+            return STRINGS;
+        } else if (integer(left) && integer(right)) {
+            return INTEGERS;
+        }
+        return OTHER;
+    }
+
+    private static boolean integer(Object value) {
+        return value instanceof Long || value instanceof Integer;
+    }
+
+    private static OpCode quickened(OpCode generic, byte kind) {
+        if (kind == STRINGS) {
+            return generic == OpCode.ADD ? OpCode.ADD_STRINGS : null;
+        } else if (kind != NUMBERS) {
+            return null;
+        }
+        switch (generic) {
+            case ADD: return OpCode.ADD_NUMBERS;
+            case SUBTRACT: return OpCode.SUBTRACT_NUMBERS;
+            case MULTIPLY: return OpCode.MULTIPLY_NUMBERS;
+            case DIVIDE: return OpCode.DIVIDE_NUMBERS;
+            case NEGATE: return OpCode.NEGATE_NUMBER;
+            case LESS: return OpCode.LESS_NUMBERS;
+            case LESS_EQUAL: return OpCode.LESS_EQUAL_NUMBERS;
+            case GREATER: return OpCode.GREATER_NUMBERS;
+            case GREATER_EQUAL: return OpCode.GREATER_EQUAL_NUMBERS;
+            default: return null;
+        }
+    }
+
+    private static OpCode generic(OpCode quickened) {
+        switch (quickened) {
+            case ADD_NUMBERS:
+            case ADD_STRINGS: return OpCode.ADD;
+            case SUBTRACT_NUMBERS: return OpCode.SUBTRACT;
+            case MULTIPLY_NUMBERS: return OpCode.MULTIPLY;
+            case DIVIDE_NUMBERS: return OpCode.DIVIDE;
+            case NEGATE_NUMBER: return OpCode.NEGATE;
+            case LESS_NUMBERS: return OpCode.LESS;
+            case LESS_EQUAL_NUMBERS: return OpCode.LESS_EQUAL;
+            case GREATER_NUMBERS: return OpCode.GREATER;
+            case GREATER_EQUAL_NUMBERS: return OpCode.GREATER_EQUAL;
+            default: throw new IllegalStateException("Not a quickened opcode: " + quickened);
+        }
+    }
+
+    private static void rewrite(int[] code, int pc, OpCode opcode) {
+        code[pc] = (code[pc] & ~Linker.OPCODE_MASK) | opcode.ordinal();
+    }
+}
@@ -0,0 +1,77 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * A function body in register form, run by the REGISTER and JIT engines in
+ * place of its stack code. Arguments arrive in the first registers; the code loads
+ * the constants it uses into registers of their own before anything else.
+ *
+ * @see RegisterOp
+ */
+public final class RegisterCode {
+    private final int[] code;
+    private final Object[] constants;
+    private final int registerCount;
+
+    // JIT engine state: the operand kinds each instruction has seen, by
+    // JitCompiler's feedback bits, and how close the code is to compiling
+    final byte[] feedback;
+    int hotness;
+    int deoptimizations;
+    boolean interpretOnly;
+    CompiledFunction compiled;
+
+    public RegisterCode(int[] code, Object[] constants, int registerCount) {
+        this.code = code;
+        this.constants = constants;
+        this.registerCount = registerCount;
+        this.feedback = new byte[code.length];
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public Object[] getConstants() {
+        return constants;
+    }
+
+    /**
+     * Size of the function's register window, counting its parameters.
+     */
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    /**
+     * Number of instructions, as opposed to the ints encoding them.
+     */
+    public int getInstructionCount() {
+        int count = 0;
+        for (int pc = 0; pc < code.length; pc = next(pc)) {
+            count++;
+        }
+        return count;
+    }
+
+    private int next(int pc) {
+        RegisterOp op = RegisterOp.of(code[pc]);
+        int length = 1 + op.getOperandCount();
+        if (op == RegisterOp.CALL || op == RegisterOp.CALL_DIRECT) {
+            length += code[pc + 3];
+        }
+        return pc + length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc = next(pc)) {
+            builder.append(String.format("%4d %s", pc, RegisterOp.of(code[pc])));
+            for (int i = pc + 1; i < next(pc); i++) {
+                builder.append(i == pc + 1 ? " " : ", ").append(code[i]);
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+}
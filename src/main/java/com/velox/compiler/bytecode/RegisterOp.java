@@ -0,0 +1,89 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * Operations of register code. Each instruction is its opcode followed by
+ * its operands, all ints: registers are numbered from the start of the
+ * function's window, and jump targets are indices into the code. The
+ * destination register comes first.
+ *
+ * Every register holds an object, and a register holding a value typed
+ * NUMBER holds it unboxed instead, as a double; the D-prefixed operations
+ * read and write those. A register loaded with a number constant holds it
+ * both ways.
+ */
+public enum RegisterOp {
+    /** dst, constant: loads a constant from the code's constant table. */
+    LOAD_CONSTANT(2),
+    /** dst, src */
+    MOVE(2),
+    /** dst, src: copies an unboxed number. */
+    DMOVE(2),
+    /** dst, src: boxes an unboxed number into an object register. */
+    BOX(2),
+
+    ADD(3),
+    SUBTRACT(3),
+    MULTIPLY(3),
+    DIVIDE(3),
+    NEGATE(2),
+    NOT(2),
+    EQUAL(3),
+    NOT_EQUAL(3),
+    LESS(3),
+    LESS_EQUAL(3),
+    GREATER(3),
+    GREATER_EQUAL(3),
+
+    DADD(3),
+    DSUB(3),
+    DMUL(3),
+    DDIV(3),
+    DNEG(2),
+    /** dst, left, right: compares unboxed numbers into a boolean object. */
+    DLT(3),
+    DLE(3),
+    DGT(3),
+    DGE(3),
+
+    /** dst, global slot */
+    GET_GLOBAL(2),
+    /** global slot, src */
+    SET_GLOBAL(2),
+    /** dst, callee, argument count, then one register per argument. */
+    CALL(3),
+    /** dst, function constant, argument count, then one register per argument. */
+    CALL_DIRECT(3),
+    /** src */
+    PRINT(1),
+
+    /** target */
+    JUMP(1),
+    /** condition, target */
+    JUMP_IF_FALSE(2),
+    /** left, right, target: jumps unless left &lt; right, comparing unboxed numbers. */
+    JUMP_IF_NOT_DLT(3),
+    JUMP_IF_NOT_DLE(3),
+    JUMP_IF_NOT_DGT(3),
+    JUMP_IF_NOT_DGE(3),
+    /** src */
+    RETURN(1);
+
+    private static final RegisterOp[] VALUES = values();
+
+    private final int operands;
+
+    RegisterOp(int operands) {
+        this.operands = operands;
+    }
+
+    /**
+     * Number of operands, not counting the argument registers of calls.
+     */
+    public int getOperandCount() {
+        return operands;
+    }
+
+    public static RegisterOp of(int opcode) {
+        return VALUES[opcode];
+    }
+}
@@ -0,0 +1,462 @@
+package com.velox.compiler.bytecode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Translates a function's register code into the body of a JVM method, for
+ * the JIT and for ahead-of-time compilation. Each register becomes a JVM
+ * local, an Object or a double by how the code uses it, or both for
+ * registers constants are loaded into. Generic operations call
+ * {@link Operators}; subclasses decide how constants, globals and calls
+ * reach the rest of the program.
+ */
+public abstract class RegisterTranslator {
+    protected static final String OBJECT = "java/lang/Object";
+    protected static final String DOUBLE = "java/lang/Double";
+    protected static final String BOOLEAN = "java/lang/Boolean";
+    protected static final String OPERATORS = "com/velox/compiler/bytecode/Operators";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String COMPARE = "(Ljava/lang/Object;Ljava/lang/Object;)Z";
+    private static final String DOUBLE_COMPARE = "(DD)Ljava/lang/Boolean;";
+
+    protected static final int ACONST_NULL = 0x01;
+    protected static final int ICONST_0 = 0x03;
+    protected static final int DCONST_0 = 0x0E;
+    protected static final int LDC2_W = 0x14;
+    protected static final int ILOAD = 0x15;
+    protected static final int DLOAD = 0x18;
+    protected static final int ALOAD = 0x19;
+    protected static final int DALOAD = 0x31;
+    protected static final int AALOAD = 0x32;
+    protected static final int ISTORE = 0x36;
+    protected static final int DSTORE = 0x39;
+    protected static final int ASTORE = 0x3A;
+    protected static final int DASTORE = 0x52;
+    protected static final int AASTORE = 0x53;
+    protected static final int POP = 0x57;
+    protected static final int DUP = 0x59;
+    protected static final int IADD = 0x60;
+    protected static final int DADD = 0x63;
+    protected static final int DSUB = 0x67;
+    protected static final int DMUL = 0x6B;
+    protected static final int DNEG = 0x77;
+    protected static final int DCMPL = 0x97;
+    protected static final int DCMPG = 0x98;
+    protected static final int IFEQ = 0x99;
+    protected static final int IFLT = 0x9B;
+    protected static final int IFGE = 0x9C;
+    protected static final int IFGT = 0x9D;
+    protected static final int IFLE = 0x9E;
+    protected static final int GOTO = 0xA7;
+    protected static final int ARETURN = 0xB0;
+    protected static final int RETURN = 0xB1;
+    protected static final int GETSTATIC = 0xB2;
+    protected static final int PUTSTATIC = 0xB3;
+    protected static final int GETFIELD = 0xB4;
+    protected static final int PUTFIELD = 0xB5;
+    protected static final int INVOKEVIRTUAL = 0xB6;
+    protected static final int INVOKESPECIAL = 0xB7;
+    protected static final int INVOKESTATIC = 0xB8;
+    protected static final int NEW = 0xBB;
+    protected static final int ATHROW = 0xBF;
+    protected static final int CHECKCAST = 0xC0;
+    protected static final int INSTANCEOF = 0xC1;
+    protected static final int IFNONNULL = 0xC7;
+
+    protected final ClassFileWriter writer;
+    protected final RegisterCode registerCode;
+    protected final int[] code;
+    protected final Object[] constants;
+    protected ClassFileWriter.Code out;
+    private final int[] objectLocals;
+    private final int[] numberLocals;
+    private final Set<Integer> jumpTargets = new TreeSet<>();
+    private final Set<Integer> loopHeaders = new TreeSet<>();
+    private final Map<Integer, Integer> labels = new HashMap<>();
+
+    protected RegisterTranslator(ClassFileWriter writer, RegisterCode registerCode) {
+        this.writer = writer;
+        this.registerCode = registerCode;
+        this.code = registerCode.getCode();
+        this.constants = registerCode.getConstants();
+        this.objectLocals = new int[registerCode.getRegisterCount()];
+        this.numberLocals = new int[registerCode.getRegisterCount()];
+    }
+
+    /**
+     * Gives each register the locals its uses need, numbered from
+     * firstLocal, and finds the jump targets. The parameters come first,
+     * as objects, in the order of their registers.
+     */
+    protected void assignLocals(int parameterCount, int firstLocal) {
+        boolean[] objects = new boolean[objectLocals.length];
+        boolean[] numbers = new boolean[numberLocals.length];
+        for (int pc = 0; pc < code.length; pc = next(pc)) {
+            RegisterOp op = RegisterOp.of(code[pc]);
+            switch (op) {
+                case LOAD_CONSTANT:
+                    objects[code[pc + 1]] = true;
+                    numbers[code[pc + 1]] |= constants[code[pc + 2]] instanceof Double;
+                    break;
+                case DMOVE:
+                case DADD:
+                case DSUB:
+                case DMUL:
+                case DDIV:
+                case DNEG:
+                    for (int i = 1; i <= op.getOperandCount(); i++) {
+                        numbers[code[pc + i]] = true;
+                    }
+                    break;
+                case BOX:
+                    objects[code[pc + 1]] = true;
+                    numbers[code[pc + 2]] = true;
+                    break;
+                case DLT:
+                case DLE:
+                case DGT:
+                case DGE:
+                    objects[code[pc + 1]] = true;
+                    numbers[code[pc + 2]] = true;
+                    numbers[code[pc + 3]] = true;
+                    break;
+                case GET_GLOBAL:
+                    objects[code[pc + 1]] = true;
+                    break;
+                case SET_GLOBAL:
+                    objects[code[pc + 2]] = true;
+                    break;
+                case CALL:
+                case CALL_DIRECT:
+                    objects[code[pc + 1]] = true;
+                    if (op == RegisterOp.CALL) {
+                        objects[code[pc + 2]] = true;
+                    }
+                    for (int i = 0; i < code[pc + 3]; i++) {
+                        objects[code[pc + 4 + i]] = true;
+                    }
+                    break;
+                case JUMP:
+                    jumpTargets.add(code[pc + 1]);
+                    if (code[pc + 1] < pc) {
+                        loopHeaders.add(code[pc + 1]);
+                    }
+                    break;
+                case JUMP_IF_FALSE:
+                    objects[code[pc + 1]] = true;
+                    jumpTargets.add(code[pc + 2]);
+                    break;
+                case JUMP_IF_NOT_DLT:
+                case JUMP_IF_NOT_DLE:
+                case JUMP_IF_NOT_DGT:
+                case JUMP_IF_NOT_DGE:
+                    numbers[code[pc + 1]] = true;
+                    numbers[code[pc + 2]] = true;
+                    jumpTargets.add(code[pc + 3]);
+                    break;
+                default:
+                    // Everything else works on objects only
+                    for (int i = 1; i <= op.getOperandCount(); i++) {
+                        objects[code[pc + i]] = true;
+                    }
+            }
+        }
+        for (int i = 0; i < parameterCount; i++) {
+            objects[i] = true;
+        }
+        int local = firstLocal;
+        for (int r = 0; r < objectLocals.length; r++) {
+            objectLocals[r] = objects[r] ? local++ : -1;
+        }
+        for (int r = 0; r < numberLocals.length; r++) {
+            if (numbers[r]) {
+                numberLocals[r] = local;
+                local += 2;
+            } else {
+                numberLocals[r] = -1;
+            }
+        }
+    }
+
+    /** The local holding a register as an object, or -1 if it has none. */
+    protected int objectLocal(int register) {
+        return objectLocals[register];
+    }
+
+    /** The local holding a register as a double, or -1 if it has none. */
+    protected int numberLocal(int register) {
+        return numberLocals[register];
+    }
+
+    /** Targets of backward jumps, in order. */
+    protected Set<Integer> loopHeaders() {
+        return loopHeaders;
+    }
+
+    /** The label of the instruction at pc. */
+    protected int label(int pc) {
+        return labels.computeIfAbsent(pc, key -> out.newLabel());
+    }
+
+    /**
+     * Emits every instruction, in order, into out.
+     */
+    protected void emitBody() {
+        for (int pc = 0; pc < code.length; pc = next(pc)) {
+            if (jumpTargets.contains(pc)) {
+                out.mark(label(pc));
+            }
+            emitInstruction(pc);
+        }
+    }
+
+    /** Pushes a constant other than null. */
+    protected abstract void emitConstant(int index);
+
+    /** Pushes the value of a global. */
+    protected abstract void emitGetGlobal(int slot);
+
+    protected abstract void emitSetGlobal(int slot, int register);
+
+    /** Emits a call, leaving its result on the stack. */
+    protected abstract void emitCall(int pc, RegisterOp op);
+
+    private void emitInstruction(int pc) {
+        RegisterOp op = RegisterOp.of(code[pc]);
+        switch (op) {
+            case LOAD_CONSTANT: {
+                int target = code[pc + 1];
+                Object value = constants[code[pc + 2]];
+                if (value == null) {
+                    out.op(ACONST_NULL, 1);
+                } else {
+                    emitConstant(code[pc + 2]);
+                }
+                storeObject(target);
+                if (value instanceof Double) {
+                    out.op(LDC2_W, writer.doubleConstant((Double) value), 2);
+                    storeNumber(target);
+                }
+                break;
+            }
+            case MOVE:
+                loadObject(code[pc + 2]);
+                storeObject(code[pc + 1]);
+                break;
+            case DMOVE:
+                loadNumber(code[pc + 2]);
+                storeNumber(code[pc + 1]);
+                break;
+            case BOX:
+                loadNumber(code[pc + 2]);
+                box();
+                storeObject(code[pc + 1]);
+                break;
+            case ADD:
+            case SUBTRACT:
+            case MULTIPLY:
+            case DIVIDE:
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case NEGATE:
+                emitGeneric(pc, op);
+                storeObject(code[pc + 1]);
+                break;
+            case NOT:
+                loadObject(code[pc + 2]);
+                out.op(INVOKESTATIC, writer.methodRef(OPERATORS, "not", "(Ljava/lang/Object;)Ljava/lang/Boolean;"), 0);
+                storeObject(code[pc + 1]);
+                break;
+            case EQUAL:
+            case NOT_EQUAL:
+                loadObject(code[pc + 2]);
+                loadObject(code[pc + 3]);
+                out.op(INVOKESTATIC, writer.methodRef(OPERATORS, op == RegisterOp.EQUAL ? "equal" : "notEqual",
+                    "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Boolean;"), -1);
+                storeObject(code[pc + 1]);
+                break;
+            case DADD:
+            case DSUB:
+            case DMUL:
+            case DDIV:
+                loadNumber(code[pc + 2]);
+                loadNumber(code[pc + 3]);
+                doubleArithmetic(op);
+                storeNumber(code[pc + 1]);
+                break;
+            case DNEG:
+                loadNumber(code[pc + 2]);
+                out.op(DNEG, 0);
+                storeNumber(code[pc + 1]);
+                break;
+            case DLT:
+            case DLE:
+            case DGT:
+            case DGE:
+                loadNumber(code[pc + 2]);
+                loadNumber(code[pc + 3]);
+                doubleComparison(op);
+                storeObject(code[pc + 1]);
+                break;
+            case GET_GLOBAL:
+                emitGetGlobal(code[pc + 2]);
+                storeObject(code[pc + 1]);
+                break;
+            case SET_GLOBAL:
+                emitSetGlobal(code[pc + 1], code[pc + 2]);
+                break;
+            case CALL:
+            case CALL_DIRECT:
+                emitCall(pc, op);
+                storeObject(code[pc + 1]);
+                break;
+            case PRINT:
+                out.op(GETSTATIC, writer.fieldRef("java/lang/System", "out", "Ljava/io/PrintStream;"), 1);
+                loadObject(code[pc + 1]);
+                out.op(INVOKEVIRTUAL, writer.methodRef("java/io/PrintStream", "println", "(Ljava/lang/Object;)V"), -2);
+                break;
+            case JUMP:
+                out.jump(GOTO, label(code[pc + 1]), 0);
+                break;
+            case JUMP_IF_FALSE:
+                loadObject(code[pc + 1]);
+                out.op(INVOKESTATIC, writer.methodRef(OPERATORS, "isTruthy", "(Ljava/lang/Object;)Z"), 0);
+                out.jump(IFEQ, label(code[pc + 2]), -1);
+                break;
+            case JUMP_IF_NOT_DLT:
+            case JUMP_IF_NOT_DLE:
+            case JUMP_IF_NOT_DGT:
+            case JUMP_IF_NOT_DGE:
+                loadNumber(code[pc + 1]);
+                loadNumber(code[pc + 2]);
+                // dcmpg makes NaN compare greater and dcmpl less, so that
+                // either way a comparison with NaN jumps
+                boolean lessThan = op == RegisterOp.JUMP_IF_NOT_DLT || op == RegisterOp.JUMP_IF_NOT_DLE;
+                out.op(lessThan ? DCMPG : DCMPL, -3);
+                int jump = op == RegisterOp.JUMP_IF_NOT_DLT ? IFGE
+                    : op == RegisterOp.JUMP_IF_NOT_DLE ? IFGT
+                    : op == RegisterOp.JUMP_IF_NOT_DGT ? IFLE : IFLT;
+                out.jump(jump, label(code[pc + 3]), -1);
+                break;
+            case RETURN:
+                loadObject(code[pc + 1]);
+                out.op(ARETURN, -1);
+                break;
+            default:
+                throw new IllegalStateException("Cannot translate " + op);
+        }
+    }
+
+    /**
+     * Pushes the result of generic arithmetic, a comparison or a negation,
+     * computed by Operators.
+     */
+    protected void emitGeneric(int pc, RegisterOp op) {
+        if (op == RegisterOp.NEGATE) {
+            loadObject(code[pc + 2]);
+            out.op(INVOKESTATIC, writer.methodRef(OPERATORS, "negate", "(Ljava/lang/Object;)Ljava/lang/Object;"), 0);
+            return;
+        }
+        loadObject(code[pc + 2]);
+        loadObject(code[pc + 3]);
+        switch (op) {
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                String name = op == RegisterOp.LESS ? "less" : op == RegisterOp.LESS_EQUAL ? "lessEqual"
+                    : op == RegisterOp.GREATER ? "greater" : "greaterEqual";
+                out.op(INVOKESTATIC, writer.methodRef(OPERATORS, name, COMPARE), -1);
+                out.op(INVOKESTATIC, writer.methodRef(BOOLEAN, "valueOf", "(Z)Ljava/lang/Boolean;"), 0);
+                break;
+            default:
+                out.op(INVOKESTATIC, writer.methodRef(OPERATORS, op.name().toLowerCase(), BINARY), -1);
+        }
+    }
+
+    /**
+     * Replaces two doubles on the stack with the result of DADD, DSUB,
+     * DMUL or DDIV.
+     */
+    protected void doubleArithmetic(RegisterOp op) {
+        switch (op) {
+            case DADD: out.op(DADD, -2); break;
+            case DSUB: out.op(DSUB, -2); break;
+            case DMUL: out.op(DMUL, -2); break;
+            default:
+                out.op(INVOKESTATIC, writer.methodRef(OPERATORS, "divide", "(DD)D"), -2);
+        }
+    }
+
+    /**
+     * Replaces two doubles on the stack with the Boolean result of DLT,
+     * DLE, DGT or DGE.
+     */
+    protected void doubleComparison(RegisterOp op) {
+        String name = op == RegisterOp.DLT ? "less" : op == RegisterOp.DLE ? "lessEqual"
+            : op == RegisterOp.DGT ? "greater" : "greaterEqual";
+        out.op(INVOKESTATIC, writer.methodRef(OPERATORS, name, DOUBLE_COMPARE), -3);
+    }
+
+    protected void loadObject(int register) {
+        out.local(ALOAD, objectLocals[register], 1);
+    }
+
+    protected void storeObject(int register) {
+        out.local(ASTORE, objectLocals[register], -1);
+    }
+
+    protected void loadNumber(int register) {
+        out.local(DLOAD, numberLocals[register], 2);
+    }
+
+    protected void storeNumber(int register) {
+        out.local(DSTORE, numberLocals[register], -2);
+    }
+
+    protected void box() {
+        out.op(INVOKESTATIC, writer.methodRef(DOUBLE, "valueOf", "(D)Ljava/lang/Double;"), -1);
+    }
+
+    /**
+     * Pushes a register known to hold a Double as a double.
+     */
+    protected void unbox(int register) {
+        loadObject(register);
+        out.op(CHECKCAST, writer.classRef(DOUBLE), 0);
+        out.op(INVOKEVIRTUAL, writer.methodRef(DOUBLE, "doubleValue", "()D"), 1);
+    }
+
+    protected void pushInt(int value) {
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            out.pushInt(value);
+        } else {
+            out.ldc(writer.integer(value));
+        }
+    }
+
+    /**
+     * Throws a new RuntimeException with a fixed message.
+     */
+    protected void emitThrow(String message) {
+        out.op(NEW, writer.classRef("java/lang/RuntimeException"), 1);
+        out.op(DUP, 1);
+        out.ldc(writer.string(message));
+        out.op(INVOKESPECIAL, writer.methodRef("java/lang/RuntimeException", "<init>", "(Ljava/lang/String;)V"), -2);
+        out.op(ATHROW, -1);
+    }
+
+    protected int next(int pc) {
+        RegisterOp op = RegisterOp.of(code[pc]);
+        int length = 1 + op.getOperandCount();
+        if (op == RegisterOp.CALL || op == RegisterOp.CALL_DIRECT) {
+            length += code[pc + 3];
+        }
+        return pc + length;
+    }
+}
@@ -0,0 +1,78 @@
+package com.velox.compiler.bytecode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hidden class: the layout of an instance's fields, mapping each field
+ * name to an index into the instance's field array.
+ *
+ * Every class has an empty root shape. Adding a field moves an instance to
+ * the shape with that field appended, and the transition is kept, so
+ * instances that gain the same fields in the same order share one shape.
+ * Property caches compare shapes by identity: two instances with the same
+ * shape keep a given field at the same index.
+ */
+public final class Shape {
+    private final Shape parent;
+    private final String field;
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape() {
+        this(null, null, new HashMap<>());
+    }
+
+    private Shape(Shape parent, String field, Map<String, Integer> slots) {
+        this.parent = parent;
+        this.field = field;
+        this.slots = slots;
+    }
+
+    /**
+     * Index of a field in instances of this shape, or -1 if they do not
+     * have it.
+     */
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * The shape reached by adding a field, which must not already be in
+     * this one.
+     */
+    public Shape with(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(this, name, nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+
+    /**
+     * Number of fields.
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * The shape this one was reached from, or null for a root.
+     */
+    public Shape getParent() {
+        return parent;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder fields = new StringBuilder();
+        for (Shape shape = this; shape.parent != null; shape = shape.parent) {
+            fields.insert(0, fields.length() > 0 ? shape.field + ", " : shape.field);
+        }
+        return "Shape{" + fields + "}";
+    }
+}
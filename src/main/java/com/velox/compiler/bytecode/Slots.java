@@ -0,0 +1,63 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * Tags for stack and local slots whose value is held unboxed in a parallel
+ * long[] instead of in the Object[] itself. Typed opcodes write these, so
+ * numeric code can run without allocating a box per result.
+ */
+final class Slots {
+    static final Object DOUBLE = new Tag("double");
+    static final Object LONG = new Tag("long");
+
+    private Slots() {
+    }
+
+    /**
+     * Returns the value of a slot, boxing it if it is held unboxed. The
+     * long[] is only read for tagged slots.
+     */
+    static Object box(Object[] values, long[] bits, int index) {
+        Object value = values[index];
+        if (value == DOUBLE) {
+            return Double.longBitsToDouble(bits[index]);
+        } else if (value == LONG) {
+            return bits[index];
+        }
+        return value;
+    }
+
+    static double asDouble(Object[] values, long[] bits, int index) {
+        Object value = values[index];
+        if (value == DOUBLE) {
+            return Double.longBitsToDouble(bits[index]);
+        } else if (value == LONG) {
+            return bits[index];
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new RuntimeException("Operands must be numbers");
+    }
+
+    static long asLong(Object[] values, long[] bits, int index) {
+        Object value = values[index];
+        if (value == LONG) {
+            return bits[index];
+        } else if (value instanceof Long || value instanceof Integer) {
+            return ((Number) value).longValue();
+        }
+        throw new RuntimeException("Operands must be integers");
+    }
+
+    private static final class Tag {
+        private final String name;
+
+        Tag(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "<" + name + " slot>";
+        }
+    }
+}
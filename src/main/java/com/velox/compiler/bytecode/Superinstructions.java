@@ -0,0 +1,85 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * Fuses the instruction sequences the code generator emits most often,
+ * as counted by benchmark.SuperinstructionMiner, into superinstructions
+ * that the switch engines dispatch once:
+ *
+ * <ul>
+ *   <li>GET_LOCAL a; GET_LOCAL b becomes GET_LOCALS;</li>
+ *   <li>GET_LOCAL a; CONSTANT k; ADD or DADD; SET_LOCAL b, a counter or
+ *       accumulator update, becomes ADD_LOCAL_CONSTANT;</li>
+ *   <li>GET_LOCAL a; GET_LOCAL b or CONSTANT k; LESS or DLT;
+ *       JUMP_IF_FALSE t, a loop test, becomes LESS_LOCALS_JUMP or
+ *       LESS_LOCAL_CONSTANT_JUMP.</li>
+ * </ul>
+ *
+ * Only the first instruction of a sequence is rewritten, keeping its own
+ * operand; the rest stay in place, and the superinstruction reads their
+ * operands from there. A jump into the middle of a sequence therefore
+ * still runs the original instructions, and program counters mean the
+ * same as before. The arithmetic superinstructions only take their fast
+ * path on doubles; otherwise they run the first instruction and carry on
+ * with the rest one by one.
+ */
+final class Superinstructions {
+    private Superinstructions() {
+    }
+
+    /**
+     * Fuses sequences in packed code in place, and returns how many
+     * superinstructions it made.
+     */
+    static int fuse(int[] code) {
+        int fused = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            OpCode opcode = fusedAt(code, pc);
+            if (opcode == null) {
+                pc++;
+                continue;
+            }
+            code[pc] = (code[pc] & ~Linker.OPCODE_MASK) | opcode.ordinal();
+            pc += length(opcode);
+            fused++;
+        }
+        return fused;
+    }
+
+    /**
+     * Number of instructions a superinstruction stands for.
+     */
+    private static int length(OpCode opcode) {
+        switch (opcode) {
+            case GET_LOCALS: return 2;
+            case ADD_LOCAL_CONSTANT:
+            case LESS_LOCALS_JUMP:
+            case LESS_LOCAL_CONSTANT_JUMP: return 4;
+            default: return 1;
+        }
+    }
+
+    private static OpCode fusedAt(int[] code, int pc) {
+        if (opcode(code, pc) != OpCode.GET_LOCAL) {
+            return null;
+        }
+        OpCode second = opcode(code, pc + 1);
+        OpCode third = opcode(code, pc + 2);
+        OpCode fourth = opcode(code, pc + 3);
+        if (second == OpCode.CONSTANT && (third == OpCode.ADD || third == OpCode.DADD) && fourth == OpCode.SET_LOCAL) {
+            return OpCode.ADD_LOCAL_CONSTANT;
+        }
+        if ((third == OpCode.LESS || third == OpCode.DLT) && fourth == OpCode.JUMP_IF_FALSE) {
+            if (second == OpCode.GET_LOCAL) {
+                return OpCode.LESS_LOCALS_JUMP;
+            } else if (second == OpCode.CONSTANT) {
+                return OpCode.LESS_LOCAL_CONSTANT_JUMP;
+            }
+        }
+        return second == OpCode.GET_LOCAL ? OpCode.GET_LOCALS : null;
+    }
+
+    private static OpCode opcode(int[] code, int pc) {
+        return pc < code.length ? Linker.opcode(code[pc]) : null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.velox.compiler.bytecode;
+
+/**
+ * A variable captured by a closure. While the variable's frame is live the
+ * upvalue is open and reads and writes the variable's stack slot, so the
+ * closure and the frame see each other's updates. When the frame returns,
+ * or the variable's block ends, the upvalue is closed and takes the value
+ * with it.
+ */
+public final class Upvalue {
+    private int slot;
+    private Object value;
+    // Next open upvalue further down the stack
+    Upvalue next;
+
+    Upvalue(int slot) {
+        this.slot = slot;
+    }
+
+    public boolean isOpen() {
+        return slot >= 0;
+    }
+
+    /**
+     * Stack index of the captured variable, or -1 once closed.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    Object get(Object[] stack, long[] primitives) {
+        return slot >= 0 ? Slots.box(stack, primitives, slot) : value;
+    }
+
+    void set(Object[] stack, Object value) {
+        if (slot >= 0) {
+            stack[slot] = value;
+        } else {
+            this.value = value;
+        }
+    }
+
+    void close(Object[] stack, long[] primitives) {
+        value = Slots.box(stack, primitives, slot);
+        slot = -1;
+    }
+}
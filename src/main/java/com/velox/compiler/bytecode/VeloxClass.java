@@ -0,0 +1,114 @@
+package com.velox.compiler.bytecode;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A class as a runtime value. CLASS creates one, INHERIT copies its
+ * superclass's method table into it, and METHOD adds each method; calling
+ * it creates an {@link Instance}, running its init method if it has one.
+ *
+ * Methods live in a vtable built while the class is defined. A subclass
+ * starts from a copy of its superclass's table, so an overriding method
+ * takes the index of the method it overrides and new methods are appended:
+ * a method name has the same index throughout a hierarchy. Call sites
+ * cache that index (see {@link MethodCache}).
+ *
+ * Each class has its own root {@link Shape}, so a shape also identifies the
+ * class of its instances, and a property cache may cache a method lookup
+ * under it.
+ */
+public final class VeloxClass {
+    /** Name of the method that initializes new instances. */
+    public static final String INITIALIZER = "init";
+
+    private final String name;
+    private VeloxClass superclass;
+    // Function or Closure values, inherited ones included
+    Object[] vtable = new Object[0];
+    private final Map<String, Integer> vtableIndices = new HashMap<>();
+    private final Shape rootShape = new Shape();
+    // Fields the largest instance so far has had, so new instances are
+    // allocated at their likely final size
+    int fieldCapacity;
+
+    public VeloxClass(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public VeloxClass getSuperclass() {
+        return superclass;
+    }
+
+    /**
+     * Makes this class a subclass: it takes over the superclass's method
+     * table before its own methods are added, which then override them.
+     */
+    public void inherit(Object superclass) {
+        if (!(superclass instanceof VeloxClass)) {
+            throw new RuntimeException("Superclass must be a class, got: " + superclass);
+        }
+        if (vtable.length > 0) {
+            throw new IllegalStateException("INHERIT after METHOD in class " + name);
+        }
+        this.superclass = (VeloxClass) superclass;
+        vtable = this.superclass.vtable.clone();
+        vtableIndices.putAll(this.superclass.vtableIndices);
+    }
+
+    /**
+     * Adds a method, or overrides an inherited one in its slot.
+     */
+    public void defineMethod(String name, Object method) {
+        Integer index = vtableIndices.get(name);
+        if (index == null) {
+            index = vtable.length;
+            vtable = Arrays.copyOf(vtable, index + 1);
+            vtableIndices.put(name, index);
+        }
+        vtable[index] = method;
+    }
+
+    /**
+     * The vtable index of a method, or -1 if the class has none by that
+     * name.
+     */
+    public int methodIndex(String name) {
+        Integer index = vtableIndices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * The method with a name, a Function or Closure, or null.
+     */
+    public Object findMethod(String name) {
+        Integer index = vtableIndices.get(name);
+        return index == null ? null : vtable[index];
+    }
+
+    /**
+     * Binds one of this class's methods to a receiver, for super.name read
+     * as a value rather than called.
+     */
+    public BoundMethod bindMethod(Object receiver, String name) {
+        Object method = findMethod(name);
+        if (method == null) {
+            throw new RuntimeException("Undefined superclass method: " + name);
+        }
+        return new BoundMethod((Instance) receiver, method);
+    }
+
+    Shape getRootShape() {
+        return rootShape;
+    }
+
+    @Override
+    public String toString() {
+        return "<class " + name + ">";
+    }
+}
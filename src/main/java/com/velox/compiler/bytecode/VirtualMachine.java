@@ -3,129 +3,1499 @@ package com.velox.compiler.bytecode;
 import java.util.*;
 import java.io.PrintStream;
 import com.velox.compiler.error.RuntimeError;
+import com.velox.compiler.error.VeloxException;
 
 public class VirtualMachine {
+    public static final int DEFAULT_STACK_SIZE = 1024;
+    public static final int DEFAULT_MAX_FRAMES = 256;
+    private static final int INITIAL_REGISTERS = 256;
+    public static final int DEFAULT_JIT_THRESHOLD = 1000;
+    // Deoptimizations after which a function is left to the interpreter
+    private static final int MAX_DEOPTIMIZATIONS = 8;
+    // Shift from a packed invoke instruction to its argument count
+    private static final int INVOKE_ARGUMENTS_SHIFT = Linker.OPERAND_SHIFT + 16;
+    // Marks an exception no handler may catch
+    private static final Object NOT_CAUGHT = new Object();
+
     private final Bytecode bytecode;
-    private final Stack<Object> stack;
-    private final Stack<CallFrame> callStack;
+    private final Object[] stack;
+    // Unboxed values for stack slots tagged by Slots.DOUBLE or Slots.LONG
+    private final long[] primitives;
+    private int stackPointer;
+    private final CallFrame[] frames;
+    private int frameCount;
+    // Open upvalues, highest stack slot first
+    private Upvalue openUpvalues;
     private int programCounter;
     private boolean running;
     private boolean debugMode;
+    private ExecutionEngine engine;
+    // Engine of the current run; INSTRUCTION whenever a listener is set
+    private ExecutionEngine activeEngine;
+    private ExecutionListener listener;
     private PrintStream debugOutput;
-    private Map<String, Object> globals;
+    // Indexed by the slots of bytecode.getGlobals()
+    private Object[] globals;
     private List<RuntimeError> errors;
+    // Register windows of the REGISTER and JIT engines, objects and unboxed
+    // numbers side by side; registerTop is the first register not in a window
+    Object[] registers;
+    double[] numberRegisters;
+    private int registerTop;
+    private int registerDepth;
+    // Frame count at which a nested run of the packed loop returns
+    private int exitDepth;
+    // Calls plus back edges at which the JIT engine compiles a function
+    private int jitThreshold;
+    // Where compiled code that deoptimized stopped, for the interpreter
+    int deoptimizeAt;
+    private int compilations;
+    private int deoptimizations;
+    private int quickenings;
+    private int dequickenings;
 
     public VirtualMachine(Bytecode bytecode) {
+        this(bytecode, DEFAULT_STACK_SIZE, DEFAULT_MAX_FRAMES);
+    }
+
+    /**
+     * Creates a VM with a fixed operand stack size and call depth.
+     * Exceeding either limit raises a "Stack overflow" runtime error.
+     */
+    public VirtualMachine(Bytecode bytecode, int stackSize, int maxFrames) {
+        if (stackSize <= 0 || maxFrames <= 0) {
+            throw new IllegalArgumentException("Stack size and frame limit must be positive");
+        }
         this.bytecode = bytecode;
-        this.stack = new Stack<>();
-        this.callStack = new Stack<>();
+        this.stack = new Object[stackSize];
+        this.primitives = new long[stackSize];
+        this.stackPointer = 0;
+        this.frames = new CallFrame[maxFrames];
+        // Frame 0 holds the top-level script's locals
+        this.frames[0] = new CallFrame(-1, 0, 0);
+        this.frameCount = 1;
         this.programCounter = 0;
         this.running = false;
         this.debugMode = false;
+        this.engine = ExecutionEngine.INSTRUCTION;
+        this.activeEngine = engine;
         this.debugOutput = System.out;
-        this.globals = new HashMap<>();
+        this.globals = new Object[Math.max(bytecode.getGlobals().size(), 8)];
         this.errors = new ArrayList<>();
+        this.registers = new Object[INITIAL_REGISTERS];
+        this.numberRegisters = new double[INITIAL_REGISTERS];
+        this.jitThreshold = DEFAULT_JIT_THRESHOLD;
     }
 
     public void execute() {
         running = true;
         programCounter = 0;
+        stackPointer = 0;
+        frameCount = 1;
+        openUpvalues = null;
+        registerTop = 0;
+        registerDepth = 0;
+        exitDepth = 0;
         errors.clear();
 
+        ExecutionListener listener = debugMode ? new DebugTrace(debugOutput, this.listener) : this.listener;
+        activeEngine = listener != null ? ExecutionEngine.INSTRUCTION : engine;
+        if (activeEngine != ExecutionEngine.INSTRUCTION) {
+            executePacked();
+        } else {
+            executeInstructions(listener);
+        }
+        running = false;
+    }
+
+    private void executeInstructions(ExecutionListener listener) {
         while (running && programCounter < bytecode.getInstructionCount()) {
-            if (debugMode) {
-                debugOutput.println("PC: " + programCounter);
-                debugOutput.println("Stack: " + stack);
-                debugOutput.println("Call Stack: " + callStack.size());
+            try {
+                if (listener != null) {
+                    runInstrumented(listener);
+                } else {
+                    runInstructions();
+                }
+            } catch (RuntimeException e) {
+                handleError(error(e.getMessage(), programCounter - 1));
+                if (!debugMode) {
+                    throw e;
+                }
             }
+        }
+    }
 
+    /**
+     * Runs Instruction objects until the program ends. An exception that a
+     * handler catches resumes the loop there; the try is entered once per
+     * catch, not per instruction.
+     */
+    private void runInstructions() {
+        int count = bytecode.getInstructionCount();
+        while (true) {
             try {
-                Instruction instruction = bytecode.getInstruction(programCounter++);
-                instruction.execute(this);
+                while (running && programCounter < count) {
+                    bytecode.getInstruction(programCounter++).execute(this);
+                }
+                return;
             } catch (RuntimeException e) {
-                handleError(new RuntimeError(e.getMessage(), programCounter - 1));
-                if (!debugMode) {
+                int handler = unwind(e, programCounter - 1);
+                if (handler < 0) {
                     throw e;
                 }
+                programCounter = handler;
             }
         }
     }
 
+    /**
+     * Runs Instruction objects like runInstructions, reporting each step to
+     * a listener. Calls and returns are told apart by the frame count
+     * changing across an instruction, so the instructions and the call
+     * paths they share with the other loops need no hooks.
+     */
+    private void runInstrumented(ExecutionListener listener) {
+        int count = bytecode.getInstructionCount();
+        while (true) {
+            try {
+                while (running && programCounter < count) {
+                    listener.onInstruction(this, programCounter);
+                    if (!running) {
+                        return;
+                    }
+                    int depth = frameCount;
+                    Function function = frames[depth - 1].getFunction();
+                    bytecode.getInstruction(programCounter++).execute(this);
+                    if (frameCount > depth) {
+                        listener.onCall(this, frames[frameCount - 1].getFunction());
+                    } else if (frameCount < depth) {
+                        listener.onReturn(this, function);
+                    }
+                }
+                return;
+            } catch (RuntimeException e) {
+                listener.onThrow(this, e, programCounter - 1);
+                int handler = unwind(e, programCounter - 1);
+                if (handler < 0) {
+                    throw e;
+                }
+                programCounter = handler;
+            }
+        }
+    }
+
+    private void executePacked() {
+        while (running) {
+            try {
+                runPacked();
+            } catch (RuntimeException e) {
+                handleError(error(e.getMessage(), programCounter - 1));
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs the packed code until the program ends or the current run's
+     * outermost frame returns. An exception that a handler catches resumes
+     * the loop there; the try is entered once per catch, not per
+     * instruction.
+     */
+    private void runPacked() {
+        while (true) {
+            try {
+                dispatchPacked();
+                return;
+            } catch (RuntimeException e) {
+                int handler = unwind(e, programCounter - 1);
+                if (handler < 0) {
+                    throw e;
+                }
+                programCounter = handler;
+            }
+        }
+    }
+
+    /**
+     * Switch-dispatched interpreter loop over the packed code. Hot state is
+     * kept in locals and written back to the VM only around calls that need
+     * it, and on exit. A quickened arithmetic or comparison case checks its
+     * operands and falls through into the typed case that does the work.
+     */
+    @SuppressWarnings("fallthrough")
+    private void dispatchPacked() {
+        final int[] code = bytecode.getPackedCode();
+        final byte[] feedback = bytecode.getTypeFeedback();
+        final PropertyCache[] caches = bytecode.getPropertyCaches();
+        final MethodCache[] methodCaches = bytecode.getMethodCaches();
+        final Object[] constants = bytecode.getConstantValues();
+        final Object[] stack = this.stack;
+        final long[] prims = this.primitives;
+        // Linking resolved every global the code names; make room for them
+        ensureGlobalCapacity(bytecode.getGlobals().size());
+        int pc = programCounter;
+        int sp = stackPointer;
+        CallFrame frame = frames[frameCount - 1];
+
+        try {
+            while (true) {
+                int word = code[pc++];
+                switch (Linker.opcode(word)) {
+                    case CONSTANT:
+                        stack[sp++] = constants[word >>> Linker.OPERAND_SHIFT];
+                        break;
+                    case NIL:
+                        stack[sp++] = null;
+                        break;
+                    case TRUE:
+                        stack[sp++] = Boolean.TRUE;
+                        break;
+                    case FALSE:
+                        stack[sp++] = Boolean.FALSE;
+                        break;
+                    case ADD: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        Object left = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, left, right)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.add(left, right);
+                        break;
+                    }
+                    case SUBTRACT: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        Object left = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, left, right)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.subtract(left, right);
+                        break;
+                    }
+                    case MULTIPLY: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        Object left = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, left, right)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.multiply(left, right);
+                        break;
+                    }
+                    case DIVIDE: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        Object left = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, left, right)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.divide(left, right);
+                        break;
+                    }
+                    case NEGATE: {
+                        Object value = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, value, value)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.negate(value);
+                        break;
+                    }
+                    case NOT:
+                        stack[sp - 1] = !Operators.bool(stack[sp - 1], "logical NOT");
+                        break;
+                    case AND: {
+                        boolean right = Operators.bool(stack[--sp], "logical AND");
+                        stack[sp - 1] = Operators.bool(stack[sp - 1], "logical AND") && right;
+                        break;
+                    }
+                    case OR: {
+                        boolean right = Operators.bool(stack[--sp], "logical OR");
+                        stack[sp - 1] = Operators.bool(stack[sp - 1], "logical OR") || right;
+                        break;
+                    }
+                    case EQUAL: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        stack[sp - 1] = Objects.equals(Slots.box(stack, prims, sp - 1), right);
+                        break;
+                    }
+                    case NOT_EQUAL: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        stack[sp - 1] = !Objects.equals(Slots.box(stack, prims, sp - 1), right);
+                        break;
+                    }
+                    case LESS: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        Object left = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, left, right)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.less(left, right);
+                        break;
+                    }
+                    case LESS_EQUAL: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        Object left = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, left, right)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.lessEqual(left, right);
+                        break;
+                    }
+                    case GREATER: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        Object left = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, left, right)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.greater(left, right);
+                        break;
+                    }
+                    case GREATER_EQUAL: {
+                        Object right = Slots.box(stack, prims, --sp);
+                        Object left = Slots.box(stack, prims, sp - 1);
+                        if (Quickening.observe(code, feedback, pc - 1, left, right)) {
+                            quickenings++;
+                        }
+                        stack[sp - 1] = Operators.greaterEqual(left, right);
+                        break;
+                    }
+                    case IADD: {
+                        long right = Slots.asLong(stack, prims, --sp);
+                        long left = Slots.asLong(stack, prims, sp - 1);
+                        prims[sp - 1] = left + right;
+                        stack[sp - 1] = Slots.LONG;
+                        break;
+                    }
+                    case ISUB: {
+                        long right = Slots.asLong(stack, prims, --sp);
+                        long left = Slots.asLong(stack, prims, sp - 1);
+                        prims[sp - 1] = left - right;
+                        stack[sp - 1] = Slots.LONG;
+                        break;
+                    }
+                    case IMUL: {
+                        long right = Slots.asLong(stack, prims, --sp);
+                        long left = Slots.asLong(stack, prims, sp - 1);
+                        prims[sp - 1] = left * right;
+                        stack[sp - 1] = Slots.LONG;
+                        break;
+                    }
+                    case ILT: {
+                        long right = Slots.asLong(stack, prims, --sp);
+                        stack[sp - 1] = Slots.asLong(stack, prims, sp - 1) < right;
+                        break;
+                    }
+                    case ILE: {
+                        long right = Slots.asLong(stack, prims, --sp);
+                        stack[sp - 1] = Slots.asLong(stack, prims, sp - 1) <= right;
+                        break;
+                    }
+                    case IGT: {
+                        long right = Slots.asLong(stack, prims, --sp);
+                        stack[sp - 1] = Slots.asLong(stack, prims, sp - 1) > right;
+                        break;
+                    }
+                    case IGE: {
+                        long right = Slots.asLong(stack, prims, --sp);
+                        stack[sp - 1] = Slots.asLong(stack, prims, sp - 1) >= right;
+                        break;
+                    }
+                    case ADD_STRINGS:
+                        if (!(stack[sp - 2] instanceof String) || !(stack[sp - 1] instanceof String)) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        sp--;
+                        stack[sp - 1] = ((String) stack[sp - 1]).concat((String) stack[sp]);
+                        stack[sp] = null;
+                        break;
+                    case NEGATE_NUMBER:
+                        if (!Quickening.number(stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        prims[sp - 1] = Double.doubleToRawLongBits(-Slots.asDouble(stack, prims, sp - 1));
+                        stack[sp - 1] = Slots.DOUBLE;
+                        break;
+                    case ADD_NUMBERS:
+                        if (!Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        // Checked; run as the typed form
+                    case DADD: {
+                        double right = Slots.asDouble(stack, prims, --sp);
+                        double left = Slots.asDouble(stack, prims, sp - 1);
+                        prims[sp - 1] = Double.doubleToRawLongBits(left + right);
+                        stack[sp - 1] = Slots.DOUBLE;
+                        break;
+                    }
+                    case SUBTRACT_NUMBERS:
+                        if (!Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        // Checked; run as the typed form
+                    case DSUB: {
+                        double right = Slots.asDouble(stack, prims, --sp);
+                        double left = Slots.asDouble(stack, prims, sp - 1);
+                        prims[sp - 1] = Double.doubleToRawLongBits(left - right);
+                        stack[sp - 1] = Slots.DOUBLE;
+                        break;
+                    }
+                    case MULTIPLY_NUMBERS:
+                        if (!Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        // Checked; run as the typed form
+                    case DMUL: {
+                        double right = Slots.asDouble(stack, prims, --sp);
+                        double left = Slots.asDouble(stack, prims, sp - 1);
+                        prims[sp - 1] = Double.doubleToRawLongBits(left * right);
+                        stack[sp - 1] = Slots.DOUBLE;
+                        break;
+                    }
+                    case DIVIDE_NUMBERS:
+                        if (!Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        // Checked; run as the typed form
+                    case DDIV: {
+                        double right = Slots.asDouble(stack, prims, --sp);
+                        if (right == 0) {
+                            throw new RuntimeException("Division by zero");
+                        }
+                        double left = Slots.asDouble(stack, prims, sp - 1);
+                        prims[sp - 1] = Double.doubleToRawLongBits(left / right);
+                        stack[sp - 1] = Slots.DOUBLE;
+                        break;
+                    }
+                    case LESS_NUMBERS:
+                        if (!Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        // Checked; run as the typed form
+                    case DLT: {
+                        double right = Slots.asDouble(stack, prims, --sp);
+                        stack[sp - 1] = Slots.asDouble(stack, prims, sp - 1) < right;
+                        break;
+                    }
+                    case LESS_EQUAL_NUMBERS:
+                        if (!Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        // Checked; run as the typed form
+                    case DLE: {
+                        double right = Slots.asDouble(stack, prims, --sp);
+                        stack[sp - 1] = Slots.asDouble(stack, prims, sp - 1) <= right;
+                        break;
+                    }
+                    case GREATER_NUMBERS:
+                        if (!Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        // Checked; run as the typed form
+                    case DGT: {
+                        double right = Slots.asDouble(stack, prims, --sp);
+                        stack[sp - 1] = Slots.asDouble(stack, prims, sp - 1) > right;
+                        break;
+                    }
+                    case GREATER_EQUAL_NUMBERS:
+                        if (!Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            pc = dequicken(code, pc - 1);
+                            break;
+                        }
+                        // Checked; run as the typed form
+                    case DGE: {
+                        double right = Slots.asDouble(stack, prims, --sp);
+                        stack[sp - 1] = Slots.asDouble(stack, prims, sp - 1) >= right;
+                        break;
+                    }
+                    case GET_LOCAL:
+                        frame.load(word >>> Linker.OPERAND_SHIFT, stack, prims, sp++);
+                        break;
+                    case GET_LOCALS:
+                        frame.load(word >>> Linker.OPERAND_SHIFT, stack, prims, sp++);
+                        frame.load(code[pc++] >>> Linker.OPERAND_SHIFT, stack, prims, sp++);
+                        break;
+                    case ADD_LOCAL_CONSTANT: {
+                        // GET_LOCAL; CONSTANT; ADD; SET_LOCAL
+                        frame.load(word >>> Linker.OPERAND_SHIFT, stack, prims, sp++);
+                        Object constant = constants[code[pc] >>> Linker.OPERAND_SHIFT];
+                        if (Quickening.number(stack[sp - 1]) && constant instanceof Double) {
+                            prims[sp - 1] = Double.doubleToRawLongBits(
+                                Slots.asDouble(stack, prims, sp - 1) + (Double) constant);
+                            stack[sp - 1] = Slots.DOUBLE;
+                            frame.store(code[pc + 2] >>> Linker.OPERAND_SHIFT, stack, prims, --sp);
+                            pc += 3;
+                        }
+                        break;
+                    }
+                    case LESS_LOCALS_JUMP:
+                    case LESS_LOCAL_CONSTANT_JUMP:
+                        // GET_LOCAL; GET_LOCAL or CONSTANT; LESS; JUMP_IF_FALSE
+                        frame.load(word >>> Linker.OPERAND_SHIFT, stack, prims, sp++);
+                        if (Linker.opcode(word) == OpCode.LESS_LOCALS_JUMP) {
+                            frame.load(code[pc] >>> Linker.OPERAND_SHIFT, stack, prims, sp++);
+                        } else {
+                            stack[sp++] = constants[code[pc] >>> Linker.OPERAND_SHIFT];
+                        }
+                        pc++;
+                        if (Quickening.numbers(stack[sp - 2], stack[sp - 1])) {
+                            sp -= 2;
+                            pc = Slots.asDouble(stack, prims, sp) < Slots.asDouble(stack, prims, sp + 1)
+                                ? pc + 2 : code[pc + 1] >>> Linker.OPERAND_SHIFT;
+                        }
+                        break;
+                    case SET_LOCAL:
+                        frame.store(word >>> Linker.OPERAND_SHIFT, stack, prims, --sp);
+                        break;
+                    case GET_GLOBAL: {
+                        int slot = word >>> Linker.OPERAND_SHIFT;
+                        Object value = globals[slot];
+                        if (value == null) {
+                            throw new RuntimeException("Undefined global variable: " + bytecode.getGlobals().getName(slot));
+                        }
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case SET_GLOBAL:
+                        globals[word >>> Linker.OPERAND_SHIFT] = Slots.box(stack, prims, --sp);
+                        break;
+                    case GET_UPVALUE:
+                        stack[sp++] = frame.getClosure().upvalues[word >>> Linker.OPERAND_SHIFT].get(stack, prims);
+                        break;
+                    case SET_UPVALUE:
+                        frame.getClosure().upvalues[word >>> Linker.OPERAND_SHIFT].set(stack, Slots.box(stack, prims, --sp));
+                        break;
+                    case GET_ENCLOSING:
+                        frame.getEnclosing().load(word >>> Linker.OPERAND_SHIFT, stack, prims, sp++);
+                        break;
+                    case SET_ENCLOSING:
+                        frame.getEnclosing().store(word >>> Linker.OPERAND_SHIFT, stack, prims, --sp);
+                        break;
+                    case CLASS:
+                        stack[sp++] = new VeloxClass((String) constants[word >>> Linker.OPERAND_SHIFT]);
+                        break;
+                    case INHERIT:
+                        // The superclass sits above the class being defined
+                        ((VeloxClass) stack[sp - 2]).inherit(Slots.box(stack, prims, sp - 1));
+                        stack[--sp] = null;
+                        break;
+                    case METHOD:
+                        ((VeloxClass) stack[sp - 2]).defineMethod((String) constants[word >>> Linker.OPERAND_SHIFT], stack[sp - 1]);
+                        stack[--sp] = null;
+                        break;
+                    case GET_PROPERTY:
+                        stack[sp - 1] = caches[pc - 1].get(Slots.box(stack, prims, sp - 1));
+                        break;
+                    case GET_SUPER: {
+                        // The superclass sits above the receiver
+                        VeloxClass superclass = (VeloxClass) stack[--sp];
+                        stack[sp] = null;
+                        stack[sp - 1] = superclass.bindMethod(stack[sp - 1], (String) constants[word >>> Linker.OPERAND_SHIFT]);
+                        break;
+                    }
+                    case SET_PROPERTY: {
+                        Object value = Slots.box(stack, prims, --sp);
+                        caches[pc - 1].set(Slots.box(stack, prims, sp - 1), value);
+                        stack[sp - 1] = value;
+                        stack[sp] = null;
+                        break;
+                    }
+                    case JUMP:
+                        pc = word >>> Linker.OPERAND_SHIFT;
+                        break;
+                    case LOOP:
+                        // Back edges and returns publish pc for the profiler
+                        programCounter = pc;
+                        pc = word >>> Linker.OPERAND_SHIFT;
+                        break;
+                    case JUMP_IF_FALSE:
+                        if (!isTruthy(Slots.box(stack, prims, --sp))) {
+                            pc = word >>> Linker.OPERAND_SHIFT;
+                        }
+                        break;
+                    case CALL:
+                        programCounter = pc;
+                        stackPointer = sp;
+                        call(word >>> Linker.OPERAND_SHIFT);
+                        pc = programCounter;
+                        sp = stackPointer;
+                        frame = frames[frameCount - 1];
+                        break;
+                    case INVOKE_METHOD:
+                        programCounter = pc;
+                        stackPointer = sp;
+                        invoke(methodCaches[pc - 1], word >>> INVOKE_ARGUMENTS_SHIFT);
+                        pc = programCounter;
+                        sp = stackPointer;
+                        frame = frames[frameCount - 1];
+                        break;
+                    case INVOKE_SUPER:
+                        programCounter = pc;
+                        stackPointer = sp;
+                        invokeSuper(methodCaches[pc - 1], word >>> INVOKE_ARGUMENTS_SHIFT);
+                        pc = programCounter;
+                        sp = stackPointer;
+                        frame = frames[frameCount - 1];
+                        break;
+                    case CALL_DIRECT:
+                        programCounter = pc;
+                        stackPointer = sp;
+                        callDirect((Function) constants[word >>> Linker.OPERAND_SHIFT]);
+                        pc = programCounter;
+                        sp = stackPointer;
+                        frame = frames[frameCount - 1];
+                        break;
+                    case CLOSURE:
+                        stack[sp++] = newClosure((Function) constants[word >>> Linker.OPERAND_SHIFT], frame);
+                        break;
+                    case CLOSE_UPVALUES:
+                        closeOpenUpvalues(frame.getBasePointer() + (word >>> Linker.OPERAND_SHIFT));
+                        break;
+                    case RETURN: {
+                        if (frameCount == 1) {
+                            running = false;
+                            return;
+                        }
+                        if (openUpvalues != null) {
+                            closeOpenUpvalues(frame.getBasePointer());
+                        }
+                        // Move the result, still unboxed, into the caller's stack
+                        int resultSlot = frame.getResultSlot();
+                        stack[resultSlot] = stack[sp - 1];
+                        prims[resultSlot] = prims[sp - 1];
+                        while (sp > resultSlot + 1) {
+                            stack[--sp] = null;
+                        }
+                        pc = frame.getReturnAddress();
+                        programCounter = pc;
+                        frameCount--;
+                        if (frameCount == exitDepth) {
+                            return;
+                        }
+                        frame = frames[frameCount - 1];
+                        break;
+                    }
+                    case THROW:
+                        throw exception(Slots.box(stack, prims, --sp), pc - 1);
+                    case HALT:
+                        running = false;
+                        return;
+                    case POP:
+                        stack[--sp] = null;
+                        break;
+                    case DUP:
+                        stack[sp] = stack[sp - 1];
+                        prims[sp] = prims[sp - 1];
+                        sp++;
+                        break;
+                    case PRINT:
+                        System.out.println(Slots.box(stack, prims, --sp));
+                        break;
+                    default:
+                        throw new RuntimeException("Unsupported opcode: " + Linker.opcode(word));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Stack bounds are enforced by the array itself rather than per push
+            if (sp > stack.length) {
+                sp = stack.length;
+                throw error("Stack overflow: operand stack exceeds " + stack.length, pc - 1);
+            }
+            if (sp < 0) {
+                sp = 0;
+                throw new RuntimeException("Stack underflow");
+            }
+            throw e;
+        } finally {
+            programCounter = pc;
+            stackPointer = sp;
+        }
+    }
+
+    /**
+     * Rewrites a quickened instruction whose check failed back to its
+     * generic form, and returns its pc to run it again.
+     */
+    private int dequicken(int[] code, int pc) {
+        Quickening.dequicken(code, pc);
+        dequickenings++;
+        return pc;
+    }
+
+    /**
+     * Register interpreter loop: runs a function's register code in the
+     * window starting at base, where its arguments already are, and returns
+     * its result. A call to another function with register code recurses
+     * here; a call to anything else goes back to the stack.
+     *
+     * Under the JIT engine, calls and back edges count toward compiling the
+     * function; once compiled, calls run the compiled code and a back edge
+     * switches to it mid-loop. Generic operations record whether they saw
+     * only numbers, which the compiler specializes on.
+     */
+    private Object runRegisters(Function function, int base) {
+        RegisterCode registerCode = function.getRegisterCode();
+        final int[] code = registerCode.getCode();
+        final Object[] constants = registerCode.getConstants();
+        final int top = base + registerCode.getRegisterCount();
+        if (registerDepth + frameCount >= frames.length) {
+            throw error("Stack overflow: call depth exceeds " + frames.length, programCounter - 1);
+        }
+        ensureRegisters(top);
+        Object[] objects = registers;
+        double[] numbers = numberRegisters;
+        int savedTop = registerTop;
+        registerTop = top;
+        registerDepth++;
+        final boolean profiling = activeEngine == ExecutionEngine.JIT;
+        final byte[] feedback = registerCode.feedback;
+        int pc = 0;
+
+        try {
+            if (profiling) {
+                CompiledFunction compiled = tierUp(function, registerCode, 1);
+                if (compiled != null) {
+                    Object result = compiled.run(this, base, CompiledFunction.START);
+                    if (result != JitRuntime.DEOPTIMIZE) {
+                        return result;
+                    }
+                    pc = deoptimize(registerCode);
+                    objects = registers;
+                    numbers = numberRegisters;
+                }
+            }
+            while (true) {
+                switch (RegisterOp.of(code[pc])) {
+                    case LOAD_CONSTANT: {
+                        Object value = constants[code[pc + 2]];
+                        int target = base + code[pc + 1];
+                        objects[target] = value;
+                        if (value instanceof Double) {
+                            numbers[target] = (Double) value;
+                        }
+                        pc += 3;
+                        break;
+                    }
+                    case MOVE:
+                        objects[base + code[pc + 1]] = objects[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case DMOVE:
+                        numbers[base + code[pc + 1]] = numbers[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case BOX:
+                        objects[base + code[pc + 1]] = numbers[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case ADD: {
+                        Object left = objects[base + code[pc + 2]];
+                        Object right = objects[base + code[pc + 3]];
+                        if (profiling) {
+                            observe(feedback, pc, left, right);
+                        }
+                        objects[base + code[pc + 1]] = Operators.add(left, right);
+                        pc += 4;
+                        break;
+                    }
+                    case SUBTRACT: {
+                        Object left = objects[base + code[pc + 2]];
+                        Object right = objects[base + code[pc + 3]];
+                        if (profiling) {
+                            observe(feedback, pc, left, right);
+                        }
+                        objects[base + code[pc + 1]] = Operators.subtract(left, right);
+                        pc += 4;
+                        break;
+                    }
+                    case MULTIPLY: {
+                        Object left = objects[base + code[pc + 2]];
+                        Object right = objects[base + code[pc + 3]];
+                        if (profiling) {
+                            observe(feedback, pc, left, right);
+                        }
+                        objects[base + code[pc + 1]] = Operators.multiply(left, right);
+                        pc += 4;
+                        break;
+                    }
+                    case DIVIDE: {
+                        Object left = objects[base + code[pc + 2]];
+                        Object right = objects[base + code[pc + 3]];
+                        if (profiling) {
+                            observe(feedback, pc, left, right);
+                        }
+                        objects[base + code[pc + 1]] = Operators.divide(left, right);
+                        pc += 4;
+                        break;
+                    }
+                    case NEGATE: {
+                        Object value = objects[base + code[pc + 2]];
+                        if (profiling) {
+                            observe(feedback, pc, value, 0.0);
+                        }
+                        objects[base + code[pc + 1]] = Operators.negate(value);
+                        pc += 3;
+                        break;
+                    }
+                    case NOT:
+                        objects[base + code[pc + 1]] = !Operators.bool(objects[base + code[pc + 2]], "logical NOT");
+                        pc += 3;
+                        break;
+                    case EQUAL:
+                        objects[base + code[pc + 1]] = Objects.equals(objects[base + code[pc + 2]], objects[base + code[pc + 3]]);
+                        pc += 4;
+                        break;
+                    case NOT_EQUAL:
+                        objects[base + code[pc + 1]] = !Objects.equals(objects[base + code[pc + 2]], objects[base + code[pc + 3]]);
+                        pc += 4;
+                        break;
+                    case LESS: {
+                        Object left = objects[base + code[pc + 2]];
+                        Object right = objects[base + code[pc + 3]];
+                        if (profiling) {
+                            observe(feedback, pc, left, right);
+                        }
+                        objects[base + code[pc + 1]] = Operators.less(left, right);
+                        pc += 4;
+                        break;
+                    }
+                    case LESS_EQUAL: {
+                        Object left = objects[base + code[pc + 2]];
+                        Object right = objects[base + code[pc + 3]];
+                        if (profiling) {
+                            observe(feedback, pc, left, right);
+                        }
+                        objects[base + code[pc + 1]] = Operators.lessEqual(left, right);
+                        pc += 4;
+                        break;
+                    }
+                    case GREATER: {
+                        Object left = objects[base + code[pc + 2]];
+                        Object right = objects[base + code[pc + 3]];
+                        if (profiling) {
+                            observe(feedback, pc, left, right);
+                        }
+                        objects[base + code[pc + 1]] = Operators.greater(left, right);
+                        pc += 4;
+                        break;
+                    }
+                    case GREATER_EQUAL: {
+                        Object left = objects[base + code[pc + 2]];
+                        Object right = objects[base + code[pc + 3]];
+                        if (profiling) {
+                            observe(feedback, pc, left, right);
+                        }
+                        objects[base + code[pc + 1]] = Operators.greaterEqual(left, right);
+                        pc += 4;
+                        break;
+                    }
+                    case DADD:
+                        numbers[base + code[pc + 1]] = numbers[base + code[pc + 2]] + numbers[base + code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case DSUB:
+                        numbers[base + code[pc + 1]] = numbers[base + code[pc + 2]] - numbers[base + code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case DMUL:
+                        numbers[base + code[pc + 1]] = numbers[base + code[pc + 2]] * numbers[base + code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case DDIV: {
+                        double right = numbers[base + code[pc + 3]];
+                        if (right == 0) {
+                            throw new RuntimeException("Division by zero");
+                        }
+                        numbers[base + code[pc + 1]] = numbers[base + code[pc + 2]] / right;
+                        pc += 4;
+                        break;
+                    }
+                    case DNEG:
+                        numbers[base + code[pc + 1]] = -numbers[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case DLT:
+                        objects[base + code[pc + 1]] = numbers[base + code[pc + 2]] < numbers[base + code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case DLE:
+                        objects[base + code[pc + 1]] = numbers[base + code[pc + 2]] <= numbers[base + code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case DGT:
+                        objects[base + code[pc + 1]] = numbers[base + code[pc + 2]] > numbers[base + code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case DGE:
+                        objects[base + code[pc + 1]] = numbers[base + code[pc + 2]] >= numbers[base + code[pc + 3]];
+                        pc += 4;
+                        break;
+                    case GET_GLOBAL: {
+                        int slot = code[pc + 2];
+                        Object value = globals[slot];
+                        if (value == null) {
+                            throw new RuntimeException("Undefined global variable: " + bytecode.getGlobals().getName(slot));
+                        }
+                        objects[base + code[pc + 1]] = value;
+                        pc += 3;
+                        break;
+                    }
+                    case SET_GLOBAL:
+                        globals[code[pc + 1]] = objects[base + code[pc + 2]];
+                        pc += 3;
+                        break;
+                    case CALL:
+                    case CALL_DIRECT: {
+                        int argumentCount = code[pc + 3];
+                        ensureRegisters(top + argumentCount);
+                        objects = registers;
+                        numbers = numberRegisters;
+                        for (int i = 0; i < argumentCount; i++) {
+                            objects[top + i] = objects[base + code[pc + 4 + i]];
+                        }
+                        Object callee = code[pc] == RegisterOp.CALL.ordinal()
+                            ? objects[base + code[pc + 2]] : constants[code[pc + 2]];
+                        Object result = callFromRegisters(callee, top, argumentCount);
+                        // The call may have grown the register file
+                        objects = registers;
+                        numbers = numberRegisters;
+                        objects[base + code[pc + 1]] = result;
+                        pc += 4 + argumentCount;
+                        break;
+                    }
+                    case PRINT:
+                        System.out.println(objects[base + code[pc + 1]]);
+                        pc += 2;
+                        break;
+                    case JUMP: {
+                        int target = code[pc + 1];
+                        if (profiling && target < pc) {
+                            CompiledFunction compiled = tierUp(function, registerCode, 1);
+                            if (compiled != null) {
+                                Object result = compiled.run(this, base, target);
+                                if (result != JitRuntime.DEOPTIMIZE) {
+                                    return result;
+                                }
+                                pc = deoptimize(registerCode);
+                                objects = registers;
+                                numbers = numberRegisters;
+                                break;
+                            }
+                        }
+                        pc = target;
+                        break;
+                    }
+                    case JUMP_IF_FALSE:
+                        pc = isTruthy(objects[base + code[pc + 1]]) ? pc + 3 : code[pc + 2];
+                        break;
+                    case JUMP_IF_NOT_DLT:
+                        pc = numbers[base + code[pc + 1]] < numbers[base + code[pc + 2]] ? pc + 4 : code[pc + 3];
+                        break;
+                    case JUMP_IF_NOT_DLE:
+                        pc = numbers[base + code[pc + 1]] <= numbers[base + code[pc + 2]] ? pc + 4 : code[pc + 3];
+                        break;
+                    case JUMP_IF_NOT_DGT:
+                        pc = numbers[base + code[pc + 1]] > numbers[base + code[pc + 2]] ? pc + 4 : code[pc + 3];
+                        break;
+                    case JUMP_IF_NOT_DGE:
+                        pc = numbers[base + code[pc + 1]] >= numbers[base + code[pc + 2]] ? pc + 4 : code[pc + 3];
+                        break;
+                    case RETURN:
+                        return objects[base + code[pc + 1]];
+                    default:
+                        throw new RuntimeException("Unsupported register opcode: " + RegisterOp.of(code[pc]));
+                }
+            }
+        } finally {
+            Arrays.fill(registers, base, top, null);
+            registerTop = savedTop;
+            registerDepth--;
+        }
+    }
+
+    /**
+     * Calls a value with the arguments in the registers starting at base.
+     * A function with register code runs in a window there; anything else
+     * is pushed and called on the stack, running the packed loop until it
+     * returns.
+     */
+    Object callFromRegisters(Object callee, int base, int argumentCount) {
+        if (callee instanceof Function && ((Function) callee).getRegisterCode() != null) {
+            Function function = (Function) callee;
+            if (argumentCount != function.getArity()) {
+                throw new RuntimeException("Expected " + function.getArity() + " arguments but got "
+                    + argumentCount + " in call to " + function.getName());
+            }
+            return runRegisters(function, base);
+        }
+        int depth = frameCount;
+        int returnAddress = programCounter;
+        int savedExit = exitDepth;
+        push(callee);
+        for (int i = 0; i < argumentCount; i++) {
+            push(registers[base + i]);
+        }
+        call(argumentCount);
+        if (frameCount > depth) {
+            exitDepth = depth;
+            try {
+                runPacked();
+            } finally {
+                exitDepth = savedExit;
+            }
+        }
+        programCounter = returnAddress;
+        return pop();
+    }
+
+    /**
+     * Counts weight toward compiling a function, compiling it on reaching
+     * the threshold, and returns its compiled code if it has any.
+     */
+    private CompiledFunction tierUp(Function function, RegisterCode registerCode, int weight) {
+        if (registerCode.compiled == null && !registerCode.interpretOnly) {
+            registerCode.hotness += weight;
+            if (registerCode.hotness >= jitThreshold) {
+                registerCode.hotness = 0;
+                registerCode.compiled = JitCompiler.compile(function);
+                if (registerCode.compiled == null) {
+                    registerCode.interpretOnly = true;
+                } else {
+                    compilations++;
+                }
+            }
+        }
+        return registerCode.compiled;
+    }
+
+    /**
+     * Drops a function's compiled code after a type check in it failed,
+     * marking the operation that failed as generic so a recompilation
+     * does not speculate on it again, and returns where to resume.
+     */
+    private int deoptimize(RegisterCode registerCode) {
+        deoptimizations++;
+        registerCode.compiled = null;
+        registerCode.feedback[deoptimizeAt] |= JitCompiler.SEEN_OTHER;
+        if (++registerCode.deoptimizations >= MAX_DEOPTIMIZATIONS) {
+            registerCode.interpretOnly = true;
+        }
+        return deoptimizeAt;
+    }
+
+    private static void observe(byte[] feedback, int pc, Object left, Object right) {
+        feedback[pc] |= left instanceof Double && right instanceof Double
+            ? JitCompiler.SEEN_NUMBERS : JitCompiler.SEEN_OTHER;
+    }
+
+    void ensureRegisters(int size) {
+        if (size > registers.length) {
+            int capacity = Math.max(size, registers.length * 2);
+            registers = Arrays.copyOf(registers, capacity);
+            numberRegisters = Arrays.copyOf(numberRegisters, capacity);
+        }
+    }
+
+    /**
+     * Whether a value counts as true for JUMP_IF_FALSE.
+     *
+     * @see Operators#isTruthy
+     */
+    public static boolean isTruthy(Object value) {
+        return Operators.isTruthy(value);
+    }
+
+    /**
+     * Calls a function from the host: pushes it and its arguments, then
+     * enters it as CALL would.
+     */
     public void callFunction(String name, Object[] args) {
-        Integer offset = bytecode.getFunctionOffset(name);
-        if (offset == null) {
+        Function function = bytecode.getFunction(name);
+        if (function == null) {
             throw new RuntimeException("Function not found: " + name);
         }
+        push(function);
+        for (Object arg : args) {
+            push(arg);
+        }
+        call(args.length);
+    }
+
+    /**
+     * Calls the function that sits on the stack below its arguments. The
+     * arguments stay where they are and become the callee's first locals;
+     * the rest of its frame is reserved above them.
+     */
+    public void call(int argumentCount) {
+        int base = stackPointer - argumentCount;
+        if (base < 1) {
+            throw new RuntimeException("Stack underflow");
+        }
+        Object callee = stack[base - 1];
+        if (callee instanceof Closure) {
+            Closure closure = (Closure) callee;
+            enter(closure.getFunction(), closure, argumentCount, base - 1);
+        } else if (callee instanceof Function) {
+            enter((Function) callee, null, argumentCount, base - 1);
+        } else if (callee instanceof BoundMethod) {
+            // The receiver takes the callee's slot and becomes local 0
+            BoundMethod bound = (BoundMethod) callee;
+            stack[base - 1] = bound.getReceiver();
+            enterMethod(bound.getMethod(), argumentCount, base - 1);
+        } else if (callee instanceof VeloxClass) {
+            instantiate((VeloxClass) callee, argumentCount, base - 1);
+        } else {
+            throw new RuntimeException("Can only call functions, got: " + Slots.box(stack, primitives, base - 1));
+        }
+    }
+
+    /**
+     * Calls a method on the receiver below the arguments, entering it with
+     * the receiver as this, without binding it first. A field of the
+     * method's name holds the value to call instead, as obj.name(...) would
+     * read it.
+     */
+    public void invoke(MethodCache cache, int argumentCount) {
+        int receiverSlot = stackPointer - argumentCount - 1;
+        if (receiverSlot < 0) {
+            throw new RuntimeException("Stack underflow");
+        }
+        Object receiver = Slots.box(stack, primitives, receiverSlot);
+        if (!(receiver instanceof Instance)) {
+            throw new RuntimeException("Only instances have methods, got: " + receiver);
+        }
+        Instance instance = (Instance) receiver;
+        int target = cache.lookup(instance);
+        if (target >= 0) {
+            enterMethod(instance.getKlass().vtable[target], argumentCount, receiverSlot);
+        } else {
+            stack[receiverSlot] = instance.fields[-1 - target];
+            call(argumentCount);
+        }
+    }
 
-        // Save current state
-        callStack.push(new CallFrame(programCounter, args.length, stack.size() - args.length));
+    /**
+     * Calls a superclass method on this: the superclass the calling method's
+     * class was declared with is on top of the stack, above the arguments
+     * and the receiver.
+     */
+    public void invokeSuper(MethodCache cache, int argumentCount) {
+        VeloxClass superclass = (VeloxClass) pop();
+        int receiverSlot = stackPointer - argumentCount - 1;
+        if (receiverSlot < 0) {
+            throw new RuntimeException("Stack underflow");
+        }
+        enterMethod(superclass.vtable[cache.lookupSuper(superclass)], argumentCount, receiverSlot);
+    }
 
-        // Set up arguments as locals
-        for (int i = 0; i < args.length; i++) {
-            setLocal(i, args[i]);
+    /**
+     * Creates an instance of a class in place of the class on the stack,
+     * and runs its init method with the instance as this, if it has one.
+     * init returns this, so either way the instance is the call's result.
+     */
+    private void instantiate(VeloxClass klass, int argumentCount, int calleeSlot) {
+        stack[calleeSlot] = new Instance(klass);
+        Object initializer = klass.findMethod(VeloxClass.INITIALIZER);
+        if (initializer != null) {
+            enterMethod(initializer, argumentCount, calleeSlot);
+        } else if (argumentCount != 0) {
+            throw new RuntimeException("Expected 0 arguments but got " + argumentCount
+                + " in call to " + klass.getName());
+        } else {
+            stackPointer = calleeSlot + 1;
         }
+    }
 
-        // Jump to function
-        programCounter = offset;
+    /**
+     * Enters a method whose receiver is in the slot below its arguments.
+     * Methods take the receiver as a hidden first parameter.
+     */
+    private void enterMethod(Object method, int argumentCount, int receiverSlot) {
+        Closure closure = method instanceof Closure ? (Closure) method : null;
+        Function function = closure != null ? closure.getFunction() : (Function) method;
+        if (argumentCount + 1 != function.getArity()) {
+            throw new RuntimeException("Expected " + (function.getArity() - 1) + " arguments but got "
+                + argumentCount + " in call to " + function.getName());
+        }
+        enter(function, closure, argumentCount + 1, receiverSlot);
+    }
+
+    /**
+     * Calls a statically known function whose arguments are on top of the
+     * stack. No callee is pushed, so the result replaces the first argument.
+     */
+    public void callDirect(Function function) {
+        int argumentCount = function.getArity();
+        if (argumentCount == Function.UNCHECKED_ARITY) {
+            throw new RuntimeException("Direct call needs a fixed arity: " + function);
+        }
+        if (stackPointer < argumentCount) {
+            throw new RuntimeException("Stack underflow");
+        }
+        enter(function, null, argumentCount, stackPointer - argumentCount);
     }
 
+    private void enter(Function function, Closure closure, int argumentCount, int resultSlot) {
+        int arity = function.getArity();
+        if (arity != Function.UNCHECKED_ARITY && argumentCount != arity) {
+            throw new RuntimeException("Expected " + arity + " arguments but got " + argumentCount
+                + " in call to " + function.getName());
+        }
+        int entry = function.getEntry();
+        if (entry < 0) {
+            throw new RuntimeException("Function declared but not defined: " + function.getName());
+        }
+        if (closure == null && function.getUpvalueCount() > 0) {
+            throw new RuntimeException("Function captures variables but was called without a closure: "
+                + function.getName());
+        }
+        if ((activeEngine == ExecutionEngine.REGISTER || activeEngine == ExecutionEngine.JIT) && function.getRegisterCode() != null) {
+            int base = registerTop;
+            ensureRegisters(base + argumentCount);
+            for (int i = 0; i < argumentCount; i++) {
+                registers[base + i] = Slots.box(stack, primitives, stackPointer - argumentCount + i);
+            }
+            Object result = runRegisters(function, base);
+            while (stackPointer > resultSlot) {
+                stack[--stackPointer] = null;
+            }
+            stack[stackPointer++] = result;
+            return;
+        }
+        if (frameCount == frames.length) {
+            throw error("Stack overflow: call depth exceeds " + frames.length, programCounter - 1);
+        }
+        CallFrame caller = frames[frameCount - 1];
+        CallFrame enclosingFrame = null;
+        if (function.getEnclosing() != null) {
+            // Called from the enclosing function itself or from a sibling
+            // that shares its frame
+            enclosingFrame = caller.getFunction() == function.getEnclosing() ? caller : caller.getEnclosing();
+            if (enclosingFrame == null) {
+                throw new RuntimeException(function.getName() + " called outside " + function.getEnclosing().getName());
+            }
+        }
+        int base = stackPointer - argumentCount;
+        int size = Math.max(argumentCount, function.getFrameSize());
+        int top = base + size;
+        if (top > stack.length) {
+            throw error("Stack overflow: operand stack exceeds " + stack.length, programCounter - 1);
+        }
+
+        // Locals past the arguments start out nil
+        for (int i = stackPointer; i < top; i++) {
+            stack[i] = null;
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame(stack, primitives);
+            frames[frameCount] = frame;
+        }
+        frame.enter(programCounter, base, size, resultSlot, function, closure, enclosingFrame);
+        frameCount++;
+        stackPointer = top;
+        programCounter = entry;
+    }
+
+    /**
+     * Leaves the current function, replacing its frame, and the callee slot
+     * below it if the call pushed one, with the result.
+     */
     public void returnFromFunction(Object result) {
-        if (callStack.isEmpty()) {
+        if (frameCount == 1) {
             throw new RuntimeException("No active function call");
         }
 
-        CallFrame frame = callStack.pop();
+        CallFrame frame = frames[--frameCount];
         programCounter = frame.getReturnAddress();
-        
-        // Clear stack up to base pointer
-        while (stack.size() > frame.getBasePointer()) {
-            stack.pop();
+        closeOpenUpvalues(frame.getBasePointer());
+
+        int resultSlot = frame.getResultSlot();
+        while (stackPointer > resultSlot) {
+            stack[--stackPointer] = null;
+        }
+        push(result);
+    }
+
+    /**
+     * Pushes a closure over a function, capturing the variables it lists
+     * from the current frame.
+     */
+    public void pushClosure(Function function) {
+        push(newClosure(function, frames[frameCount - 1]));
+    }
+
+    private Closure newClosure(Function function, CallFrame frame) {
+        Upvalue[] upvalues = new Upvalue[function.getUpvalueCount()];
+        for (int i = 0; i < upvalues.length; i++) {
+            int index = function.getCaptureIndex(i);
+            switch (function.getCaptureKind(i)) {
+                case Function.CAPTURE_LOCAL:
+                    if (frame == frames[0]) {
+                        throw new RuntimeException("Top-level locals cannot be captured: " + function.getName());
+                    }
+                    upvalues[i] = captureUpvalue(frame.getBasePointer() + index);
+                    break;
+                case Function.CAPTURE_UPVALUE:
+                    upvalues[i] = frame.getClosure().upvalues[index];
+                    break;
+                default:
+                    upvalues[i] = captureUpvalue(frame.getEnclosing().getBasePointer() + index);
+                    break;
+            }
+        }
+        return new Closure(function, upvalues);
+    }
+
+    /**
+     * Returns the open upvalue for a stack slot, creating it if no closure
+     * has captured the slot yet, so that closures share captured variables.
+     */
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.getSlot() > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.getSlot() == slot) {
+            return upvalue;
+        }
+        Upvalue created = new Upvalue(slot);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeOpenUpvalues(int fromSlot) {
+        while (openUpvalues != null && openUpvalues.getSlot() >= fromSlot) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.close(stack, primitives);
+            openUpvalues = upvalue.next;
+            upvalue.next = null;
         }
-        
-        // Push result
-        if (result != null) {
-            stack.push(result);
+    }
+
+    /**
+     * Closes the upvalues of the current frame's locals from a slot up, as
+     * the block that declared them ends.
+     */
+    public void closeUpvalues(int slot) {
+        closeOpenUpvalues(frames[frameCount - 1].getBasePointer() + slot);
+    }
+
+    public Object getUpvalue(int index) {
+        return currentClosure().upvalues[index].get(stack, primitives);
+    }
+
+    public void setUpvalue(int index, Object value) {
+        currentClosure().upvalues[index].set(stack, value);
+    }
+
+    private Closure currentClosure() {
+        Closure closure = frames[frameCount - 1].getClosure();
+        if (closure == null) {
+            throw new RuntimeException("No closure in the current frame");
+        }
+        return closure;
+    }
+
+    /**
+     * Reads a local of the enclosing function's frame, from a local function
+     * that shares it.
+     */
+    public Object getEnclosingLocal(int index) {
+        return enclosingFrame().getLocal(index);
+    }
+
+    public void setEnclosingLocal(int index, Object value) {
+        enclosingFrame().setLocal(index, value);
+    }
+
+    private CallFrame enclosingFrame() {
+        CallFrame enclosing = frames[frameCount - 1].getEnclosing();
+        if (enclosing == null) {
+            throw new RuntimeException("No enclosing frame for the current function");
         }
+        return enclosing;
     }
 
     public void push(Object value) {
-        stack.push(value);
+        if (stackPointer == stack.length) {
+            throw error("Stack overflow: operand stack exceeds " + stack.length, programCounter - 1);
+        }
+        stack[stackPointer++] = value;
     }
 
     public Object pop() {
-        if (stack.isEmpty()) {
+        if (stackPointer == 0) {
             throw new RuntimeException("Stack underflow");
         }
-        return stack.pop();
+        stackPointer--;
+        return Slots.box(stack, primitives, stackPointer);
     }
 
     public Object peek() {
-        if (stack.isEmpty()) {
+        if (stackPointer == 0) {
             throw new RuntimeException("Stack underflow");
         }
-        return stack.peek();
+        return Slots.box(stack, primitives, stackPointer - 1);
     }
 
     public void setLocal(int index, Object value) {
-        if (callStack.isEmpty()) {
-            throw new RuntimeException("No active function call");
-        }
-        callStack.peek().setLocal(index, value);
+        frames[frameCount - 1].setLocal(index, value);
     }
 
     public Object getLocal(int index) {
-        if (callStack.isEmpty()) {
-            throw new RuntimeException("No active function call");
-        }
-        return callStack.peek().getLocal(index);
+        return frames[frameCount - 1].getLocal(index);
     }
 
+    /**
+     * Sets a global by name. This is the slow path for hosts such as the
+     * REPL; compiled code reaches globals through their slots.
+     */
     public void setGlobal(String name, Object value) {
-        globals.put(name, value);
+        setGlobal(bytecode.getGlobals().resolve(name), value);
     }
 
+    /**
+     * Returns a global by name, or null if it is undefined.
+     */
     public Object getGlobal(String name) {
-        return globals.get(name);
+        int slot = bytecode.getGlobals().lookup(name);
+        return slot < 0 ? null : getGlobal(slot);
+    }
+
+    public void setGlobal(int slot, Object value) {
+        ensureGlobalCapacity(slot + 1);
+        globals[slot] = value;
+    }
+
+    public Object getGlobal(int slot) {
+        return slot < globals.length ? globals[slot] : null;
+    }
+
+    /**
+     * Returns the table that maps global names to the slots used by
+     * {@link #getGlobal(int)} and {@link #setGlobal(int, Object)}.
+     */
+    public GlobalTable getGlobalTable() {
+        return bytecode.getGlobals();
+    }
+
+    private void ensureGlobalCapacity(int size) {
+        if (size > globals.length) {
+            globals = Arrays.copyOf(globals, Math.max(size, globals.length * 2));
+        }
     }
 
     public Constant getConstant(int index) {
@@ -133,12 +1503,16 @@ public class VirtualMachine {
     }
 
     public void jump(int offset) {
-        if (offset < 0 || offset >= bytecode.getInstructionCount()) {
+        // Jumping to the end of the program is how forward jumps finish it
+        if (offset < 0 || offset > bytecode.getInstructionCount()) {
             throw new RuntimeException("Invalid jump offset: " + offset);
         }
         programCounter = offset;
     }
 
+    /**
+     * Ends the run before the next instruction; it cannot be continued.
+     */
     public void stop() {
         running = false;
     }
@@ -147,34 +1521,246 @@ public class VirtualMachine {
         return running;
     }
 
+    public int getFrameCount() {
+        return frameCount;
+    }
+
     public int getProgramCounter() {
         return programCounter;
     }
 
-    public Stack<Object> getStack() {
-        return stack;
+    /**
+     * Returns a read-only view of the operand stack, bottom first.
+     */
+    public List<Object> getStack() {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int index) {
+                Objects.checkIndex(index, stackPointer);
+                return Slots.box(stack, primitives, index);
+            }
+
+            @Override
+            public int size() {
+                return stackPointer;
+            }
+        };
     }
 
-    public Stack<CallFrame> getCallStack() {
-        return callStack;
+    /**
+     * Returns a read-only view of the active call frames, outermost first.
+     */
+    public List<CallFrame> getCallStack() {
+        return new AbstractList<CallFrame>() {
+            @Override
+            public CallFrame get(int index) {
+                Objects.checkIndex(index, frameCount);
+                return frames[index];
+            }
+
+            @Override
+            public int size() {
+                return frameCount;
+            }
+        };
     }
 
+    Bytecode getBytecode() {
+        return bytecode;
+    }
+
+    public int getStackSize() {
+        return stack.length;
+    }
+
+    public int getMaxFrames() {
+        return frames.length;
+    }
+
+    /**
+     * In debug mode the VM traces every instruction to the debug output, and
+     * records runtime errors and carries on instead of rethrowing them.
+     */
     public void setDebugMode(boolean debugMode) {
         this.debugMode = debugMode;
     }
 
+    /**
+     * Sets a listener for the VM's instruction, call, return and throw
+     * events, or null for none. Runs with a listener, or in debug mode, use
+     * the instrumented loop; the others pay nothing for it.
+     */
+    public void setExecutionListener(ExecutionListener listener) {
+        this.listener = listener;
+    }
+
+    public ExecutionListener getExecutionListener() {
+        return listener;
+    }
+
+    public void setEngine(ExecutionEngine engine) {
+        this.engine = engine;
+        this.activeEngine = engine;
+    }
+
+    public ExecutionEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets how many calls and loop iterations a function runs interpreted
+     * before the JIT engine compiles it.
+     */
+    public void setJitThreshold(int jitThreshold) {
+        if (jitThreshold <= 0) {
+            throw new IllegalArgumentException("JIT threshold must be positive");
+        }
+        this.jitThreshold = jitThreshold;
+    }
+
+    /** Number of functions the JIT engine has compiled. */
+    public int getCompilations() {
+        return compilations;
+    }
+
+    /** Number of times compiled code handed back to the interpreter. */
+    public int getDeoptimizations() {
+        return deoptimizations;
+    }
+
+    /** Number of instructions the switch engines quickened from type feedback. */
+    public int getQuickenings() {
+        return quickenings;
+    }
+
+    /** Number of times a quickened instruction's check failed and it went back to generic. */
+    public int getDequickenings() {
+        return dequickenings;
+    }
+
     public void setDebugOutput(PrintStream debugOutput) {
         this.debugOutput = debugOutput;
     }
 
+    /**
+     * Creates a runtime error for the instruction being executed, located
+     * at its source line.
+     */
+    public RuntimeError error(String message) {
+        return error(message, programCounter - 1);
+    }
+
+    private RuntimeError error(String message, int index) {
+        return new RuntimeError(message, index, bytecode.getLine(index));
+    }
+
+    /**
+     * Creates the exception that throws a value from the instruction being
+     * executed.
+     */
+    public VeloxException exception(Object value) {
+        return exception(value, programCounter - 1);
+    }
+
+    private VeloxException exception(Object value, int index) {
+        return new VeloxException(value, index, bytecode.getLine(index));
+    }
+
+    /**
+     * Finds the handler for an exception raised by the instruction at an
+     * index, searching the current frame's handler table and then those of
+     * its callers at their calls, down to the frame this run of the
+     * interpreter started in. Returns the handler's instruction index with
+     * the frames above its own popped, its stack cut back to its locals
+     * and the thrown value pushed: a thrown value itself, or the reason of
+     * an error the VM raised. Returns -1 if no handler catches it, popping
+     * the frames of a nested run so that the run that called into it can
+     * look next. Other Java exceptions are VM bugs, which no handler
+     * catches.
+     */
+    private int unwind(RuntimeException exception, int index) {
+        Object value = caughtValue(exception);
+        for (int depth = frameCount - 1; value != NOT_CAUGHT && depth >= exitDepth; depth--) {
+            CallFrame frame = frames[depth];
+            for (ExceptionHandler handler : bytecode.handlersOf(frame.getFunction())) {
+                if (!handler.covers(index)) {
+                    continue;
+                }
+                popFrames(depth + 1);
+                closeOpenUpvalues(frame.getBasePointer() + handler.getFirstLocal());
+                int base = frame.getStackBase();
+                for (int i = base; i < stackPointer; i++) {
+                    stack[i] = null;
+                }
+                stackPointer = base;
+                push(value);
+                return handler.targetIndex;
+            }
+            index = frame.getReturnAddress() - 1;
+        }
+        if (exitDepth > 0) {
+            popFrames(exitDepth);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value a handler receives for an exception, or NOT_CAUGHT
+     * if it is not one the VM raises on purpose: those are RuntimeErrors,
+     * including thrown values, and plain RuntimeExceptions.
+     */
+    private static Object caughtValue(RuntimeException exception) {
+        if (exception instanceof VeloxException) {
+            return ((VeloxException) exception).getValue();
+        }
+        if (exception instanceof RuntimeError) {
+            return ((RuntimeError) exception).getReason();
+        }
+        return exception.getClass() == RuntimeException.class ? exception.getMessage() : NOT_CAUGHT;
+    }
+
+    private void popFrames(int depth) {
+        while (frameCount > depth) {
+            closeOpenUpvalues(frames[--frameCount].getBasePointer());
+        }
+    }
+
+    /**
+     * Copies the functions of the active frames, outermost first, and the
+     * index of the instruction each is at, and returns how many there are.
+     * The arrays must hold getMaxFrames() entries.
+     *
+     * The sampling profiler calls this from its own thread while the VM
+     * runs, without synchronizing, so a sample may be torn by a call or
+     * return happening meanwhile; a torn sample is off by a frame, not
+     * unsafe. The switch engines keep pc in a local and publish it only at
+     * calls, returns and back edges, so their samples place the innermost
+     * frame at the last of those. Functions running on register code have
+     * no frames and show up as the stack function that called them.
+     */
+    int sample(Function[] functions, int[] indices) {
+        int count = frameCount;
+        int index = programCounter - 1;
+        for (int i = count - 1; i >= 0; i--) {
+            CallFrame frame = frames[i];
+            functions[i] = frame.getFunction();
+            indices[i] = index;
+            index = frame.getReturnAddress() - 1;
+        }
+        return count;
+    }
+
     private void handleError(RuntimeError error) {
         errors.add(error);
         if (debugMode) {
             debugOutput.println("Error: " + error.getMessage());
             debugOutput.println("At instruction: " + error.getInstructionIndex());
+            if (error.getLine() > 0) {
+                debugOutput.println("At line: " + error.getLine());
+            }
             debugOutput.println("Stack trace:");
-            for (CallFrame frame : callStack) {
-                debugOutput.println("  at " + frame.getReturnAddress());
+            for (int i = frameCount - 1; i > 0; i--) {
+                debugOutput.println("  at " + frames[i].getReturnAddress());
             }
         }
     }
@@ -182,4 +1768,49 @@ public class VirtualMachine {
     public List<RuntimeError> getErrors() {
         return Collections.unmodifiableList(errors);
     }
-} 
\ No newline at end of file
+
+    /**
+     * Prints each step of a debug-mode run, then passes events on to the
+     * listener set on the VM, if any.
+     */
+    private static final class DebugTrace implements ExecutionListener {
+        private final PrintStream output;
+        private final ExecutionListener next;
+
+        DebugTrace(PrintStream output, ExecutionListener next) {
+            this.output = output;
+            this.next = next;
+        }
+
+        @Override
+        public void onInstruction(VirtualMachine vm, int index) {
+            output.println("PC: " + index);
+            output.println("Stack: " + vm.getStack());
+            output.println("Call Stack: " + vm.getFrameCount());
+            if (next != null) {
+                next.onInstruction(vm, index);
+            }
+        }
+
+        @Override
+        public void onCall(VirtualMachine vm, Function function) {
+            if (next != null) {
+                next.onCall(vm, function);
+            }
+        }
+
+        @Override
+        public void onReturn(VirtualMachine vm, Function function) {
+            if (next != null) {
+                next.onReturn(vm, function);
+            }
+        }
+
+        @Override
+        public void onThrow(VirtualMachine vm, RuntimeException exception, int index) {
+            if (next != null) {
+                next.onThrow(vm, exception, index);
+            }
+        }
+    }
+}
@@ -1,19 +1,20 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.Operators;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class AndInstruction implements Instruction {
     @Override
     public void execute(VirtualMachine vm) {
-        Object right = vm.pop();
-        Object left = vm.pop();
-        
-        if (left instanceof Boolean && right instanceof Boolean) {
-            vm.push((Boolean) left && (Boolean) right);
-        } else {
-            throw new RuntimeException("Invalid operands for logical AND");
-        }
+        boolean right = Operators.bool(vm.pop(), "logical AND");
+        vm.push(Operators.bool(vm.pop(), "logical AND") && right);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.AND;
     }
 
     @Override
@@ -0,0 +1,42 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Function;
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+/**
+ * Calls the function held in a constant. Its arguments are on the stack
+ * and their count is the function's arity.
+ */
+public class CallDirectInstruction implements Instruction {
+    private final int constantIndex;
+
+    public CallDirectInstruction(int constantIndex) {
+        this.constantIndex = constantIndex;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        Object value = vm.getConstant(constantIndex).getValue();
+        if (!(value instanceof Function)) {
+            throw new RuntimeException("CALL_DIRECT target is not a function: " + value);
+        }
+        vm.callDirect((Function) value);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.CALL_DIRECT;
+    }
+
+    @Override
+    public int getOperand() {
+        return constantIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "CALL_DIRECT " + constantIndex;
+    }
+}
@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class CallInstruction implements Instruction {
@@ -12,21 +13,18 @@ public class CallInstruction implements Instruction {
 
     @Override
     public void execute(VirtualMachine vm) {
-        // Get the function object from the stack
-        Object function = vm.pop();
-        
-        // Get the arguments from the stack
-        Object[] args = new Object[argumentCount];
-        for (int i = argumentCount - 1; i >= 0; i--) {
-            args[i] = vm.pop();
-        }
-        
-        // Call the function
-        if (function instanceof String) {
-            vm.callFunction((String)function, args);
-        } else {
-            throw new RuntimeException("Invalid function object");
-        }
+        // The function sits below its arguments, which become its locals
+        vm.call(argumentCount);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.CALL;
+    }
+
+    @Override
+    public int getOperand() {
+        return argumentCount;
     }
 
     @Override
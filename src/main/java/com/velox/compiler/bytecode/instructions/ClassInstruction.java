@@ -0,0 +1,36 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VeloxClass;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class ClassInstruction implements Instruction {
+    private final int nameIndex;
+    private final String name;
+
+    public ClassInstruction(int nameIndex, String name) {
+        this.nameIndex = nameIndex;
+        this.name = name;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(new VeloxClass(name));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.CLASS;
+    }
+
+    @Override
+    public int getOperand() {
+        return nameIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "CLASS " + name;
+    }
+}
@@ -0,0 +1,33 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class CloseUpvaluesInstruction implements Instruction {
+    private final int slot;
+
+    public CloseUpvaluesInstruction(int slot) {
+        this.slot = slot;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.closeUpvalues(slot);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.CLOSE_UPVALUES;
+    }
+
+    @Override
+    public int getOperand() {
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return "CLOSE_UPVALUES " + slot;
+    }
+}
@@ -0,0 +1,38 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Function;
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class ClosureInstruction implements Instruction {
+    private final int constantIndex;
+
+    public ClosureInstruction(int constantIndex) {
+        this.constantIndex = constantIndex;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        Object value = vm.getConstant(constantIndex).getValue();
+        if (!(value instanceof Function)) {
+            throw new RuntimeException("CLOSURE operand is not a function: " + value);
+        }
+        vm.pushClosure((Function) value);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.CLOSURE;
+    }
+
+    @Override
+    public int getOperand() {
+        return constantIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "CLOSURE " + constantIndex;
+    }
+}
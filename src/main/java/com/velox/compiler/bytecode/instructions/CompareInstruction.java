@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class CompareInstruction implements Instruction {
@@ -74,6 +75,23 @@ public class CompareInstruction implements Instruction {
         }
     }
 
+    @Override
+    public OpCode getOpCode() {
+        switch (operator) {
+            case EQUALS: return OpCode.EQUAL;
+            case NOT_EQUALS: return OpCode.NOT_EQUAL;
+            case LESS_THAN: return OpCode.LESS;
+            case LESS_EQUALS: return OpCode.LESS_EQUAL;
+            case GREATER_THAN: return OpCode.GREATER;
+            case GREATER_EQUALS: return OpCode.GREATER_EQUAL;
+            default: throw new RuntimeException("Invalid comparison operator");
+        }
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
     @Override
     public String toString() {
         return "CMP " + operator;
@@ -1,6 +1,8 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.Operators;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class DivideInstruction implements Instruction {
@@ -8,16 +10,12 @@ public class DivideInstruction implements Instruction {
     public void execute(VirtualMachine vm) {
         Object right = vm.pop();
         Object left = vm.pop();
-        
-        if (left instanceof Number && right instanceof Number) {
-            double rightValue = ((Number) right).doubleValue();
-            if (rightValue == 0) {
-                throw new RuntimeException("Division by zero");
-            }
-            vm.push(((Number) left).doubleValue() / rightValue);
-        } else {
-            throw new RuntimeException("Invalid operands for division");
-        }
+        vm.push(Operators.divide(left, right));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.DIVIDE;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class DupInstruction implements Instruction {
@@ -10,6 +11,11 @@ public class DupInstruction implements Instruction {
         vm.push(value);
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.DUP;
+    }
+
     @Override
     public String toString() {
         return "DUP";
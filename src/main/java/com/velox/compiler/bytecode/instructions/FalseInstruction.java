@@ -0,0 +1,22 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class FalseInstruction implements Instruction {
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(false);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.FALSE;
+    }
+
+    @Override
+    public String toString() {
+        return "FALSE";
+    }
+}
@@ -0,0 +1,41 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.PropertyCache;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class GetPropertyInstruction implements Instruction {
+    private final int nameIndex;
+    // Shared with the packed code, which runs the same site
+    private final PropertyCache cache;
+
+    public GetPropertyInstruction(int nameIndex, String name) {
+        this.nameIndex = nameIndex;
+        this.cache = new PropertyCache(name);
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(cache.get(vm.pop()));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.GET_PROPERTY;
+    }
+
+    @Override
+    public int getOperand() {
+        return nameIndex;
+    }
+
+    public PropertyCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "GET_PROPERTY " + cache.getName();
+    }
+}
@@ -0,0 +1,38 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VeloxClass;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class GetSuperInstruction implements Instruction {
+    private final int nameIndex;
+    private final String name;
+
+    public GetSuperInstruction(int nameIndex, String name) {
+        this.nameIndex = nameIndex;
+        this.name = name;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        // The superclass sits above the receiver
+        VeloxClass superclass = (VeloxClass) vm.pop();
+        vm.push(superclass.bindMethod(vm.pop(), name));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.GET_SUPER;
+    }
+
+    @Override
+    public int getOperand() {
+        return nameIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "GET_SUPER " + name;
+    }
+}
@@ -1,6 +1,8 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.Operators;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class GreaterInstruction implements Instruction {
@@ -8,12 +10,12 @@ public class GreaterInstruction implements Instruction {
     public void execute(VirtualMachine vm) {
         Object right = vm.pop();
         Object left = vm.pop();
-        
-        if (left instanceof Number && right instanceof Number) {
-            vm.push(((Number) left).doubleValue() > ((Number) right).doubleValue());
-        } else {
-            throw new RuntimeException("Invalid operands for greater than comparison");
-        }
+        vm.push(Operators.greater(left, right));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.GREATER;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class HaltInstruction implements Instruction {
@@ -9,6 +10,11 @@ public class HaltInstruction implements Instruction {
         vm.stop();
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.HALT;
+    }
+
     @Override
     public String toString() {
         return "HALT";
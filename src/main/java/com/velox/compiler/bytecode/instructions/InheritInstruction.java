@@ -0,0 +1,25 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VeloxClass;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class InheritInstruction implements Instruction {
+    @Override
+    public void execute(VirtualMachine vm) {
+        // The superclass sits above the class being defined
+        Object superclass = vm.pop();
+        ((VeloxClass) vm.peek()).inherit(superclass);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.INHERIT;
+    }
+
+    @Override
+    public String toString() {
+        return "INHERIT";
+    }
+}
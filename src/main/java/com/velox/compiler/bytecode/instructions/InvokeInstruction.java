@@ -0,0 +1,56 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.MethodCache;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+/**
+ * A method call: INVOKE_METHOD on the receiver below the arguments, or
+ * INVOKE_SUPER on the superclass above them.
+ */
+public class InvokeInstruction implements Instruction {
+    private final OpCode opcode;
+    private final int nameIndex;
+    private final int argumentCount;
+    // Shared with the packed code, which runs the same site
+    private final MethodCache cache;
+
+    public InvokeInstruction(OpCode opcode, int nameIndex, String name, int argumentCount) {
+        if (opcode != OpCode.INVOKE_METHOD && opcode != OpCode.INVOKE_SUPER) {
+            throw new IllegalArgumentException("Not an invoke opcode: " + opcode);
+        }
+        this.opcode = opcode;
+        this.nameIndex = nameIndex;
+        this.argumentCount = argumentCount;
+        this.cache = new MethodCache(name);
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        if (opcode == OpCode.INVOKE_SUPER) {
+            vm.invokeSuper(cache, argumentCount);
+        } else {
+            vm.invoke(cache, argumentCount);
+        }
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return opcode;
+    }
+
+    @Override
+    public int getOperand() {
+        return argumentCount << 16 | nameIndex;
+    }
+
+    public MethodCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return opcode + " " + cache.getName() + " " + argumentCount;
+    }
+}
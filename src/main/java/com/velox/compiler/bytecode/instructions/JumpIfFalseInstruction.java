@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class JumpIfFalseInstruction implements Instruction {
@@ -30,6 +31,16 @@ public class JumpIfFalseInstruction implements Instruction {
         return true;
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.JUMP_IF_FALSE;
+    }
+
+    @Override
+    public int getOperand() {
+        return offset;
+    }
+
     @Override
     public String toString() {
         return "JUMP_IF_FALSE " + offset;
@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class JumpInstruction implements Instruction {
@@ -19,6 +20,16 @@ public class JumpInstruction implements Instruction {
         vm.jump(offset);
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.JUMP;
+    }
+
+    @Override
+    public int getOperand() {
+        return offset;
+    }
+
     @Override
     public String toString() {
         return "JUMP " + offset;
@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class LoadConstantInstruction implements Instruction {
@@ -15,6 +16,16 @@ public class LoadConstantInstruction implements Instruction {
         vm.push(vm.getConstant(index).getValue());
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.CONSTANT;
+    }
+
+    @Override
+    public int getOperand() {
+        return index;
+    }
+
     @Override
     public String toString() {
         return "LOAD_CONST " + index;
@@ -0,0 +1,33 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class LoadEnclosingInstruction implements Instruction {
+    private final int index;
+
+    public LoadEnclosingInstruction(int index) {
+        this.index = index;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(vm.getEnclosingLocal(index));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.GET_ENCLOSING;
+    }
+
+    @Override
+    public int getOperand() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "LOAD_ENCLOSING " + index;
+    }
+}
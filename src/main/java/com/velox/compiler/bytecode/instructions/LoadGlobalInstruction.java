@@ -1,10 +1,15 @@
 package com.velox.compiler.bytecode.instructions;
 
+import com.velox.compiler.bytecode.GlobalTable;
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class LoadGlobalInstruction implements Instruction {
     private final String name;
+    // Inline cache: the slot of name in the last table this ran against
+    private GlobalTable cachedTable;
+    private int cachedSlot;
 
     public LoadGlobalInstruction(String name) {
         this.name = name;
@@ -12,13 +17,31 @@ public class LoadGlobalInstruction implements Instruction {
 
     @Override
     public void execute(VirtualMachine vm) {
-        Object value = vm.getGlobal(name);
+        Object value = vm.getGlobal(slot(vm));
         if (value == null) {
             throw new RuntimeException("Undefined global variable: " + name);
         }
         vm.push(value);
     }
 
+    private int slot(VirtualMachine vm) {
+        GlobalTable table = vm.getGlobalTable();
+        if (table != cachedTable) {
+            cachedSlot = table.resolve(name);
+            cachedTable = table;
+        }
+        return cachedSlot;
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.GET_GLOBAL;
+    }
+
+    public String getName() {
+        return name;
+    }
+
     @Override
     public String toString() {
         return "LOAD_GLOBAL " + name;
@@ -0,0 +1,33 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class LoadUpvalueInstruction implements Instruction {
+    private final int index;
+
+    public LoadUpvalueInstruction(int index) {
+        this.index = index;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(vm.getUpvalue(index));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.GET_UPVALUE;
+    }
+
+    @Override
+    public int getOperand() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "LOAD_UPVALUE " + index;
+    }
+}
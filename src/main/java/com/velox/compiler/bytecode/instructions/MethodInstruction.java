@@ -0,0 +1,38 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VeloxClass;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class MethodInstruction implements Instruction {
+    private final int nameIndex;
+    private final String name;
+
+    public MethodInstruction(int nameIndex, String name) {
+        this.nameIndex = nameIndex;
+        this.name = name;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        // The method sits above the class being defined
+        Object method = vm.pop();
+        ((VeloxClass) vm.peek()).defineMethod(name, method);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.METHOD;
+    }
+
+    @Override
+    public int getOperand() {
+        return nameIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "METHOD " + name;
+    }
+}
@@ -1,6 +1,8 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.Operators;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class MultiplyInstruction implements Instruction {
@@ -8,18 +10,12 @@ public class MultiplyInstruction implements Instruction {
     public void execute(VirtualMachine vm) {
         Object right = vm.pop();
         Object left = vm.pop();
-        
-        if (left instanceof Number && right instanceof Number) {
-            if (left instanceof Double || right instanceof Double) {
-                vm.push(((Number) left).doubleValue() * ((Number) right).doubleValue());
-            } else if (left instanceof Long || right instanceof Long) {
-                vm.push(((Number) left).longValue() * ((Number) right).longValue());
-            } else {
-                vm.push(((Number) left).intValue() * ((Number) right).intValue());
-            }
-        } else {
-            throw new RuntimeException("Invalid operands for multiplication");
-        }
+        vm.push(Operators.multiply(left, right));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.MULTIPLY;
     }
 
     @Override
@@ -0,0 +1,23 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.Operators;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class NegateInstruction implements Instruction {
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(Operators.negate(vm.pop()));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.NEGATE;
+    }
+
+    @Override
+    public String toString() {
+        return "NEGATE";
+    }
+}
@@ -0,0 +1,22 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class NilInstruction implements Instruction {
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(null);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.NIL;
+    }
+
+    @Override
+    public String toString() {
+        return "NIL";
+    }
+}
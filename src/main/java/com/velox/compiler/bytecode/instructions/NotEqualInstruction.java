@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 import java.util.Objects;
 
@@ -12,6 +13,11 @@ public class NotEqualInstruction implements Instruction {
         vm.push(!Objects.equals(left, right));
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.NOT_EQUAL;
+    }
+
     @Override
     public String toString() {
         return "NOT_EQUAL";
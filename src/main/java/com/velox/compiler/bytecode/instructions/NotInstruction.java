@@ -1 +1,23 @@
- 
\ No newline at end of file
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.Operators;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class NotInstruction implements Instruction {
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(!Operators.bool(vm.pop(), "logical NOT"));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.NOT;
+    }
+
+    @Override
+    public String toString() {
+        return "NOT";
+    }
+}
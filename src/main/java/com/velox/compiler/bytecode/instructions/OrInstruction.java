@@ -1 +1,24 @@
- 
\ No newline at end of file
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.Operators;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class OrInstruction implements Instruction {
+    @Override
+    public void execute(VirtualMachine vm) {
+        boolean right = Operators.bool(vm.pop(), "logical OR");
+        vm.push(Operators.bool(vm.pop(), "logical OR") || right);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.OR;
+    }
+
+    @Override
+    public String toString() {
+        return "OR";
+    }
+} 
\ No newline at end of file
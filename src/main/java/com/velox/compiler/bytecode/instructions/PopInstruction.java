@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class PopInstruction implements Instruction {
@@ -9,6 +10,11 @@ public class PopInstruction implements Instruction {
         vm.pop();
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.POP;
+    }
+
     @Override
     public String toString() {
         return "POP";
@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class PrintInstruction implements Instruction {
@@ -10,6 +11,11 @@ public class PrintInstruction implements Instruction {
         System.out.println(value);
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.PRINT;
+    }
+
     @Override
     public String toString() {
         return "PRINT";
@@ -1,12 +1,22 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class ReturnInstruction implements Instruction {
     @Override
     public void execute(VirtualMachine vm) {
-        vm.stop();
+        if (vm.getFrameCount() > 1) {
+            vm.returnFromFunction(vm.pop());
+        } else {
+            vm.stop();
+        }
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.RETURN;
     }
 
     @Override
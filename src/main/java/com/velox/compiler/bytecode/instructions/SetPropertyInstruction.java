@@ -0,0 +1,44 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.PropertyCache;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class SetPropertyInstruction implements Instruction {
+    private final int nameIndex;
+    // Shared with the packed code, which runs the same site
+    private final PropertyCache cache;
+
+    public SetPropertyInstruction(int nameIndex, String name) {
+        this.nameIndex = nameIndex;
+        this.cache = new PropertyCache(name);
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        // Assignment is an expression: the value stays on the stack
+        Object value = vm.pop();
+        cache.set(vm.pop(), value);
+        vm.push(value);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.SET_PROPERTY;
+    }
+
+    @Override
+    public int getOperand() {
+        return nameIndex;
+    }
+
+    public PropertyCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return "SET_PROPERTY " + cache.getName();
+    }
+}
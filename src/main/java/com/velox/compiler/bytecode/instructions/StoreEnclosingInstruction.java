@@ -0,0 +1,34 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class StoreEnclosingInstruction implements Instruction {
+    private final int index;
+
+    public StoreEnclosingInstruction(int index) {
+        this.index = index;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        Object value = vm.pop();
+        vm.setEnclosingLocal(index, value);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.SET_ENCLOSING;
+    }
+
+    @Override
+    public int getOperand() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "STORE_ENCLOSING " + index;
+    }
+}
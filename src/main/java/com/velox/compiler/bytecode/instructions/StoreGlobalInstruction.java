@@ -1,10 +1,15 @@
 package com.velox.compiler.bytecode.instructions;
 
+import com.velox.compiler.bytecode.GlobalTable;
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class StoreGlobalInstruction implements Instruction {
     private final String name;
+    // Inline cache: the slot of name in the last table this ran against
+    private GlobalTable cachedTable;
+    private int cachedSlot;
 
     public StoreGlobalInstruction(String name) {
         this.name = name;
@@ -13,7 +18,25 @@ public class StoreGlobalInstruction implements Instruction {
     @Override
     public void execute(VirtualMachine vm) {
         Object value = vm.pop();
-        vm.setGlobal(name, value);
+        vm.setGlobal(slot(vm), value);
+    }
+
+    private int slot(VirtualMachine vm) {
+        GlobalTable table = vm.getGlobalTable();
+        if (table != cachedTable) {
+            cachedSlot = table.resolve(name);
+            cachedTable = table;
+        }
+        return cachedSlot;
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.SET_GLOBAL;
+    }
+
+    public String getName() {
+        return name;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class StoreLocalInstruction implements Instruction {
@@ -16,6 +17,16 @@ public class StoreLocalInstruction implements Instruction {
         vm.setLocal(index, value);
     }
 
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.SET_LOCAL;
+    }
+
+    @Override
+    public int getOperand() {
+        return index;
+    }
+
     @Override
     public String toString() {
         return "STORE_LOCAL " + index;
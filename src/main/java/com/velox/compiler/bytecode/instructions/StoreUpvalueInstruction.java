@@ -0,0 +1,34 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class StoreUpvalueInstruction implements Instruction {
+    private final int index;
+
+    public StoreUpvalueInstruction(int index) {
+        this.index = index;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        Object value = vm.pop();
+        vm.setUpvalue(index, value);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.SET_UPVALUE;
+    }
+
+    @Override
+    public int getOperand() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "STORE_UPVALUE " + index;
+    }
+}
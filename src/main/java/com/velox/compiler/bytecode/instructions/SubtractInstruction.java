@@ -1,6 +1,8 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.Operators;
 import com.velox.compiler.bytecode.VirtualMachine;
 
 public class SubtractInstruction implements Instruction {
@@ -8,14 +10,12 @@ public class SubtractInstruction implements Instruction {
     public void execute(VirtualMachine vm) {
         Object right = vm.pop();
         Object left = vm.pop();
-        
-        if (left instanceof Integer && right instanceof Integer) {
-            vm.push((Integer) left - (Integer) right);
-        } else if (left instanceof Double && right instanceof Double) {
-            vm.push((Double) left - (Double) right);
-        } else {
-            throw new RuntimeException("Invalid operands for subtraction");
-        }
+        vm.push(Operators.subtract(left, right));
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.SUBTRACT;
     }
 
     @Override
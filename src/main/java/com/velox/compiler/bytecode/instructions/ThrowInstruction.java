@@ -1,18 +1,18 @@
 package com.velox.compiler.bytecode.instructions;
 
 import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
 import com.velox.compiler.bytecode.VirtualMachine;
-import com.velox.compiler.error.RuntimeError;
 
 public class ThrowInstruction implements Instruction {
     @Override
     public void execute(VirtualMachine vm) {
-        Object error = vm.pop();
-        if (error instanceof String) {
-            throw new RuntimeError((String) error, vm.getProgramCounter() - 1);
-        } else {
-            throw new RuntimeError(error.toString(), vm.getProgramCounter() - 1);
-        }
+        throw vm.exception(vm.pop());
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.THROW;
     }
 
     @Override
@@ -0,0 +1,22 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+public class TrueInstruction implements Instruction {
+    @Override
+    public void execute(VirtualMachine vm) {
+        vm.push(true);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.TRUE;
+    }
+
+    @Override
+    public String toString() {
+        return "TRUE";
+    }
+}
@@ -0,0 +1,76 @@
+package com.velox.compiler.bytecode.instructions;
+
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+
+/**
+ * Arithmetic or comparison on operands whose type the compiler has proven:
+ * the I* opcodes work on integers and the D* opcodes on doubles.
+ */
+public class TypedArithmeticInstruction implements Instruction {
+    private final OpCode opcode;
+
+    public TypedArithmeticInstruction(OpCode opcode) {
+        if (opcode.compareTo(OpCode.IADD) < 0 || opcode.compareTo(OpCode.DGE) > 0) {
+            throw new IllegalArgumentException("Not a typed arithmetic opcode: " + opcode);
+        }
+        this.opcode = opcode;
+    }
+
+    @Override
+    public void execute(VirtualMachine vm) {
+        Object right = vm.pop();
+        Object left = vm.pop();
+
+        switch (opcode) {
+            case IADD: vm.push(asLong(left) + asLong(right)); break;
+            case ISUB: vm.push(asLong(left) - asLong(right)); break;
+            case IMUL: vm.push(asLong(left) * asLong(right)); break;
+            case ILT: vm.push(asLong(left) < asLong(right)); break;
+            case ILE: vm.push(asLong(left) <= asLong(right)); break;
+            case IGT: vm.push(asLong(left) > asLong(right)); break;
+            case IGE: vm.push(asLong(left) >= asLong(right)); break;
+            case DADD: vm.push(asDouble(left) + asDouble(right)); break;
+            case DSUB: vm.push(asDouble(left) - asDouble(right)); break;
+            case DMUL: vm.push(asDouble(left) * asDouble(right)); break;
+            case DDIV: {
+                double divisor = asDouble(right);
+                if (divisor == 0) {
+                    throw new RuntimeException("Division by zero");
+                }
+                vm.push(asDouble(left) / divisor);
+                break;
+            }
+            case DLT: vm.push(asDouble(left) < asDouble(right)); break;
+            case DLE: vm.push(asDouble(left) <= asDouble(right)); break;
+            case DGT: vm.push(asDouble(left) > asDouble(right)); break;
+            case DGE: vm.push(asDouble(left) >= asDouble(right)); break;
+            default: throw new RuntimeException("Invalid typed arithmetic opcode: " + opcode);
+        }
+    }
+
+    private static long asLong(Object value) {
+        if (value instanceof Long || value instanceof Integer) {
+            return ((Number) value).longValue();
+        }
+        throw new RuntimeException("Operands must be integers");
+    }
+
+    private static double asDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new RuntimeException("Operands must be numbers");
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return opcode;
+    }
+
+    @Override
+    public String toString() {
+        return opcode.name();
+    }
+}
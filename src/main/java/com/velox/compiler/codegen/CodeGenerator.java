@@ -4,9 +4,21 @@ import com.velox.compiler.ast.*;
 import com.velox.compiler.ast.expressions.*;
 import com.velox.compiler.ast.statements.*;
 import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.Function;
 import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VeloxClass;
+import com.velox.compiler.ir.IrBuilder;
+import com.velox.compiler.ir.IrFunction;
+import com.velox.compiler.ir.IrLowering;
+import com.velox.compiler.ir.RegisterLowering;
+import com.velox.compiler.semantic.Type;
+import com.velox.compiler.semantic.TypeChecker;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
 
 /**
  * Generates bytecode from an AST.
@@ -15,12 +27,21 @@ public class CodeGenerator implements StmtVisitor {
     private final Bytecode bytecode;
     private final Map<String, Integer> functionOffsets;
     private final Map<String, Integer> localVariables;
+    // Top-level functions, which calls bind to statically
+    private final Map<String, Function> functions;
+    // The function being generated, or null at top level
+    private FunctionScope scope;
     private boolean debugInfoEnabled;
+    private TypeChecker typeChecker;
+    // Runs the IR passes over a function before it is lowered, or null to
+    // generate every function straight from the tree
+    private UnaryOperator<IrFunction> irOptimizer;
 
     public CodeGenerator() {
         this.bytecode = new Bytecode();
         this.functionOffsets = new HashMap<>();
         this.localVariables = new HashMap<>();
+        this.functions = new HashMap<>();
         this.debugInfoEnabled = false;
     }
 
@@ -32,6 +53,24 @@ public class CodeGenerator implements StmtVisitor {
         this.debugInfoEnabled = enabled;
     }
 
+    /**
+     * Supplies proven operand types. Binary operators whose operands are
+     * known to be numbers are emitted as typed opcodes.
+     */
+    public void setTypeChecker(TypeChecker typeChecker) {
+        this.typeChecker = typeChecker;
+    }
+
+    /**
+     * Generates top-level functions the IR can express through it: each is
+     * built as IR, handed to the optimizer and lowered to bytecode, and to
+     * register code for the REGISTER engine. Other functions and top-level
+     * code are generated from the tree.
+     */
+    public void setIrOptimizer(UnaryOperator<IrFunction> irOptimizer) {
+        this.irOptimizer = irOptimizer;
+    }
+
     public Bytecode generate(ModuleNode node) {
         node.accept(this);
         return bytecode;
@@ -42,12 +81,40 @@ public class CodeGenerator implements StmtVisitor {
         for (ImportNode import_ : node.getImports()) {
             import_.accept(this);
         }
+        // Declare top-level functions up front so that calls, including
+        // ones ahead of the declaration, can name them directly. A function
+        // the program assigns over is called through its global instead.
+        Set<String> assigned = assignedNames(node);
+        for (AST declaration : node.getDeclarations()) {
+            if (declaration instanceof FunctionStmt && !assigned.contains(((FunctionStmt) declaration).getName().getLexeme())) {
+                FunctionStmt function = (FunctionStmt) declaration;
+                String name = function.getName().getLexeme();
+                functions.put(name, bytecode.declareFunction(name, function.getParameters().size()));
+            }
+        }
         for (AST declaration : node.getDeclarations()) {
             declaration.accept(this);
         }
         return null;
     }
 
+    /**
+     * Names assigned anywhere in a module, including inside functions.
+     */
+    private static Set<String> assignedNames(ModuleNode node) {
+        Set<String> assigned = new HashSet<>();
+        ASTTransformer scan = new ASTTransformer() {
+            @Override
+            public Object visitAssignExpr(AssignExpr expr) {
+                assigned.add(expr.getName().getLexeme());
+                return super.visitAssignExpr(expr);
+            }
+        };
+        node.getDeclarations().forEach(scan::transform);
+        node.getStatements().forEach(scan::transform);
+        return assigned;
+    }
+
     @Override
     public Object visitModule(ModuleNode node) {
         return visitModuleNode(node);
@@ -91,9 +158,10 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitMethod(MethodNode node) {
-        String name = node.getName().getLexeme();
-        functionOffsets.put(name, bytecode.getCurrentOffset());
-        
+        // Methods are reached through their class's method table, so unlike
+        // functions they are not recorded in functionOffsets, where methods
+        // of different classes would collide
+
         // Save current locals
         Map<String, Integer> previousLocals = new HashMap<>(localVariables);
         localVariables.clear();
@@ -225,27 +293,71 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitVariableExpr(VariableExpr node) {
-        String name = node.getToken().getLexeme();
+        emitVariable(node.getToken().getLexeme(), false);
+        return null;
+    }
+
+    /**
+     * Loads or stores a variable: a local of the current function, a local
+     * of the enclosing frame for functions that share it, an upvalue, or
+     * failing those a global.
+     */
+    private void emitVariable(String name, boolean store) {
         Integer slot = localVariables.get(name);
         if (slot != null) {
-            bytecode.emit(OpCode.GET_LOCAL, slot);
-        } else {
-            bytecode.emit(OpCode.GET_GLOBAL, name);
+            bytecode.emit(store ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, slot.intValue());
+            return;
         }
-        return null;
+        if (scope != null && scope.shared) {
+            Integer outer = scope.enclosingLocals.get(name);
+            if (outer != null) {
+                bytecode.emit(store ? OpCode.SET_ENCLOSING : OpCode.GET_ENCLOSING, outer.intValue());
+                return;
+            }
+        } else if (scope != null) {
+            int upvalue = resolveUpvalue(scope, name);
+            if (upvalue >= 0) {
+                bytecode.emit(store ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, upvalue);
+                return;
+            }
+        }
+        bytecode.emit(store ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, name);
+    }
+
+    /**
+     * Returns the index of the upvalue through which a function reaches a
+     * variable of an enclosing function, adding it if needed, or -1 if no
+     * enclosing function declares the name.
+     */
+    private int resolveUpvalue(FunctionScope function, String name) {
+        if (function.enclosing == null) {
+            // Top-level functions see top-level names as globals
+            return -1;
+        }
+        Integer local = function.enclosingLocals.get(name);
+        if (local != null) {
+            function.enclosing.captured.add(local);
+            return function.addUpvalue(bytecode, Function.CAPTURE_LOCAL, local);
+        }
+        if (function.enclosing.shared) {
+            Integer outer = function.enclosing.enclosingLocals.get(name);
+            if (outer == null) {
+                return -1;
+            }
+            function.enclosing.enclosing.captured.add(outer);
+            return function.addUpvalue(bytecode, Function.CAPTURE_ENCLOSING, outer);
+        }
+        int upvalue = resolveUpvalue(function.enclosing, name);
+        return upvalue < 0 ? -1 : function.addUpvalue(bytecode, Function.CAPTURE_UPVALUE, upvalue);
     }
 
     @Override
     public Object visitAssignExpr(AssignExpr node) {
-        String name = node.getToken().getLexeme();
+        String name = node.getName().getLexeme();
         node.getValue().accept(this);
-        
-        Integer slot = localVariables.get(name);
-        if (slot != null) {
-            bytecode.emit(OpCode.SET_LOCAL, slot);
-        } else {
-            bytecode.emit(OpCode.SET_GLOBAL, name);
-        }
+        // Assignment is an expression: keep a copy of the value on the stack
+        bytecode.emit(OpCode.DUP);
+        emitVariable(name, true);
         return null;
     }
 
@@ -253,6 +365,14 @@ public class CodeGenerator implements StmtVisitor {
     public Object visitBinaryExpr(BinaryExpr node) {
         node.getLeft().accept(this);
         node.getRight().accept(this);
+        // Errors in the operator point at the operator's line
+        markLine(node);
+
+        OpCode typed = typedOpCode(node);
+        if (typed != null) {
+            bytecode.emit(typed);
+            return null;
+        }
 
         switch (node.getOperator().getType()) {
             case PLUS: bytecode.emit(OpCode.ADD); break;
@@ -271,9 +391,47 @@ public class CodeGenerator implements StmtVisitor {
         return null;
     }
 
+    private OpCode typedOpCode(BinaryExpr node) {
+        if (typeChecker == null) {
+            return null;
+        }
+        Type left = typeChecker.getType(node.getLeft());
+        Type right = typeChecker.getType(node.getRight());
+        if (left == Type.INTEGER && right == Type.INTEGER) {
+            switch (node.getOperator().getType()) {
+                case PLUS: return OpCode.IADD;
+                case MINUS: return OpCode.ISUB;
+                case STAR: return OpCode.IMUL;
+                case SLASH: return OpCode.DDIV;
+                case LESS: return OpCode.ILT;
+                case LESS_EQUAL: return OpCode.ILE;
+                case GREATER: return OpCode.IGT;
+                case GREATER_EQUAL: return OpCode.IGE;
+                default: return null;
+            }
+        }
+        boolean numeric = (left == Type.NUMBER || left == Type.INTEGER)
+            && (right == Type.NUMBER || right == Type.INTEGER);
+        if (numeric) {
+            switch (node.getOperator().getType()) {
+                case PLUS: return OpCode.DADD;
+                case MINUS: return OpCode.DSUB;
+                case STAR: return OpCode.DMUL;
+                case SLASH: return OpCode.DDIV;
+                case LESS: return OpCode.DLT;
+                case LESS_EQUAL: return OpCode.DLE;
+                case GREATER: return OpCode.DGT;
+                case GREATER_EQUAL: return OpCode.DGE;
+                default: return null;
+            }
+        }
+        return null;
+    }
+
     @Override
     public Object visitUnaryExpr(UnaryExpr node) {
         node.getRight().accept(this);
+        markLine(node);
 
         switch (node.getOperator().getType()) {
             case MINUS: bytecode.emit(OpCode.NEGATE); break;
@@ -286,16 +444,92 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitCallExpr(CallExpr node) {
+        if (node.getCallee() instanceof GetExpr) {
+            // obj.name(args) calls the method without binding it first
+            GetExpr callee = (GetExpr) node.getCallee();
+            callee.getObject().accept(this);
+            for (AST argument : node.getArguments()) {
+                argument.accept(this);
+            }
+            markLine(node);
+            bytecode.emitInvoke(OpCode.INVOKE_METHOD, callee.getName().getLexeme(), node.getArguments().size());
+            return null;
+        }
+        if (node.getCallee() instanceof SuperExpr) {
+            SuperExpr callee = (SuperExpr) node.getCallee();
+            VariableExpr superclass = superclass(callee);
+            emitVariable("this", false);
+            for (AST argument : node.getArguments()) {
+                argument.accept(this);
+            }
+            superclass.accept(this);
+            markLine(node);
+            bytecode.emitInvoke(OpCode.INVOKE_SUPER, callee.getMethod().getLexeme(), node.getArguments().size());
+            return null;
+        }
+
+        Function target = directTarget(node.getCallee());
+        if (target != null && node.getArguments().size() != target.getArity()) {
+            // A call with the wrong number of arguments fails when it runs,
+            // through the arity check of a plain call
+            bytecode.emit(OpCode.CONSTANT, target);
+            for (AST argument : node.getArguments()) {
+                argument.accept(this);
+            }
+            markLine(node);
+            bytecode.emit(OpCode.CALL, node.getArguments().size());
+            return null;
+        }
+        if (target != null) {
+            for (AST argument : node.getArguments()) {
+                argument.accept(this);
+            }
+            markLine(node);
+            bytecode.emit(OpCode.CALL_DIRECT, target);
+            return null;
+        }
+
         node.getCallee().accept(this);
         
         for (AST argument : node.getArguments()) {
             argument.accept(this);
         }
         
+        markLine(node);
         bytecode.emit(OpCode.CALL, node.getArguments().size());
         return null;
     }
 
+    /**
+     * Returns the function a callee names if it is known statically: a
+     * top-level function, or a local function that never escapes, unless a
+     * variable shadows it.
+     */
+    private Function directTarget(AST callee) {
+        if (!(callee instanceof VariableExpr)) {
+            return null;
+        }
+        String name = ((VariableExpr) callee).getToken().getLexeme();
+        if (localVariables.containsKey(name)) {
+            return null;
+        }
+        if (scope != null) {
+            Function local = scope.localFunctions.get(name);
+            if (local == null && scope.shared) {
+                local = scope.enclosing.localFunctions.get(name);
+            }
+            if (local != null) {
+                return local;
+            }
+            for (FunctionScope function = scope; function.enclosing != null; function = function.enclosing) {
+                if (function.enclosingLocals.containsKey(name)) {
+                    return null;
+                }
+            }
+        }
+        return functions.get(name);
+    }
+
     @Override
     public Object visitGetExpr(GetExpr node) {
         node.getObject().accept(this);
@@ -319,30 +553,65 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitThisExpr(ThisExpr node) {
-        bytecode.emit(OpCode.GET_LOCAL, 0); // 'this' is always in slot 0
+        enclosingMethod("this");
+        // Local 0 of the method, or captured from it by a nested function
+        emitVariable("this", false);
         return null;
     }
 
     @Override
     public Object visitSuperExpr(SuperExpr node) {
-        bytecode.emit(OpCode.GET_LOCAL, 0); // 'this' is always in slot 0
-        bytecode.emit(OpCode.GET_PROPERTY, node.getMethod().getLexeme());
+        // super.name read as a value: the superclass method bound to this
+        VariableExpr superclass = superclass(node);
+        emitVariable("this", false);
+        superclass.accept(this);
+        markLine(node);
+        bytecode.emit(OpCode.GET_SUPER, node.getMethod().getLexeme());
         return null;
     }
 
+    /**
+     * Returns the scope of the method the code being generated is in, the
+     * current function or one enclosing it.
+     */
+    private FunctionScope enclosingMethod(String keyword) {
+        FunctionScope method = scope;
+        while (method != null && method.methodOf == null) {
+            method = method.enclosing;
+        }
+        if (method == null) {
+            throw new RuntimeException("Cannot use '" + keyword + "' outside of a method");
+        }
+        return method;
+    }
+
+    /**
+     * Returns the superclass a super expression refers to: the one named in
+     * the declaration of the enclosing method's class, looked up again where
+     * it is used.
+     */
+    private VariableExpr superclass(SuperExpr node) {
+        ClassStmt klass = enclosingMethod("super").methodOf;
+        if (klass.getSuperclass() == null) {
+            throw new RuntimeException("Cannot use 'super' in a class with no superclass: "
+                + klass.getName().getLexeme());
+        }
+        return klass.getSuperclass();
+    }
+
     @Override
     public Object visitIfStmt(IfStmt node) {
+        markLine(node);
         node.getCondition().accept(this);
         
+        // JUMP_IF_FALSE pops the condition on both paths
         int elseJump = bytecode.emitJump(OpCode.JUMP_IF_FALSE);
-        bytecode.emit(OpCode.POP); // Pop the condition
         
         node.getThenBranch().accept(this);
         
         int endJump = bytecode.emitJump(OpCode.JUMP);
         
         bytecode.patchJump(elseJump);
-        bytecode.emit(OpCode.POP); // Pop the condition
         
         if (node.getElseBranch() != null) {
             node.getElseBranch().accept(this);
@@ -354,23 +623,30 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitWhileStmt(WhileStmt node) {
+        markLine(node);
         int loopStart = bytecode.getCurrentOffset();
         
         node.getCondition().accept(this);
         int exitJump = bytecode.emitJump(OpCode.JUMP_IF_FALSE);
         
-        bytecode.emit(OpCode.POP); // Pop the condition
         node.getBody().accept(this);
         
         bytecode.emitLoop(loopStart);
         
         bytecode.patchJump(exitJump);
-        bytecode.emit(OpCode.POP); // Pop the condition
         return null;
     }
 
     @Override
     public Object visitReturnStmt(ReturnStmt node) {
+        markLine(node);
+        if (scope != null && scope.initializer) {
+            if (node.getValue() != null) {
+                throw new RuntimeException("Cannot return a value from an initializer");
+            }
+            emitImplicitReturn();
+            return null;
+        }
         if (node.getValue() != null) {
             node.getValue().accept(this);
         } else {
@@ -380,12 +656,58 @@ public class CodeGenerator implements StmtVisitor {
         return null;
     }
 
+    @Override
+    public Object visitThrowStmt(ThrowStmt node) {
+        markLine(node);
+        node.getValue().accept(this);
+        bytecode.emit(OpCode.THROW);
+        return null;
+    }
+
+    /**
+     * Emits the body followed by a jump over the catch block, and records
+     * the body's range in the exception handler table of the function being
+     * generated. The VM enters the catch block with the thrown value on the
+     * stack, which it stores in the catch variable.
+     */
+    @Override
+    public Object visitTryStmt(TryStmt node) {
+        markLine(node);
+        int firstLocal = localVariables.size();
+        int start = bytecode.getCurrentOffset();
+        node.getBody().accept(this);
+        int end = bytecode.getCurrentOffset();
+        int exitJump = bytecode.emitJump(OpCode.JUMP);
+
+        int handler = bytecode.getCurrentOffset();
+        Map<String, Integer> previousLocals = new HashMap<>(localVariables);
+        int slot = declareLocal(node.getCatchName().getLexeme());
+        bytecode.emit(OpCode.SET_LOCAL, slot);
+        node.getCatchBody().accept(this);
+        if (scope != null && scope.capturesFrom(slot)) {
+            bytecode.emit(OpCode.CLOSE_UPVALUES, slot);
+        }
+        localVariables.clear();
+        localVariables.putAll(previousLocals);
+        bytecode.patchJump(exitJump);
+
+        // Nested try statements finish first, so tables list them innermost first
+        bytecode.addHandler(scope != null ? scope.function : null, start, end, handler, firstLocal);
+        return null;
+    }
+
     @Override
     public Object visitBlockStmt(BlockStmt node) {
         Map<String, Integer> previousLocals = new HashMap<>(localVariables);
+        int firstSlot = localVariables.size();
         for (AST statement : node.getStatements()) {
             statement.accept(this);
         }
+        // Closures made in the block keep the block's variables, and the
+        // slots are reused once it ends
+        if (scope != null && scope.capturesFrom(firstSlot)) {
+            bytecode.emit(OpCode.CLOSE_UPVALUES, firstSlot);
+        }
         localVariables.clear();
         localVariables.putAll(previousLocals);
         return null;
@@ -393,6 +715,7 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitExpressionStmt(ExpressionStmt stmt) {
+        markLine(stmt);
         stmt.getExpression().accept(this);
         bytecode.emit(OpCode.POP); // Pop the expression result since it's a statement
         return null;
@@ -400,9 +723,9 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitVarStmt(VarStmt stmt) {
+        markLine(stmt);
         String name = stmt.getName().getLexeme();
-        int slot = localVariables.size();
-        localVariables.put(name, slot);
+        int slot = declareLocal(name);
 
         if (stmt.getInitializer() != null) {
             stmt.getInitializer().accept(this);
@@ -415,6 +738,7 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitPrintStmt(PrintStmt stmt) {
+        markLine(stmt);
         stmt.getExpression().accept(this);
         bytecode.emit(OpCode.PRINT);
         return null;
@@ -422,18 +746,57 @@ public class CodeGenerator implements StmtVisitor {
 
     @Override
     public Object visitFunctionStmt(FunctionStmt stmt) {
+        markLine(stmt);
         String name = stmt.getName().getLexeme();
-        functionOffsets.put(name, bytecode.getCurrentOffset());
+        FunctionScope enclosing = scope;
+        Function function;
+        boolean shared = false;
+        int bindingSlot = -1;
+        if (enclosing == null) {
+            function = functions.get(name);
+            if (function == null) {
+                function = bytecode.declareFunction(name, stmt.getParameters().size());
+            }
+        } else if (enclosing.nonEscaping.contains(stmt)) {
+            // Called directly from here to the end of the enclosing body
+            function = bytecode.declareFunction(name, stmt.getParameters().size(), enclosing.function);
+            enclosing.localFunctions.put(name, function);
+            shared = true;
+        } else {
+            function = bytecode.declareFunction(name, stmt.getParameters().size());
+            // Bound before the body so the function can refer to itself
+            bindingSlot = declareLocal(name);
+        }
+
+        // The body is emitted in line with the surrounding code; jump over it
+        int skipJump = bytecode.emitJump(OpCode.JUMP);
+        int offset = bytecode.getCurrentOffset();
+
+        IrFunction ir = enclosing == null && irOptimizer != null ? new IrBuilder(functions).build(stmt) : null;
+        if (ir != null) {
+            IrFunction optimized = irOptimizer.apply(ir);
+            bytecode.defineFunction(function, offset, new IrLowering(bytecode).lower(optimized));
+            bytecode.defineRegisterCode(function, new RegisterLowering(bytecode).lower(optimized));
+            bytecode.patchJump(skipJump);
+            markLine(stmt);
+            bytecode.emit(OpCode.CONSTANT, function);
+            bytecode.emit(OpCode.SET_GLOBAL, name);
+            return null;
+        }
         
         // Save current locals
         Map<String, Integer> previousLocals = new HashMap<>(localVariables);
+        scope = new FunctionScope(enclosing, function, shared, enclosing == null ? null : previousLocals);
         localVariables.clear();
         
         // Add parameters to locals
-        for (int i = 0; i < stmt.getParameters().size(); i++) {
-            Parameter param = stmt.getParameters().get(i);
-            localVariables.put(param.getName().getLexeme(), i);
+        for (Parameter param : stmt.getParameters()) {
+            declareLocal(param.getName().getLexeme());
         }
+
+        // Local functions that never escape are called directly and share
+        // this function's frame instead of becoming closures
+        scope.nonEscaping = EscapeAnalyzer.nonEscaping(stmt, scope.outerNames());
         
         // Generate function body
         for (AST statement : stmt.getBody()) {
@@ -445,35 +808,136 @@ public class CodeGenerator implements StmtVisitor {
             bytecode.emit(OpCode.NIL);
             bytecode.emit(OpCode.RETURN);
         }
+        bytecode.defineFunction(function, offset, scope.frameSize);
         
         // Restore previous locals
         localVariables.clear();
         localVariables.putAll(previousLocals);
-        
+        scope = enclosing;
+        bytecode.patchJump(skipJump);
+        markLine(stmt);
+
+        if (shared) {
+            // Only ever called directly, so it needs no value
+            return null;
+        }
+        if (function.getUpvalueCount() > 0) {
+            bytecode.emit(OpCode.CLOSURE, function);
+        } else {
+            bytecode.emit(OpCode.CONSTANT, function);
+        }
+        if (bindingSlot >= 0) {
+            bytecode.emit(OpCode.SET_LOCAL, bindingSlot);
+        } else {
+            bytecode.emit(OpCode.SET_GLOBAL, name);
+        }
         return null;
     }
 
+    /**
+     * Attributes the code emitted from here on to a node's line. Nodes built
+     * without a token have no line and leave the current one in place.
+     */
+    private void markLine(AST node) {
+        if (node.getStartLine() > 0) {
+            bytecode.setLine(node.getStartLine());
+        }
+    }
+
+    private int declareLocal(String name) {
+        int slot = localVariables.size();
+        localVariables.put(name, slot);
+        if (scope != null) {
+            scope.frameSize = Math.max(scope.frameSize, slot + 1);
+        }
+        return slot;
+    }
+
     @Override
     public Object visitClassStmt(ClassStmt stmt) {
+        markLine(stmt);
         String name = stmt.getName().getLexeme();
-        
-        // Emit class definition
-        bytecode.emit(OpCode.CONSTANT, name);
-        
-        // Handle inheritance if present
+        // Like functions, classes are globals at top level and locals
+        // elsewhere, bound before the methods so they can name the class
+        int bindingSlot = scope != null ? declareLocal(name) : -1;
+
+        bytecode.emit(OpCode.CLASS, name);
         if (stmt.getSuperclass() != null) {
+            if (stmt.getSuperclass().getToken().getLexeme().equals(name)) {
+                throw new RuntimeException("A class cannot inherit from itself: " + name);
+            }
             stmt.getSuperclass().accept(this);
-            bytecode.emit(OpCode.CONSTANT, "super");
+            bytecode.emit(OpCode.INHERIT);
         }
-        
-        // Generate method code
         for (FunctionStmt method : stmt.getMethods()) {
-            method.accept(this);
+            emitMethod(stmt, method);
+            bytecode.emit(OpCode.METHOD, method.getName().getLexeme());
+        }
+
+        markLine(stmt);
+        if (bindingSlot >= 0) {
+            bytecode.emit(OpCode.SET_LOCAL, bindingSlot);
+        } else {
+            bytecode.emit(OpCode.SET_GLOBAL, name);
         }
-        
         return null;
     }
 
+    /**
+     * Emits a method as a function value, named after its class. A method
+     * takes its receiver as a hidden first parameter: this is local 0, and
+     * the declared parameters follow. init returns this.
+     */
+    private void emitMethod(ClassStmt klass, FunctionStmt stmt) {
+        markLine(stmt);
+        String name = stmt.getName().getLexeme();
+        FunctionScope enclosing = scope;
+        Function function = bytecode.declareFunction(klass.getName().getLexeme() + "." + name,
+            stmt.getParameters().size() + 1);
+
+        int skipJump = bytecode.emitJump(OpCode.JUMP);
+        int offset = bytecode.getCurrentOffset();
+
+        Map<String, Integer> previousLocals = new HashMap<>(localVariables);
+        scope = new FunctionScope(enclosing, function, false, enclosing == null ? null : previousLocals);
+        scope.methodOf = klass;
+        scope.initializer = name.equals(VeloxClass.INITIALIZER);
+        localVariables.clear();
+
+        declareLocal("this");
+        for (Parameter param : stmt.getParameters()) {
+            declareLocal(param.getName().getLexeme());
+        }
+        scope.nonEscaping = EscapeAnalyzer.nonEscaping(stmt, scope.outerNames());
+        for (AST statement : stmt.getBody()) {
+            statement.accept(this);
+        }
+        if (stmt.getBody().isEmpty() || !(stmt.getBody().get(stmt.getBody().size() - 1) instanceof ReturnStmt)) {
+            emitImplicitReturn();
+        }
+        bytecode.defineFunction(function, offset, scope.frameSize);
+
+        localVariables.clear();
+        localVariables.putAll(previousLocals);
+        scope = enclosing;
+        bytecode.patchJump(skipJump);
+        markLine(stmt);
+        if (function.getUpvalueCount() > 0) {
+            bytecode.emit(OpCode.CLOSURE, function);
+        } else {
+            bytecode.emit(OpCode.CONSTANT, function);
+        }
+    }
+
+    private void emitImplicitReturn() {
+        if (scope.initializer) {
+            bytecode.emit(OpCode.GET_LOCAL, 0);
+        } else {
+            bytecode.emit(OpCode.NIL);
+        }
+        bytecode.emit(OpCode.RETURN);
+    }
+
     @Override
     public Object visitTypeAnnotation(TypeAnnotation type) {
         // Store type information in the constant pool for runtime type checking
@@ -486,4 +950,63 @@ public class CodeGenerator implements StmtVisitor {
         }
         return null;
     }
-} 
\ No newline at end of file
+
+    /**
+     * Compile-time state of a function being generated.
+     */
+    private static final class FunctionScope {
+        final FunctionScope enclosing;
+        final Function function;
+        // Whether the function reads its enclosing function's frame in
+        // place rather than through upvalues
+        final boolean shared;
+        // The enclosing function's locals where this one is declared, or
+        // null for a top-level function
+        final Map<String, Integer> enclosingLocals;
+        // Local functions declared directly in this one that never escape,
+        // and those of them declared so far
+        Set<FunctionStmt> nonEscaping = Collections.emptySet();
+        final Map<String, Function> localFunctions = new HashMap<>();
+        // Local slots captured by closures
+        final Set<Integer> captured = new HashSet<>();
+        final Map<Integer, Integer> upvalues = new HashMap<>();
+        int frameSize;
+        // The class of a method, which has this in local 0, and whether it
+        // is an init method, which returns this
+        ClassStmt methodOf;
+        boolean initializer;
+
+        FunctionScope(FunctionScope enclosing, Function function, boolean shared,
+                      Map<String, Integer> enclosingLocals) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.shared = shared;
+            this.enclosingLocals = enclosingLocals;
+        }
+
+        int addUpvalue(Bytecode bytecode, int kind, int index) {
+            return upvalues.computeIfAbsent(kind << 16 | index,
+                key -> bytecode.addCapture(function, kind, index));
+        }
+
+        boolean capturesFrom(int slot) {
+            for (int captured : this.captured) {
+                if (captured >= slot) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Names that resolve to the locals of enclosing functions.
+         */
+        Set<String> outerNames() {
+            Set<String> names = new HashSet<>();
+            for (FunctionScope scope = this; scope.enclosing != null; scope = scope.enclosing) {
+                names.addAll(scope.enclosingLocals.keySet());
+            }
+            return names;
+        }
+    }
+}
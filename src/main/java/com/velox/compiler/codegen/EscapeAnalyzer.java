@@ -0,0 +1,195 @@
+package com.velox.compiler.codegen;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.Parameter;
+import com.velox.compiler.ast.VarStmt;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import java.util.*;
+
+/**
+ * Finds the local functions of a function that never escape it.
+ *
+ * A local function does not escape when its name is only ever called
+ * directly, from the declaring function or from other non-escaping
+ * functions declared beside it, and everything it captures is a local of
+ * the declaring function. The declaring function's frame is then live
+ * whenever the local function runs, so it can read those locals in place:
+ * no closure or upvalue is allocated for it. Everything else becomes a
+ * closure.
+ *
+ * Only functions declared directly in the body are considered: the code
+ * generator binds one from its declaration to the end of the body, as a
+ * local variable would be. Names are otherwise matched without regard to
+ * scope, so a function is only considered if its name is declared once in
+ * the whole body.
+ */
+final class EscapeAnalyzer {
+    private final Set<String> outerNames;
+    private final List<FunctionStmt> candidates = new ArrayList<>();
+    private final Map<String, Integer> declarationCounts = new HashMap<>();
+    private final Map<String, List<Reference>> references = new HashMap<>();
+    private final Map<FunctionStmt, Set<String>> declaredIn = new HashMap<>();
+    private final Map<FunctionStmt, Set<String>> referencedIn = new HashMap<>();
+    private boolean unsupported;
+
+    private EscapeAnalyzer(Set<String> outerNames) {
+        this.outerNames = outerNames;
+    }
+
+    /**
+     * Returns the local functions declared in a function's body that do not
+     * escape it. Names in outerNames belong to functions further out, which
+     * a non-escaping function may not capture.
+     */
+    static Set<FunctionStmt> nonEscaping(FunctionStmt function, Set<String> outerNames) {
+        EscapeAnalyzer analyzer = new EscapeAnalyzer(outerNames);
+        for (Parameter param : function.getParameters()) {
+            analyzer.declare(param.getName().getLexeme(), null);
+        }
+        for (AST statement : function.getBody()) {
+            if (statement instanceof FunctionStmt) {
+                analyzer.candidates.add((FunctionStmt) statement);
+            }
+            analyzer.walk(statement, null, null);
+        }
+        return analyzer.unsupported ? Collections.emptySet() : analyzer.solve();
+    }
+
+    private Set<FunctionStmt> solve() {
+        Set<FunctionStmt> eligible = new LinkedHashSet<>();
+        for (FunctionStmt candidate : candidates) {
+            String name = candidate.getName().getLexeme();
+            if (declarationCounts.get(name) != 1) {
+                continue;
+            }
+            Set<String> free = new HashSet<>(referencedIn.get(candidate));
+            free.removeAll(declaredIn.get(candidate));
+            if (Collections.disjoint(free, outerNames)) {
+                eligible.add(candidate);
+            }
+        }
+
+        // A function referenced from one that escapes escapes too
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator<FunctionStmt> it = eligible.iterator(); it.hasNext(); ) {
+                FunctionStmt candidate = it.next();
+                for (Reference reference : references.getOrDefault(candidate.getName().getLexeme(), List.of())) {
+                    if (!reference.directCall || (reference.owner != null && !eligible.contains(reference.owner))) {
+                        it.remove();
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return eligible;
+    }
+
+    /**
+     * Records the names a node declares and references. The owner is the
+     * innermost function around the node, and the candidate the local
+     * function of the analyzed body it is nested in, candidate or not; both
+     * are null directly in the body.
+     */
+    private void walk(AST node, FunctionStmt owner, FunctionStmt candidate) {
+        if (node == null) {
+            return;
+        }
+        if (node instanceof FunctionStmt) {
+            FunctionStmt function = (FunctionStmt) node;
+            declare(function.getName().getLexeme(), candidate);
+            FunctionStmt inner = candidate != null ? candidate : function;
+            if (owner == null) {
+                declaredIn.put(function, new HashSet<>());
+                referencedIn.put(function, new HashSet<>());
+            }
+            for (Parameter param : function.getParameters()) {
+                declare(param.getName().getLexeme(), inner);
+            }
+            for (AST statement : function.getBody()) {
+                walk(statement, function, inner);
+            }
+        } else if (node instanceof VarStmt) {
+            VarStmt stmt = (VarStmt) node;
+            walk(stmt.getInitializer(), owner, candidate);
+            declare(stmt.getName().getLexeme(), candidate);
+        } else if (node instanceof VariableExpr) {
+            reference(((VariableExpr) node).getToken().getLexeme(), owner, candidate, false);
+        } else if (node instanceof AssignExpr) {
+            AssignExpr expr = (AssignExpr) node;
+            walk(expr.getValue(), owner, candidate);
+            reference(expr.getName().getLexeme(), owner, candidate, false);
+        } else if (node instanceof CallExpr) {
+            CallExpr expr = (CallExpr) node;
+            if (expr.getCallee() instanceof VariableExpr) {
+                reference(((VariableExpr) expr.getCallee()).getToken().getLexeme(), owner, candidate, true);
+            } else {
+                walk(expr.getCallee(), owner, candidate);
+            }
+            for (AST argument : expr.getArguments()) {
+                walk(argument, owner, candidate);
+            }
+        } else if (node instanceof BinaryExpr) {
+            walk(((BinaryExpr) node).getLeft(), owner, candidate);
+            walk(((BinaryExpr) node).getRight(), owner, candidate);
+        } else if (node instanceof UnaryExpr) {
+            walk(((UnaryExpr) node).getRight(), owner, candidate);
+        } else if (node instanceof GroupingExpr) {
+            walk(((GroupingExpr) node).getExpression(), owner, candidate);
+        } else if (node instanceof GetExpr) {
+            walk(((GetExpr) node).getObject(), owner, candidate);
+        } else if (node instanceof SetExpr) {
+            walk(((SetExpr) node).getObject(), owner, candidate);
+            walk(((SetExpr) node).getValue(), owner, candidate);
+        } else if (node instanceof BlockStmt) {
+            for (AST statement : ((BlockStmt) node).getStatements()) {
+                walk(statement, owner, candidate);
+            }
+        } else if (node instanceof IfStmt) {
+            IfStmt stmt = (IfStmt) node;
+            walk(stmt.getCondition(), owner, candidate);
+            walk(stmt.getThenBranch(), owner, candidate);
+            walk(stmt.getElseBranch(), owner, candidate);
+        } else if (node instanceof WhileStmt) {
+            walk(((WhileStmt) node).getCondition(), owner, candidate);
+            walk(((WhileStmt) node).getBody(), owner, candidate);
+        } else if (node instanceof ExpressionStmt) {
+            walk(((ExpressionStmt) node).getExpression(), owner, candidate);
+        } else if (node instanceof PrintStmt) {
+            walk(((PrintStmt) node).getExpression(), owner, candidate);
+        } else if (node instanceof ReturnStmt) {
+            walk(((ReturnStmt) node).getValue(), owner, candidate);
+        } else if (!(node instanceof LiteralExpr) && !(node instanceof ThisExpr) && !(node instanceof SuperExpr)) {
+            // Give up on bodies with constructs the analysis does not model
+            unsupported = true;
+        }
+    }
+
+    private void declare(String name, FunctionStmt candidate) {
+        declarationCounts.merge(name, 1, Integer::sum);
+        if (candidate != null) {
+            declaredIn.get(candidate).add(name);
+        }
+    }
+
+    private void reference(String name, FunctionStmt owner, FunctionStmt candidate, boolean directCall) {
+        references.computeIfAbsent(name, key -> new ArrayList<>()).add(new Reference(owner, directCall));
+        if (candidate != null) {
+            referencedIn.get(candidate).add(name);
+        }
+    }
+
+    private static final class Reference {
+        final FunctionStmt owner;
+        final boolean directCall;
+
+        Reference(FunctionStmt owner, boolean directCall) {
+            this.owner = owner;
+            this.directCall = directCall;
+        }
+    }
+}
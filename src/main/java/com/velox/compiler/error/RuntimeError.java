@@ -2,29 +2,56 @@ package com.velox.compiler.error;
 
 public class RuntimeError extends RuntimeException {
     private final int instructionIndex;
+    private final int line;
 
     public RuntimeError(String message, int instructionIndex) {
+        this(message, instructionIndex, 0);
+    }
+
+    /**
+     * Creates an error located at an instruction and the source line it was
+     * compiled from, or line 0 if that is not known.
+     */
+    public RuntimeError(String message, int instructionIndex, int line) {
         super(message);
         this.instructionIndex = instructionIndex;
+        this.line = line;
     }
 
     public RuntimeError(String message) {
         super(message);
         this.instructionIndex = -1;
+        this.line = 0;
     }
 
     public RuntimeError(String message, Throwable cause) {
         super(message, cause);
         this.instructionIndex = -1;
+        this.line = 0;
     }
 
     public int getInstructionIndex() {
         return instructionIndex;
     }
 
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * The message without the location getMessage() prefixes it with.
+     */
+    public String getReason() {
+        return super.getMessage();
+    }
+
     @Override
     public String getMessage() {
+        if (line > 0) {
+            return String.format("Runtime error at line %d (instruction %d): %s",
+                line, instructionIndex, super.getMessage());
+        }
         return String.format("Runtime error at instruction %d: %s", 
             instructionIndex, super.getMessage());
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.velox.compiler.error;
+
+/**
+ * A value thrown by a Velox program's throw statement. The VM catches it
+ * with the program's own handlers, so unless it goes uncaught it is only a
+ * carrier for the value, and it skips filling in a Java stack trace.
+ */
+public class VeloxException extends RuntimeError {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Object value;
+
+    public VeloxException(Object value, int instructionIndex, int line) {
+        super(String.valueOf(value), instructionIndex, line);
+        this.value = value;
+    }
+
+    /**
+     * The thrown value.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
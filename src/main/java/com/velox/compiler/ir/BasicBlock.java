@@ -0,0 +1,87 @@
+package com.velox.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight run of instructions entered only at the top and left only
+ * through its terminator: a JUMP to one successor, a BRANCH to two or a
+ * RETURN. PHIs are kept apart from the other instructions, ahead of them.
+ *
+ * No block that ends in a BRANCH has a successor with several
+ * predecessors, so the copies a PHI stands for always have a block of
+ * their own to go in, at the end of the predecessor.
+ */
+public final class BasicBlock {
+    private final int id;
+    final List<Instruction> phis = new ArrayList<>();
+    final List<Instruction> instructions = new ArrayList<>();
+    final List<BasicBlock> predecessors = new ArrayList<>();
+    final List<BasicBlock> successors = new ArrayList<>();
+    Instruction terminator;
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public List<Instruction> getPhis() {
+        return phis;
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    /**
+     * The last instruction, or null while the block is being built.
+     */
+    public Instruction getTerminator() {
+        return terminator;
+    }
+
+    void add(Instruction instruction) {
+        instruction.block = this;
+        if (instruction.getOp() == IrOp.PHI) {
+            phis.add(instruction);
+        } else {
+            instructions.add(instruction);
+        }
+    }
+
+    void terminate(Instruction instruction, BasicBlock... targets) {
+        instruction.block = this;
+        terminator = instruction;
+        for (BasicBlock target : targets) {
+            successors.add(target);
+            target.predecessors.add(this);
+        }
+    }
+
+    /**
+     * Removes a predecessor and the PHI operands for the edge from it.
+     */
+    void removePredecessor(BasicBlock predecessor) {
+        int index = predecessors.indexOf(predecessor);
+        predecessors.remove(index);
+        for (Instruction phi : phis) {
+            phi.operands.remove(index);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
@@ -0,0 +1,23 @@
+package com.velox.compiler.ir;
+
+/**
+ * A literal. Each function keeps one per distinct value, so equal
+ * constants are the same value.
+ */
+public final class ConstantValue extends Value {
+    private final Object value;
+
+    ConstantValue(Object value) {
+        this.value = value;
+        this.type = IrType.of(value);
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value instanceof String ? "\"" + value + "\"" : String.valueOf(value);
+    }
+}
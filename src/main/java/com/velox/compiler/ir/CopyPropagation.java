@@ -0,0 +1,72 @@
+package com.velox.compiler.ir;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Replaces copies with what they copy. A COPY is replaced by its operand,
+ * and a PHI whose operands are all one value, apart from the PHI itself,
+ * by that value; removing one such PHI can make another trivial, so PHIs
+ * are rescanned until none are.
+ */
+public final class CopyPropagation implements IrPass {
+    private int propagated;
+
+    public int getPropagated() {
+        return propagated;
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        propagated = 0;
+        Map<Value, Value> replacements = new HashMap<>();
+        for (BasicBlock block : function.getBlocks()) {
+            for (Iterator<Instruction> it = block.instructions.iterator(); it.hasNext(); ) {
+                Instruction instruction = it.next();
+                if (instruction.getOp() == IrOp.COPY) {
+                    replacements.put(instruction, instruction.getOperand(0));
+                    it.remove();
+                    propagated++;
+                }
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : function.getBlocks()) {
+                for (Iterator<Instruction> it = block.phis.iterator(); it.hasNext(); ) {
+                    Instruction phi = it.next();
+                    Value same = trivialValue(function, phi, replacements);
+                    if (same != null) {
+                        replacements.put(phi, same);
+                        it.remove();
+                        propagated++;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        function.replaceUses(replacements);
+        return propagated > 0;
+    }
+
+    /**
+     * Returns the one value a PHI can take, or null if it merges several.
+     */
+    private static Value trivialValue(IrFunction function, Instruction phi, Map<Value, Value> replacements) {
+        Value same = null;
+        for (Value operand : phi.getOperands()) {
+            Value value = IrFunction.resolve(operand, replacements);
+            if (value == phi || value == same) {
+                continue;
+            }
+            if (same != null) {
+                return null;
+            }
+            same = value;
+        }
+        // Only the PHI itself: a cycle nothing enters
+        return same != null ? same : function.constant(null);
+    }
+}
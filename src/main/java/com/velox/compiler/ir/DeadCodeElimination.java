@@ -0,0 +1,57 @@
+package com.velox.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes unreachable blocks and the instructions nothing needs. An
+ * instruction is needed if it has effects or may throw, or if a needed
+ * instruction uses its value; everything else goes, including PHIs that
+ * only feed each other around a loop.
+ */
+public final class DeadCodeElimination implements IrPass {
+    private int removed;
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        removed = 0;
+        int before = function.getInstructionCount();
+        function.removeUnreachableBlocks();
+        // Dropped edges may have narrowed PHIs, and with them what may throw
+        function.inferTypes();
+
+        Set<Instruction> live = new HashSet<>();
+        Deque<Instruction> work = new ArrayDeque<>();
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction instruction : block.instructions) {
+                if (!instruction.isRemovable()) {
+                    work.add(instruction);
+                }
+            }
+            work.add(block.terminator);
+        }
+        while (!work.isEmpty()) {
+            Instruction instruction = work.poll();
+            if (!live.add(instruction)) {
+                continue;
+            }
+            for (Value operand : instruction.getOperands()) {
+                if (operand instanceof Instruction && !live.contains(operand)) {
+                    work.add((Instruction) operand);
+                }
+            }
+        }
+        for (BasicBlock block : function.getBlocks()) {
+            block.phis.retainAll(live);
+            block.instructions.retainAll(live);
+        }
+        removed = before - function.getInstructionCount();
+        return removed > 0;
+    }
+}
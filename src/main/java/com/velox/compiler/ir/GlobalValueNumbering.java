@@ -0,0 +1,117 @@
+package com.velox.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Removes instructions that compute a value already computed: an
+ * instruction without effects whose operation, argument and operands
+ * match one in a dominating block, or earlier in its own, is replaced by
+ * that one. Walking the dominator tree with a scoped table means every
+ * match found runs on every path to the instruction it replaces.
+ *
+ * Operators that may throw are numbered too: if the first one did not
+ * throw, the same operation on the same values will not either. PHIs of
+ * one block with the same operands are merged as well.
+ */
+public final class GlobalValueNumbering implements IrPass {
+    private int numbered;
+
+    public int getNumbered() {
+        return numbered;
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        numbered = 0;
+        Map<BasicBlock, BasicBlock> dominators = function.dominators();
+        Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+        for (BasicBlock block : function.reversePostorder()) {
+            BasicBlock dominator = dominators.get(block);
+            if (dominator != null) {
+                children.computeIfAbsent(dominator, key -> new ArrayList<>()).add(block);
+            }
+        }
+        Map<Value, Value> replacements = new HashMap<>();
+        number(function.getEntry(), children, new HashMap<>(), replacements);
+        function.replaceUses(replacements);
+        return numbered > 0;
+    }
+
+    private void number(BasicBlock block, Map<BasicBlock, List<BasicBlock>> children,
+                        Map<Key, Instruction> available, Map<Value, Value> replacements) {
+        List<Key> added = new ArrayList<>();
+        for (Iterator<Instruction> it = block.phis.iterator(); it.hasNext(); ) {
+            numberInstruction(it, it.next(), available, replacements, added);
+        }
+        for (Iterator<Instruction> it = block.instructions.iterator(); it.hasNext(); ) {
+            Instruction instruction = it.next();
+            if (!instruction.getOp().hasEffects()) {
+                numberInstruction(it, instruction, available, replacements, added);
+            }
+        }
+        for (BasicBlock child : children.getOrDefault(block, new ArrayList<>())) {
+            number(child, children, available, replacements);
+        }
+        for (Key key : added) {
+            available.remove(key);
+        }
+    }
+
+    private void numberInstruction(Iterator<Instruction> it, Instruction instruction,
+                                   Map<Key, Instruction> available, Map<Value, Value> replacements,
+                                   List<Key> added) {
+        // Operands may have been numbered already: match on what they became
+        List<Value> operands = new ArrayList<>();
+        for (Value operand : instruction.getOperands()) {
+            operands.add(IrFunction.resolve(operand, replacements));
+        }
+        // A PHI's operands depend on its block's edges, so PHIs only match
+        // in the same block
+        Object scope = instruction.getOp() == IrOp.PHI ? instruction.getBlock() : null;
+        Key key = new Key(instruction.getOp(), instruction.getArgument(), scope, operands);
+        Instruction existing = available.get(key);
+        if (existing != null) {
+            replacements.put(instruction, existing);
+            it.remove();
+            numbered++;
+        } else {
+            available.put(key, instruction);
+            added.add(key);
+        }
+    }
+
+    private static final class Key {
+        private final IrOp op;
+        private final Object argument;
+        private final Object scope;
+        private final List<Value> operands;
+
+        Key(IrOp op, Object argument, Object scope, List<Value> operands) {
+            this.op = op;
+            // A COPY's argument only names its variable
+            this.argument = op == IrOp.COPY || op == IrOp.PHI ? null : argument;
+            this.scope = scope;
+            this.operands = operands;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return op == key.op && Objects.equals(argument, key.argument)
+                && scope == key.scope && operands.equals(key.operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(op, argument, System.identityHashCode(scope), operands);
+        }
+    }
+}
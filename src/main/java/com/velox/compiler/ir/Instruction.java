@@ -0,0 +1,156 @@
+package com.velox.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An operation on values, and the value it defines if it has a result.
+ * Besides its operands an instruction may carry one fixed argument: the
+ * name of a global, the function a CALL_DIRECT targets, or the variable a
+ * PHI or COPY stands for.
+ */
+public final class Instruction extends Value {
+    private final int id;
+    private final IrOp op;
+    final List<Value> operands;
+    private final Object argument;
+    private final int line;
+    BasicBlock block;
+
+    Instruction(int id, IrOp op, List<Value> operands, Object argument, int line) {
+        this.id = id;
+        this.op = op;
+        this.operands = new ArrayList<>(operands);
+        this.argument = argument;
+        this.line = line;
+    }
+
+    public IrOp getOp() {
+        return op;
+    }
+
+    public List<Value> getOperands() {
+        return operands;
+    }
+
+    public Value getOperand(int index) {
+        return operands.get(index);
+    }
+
+    public Object getArgument() {
+        return argument;
+    }
+
+    /**
+     * Source line of the code the instruction came from, or 0 if unknown.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    public BasicBlock getBlock() {
+        return block;
+    }
+
+    /**
+     * Whether removing the instruction, if its result is unused, could
+     * hide an error: operators throw on operands of the wrong kind, and
+     * division on a zero divisor.
+     */
+    public boolean mayThrow() {
+        switch (op) {
+            case ADD:
+                return !(both(IrType.NUMBER) || type(0) == IrType.STRING || type(1) == IrType.STRING);
+            case SUBTRACT:
+            case MULTIPLY:
+                return !both(IrType.NUMBER);
+            case DIVIDE:
+                Value divisor = operands.get(1);
+                return !(type(0) == IrType.NUMBER && divisor instanceof ConstantValue
+                    && divisor.type == IrType.NUMBER && (Double) ((ConstantValue) divisor).getValue() != 0);
+            case NEGATE:
+                return type(0) != IrType.NUMBER;
+            case NOT:
+                return type(0) != IrType.BOOLEAN;
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                return !(both(IrType.NUMBER) || both(IrType.STRING));
+            case PHI:
+            case COPY:
+            case EQUAL:
+            case NOT_EQUAL:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Whether the instruction can be removed if unused, or merged with an
+     * identical one that runs before it.
+     */
+    public boolean isRemovable() {
+        return !op.hasEffects() && !mayThrow();
+    }
+
+    /**
+     * Computes the result type from the operand types. Operands still
+     * UNKNOWN leave the result UNKNOWN, except through a PHI.
+     */
+    IrType inferType() {
+        switch (op) {
+            case PHI: {
+                IrType joined = IrType.UNKNOWN;
+                for (Value operand : operands) {
+                    joined = joined.join(operand.type);
+                }
+                return joined;
+            }
+            case COPY:
+                return type(0);
+            case ADD:
+                if (type(0) == IrType.STRING || type(1) == IrType.STRING) {
+                    return IrType.STRING;
+                }
+                return arithmetic();
+            case SUBTRACT:
+            case MULTIPLY:
+            case DIVIDE:
+                return arithmetic();
+            case NEGATE:
+                return type(0) == IrType.UNKNOWN || type(0) == IrType.NUMBER ? type(0) : IrType.ANY;
+            case NOT:
+            case EQUAL:
+            case NOT_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                return IrType.BOOLEAN;
+            default:
+                return IrType.ANY;
+        }
+    }
+
+    private IrType arithmetic() {
+        if (type(0) == IrType.UNKNOWN || type(1) == IrType.UNKNOWN) {
+            return IrType.UNKNOWN;
+        }
+        return both(IrType.NUMBER) ? IrType.NUMBER : IrType.ANY;
+    }
+
+    private IrType type(int operand) {
+        return operands.get(operand).type;
+    }
+
+    private boolean both(IrType type) {
+        return type(0) == type && type(1) == type;
+    }
+
+    @Override
+    public String toString() {
+        return "v" + id;
+    }
+}
@@ -0,0 +1,371 @@
+package com.velox.compiler.ir;
+
+import com.velox.compiler.ast.*;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.bytecode.Function;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the IR of a top-level function from its tree, in SSA form from
+ * the start, with the algorithm of Braun et al., "Simple and Efficient
+ * Construction of Static Single Assignment Form": a read of a local looks
+ * for the variable's definition in the current block and then through its
+ * predecessors, placing a PHI where definitions meet. A loop header gets
+ * its PHIs before the loop body has been built and their operands once it
+ * has, when the block is sealed.
+ *
+ * Names resolve as the code generator resolves them in a top-level
+ * function: locals by block scope, anything else as a global, and calls to
+ * top-level functions no local shadows are direct. Functions the IR does
+ * not model, those declaring functions or classes or using properties,
+ * this or super, are left to the code generator.
+ */
+public final class IrBuilder {
+    private final Map<String, Function> functions;
+    private final Deque<Map<String, Variable>> scopes = new ArrayDeque<>();
+    private final Map<Variable, Map<BasicBlock, Value>> definitions = new HashMap<>();
+    private final Map<BasicBlock, Map<Variable, Instruction>> incompletePhis = new HashMap<>();
+    private final Set<BasicBlock> sealed = new HashSet<>();
+    private IrFunction function;
+    private BasicBlock current;
+
+    /**
+     * Creates a builder that binds calls to the given top-level functions
+     * directly.
+     */
+    public IrBuilder(Map<String, Function> functions) {
+        this.functions = functions;
+    }
+
+    /**
+     * Builds a function's IR, or returns null if its body uses something
+     * the IR does not model.
+     */
+    public IrFunction build(FunctionStmt stmt) {
+        List<String> parameters = new ArrayList<>();
+        for (Parameter parameter : stmt.getParameters()) {
+            parameters.add(parameter.getName().getLexeme());
+        }
+        function = new IrFunction(stmt.getName().getLexeme(), parameters);
+        scopes.clear();
+        definitions.clear();
+        incompletePhis.clear();
+        sealed.clear();
+        try {
+            start(function.newBlock());
+            seal(current);
+            scopes.push(new HashMap<>());
+            for (ParameterValue parameter : function.getParameters()) {
+                write(declare(parameter.getName()), current, parameter);
+            }
+            for (AST statement : stmt.getBody()) {
+                statement(statement);
+            }
+            if (current.terminator == null) {
+                terminate(IrOp.RETURN, Collections.singletonList(function.constant(null)), stmt.getStartLine());
+            }
+            function.removeUnreachableBlocks();
+            function.inferTypes();
+            return function;
+        } catch (UnsupportedNode e) {
+            return null;
+        } finally {
+            current = null;
+        }
+    }
+
+    private void statement(AST node) {
+        if (node instanceof BlockStmt) {
+            scopes.push(new HashMap<>());
+            for (AST statement : ((BlockStmt) node).getStatements()) {
+                statement(statement);
+            }
+            scopes.pop();
+        } else if (node instanceof VarStmt) {
+            VarStmt stmt = (VarStmt) node;
+            // Declared before the initializer runs, as the code generator
+            // gives the variable its slot first
+            Variable variable = declare(stmt.getName().getLexeme());
+            Value value = stmt.getInitializer() != null ? expression(stmt.getInitializer()) : function.constant(null);
+            write(variable, current, copy(variable, value, stmt.getStartLine()));
+        } else if (node instanceof ExpressionStmt) {
+            expression(((ExpressionStmt) node).getExpression());
+        } else if (node instanceof PrintStmt) {
+            Value value = expression(((PrintStmt) node).getExpression());
+            append(IrOp.PRINT, Collections.singletonList(value), null, node.getStartLine());
+        } else if (node instanceof ReturnStmt) {
+            AST value = ((ReturnStmt) node).getValue();
+            Value result = value != null ? expression(value) : function.constant(null);
+            terminate(IrOp.RETURN, Collections.singletonList(result), node.getStartLine());
+            // Whatever follows is unreachable; it is built, then dropped at the end
+            start(function.newBlock());
+            seal(current);
+        } else if (node instanceof IfStmt) {
+            ifStatement((IfStmt) node);
+        } else if (node instanceof WhileStmt) {
+            whileStatement((WhileStmt) node);
+        } else {
+            throw new UnsupportedNode();
+        }
+    }
+
+    private void ifStatement(IfStmt stmt) {
+        Value condition = expression(stmt.getCondition());
+        BasicBlock then = function.newBlock();
+        // An else block even when there is no else branch, so the edge to
+        // the join never leaves a block that branches
+        BasicBlock otherwise = function.newBlock();
+        terminate(IrOp.BRANCH, Collections.singletonList(condition), stmt.getStartLine(), then, otherwise);
+
+        start(then);
+        seal(then);
+        statement(stmt.getThenBranch());
+        BasicBlock thenEnd = current;
+        start(otherwise);
+        seal(otherwise);
+        if (stmt.getElseBranch() != null) {
+            statement(stmt.getElseBranch());
+        }
+        BasicBlock otherwiseEnd = current;
+
+        BasicBlock join = function.newBlock();
+        jump(thenEnd, join);
+        jump(otherwiseEnd, join);
+        start(join);
+        seal(join);
+    }
+
+    private void whileStatement(WhileStmt stmt) {
+        BasicBlock header = function.newBlock();
+        jump(current, header);
+        start(header);
+        Value condition = expression(stmt.getCondition());
+        BasicBlock body = function.newBlock();
+        BasicBlock exit = function.newBlock();
+        terminate(IrOp.BRANCH, Collections.singletonList(condition), stmt.getStartLine(), body, exit);
+
+        start(body);
+        seal(body);
+        statement(stmt.getBody());
+        jump(current, header);
+        // The back edge is in place, so the header's PHIs can be completed
+        seal(header);
+        start(exit);
+        seal(exit);
+    }
+
+    private Value expression(AST node) {
+        int line = node.getStartLine();
+        if (node instanceof LiteralExpr) {
+            return function.constant(((LiteralExpr) node).getValue());
+        } else if (node instanceof GroupingExpr) {
+            return expression(((GroupingExpr) node).getExpression());
+        } else if (node instanceof VariableExpr) {
+            String name = ((VariableExpr) node).getToken().getLexeme();
+            Variable variable = lookup(name);
+            if (variable != null) {
+                return read(variable, current);
+            }
+            return append(IrOp.GET_GLOBAL, Collections.emptyList(), name, line);
+        } else if (node instanceof AssignExpr) {
+            AssignExpr assign = (AssignExpr) node;
+            String name = assign.getName().getLexeme();
+            Value value = expression(assign.getValue());
+            Variable variable = lookup(name);
+            if (variable == null) {
+                append(IrOp.SET_GLOBAL, Collections.singletonList(value), name, line);
+                return value;
+            }
+            Value copy = copy(variable, value, line);
+            write(variable, current, copy);
+            return copy;
+        } else if (node instanceof BinaryExpr) {
+            BinaryExpr binary = (BinaryExpr) node;
+            Value left = expression(binary.getLeft());
+            Value right = expression(binary.getRight());
+            return append(binaryOp(binary), Arrays.asList(left, right), null, line);
+        } else if (node instanceof UnaryExpr) {
+            UnaryExpr unary = (UnaryExpr) node;
+            Value operand = expression(unary.getRight());
+            switch (unary.getOperator().getType()) {
+                case MINUS: return append(IrOp.NEGATE, Collections.singletonList(operand), null, line);
+                case BANG: return append(IrOp.NOT, Collections.singletonList(operand), null, line);
+                default:
+                    throw new RuntimeException("Invalid unary operator: " + unary.getOperator().getType());
+            }
+        } else if (node instanceof CallExpr) {
+            return call((CallExpr) node);
+        }
+        throw new UnsupportedNode();
+    }
+
+    private Value call(CallExpr call) {
+        List<Value> operands = new ArrayList<>();
+        Function target = null;
+        if (call.getCallee() instanceof VariableExpr) {
+            String name = ((VariableExpr) call.getCallee()).getToken().getLexeme();
+            if (lookup(name) == null) {
+                target = functions.get(name);
+            }
+        }
+        if (target != null) {
+            if (call.getArguments().size() != target.getArity()) {
+                // Left to the tree's code, which checks arity when it runs
+                throw new UnsupportedNode();
+            }
+        } else {
+            operands.add(expression(call.getCallee()));
+        }
+        for (AST argument : call.getArguments()) {
+            operands.add(expression(argument));
+        }
+        return target != null
+            ? append(IrOp.CALL_DIRECT, operands, target, call.getStartLine())
+            : append(IrOp.CALL, operands, null, call.getStartLine());
+    }
+
+    private static IrOp binaryOp(BinaryExpr binary) {
+        switch (binary.getOperator().getType()) {
+            case PLUS: return IrOp.ADD;
+            case MINUS: return IrOp.SUBTRACT;
+            case STAR: return IrOp.MULTIPLY;
+            case SLASH: return IrOp.DIVIDE;
+            case EQUAL_EQUAL: return IrOp.EQUAL;
+            case BANG_EQUAL: return IrOp.NOT_EQUAL;
+            case LESS: return IrOp.LESS;
+            case LESS_EQUAL: return IrOp.LESS_EQUAL;
+            case GREATER: return IrOp.GREATER;
+            case GREATER_EQUAL: return IrOp.GREATER_EQUAL;
+            default:
+                throw new RuntimeException("Invalid binary operator: " + binary.getOperator().getType());
+        }
+    }
+
+    /**
+     * Declares a local in the innermost scope. Declaring a name again in
+     * the same scope reuses the variable, as the code generator reuses
+     * the slot.
+     */
+    private Variable declare(String name) {
+        return scopes.peek().computeIfAbsent(name, Variable::new);
+    }
+
+    private Variable lookup(String name) {
+        for (Map<String, Variable> scope : scopes) {
+            Variable variable = scope.get(name);
+            if (variable != null) {
+                return variable;
+            }
+        }
+        return null;
+    }
+
+    private Instruction copy(Variable variable, Value value, int line) {
+        return append(IrOp.COPY, Collections.singletonList(value), variable.name, line);
+    }
+
+    private void write(Variable variable, BasicBlock block, Value value) {
+        definitions.computeIfAbsent(variable, key -> new HashMap<>()).put(block, value);
+    }
+
+    private Value read(Variable variable, BasicBlock block) {
+        Value value = definitions.getOrDefault(variable, Collections.emptyMap()).get(block);
+        if (value != null) {
+            return value;
+        }
+        if (!sealed.contains(block)) {
+            // Not all predecessors are known yet: the operands come at sealing
+            Instruction phi = phi(variable, block);
+            incompletePhis.computeIfAbsent(block, key -> new LinkedHashMap<>()).put(variable, phi);
+            value = phi;
+        } else if (block.predecessors.size() == 1) {
+            value = read(variable, block.predecessors.get(0));
+        } else if (block.predecessors.isEmpty()) {
+            // Unreachable, or read ahead of any definition: nil, as an
+            // unassigned slot would hold
+            value = function.constant(null);
+        } else {
+            Instruction phi = phi(variable, block);
+            // Written first so that a read around a loop finds it
+            write(variable, block, phi);
+            addPhiOperands(variable, phi);
+            value = phi;
+        }
+        write(variable, block, value);
+        return value;
+    }
+
+    private Instruction phi(Variable variable, BasicBlock block) {
+        Instruction phi = function.newInstruction(IrOp.PHI, Collections.emptyList(), variable.name, 0);
+        block.add(phi);
+        return phi;
+    }
+
+    private void addPhiOperands(Variable variable, Instruction phi) {
+        for (BasicBlock predecessor : phi.getBlock().predecessors) {
+            phi.operands.add(read(variable, predecessor));
+        }
+    }
+
+    private void seal(BasicBlock block) {
+        Map<Variable, Instruction> phis = incompletePhis.remove(block);
+        if (phis != null) {
+            phis.forEach(this::addPhiOperands);
+        }
+        sealed.add(block);
+    }
+
+    private void start(BasicBlock block) {
+        function.addBlock(block);
+        current = block;
+    }
+
+    private Instruction append(IrOp op, List<Value> operands, Object argument, int line) {
+        Instruction instruction = function.newInstruction(op, operands, argument, line);
+        current.add(instruction);
+        return instruction;
+    }
+
+    private void terminate(IrOp op, List<Value> operands, int line, BasicBlock... targets) {
+        current.terminate(function.newInstruction(op, operands, null, line), targets);
+    }
+
+    /**
+     * Ends a block with a jump, unless it already returned.
+     */
+    private void jump(BasicBlock from, BasicBlock to) {
+        if (from.terminator == null) {
+            from.terminate(function.newInstruction(IrOp.JUMP, Collections.emptyList(), null, 0), to);
+        }
+    }
+
+    /**
+     * A local: one per declaration, however many times it runs.
+     */
+    private static final class Variable {
+        final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class UnsupportedNode extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedNode() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.velox.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A function body as a control-flow graph of basic blocks in SSA form.
+ * The blocks are kept in the order their code is laid out, entry first;
+ * a conditional branch always targets a block later in that order.
+ */
+public final class IrFunction {
+    private final String name;
+    private final List<ParameterValue> parameters = new ArrayList<>();
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final Map<Object, ConstantValue> constants = new HashMap<>();
+    private int nextBlock;
+    private int nextInstruction;
+
+    IrFunction(String name, List<String> parameterNames) {
+        this.name = name;
+        for (String parameter : parameterNames) {
+            parameters.add(new ParameterValue(parameters.size(), parameter));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<ParameterValue> getParameters() {
+        return Collections.unmodifiableList(parameters);
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    /**
+     * Returns the function's constant for a value.
+     */
+    public ConstantValue constant(Object value) {
+        return constants.computeIfAbsent(value, ConstantValue::new);
+    }
+
+    /**
+     * Counts the instructions, PHIs and terminators included.
+     */
+    public int getInstructionCount() {
+        int count = 0;
+        for (BasicBlock block : blocks) {
+            count += block.phis.size() + block.instructions.size() + (block.terminator != null ? 1 : 0);
+        }
+        return count;
+    }
+
+    BasicBlock newBlock() {
+        return new BasicBlock(nextBlock++);
+    }
+
+    /**
+     * Appends a block to the layout.
+     */
+    void addBlock(BasicBlock block) {
+        blocks.add(block);
+    }
+
+    Instruction newInstruction(IrOp op, List<Value> operands, Object argument, int line) {
+        return new Instruction(nextInstruction++, op, operands, argument, line);
+    }
+
+    /**
+     * Blocks reachable from the entry, in reverse postorder: every block
+     * comes before its successors except along loop back edges.
+     */
+    List<BasicBlock> reversePostorder() {
+        List<BasicBlock> order = new ArrayList<>();
+        postorder(getEntry(), new HashSet<>(), order);
+        Collections.reverse(order);
+        return order;
+    }
+
+    private static void postorder(BasicBlock block, Set<BasicBlock> visited, List<BasicBlock> order) {
+        if (!visited.add(block)) {
+            return;
+        }
+        for (BasicBlock successor : block.successors) {
+            postorder(successor, visited, order);
+        }
+        order.add(block);
+    }
+
+    /**
+     * Drops blocks the entry cannot reach, and the PHI operands for edges
+     * leaving them. Returns whether any were dropped.
+     */
+    boolean removeUnreachableBlocks() {
+        Set<BasicBlock> reachable = new HashSet<>(reversePostorder());
+        if (reachable.size() == blocks.size()) {
+            return false;
+        }
+        for (BasicBlock block : blocks) {
+            if (!reachable.contains(block)) {
+                for (BasicBlock successor : block.successors) {
+                    if (reachable.contains(successor)) {
+                        successor.removePredecessor(block);
+                    }
+                }
+            }
+        }
+        blocks.retainAll(reachable);
+        return true;
+    }
+
+    /**
+     * Maps each reachable block but the entry to its immediate dominator,
+     * with the iterative algorithm of Cooper, Harvey and Kennedy.
+     */
+    Map<BasicBlock, BasicBlock> dominators() {
+        List<BasicBlock> order = reversePostorder();
+        Map<BasicBlock, Integer> index = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            index.put(order.get(i), i);
+        }
+        BasicBlock[] idom = new BasicBlock[order.size()];
+        idom[0] = order.get(0);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.size(); i++) {
+                BasicBlock dominator = null;
+                for (BasicBlock predecessor : order.get(i).predecessors) {
+                    Integer p = index.get(predecessor);
+                    if (p == null || idom[p] == null) {
+                        continue;
+                    }
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator, idom, index);
+                }
+                if (dominator != idom[i]) {
+                    idom[i] = dominator;
+                    changed = true;
+                }
+            }
+        }
+        Map<BasicBlock, BasicBlock> result = new HashMap<>();
+        for (int i = 1; i < order.size(); i++) {
+            result.put(order.get(i), idom[i]);
+        }
+        return result;
+    }
+
+    private static BasicBlock intersect(BasicBlock a, BasicBlock b, BasicBlock[] idom, Map<BasicBlock, Integer> index) {
+        while (a != b) {
+            while (index.get(a) > index.get(b)) {
+                a = idom[index.get(a)];
+            }
+            while (index.get(b) > index.get(a)) {
+                b = idom[index.get(b)];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Types every instruction, optimistically: a PHI takes the join of the
+     * operands typed so far, so a loop counter that starts and stays a
+     * number is typed a number. Values left untyped, on cycles nothing
+     * enters, become ANY.
+     */
+    void inferTypes() {
+        List<Instruction> all = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            all.addAll(block.phis);
+            all.addAll(block.instructions);
+        }
+        for (Instruction instruction : all) {
+            instruction.type = IrType.UNKNOWN;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Instruction instruction : all) {
+                IrType type = instruction.inferType();
+                if (type != instruction.type) {
+                    instruction.type = type;
+                    changed = true;
+                }
+            }
+        }
+        for (Instruction instruction : all) {
+            if (instruction.type == IrType.UNKNOWN) {
+                instruction.type = IrType.ANY;
+            }
+        }
+    }
+
+    /**
+     * Rewrites every operand found in a replacement map, following chains
+     * of replacements to their end.
+     */
+    void replaceUses(Map<Value, Value> replacements) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        for (BasicBlock block : blocks) {
+            replaceOperands(block.phis, replacements);
+            replaceOperands(block.instructions, replacements);
+            if (block.terminator != null) {
+                replaceOperands(Collections.singletonList(block.terminator), replacements);
+            }
+        }
+    }
+
+    private static void replaceOperands(List<Instruction> instructions, Map<Value, Value> replacements) {
+        for (Instruction instruction : instructions) {
+            List<Value> operands = instruction.operands;
+            for (int i = 0; i < operands.size(); i++) {
+                operands.set(i, resolve(operands.get(i), replacements));
+            }
+        }
+    }
+
+    static Value resolve(Value value, Map<Value, Value> replacements) {
+        Value replacement = replacements.get(value);
+        while (replacement != null) {
+            value = replacement;
+            replacement = replacements.get(value);
+        }
+        return value;
+    }
+
+    /**
+     * Lists the blocks and their instructions, one per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("function ").append(name).append(parameters).append('\n');
+        for (BasicBlock block : blocks) {
+            text.append(block).append(" <- ").append(block.predecessors).append('\n');
+            for (Instruction phi : block.phis) {
+                append(text, phi);
+            }
+            for (Instruction instruction : block.instructions) {
+                append(text, instruction);
+            }
+            if (block.terminator != null) {
+                append(text, block.terminator);
+                if (!block.successors.isEmpty()) {
+                    text.setLength(text.length() - 1);
+                    text.append(" -> ").append(block.successors).append('\n');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static void append(StringBuilder text, Instruction instruction) {
+        text.append("  ");
+        if (instruction.getOp().hasResult()) {
+            text.append(instruction).append(':').append(instruction.getType().name().toLowerCase()).append(" = ");
+        }
+        text.append(instruction.getOp().name().toLowerCase());
+        if (instruction.getArgument() != null) {
+            text.append(' ').append(instruction.getArgument());
+        }
+        for (Value operand : instruction.getOperands()) {
+            text.append(' ').append(operand);
+        }
+        text.append('\n');
+    }
+}
@@ -0,0 +1,363 @@
+package com.velox.compiler.ir;
+
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.OpCode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Emits a function's IR as stack bytecode, at the current end of a
+ * {@link Bytecode}, blocks in layout order.
+ *
+ * Values live in local slots: parameters in theirs, every PHI and every
+ * instruction whose value is used in one of its own. An instruction used
+ * once, by the instruction right after the code for the later operands of
+ * that user, is instead left on the stack for it, so expressions come out
+ * as the trees they were written as. A PHI's operands are copied into its
+ * slot at the end of each predecessor, all pushed before any is stored so
+ * PHIs that read each other see the old values; an operand computed in the
+ * predecessor only for the PHI, when nothing after it there reads the PHI,
+ * is stored straight into the PHI's slot instead.
+ *
+ * Arithmetic and comparisons on operands typed NUMBER use the typed
+ * opcodes.
+ */
+public final class IrLowering {
+    private final Bytecode bytecode;
+    private final Map<Value, Integer> uses = new HashMap<>();
+    private final Map<Instruction, Integer> slots = new HashMap<>();
+    // Instructions whose value goes straight into a PHI's slot
+    private final Map<Instruction, Instruction> storedInto = new HashMap<>();
+    // Instructions left on the stack for their user
+    private final Set<Instruction> onStack = new HashSet<>();
+    private final Map<BasicBlock, Integer> offsets = new HashMap<>();
+    private final Map<BasicBlock, List<Integer>> pendingJumps = new HashMap<>();
+    private int frameSize;
+
+    public IrLowering(Bytecode bytecode) {
+        this.bytecode = bytecode;
+    }
+
+    /**
+     * Emits a function's code and returns the number of local slots its
+     * frame needs.
+     */
+    public int lower(IrFunction function) {
+        uses.clear();
+        slots.clear();
+        storedInto.clear();
+        onStack.clear();
+        offsets.clear();
+        pendingJumps.clear();
+        function.removeUnreachableBlocks();
+        function.inferTypes();
+        frameSize = function.getParameters().size();
+
+        List<BasicBlock> blocks = function.getBlocks();
+        countUses(blocks);
+        for (BasicBlock block : blocks) {
+            for (Instruction phi : block.phis) {
+                slots.put(phi, frameSize++);
+            }
+        }
+        for (BasicBlock block : blocks) {
+            coalescePhiOperands(block);
+        }
+        for (BasicBlock block : blocks) {
+            findStackOperands(block);
+            for (Instruction instruction : block.instructions) {
+                if (uses(instruction) > 0 && !onStack.contains(instruction) && !storedInto.containsKey(instruction)) {
+                    slots.put(instruction, frameSize++);
+                }
+            }
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            emitBlock(blocks.get(i), i + 1 < blocks.size() ? blocks.get(i + 1) : null);
+        }
+        return frameSize;
+    }
+
+    private void countUses(List<BasicBlock> blocks) {
+        for (BasicBlock block : blocks) {
+            for (Instruction phi : block.phis) {
+                countOperands(phi);
+            }
+            for (Instruction instruction : block.instructions) {
+                countOperands(instruction);
+            }
+            countOperands(block.terminator);
+        }
+    }
+
+    private void countOperands(Instruction instruction) {
+        for (Value operand : instruction.getOperands()) {
+            uses.merge(operand, 1, Integer::sum);
+        }
+    }
+
+    private int uses(Value value) {
+        return uses.getOrDefault(value, 0);
+    }
+
+    /**
+     * Picks the PHI operands a block that jumps to PHIs can store straight
+     * into their slots.
+     */
+    private void coalescePhiOperands(BasicBlock block) {
+        if (block.terminator.getOp() != IrOp.JUMP) {
+            return;
+        }
+        BasicBlock target = block.successors.get(0);
+        int edge = target.predecessors.indexOf(block);
+        for (Instruction phi : target.phis) {
+            Value operand = phi.getOperand(edge);
+            if (!(operand instanceof Instruction) || ((Instruction) operand).getBlock() != block
+                    || ((Instruction) operand).getOp() == IrOp.PHI || uses(operand) != 1) {
+                continue;
+            }
+            Instruction instruction = (Instruction) operand;
+            if (!readsAfter(block, instruction, phi) && !readByOtherPhi(target, edge, phi)) {
+                storedInto.put(instruction, phi);
+            }
+        }
+    }
+
+    private static boolean readsAfter(BasicBlock block, Instruction instruction, Instruction phi) {
+        List<Instruction> instructions = block.instructions;
+        for (int i = instructions.indexOf(instruction) + 1; i < instructions.size(); i++) {
+            if (instructions.get(i).getOperands().contains(phi)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean readByOtherPhi(BasicBlock target, int edge, Instruction phi) {
+        for (Instruction other : target.phis) {
+            if (other != phi && other.getOperand(edge) == phi) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the instructions that can stay on the stack for their user,
+     * working back from the end of the block so each user claims the
+     * instructions right before it.
+     */
+    private void findStackOperands(BasicBlock block) {
+        List<Instruction> instructions = block.instructions;
+        Map<Instruction, Integer> positions = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            positions.put(instructions.get(i), i);
+        }
+        claimOperands(block.terminator, instructions.size(), block, positions);
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            Instruction instruction = instructions.get(i);
+            if (!onStack.contains(instruction)) {
+                claimOperands(instruction, i, block, positions);
+            }
+        }
+    }
+
+    /**
+     * Claims the operands of an instruction at a position that were
+     * computed, in order, right before it, and returns the position where
+     * the code for the instruction starts. Claiming stops at the first
+     * operand computed earlier in the block that cannot be claimed, since
+     * the ones before it would then run after it.
+     */
+    private int claimOperands(Instruction user, int position, BasicBlock block, Map<Instruction, Integer> positions) {
+        int start = position;
+        List<Value> operands = user.getOperands();
+        for (int i = operands.size() - 1; i >= 0; i--) {
+            Value operand = operands.get(i);
+            Integer at = operand instanceof Instruction ? positions.get(operand) : null;
+            if (at == null) {
+                // A constant, parameter, PHI or value from another block:
+                // loaded from where it lives, wherever the load goes
+                continue;
+            }
+            Instruction instruction = (Instruction) operand;
+            if (at != start - 1 || uses(instruction) != 1 || storedInto.containsKey(instruction)) {
+                break;
+            }
+            onStack.add(instruction);
+            start = claimOperands(instruction, at, block, positions);
+        }
+        return start;
+    }
+
+    private void emitBlock(BasicBlock block, BasicBlock next) {
+        offsets.put(block, bytecode.getCurrentOffset());
+        List<Integer> jumps = pendingJumps.remove(block);
+        if (jumps != null) {
+            for (int jump : jumps) {
+                bytecode.patchJump(jump);
+            }
+        }
+        for (Instruction instruction : block.instructions) {
+            if (onStack.contains(instruction)) {
+                continue;
+            }
+            emitInstruction(instruction);
+            Instruction phi = storedInto.get(instruction);
+            if (phi != null) {
+                bytecode.emit(OpCode.SET_LOCAL, slot(phi));
+            } else if (slots.containsKey(instruction)) {
+                bytecode.emit(OpCode.SET_LOCAL, slot(instruction));
+            } else if (instruction.getOp().hasResult()) {
+                bytecode.emit(OpCode.POP);
+            }
+        }
+
+        Instruction terminator = block.terminator;
+        markLine(terminator);
+        switch (terminator.getOp()) {
+            case RETURN:
+                emitOperand(terminator.getOperand(0));
+                markLine(terminator);
+                bytecode.emit(OpCode.RETURN);
+                break;
+            case BRANCH: {
+                emitOperand(terminator.getOperand(0));
+                markLine(terminator);
+                BasicBlock otherwise = block.successors.get(1);
+                if (offsets.containsKey(otherwise)) {
+                    throw new IllegalStateException("Branch back to " + otherwise + " in " + block);
+                }
+                pendingJumps.computeIfAbsent(otherwise, key -> new ArrayList<>())
+                    .add(bytecode.emitJump(OpCode.JUMP_IF_FALSE));
+                emitJump(block.successors.get(0), next);
+                break;
+            }
+            case JUMP:
+                emitPhiCopies(block, block.successors.get(0));
+                emitJump(block.successors.get(0), next);
+                break;
+            default:
+                throw new IllegalStateException("Not a terminator: " + terminator.getOp());
+        }
+    }
+
+    private void emitJump(BasicBlock target, BasicBlock next) {
+        if (target == next) {
+            return;
+        }
+        Integer offset = offsets.get(target);
+        if (offset != null) {
+            bytecode.emitLoop(offset);
+        } else {
+            pendingJumps.computeIfAbsent(target, key -> new ArrayList<>()).add(bytecode.emitJump(OpCode.JUMP));
+        }
+    }
+
+    private void emitPhiCopies(BasicBlock block, BasicBlock target) {
+        int edge = target.predecessors.indexOf(block);
+        List<Instruction> copied = new ArrayList<>();
+        for (Instruction phi : target.phis) {
+            Value operand = phi.getOperand(edge);
+            if (operand == phi || (operand instanceof Instruction && storedInto.get(operand) == phi)) {
+                continue;
+            }
+            emitOperand(operand);
+            copied.add(phi);
+        }
+        for (int i = copied.size() - 1; i >= 0; i--) {
+            bytecode.emit(OpCode.SET_LOCAL, slot(copied.get(i)));
+        }
+    }
+
+    /**
+     * Pushes a value: computes it if it was left for its user, otherwise
+     * loads it.
+     */
+    private void emitOperand(Value value) {
+        if (value instanceof Instruction && onStack.contains(value)) {
+            emitInstruction((Instruction) value);
+        } else if (value instanceof ConstantValue) {
+            Object constant = ((ConstantValue) value).getValue();
+            if (constant == null) {
+                bytecode.emit(OpCode.NIL);
+            } else if (constant instanceof Boolean) {
+                bytecode.emit((Boolean) constant ? OpCode.TRUE : OpCode.FALSE);
+            } else {
+                bytecode.emit(OpCode.CONSTANT, constant);
+            }
+        } else if (value instanceof ParameterValue) {
+            bytecode.emit(OpCode.GET_LOCAL, ((ParameterValue) value).getIndex());
+        } else {
+            bytecode.emit(OpCode.GET_LOCAL, slot((Instruction) value));
+        }
+    }
+
+    private int slot(Instruction instruction) {
+        Integer slot = slots.get(instruction);
+        if (slot == null) {
+            throw new IllegalStateException("No slot for " + instruction);
+        }
+        return slot;
+    }
+
+    private void emitInstruction(Instruction instruction) {
+        for (Value operand : instruction.getOperands()) {
+            emitOperand(operand);
+        }
+        markLine(instruction);
+        switch (instruction.getOp()) {
+            case COPY:
+                // The operand is the value
+                break;
+            case GET_GLOBAL:
+                bytecode.emit(OpCode.GET_GLOBAL, instruction.getArgument());
+                break;
+            case SET_GLOBAL:
+                bytecode.emit(OpCode.SET_GLOBAL, instruction.getArgument());
+                break;
+            case CALL:
+                bytecode.emit(OpCode.CALL, instruction.getOperands().size() - 1);
+                break;
+            case CALL_DIRECT:
+                bytecode.emit(OpCode.CALL_DIRECT, instruction.getArgument());
+                break;
+            case PRINT:
+                bytecode.emit(OpCode.PRINT);
+                break;
+            default:
+                bytecode.emit(opcode(instruction));
+        }
+    }
+
+    private static OpCode opcode(Instruction instruction) {
+        boolean numbers = instruction.getOperands().size() == 2
+            && instruction.getOperand(0).getType() == IrType.NUMBER
+            && instruction.getOperand(1).getType() == IrType.NUMBER;
+        switch (instruction.getOp()) {
+            case ADD: return numbers ? OpCode.DADD : OpCode.ADD;
+            case SUBTRACT: return numbers ? OpCode.DSUB : OpCode.SUBTRACT;
+            case MULTIPLY: return numbers ? OpCode.DMUL : OpCode.MULTIPLY;
+            case DIVIDE: return numbers ? OpCode.DDIV : OpCode.DIVIDE;
+            case LESS: return numbers ? OpCode.DLT : OpCode.LESS;
+            case LESS_EQUAL: return numbers ? OpCode.DLE : OpCode.LESS_EQUAL;
+            case GREATER: return numbers ? OpCode.DGT : OpCode.GREATER;
+            case GREATER_EQUAL: return numbers ? OpCode.DGE : OpCode.GREATER_EQUAL;
+            case NEGATE: return OpCode.NEGATE;
+            case NOT: return OpCode.NOT;
+            case EQUAL: return OpCode.EQUAL;
+            case NOT_EQUAL: return OpCode.NOT_EQUAL;
+            default:
+                throw new IllegalStateException("Cannot lower " + instruction.getOp());
+        }
+    }
+
+    private void markLine(Instruction instruction) {
+        if (instruction.getLine() > 0) {
+            bytecode.setLine(instruction.getLine());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.velox.compiler.ir;
+
+/**
+ * Operations of IR instructions. Values flow through operands rather than
+ * a stack, and variables are gone: a local's definitions are values, and
+ * where control flow merges them a PHI picks the one for the edge taken.
+ */
+public enum IrOp {
+    /** One operand per predecessor of its block, in predecessor order. */
+    PHI(true, false),
+    /** The operand under a variable's name; copy propagation removes these. */
+    COPY(true, false),
+
+    ADD(true, false),
+    SUBTRACT(true, false),
+    MULTIPLY(true, false),
+    DIVIDE(true, false),
+    NEGATE(true, false),
+    NOT(true, false),
+    EQUAL(true, false),
+    NOT_EQUAL(true, false),
+    LESS(true, false),
+    LESS_EQUAL(true, false),
+    GREATER(true, false),
+    GREATER_EQUAL(true, false),
+
+    /** Reads the global named by the instruction's operand. */
+    GET_GLOBAL(true, true),
+    /** Stores its operand in the global named by the instruction's operand. */
+    SET_GLOBAL(false, true),
+    /** Calls its first operand with the rest as arguments. */
+    CALL(true, true),
+    /** Calls the function named by the instruction's operand. */
+    CALL_DIRECT(true, true),
+    PRINT(false, true),
+
+    JUMP(false, true),
+    /** Goes to the block's first successor if its operand is truthy, else the second. */
+    BRANCH(false, true),
+    RETURN(false, true);
+
+    private final boolean result;
+    private final boolean effects;
+
+    IrOp(boolean result, boolean effects) {
+        this.result = result;
+        this.effects = effects;
+    }
+
+    /**
+     * Whether the instruction defines a value.
+     */
+    public boolean hasResult() {
+        return result;
+    }
+
+    /**
+     * Whether the instruction must run, in order with the others like it,
+     * even if nothing uses its result. Global reads count: a call may
+     * change the global, and an undefined one is an error.
+     */
+    public boolean hasEffects() {
+        return effects;
+    }
+
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RETURN;
+    }
+}
@@ -0,0 +1,11 @@
+package com.velox.compiler.ir;
+
+/**
+ * A transformation of a function's IR, in place.
+ */
+public interface IrPass {
+    /**
+     * Runs the pass and returns whether it changed anything.
+     */
+    boolean run(IrFunction function);
+}
@@ -0,0 +1,44 @@
+package com.velox.compiler.ir;
+
+/**
+ * What the IR knows about the runtime class of a value. NUMBER means a
+ * Double, the only kind of number literals and the typed opcodes produce,
+ * so arithmetic on two NUMBER operands can be lowered to those opcodes.
+ *
+ * UNKNOWN is the starting point of type inference, for values whose
+ * operands have not been typed yet; inference never leaves it in place.
+ */
+public enum IrType {
+    UNKNOWN,
+    NUMBER,
+    BOOLEAN,
+    STRING,
+    NIL,
+    ANY;
+
+    /**
+     * Returns the type of a value that may come from either of two types.
+     */
+    public IrType join(IrType other) {
+        if (this == other || other == UNKNOWN) {
+            return this;
+        }
+        return this == UNKNOWN ? other : ANY;
+    }
+
+    /**
+     * Returns the type of a constant.
+     */
+    public static IrType of(Object value) {
+        if (value == null) {
+            return NIL;
+        } else if (value instanceof Double) {
+            return NUMBER;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof String) {
+            return STRING;
+        }
+        return ANY;
+    }
+}
@@ -0,0 +1,29 @@
+package com.velox.compiler.ir;
+
+/**
+ * A function parameter. Arguments arrive in the first local slots, so the
+ * parameter's index is also its slot.
+ */
+public final class ParameterValue extends Value {
+    private final int index;
+    private final String name;
+
+    ParameterValue(int index, String name) {
+        this.index = index;
+        this.name = name;
+        this.type = IrType.ANY;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
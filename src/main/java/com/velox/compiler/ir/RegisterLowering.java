@@ -0,0 +1,461 @@
+package com.velox.compiler.ir;
+
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.RegisterCode;
+import com.velox.compiler.bytecode.RegisterOp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Emits a function's IR as {@link RegisterCode}, blocks in layout order.
+ *
+ * Every value gets a register of its own: parameters the first ones, then
+ * the constants the function uses, loaded once on entry, then PHIs and
+ * instructions. Values typed NUMBER are kept unboxed and computed with the
+ * D-prefixed operations; one used where any value may appear is boxed into
+ * a scratch register first. As in {@link IrLowering}, a PHI operand
+ * computed in a predecessor only for the PHI is written straight into the
+ * PHI's register, and the rest are copied at the end of the predecessor,
+ * ordered so that PHIs that read each other see the old values.
+ *
+ * A comparison of numbers used only by the branch that ends its block is
+ * folded into the jump.
+ */
+public final class RegisterLowering {
+    private final Bytecode bytecode;
+    private final Map<Value, Integer> uses = new HashMap<>();
+    private final Map<Value, Integer> registers = new HashMap<>();
+    private final Map<Instruction, Instruction> storedInto = new HashMap<>();
+    // Comparisons emitted as part of the branch that uses them
+    private final Set<Instruction> fused = new HashSet<>();
+    private final Map<Object, Integer> constants = new LinkedHashMap<>();
+    private final Map<BasicBlock, Integer> offsets = new HashMap<>();
+    private final Map<BasicBlock, List<Integer>> pendingJumps = new HashMap<>();
+    private int[] code;
+    private int length;
+    private int registerCount;
+    private int scratch;
+    private int maxScratch;
+
+    public RegisterLowering(Bytecode bytecode) {
+        this.bytecode = bytecode;
+    }
+
+    public RegisterCode lower(IrFunction function) {
+        uses.clear();
+        registers.clear();
+        storedInto.clear();
+        fused.clear();
+        constants.clear();
+        offsets.clear();
+        pendingJumps.clear();
+        code = new int[64];
+        length = 0;
+        maxScratch = 0;
+        function.removeUnreachableBlocks();
+        function.inferTypes();
+
+        List<BasicBlock> blocks = function.getBlocks();
+        for (ParameterValue parameter : function.getParameters()) {
+            registers.put(parameter, parameter.getIndex());
+        }
+        registerCount = function.getParameters().size();
+        countUses(blocks);
+        for (BasicBlock block : blocks) {
+            for (Instruction phi : block.phis) {
+                registers.put(phi, registerCount++);
+            }
+        }
+        for (BasicBlock block : blocks) {
+            coalescePhiOperands(block);
+            findFusedComparison(block);
+        }
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.instructions) {
+                Instruction phi = storedInto.get(instruction);
+                if (phi != null) {
+                    registers.put(instruction, registers.get(phi));
+                } else if (instruction.getOp().hasResult() && !fused.contains(instruction)) {
+                    registers.put(instruction, registerCount++);
+                }
+            }
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            emitBlock(blocks.get(i), i + 1 < blocks.size() ? blocks.get(i + 1) : null);
+        }
+        return new RegisterCode(Arrays.copyOf(code, length), constants.keySet().toArray(),
+            registerCount + maxScratch);
+    }
+
+    /**
+     * Counts uses and gives each constant a register, loaded on entry.
+     */
+    private void countUses(List<BasicBlock> blocks) {
+        for (BasicBlock block : blocks) {
+            for (Instruction phi : block.phis) {
+                countOperands(phi);
+            }
+            for (Instruction instruction : block.instructions) {
+                countOperands(instruction);
+            }
+            countOperands(block.terminator);
+        }
+    }
+
+    private void countOperands(Instruction instruction) {
+        for (Value operand : instruction.getOperands()) {
+            uses.merge(operand, 1, Integer::sum);
+            if (operand instanceof ConstantValue && !registers.containsKey(operand)) {
+                int register = registerCount++;
+                registers.put(operand, register);
+                emit(RegisterOp.LOAD_CONSTANT, register, constant(((ConstantValue) operand).getValue()));
+            }
+        }
+    }
+
+    private int uses(Value value) {
+        return uses.getOrDefault(value, 0);
+    }
+
+    private void coalescePhiOperands(BasicBlock block) {
+        if (block.terminator.getOp() != IrOp.JUMP) {
+            return;
+        }
+        BasicBlock target = block.successors.get(0);
+        int edge = target.predecessors.indexOf(block);
+        for (Instruction phi : target.phis) {
+            Value operand = phi.getOperand(edge);
+            if (!(operand instanceof Instruction) || ((Instruction) operand).getBlock() != block
+                    || ((Instruction) operand).getOp() == IrOp.PHI || uses(operand) != 1
+                    || unboxed(operand) != unboxed(phi)) {
+                continue;
+            }
+            Instruction instruction = (Instruction) operand;
+            if (!readsAfter(block, instruction, phi) && !readByOtherPhi(target, edge, phi)) {
+                storedInto.put(instruction, phi);
+            }
+        }
+    }
+
+    private static boolean readsAfter(BasicBlock block, Instruction instruction, Instruction phi) {
+        List<Instruction> instructions = block.instructions;
+        for (int i = instructions.indexOf(instruction) + 1; i < instructions.size(); i++) {
+            if (instructions.get(i).getOperands().contains(phi)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean readByOtherPhi(BasicBlock target, int edge, Instruction phi) {
+        for (Instruction other : target.phis) {
+            if (other != phi && other.getOperand(edge) == phi) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks a comparison of numbers in the block that only its branch
+     * reads. Its operands cannot change before the branch: only PHI
+     * registers are ever rewritten, and only at the end of a block that
+     * jumps.
+     */
+    private void findFusedComparison(BasicBlock block) {
+        if (block.terminator.getOp() != IrOp.BRANCH || !(block.terminator.getOperand(0) instanceof Instruction)) {
+            return;
+        }
+        Instruction condition = (Instruction) block.terminator.getOperand(0);
+        if (condition.getBlock() == block && uses(condition) == 1 && fusedJump(condition) != null) {
+            fused.add(condition);
+        }
+    }
+
+    private static RegisterOp fusedJump(Instruction comparison) {
+        if (comparison.getOperands().size() != 2 || !numbers(comparison)) {
+            return null;
+        }
+        switch (comparison.getOp()) {
+            case LESS: return RegisterOp.JUMP_IF_NOT_DLT;
+            case LESS_EQUAL: return RegisterOp.JUMP_IF_NOT_DLE;
+            case GREATER: return RegisterOp.JUMP_IF_NOT_DGT;
+            case GREATER_EQUAL: return RegisterOp.JUMP_IF_NOT_DGE;
+            default: return null;
+        }
+    }
+
+    private void emitBlock(BasicBlock block, BasicBlock next) {
+        offsets.put(block, length);
+        List<Integer> jumps = pendingJumps.remove(block);
+        if (jumps != null) {
+            for (int jump : jumps) {
+                code[jump] = length;
+            }
+        }
+        for (Instruction instruction : block.instructions) {
+            if (!fused.contains(instruction)) {
+                scratch = 0;
+                emitInstruction(instruction);
+            }
+        }
+
+        scratch = 0;
+        Instruction terminator = block.terminator;
+        switch (terminator.getOp()) {
+            case RETURN:
+                emit(RegisterOp.RETURN, object(terminator.getOperand(0)));
+                break;
+            case BRANCH: {
+                Value condition = terminator.getOperand(0);
+                BasicBlock otherwise = block.successors.get(1);
+                if (fused.contains(condition)) {
+                    Instruction comparison = (Instruction) condition;
+                    emit(fusedJump(comparison), register(comparison.getOperand(0)),
+                        register(comparison.getOperand(1)), target(otherwise, length + 3));
+                } else {
+                    int register = object(condition);
+                    emit(RegisterOp.JUMP_IF_FALSE, register, target(otherwise, length + 2));
+                }
+                emitJump(block.successors.get(0), next);
+                break;
+            }
+            case JUMP:
+                emitPhiCopies(block, block.successors.get(0));
+                emitJump(block.successors.get(0), next);
+                break;
+            default:
+                throw new IllegalStateException("Not a terminator: " + terminator.getOp());
+        }
+    }
+
+    private void emitJump(BasicBlock target, BasicBlock next) {
+        if (target != next) {
+            emit(RegisterOp.JUMP, target(target, length + 1));
+        }
+    }
+
+    /**
+     * Returns a block's offset, or records that the operand at a position
+     * is to be patched with it once the block is emitted.
+     */
+    private int target(BasicBlock block, int position) {
+        Integer offset = offsets.get(block);
+        if (offset != null) {
+            return offset;
+        }
+        pendingJumps.computeIfAbsent(block, key -> new ArrayList<>()).add(position);
+        return -1;
+    }
+
+    /**
+     * Copies each PHI's operand for the edge into its register. A copy is
+     * emitted once no pending copy still reads the register it writes; if
+     * only a cycle remains, one value in it is saved to a scratch register.
+     */
+    private void emitPhiCopies(BasicBlock block, BasicBlock target) {
+        int edge = target.predecessors.indexOf(block);
+        List<Instruction> phis = new ArrayList<>();
+        List<Value> sources = new ArrayList<>();
+        List<Integer> from = new ArrayList<>();
+        for (Instruction phi : target.phis) {
+            Value operand = phi.getOperand(edge);
+            if (operand == phi || (operand instanceof Instruction && storedInto.get(operand) == phi)) {
+                continue;
+            }
+            phis.add(phi);
+            sources.add(operand);
+            from.add(register(operand));
+        }
+        while (!phis.isEmpty()) {
+            int ready = -1;
+            for (int i = 0; i < phis.size() && ready < 0; i++) {
+                if (!from.contains(register(phis.get(i)))) {
+                    ready = i;
+                }
+            }
+            if (ready >= 0) {
+                move(register(phis.get(ready)), unboxed(phis.get(ready)), from.get(ready), sources.get(ready));
+                phis.remove(ready);
+                sources.remove(ready);
+                from.remove(ready);
+                continue;
+            }
+            // Every remaining copy overwrites a register another reads
+            int saved = scratch();
+            move(saved, unboxed(sources.get(0)), from.get(0), sources.get(0));
+            from.set(0, saved);
+        }
+    }
+
+    private void move(int target, boolean unboxedTarget, int source, Value value) {
+        if (value instanceof ConstantValue) {
+            // Constant registers hold numbers both ways
+            emit(unboxedTarget ? RegisterOp.DMOVE : RegisterOp.MOVE, target, source);
+        } else if (unboxed(value)) {
+            emit(unboxedTarget ? RegisterOp.DMOVE : RegisterOp.BOX, target, source);
+        } else if (!unboxedTarget) {
+            emit(RegisterOp.MOVE, target, source);
+        } else {
+            throw new IllegalStateException("Cannot unbox " + value + " into a number register");
+        }
+    }
+
+    private void emitInstruction(Instruction instruction) {
+        List<Value> operands = instruction.getOperands();
+        switch (instruction.getOp()) {
+            case COPY:
+                move(register(instruction), unboxed(instruction), register(operands.get(0)), operands.get(0));
+                break;
+            case GET_GLOBAL:
+                emit(RegisterOp.GET_GLOBAL, register(instruction), global(instruction));
+                break;
+            case SET_GLOBAL:
+                emit(RegisterOp.SET_GLOBAL, global(instruction), object(operands.get(0)));
+                break;
+            case CALL:
+            case CALL_DIRECT: {
+                boolean direct = instruction.getOp() == IrOp.CALL_DIRECT;
+                int[] arguments = new int[operands.size()];
+                for (int i = 0; i < operands.size(); i++) {
+                    arguments[i] = object(operands.get(i));
+                }
+                int first = direct ? 0 : 1;
+                emitWord(direct ? RegisterOp.CALL_DIRECT.ordinal() : RegisterOp.CALL.ordinal());
+                emitWord(register(instruction));
+                emitWord(direct ? constant(instruction.getArgument()) : arguments[0]);
+                emitWord(arguments.length - first);
+                for (int i = first; i < arguments.length; i++) {
+                    emitWord(arguments[i]);
+                }
+                break;
+            }
+            case PRINT:
+                emit(RegisterOp.PRINT, object(operands.get(0)));
+                break;
+            default:
+                emitOperation(instruction);
+        }
+    }
+
+    private void emitOperation(Instruction instruction) {
+        List<Value> operands = instruction.getOperands();
+        boolean numbers = numbers(instruction);
+        RegisterOp op = operation(instruction.getOp(), numbers);
+        int[] sources = new int[operands.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = numbers ? register(operands.get(i)) : object(operands.get(i));
+        }
+        if (sources.length == 1) {
+            emit(op, register(instruction), sources[0]);
+        } else {
+            emit(op, register(instruction), sources[0], sources[1]);
+        }
+    }
+
+    private static RegisterOp operation(IrOp op, boolean numbers) {
+        switch (op) {
+            case ADD: return numbers ? RegisterOp.DADD : RegisterOp.ADD;
+            case SUBTRACT: return numbers ? RegisterOp.DSUB : RegisterOp.SUBTRACT;
+            case MULTIPLY: return numbers ? RegisterOp.DMUL : RegisterOp.MULTIPLY;
+            case DIVIDE: return numbers ? RegisterOp.DDIV : RegisterOp.DIVIDE;
+            case NEGATE: return numbers ? RegisterOp.DNEG : RegisterOp.NEGATE;
+            case LESS: return numbers ? RegisterOp.DLT : RegisterOp.LESS;
+            case LESS_EQUAL: return numbers ? RegisterOp.DLE : RegisterOp.LESS_EQUAL;
+            case GREATER: return numbers ? RegisterOp.DGT : RegisterOp.GREATER;
+            case GREATER_EQUAL: return numbers ? RegisterOp.DGE : RegisterOp.GREATER_EQUAL;
+            case NOT: return RegisterOp.NOT;
+            case EQUAL: return RegisterOp.EQUAL;
+            case NOT_EQUAL: return RegisterOp.NOT_EQUAL;
+            default:
+                throw new IllegalStateException("Cannot lower " + op);
+        }
+    }
+
+    /**
+     * Whether an arithmetic or ordering operation works on unboxed numbers.
+     * Equality does not, so that it compares exactly as the stack engines
+     * do.
+     */
+    private static boolean numbers(Instruction instruction) {
+        switch (instruction.getOp()) {
+            case EQUAL:
+            case NOT_EQUAL:
+            case NOT:
+                return false;
+            default:
+                for (Value operand : instruction.getOperands()) {
+                    if (operand.getType() != IrType.NUMBER) {
+                        return false;
+                    }
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Whether a value lives unboxed. Constants are loaded both ways.
+     */
+    private static boolean unboxed(Value value) {
+        return value.getType() == IrType.NUMBER && !(value instanceof ConstantValue);
+    }
+
+    private int register(Value value) {
+        Integer register = registers.get(value);
+        if (register == null) {
+            throw new IllegalStateException("No register for " + value);
+        }
+        return register;
+    }
+
+    /**
+     * Returns a register holding a value as an object, boxing it into a
+     * scratch register if it lives unboxed.
+     */
+    private int object(Value value) {
+        if (!unboxed(value)) {
+            return register(value);
+        }
+        int boxed = scratch();
+        emit(RegisterOp.BOX, boxed, register(value));
+        return boxed;
+    }
+
+    /**
+     * Hands out a scratch register, which is free again once the current
+     * instruction has been emitted.
+     */
+    private int scratch() {
+        int register = registerCount + scratch++;
+        maxScratch = Math.max(maxScratch, scratch);
+        return register;
+    }
+
+    private int global(Instruction instruction) {
+        return bytecode.getGlobals().resolve((String) instruction.getArgument());
+    }
+
+    private int constant(Object value) {
+        return constants.computeIfAbsent(value, key -> constants.size());
+    }
+
+    private void emit(RegisterOp op, int... operands) {
+        emitWord(op.ordinal());
+        for (int operand : operands) {
+            emitWord(operand);
+        }
+    }
+
+    private void emitWord(int word) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = word;
+    }
+}
@@ -0,0 +1,13 @@
+package com.velox.compiler.ir;
+
+/**
+ * A value in SSA form: defined once, by a constant, a parameter or an
+ * instruction, and never changed. Values compare by identity.
+ */
+public abstract class Value {
+    IrType type = IrType.UNKNOWN;
+
+    public IrType getType() {
+        return type;
+    }
+}
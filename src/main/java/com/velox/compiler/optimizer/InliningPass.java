@@ -0,0 +1,236 @@
+package com.velox.compiler.optimizer;
+
+import com.velox.compiler.ast.*;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces calls to small top-level functions with the expression they
+ * return, the arguments substituted for the parameters, so a call in a
+ * loop no longer pays for a frame.
+ *
+ * A function is inlined only if the code generator would call it
+ * directly and the substitution cannot change what the program does: its
+ * body is a single return of an expression that reads only parameters and
+ * makes no calls, assignments or property accesses, no larger than the
+ * budget in nodes. Making no calls also rules out recursion. Inlining runs
+ * in rounds, so a function whose only calls were inlined becomes a
+ * candidate for its own callers in the next.
+ */
+final class InliningPass extends ASTTransformer implements Optimizer.OptimizationPass {
+    private static final int MAX_ROUNDS = 4;
+
+    private final Optimizer.ConstantFoldingPass folding = new Optimizer.ConstantFoldingPass();
+    private int budget;
+    private int inlined;
+    private Map<String, FunctionStmt> candidates;
+    // Names declared inside the top-level declaration being rewritten,
+    // any of which may shadow a function
+    private Set<String> shadowed;
+
+    /**
+     * Sets the largest body, in nodes, that is inlined. A budget of zero
+     * turns inlining off.
+     */
+    void setBudget(int budget) {
+        this.budget = budget;
+    }
+
+    int getInlined() {
+        return inlined;
+    }
+
+    @Override
+    public AST optimize(AST node) {
+        inlined = 0;
+        if (budget <= 0 || !(node instanceof ModuleNode)) {
+            return node;
+        }
+        AST result = node;
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            candidates = findCandidates((ModuleNode) result);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            int before = inlined;
+            result = transform(result);
+            if (inlined == before) {
+                break;
+            }
+            // Arguments that were literals may now fold, shrinking the
+            // bodies the next round looks at
+            result = folding.transform(result);
+        }
+        candidates = null;
+        shadowed = null;
+        return result;
+    }
+
+    @Override
+    protected List<AST> transformStatements(List<AST> statements) {
+        if (shadowed != null) {
+            return super.transformStatements(statements);
+        }
+        // Top level: each declaration is rewritten with its own names in scope
+        List<AST> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (AST statement : statements) {
+            shadowed = TreeScan.of(statement).declared;
+            AST replacement = transform(statement);
+            shadowed = null;
+            result.add(replacement);
+            changed |= replacement != statement;
+        }
+        return changed ? result : statements;
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr) {
+        AST node = (AST) super.visitCallExpr(expr);
+        if (!(node instanceof CallExpr) || !(((CallExpr) node).getCallee() instanceof VariableExpr)) {
+            return node;
+        }
+        CallExpr call = (CallExpr) node;
+        String name = ((VariableExpr) call.getCallee()).getToken().getLexeme();
+        FunctionStmt function = candidates.get(name);
+        if (function == null || shadowed.contains(name)
+                || function.getParameters().size() != call.getArguments().size()) {
+            return call;
+        }
+        AST body = ((ReturnStmt) function.getBody().get(0)).getValue();
+        Map<String, AST> arguments = bindArguments(function, body, call.getArguments());
+        if (arguments == null) {
+            return call;
+        }
+        inlined++;
+        return new Substitution(arguments).transform(body);
+    }
+
+    /**
+     * Finds the top-level functions small enough to inline whose name
+     * nothing else at top level declares and nothing assigns.
+     */
+    private Map<String, FunctionStmt> findCandidates(ModuleNode module) {
+        Map<String, FunctionStmt> found = new HashMap<>();
+        Set<String> excluded = new HashSet<>();
+        for (AST declaration : module.getDeclarations()) {
+            String name = declaredName(declaration);
+            if (name == null) {
+                continue;
+            }
+            if (!(declaration instanceof FunctionStmt) || found.containsKey(name) || excluded.contains(name)) {
+                found.remove(name);
+                excluded.add(name);
+            } else if (isInlineable((FunctionStmt) declaration)) {
+                found.put(name, (FunctionStmt) declaration);
+            } else {
+                excluded.add(name);
+            }
+        }
+        // A call to a name the program assigns may reach another function
+        found.keySet().removeAll(TreeScan.of(module).assigned);
+        return found;
+    }
+
+    private boolean isInlineable(FunctionStmt function) {
+        List<AST> body = function.getBody();
+        if (body.size() != 1 || !(body.get(0) instanceof ReturnStmt)) {
+            return false;
+        }
+        AST value = ((ReturnStmt) body.get(0)).getValue();
+        if (value == null) {
+            return false;
+        }
+        TreeScan scan = TreeScan.of(value);
+        // Property reads and this cannot be rebuilt around a substituted
+        // object, so they keep a function from being inlined too
+        if (!scan.isPure() || scan.nodes > budget) {
+            return false;
+        }
+        Set<String> parameters = new HashSet<>();
+        for (Parameter parameter : function.getParameters()) {
+            parameters.add(parameter.getName().getLexeme());
+        }
+        return parameters.containsAll(scan.reads);
+    }
+
+    /**
+     * Maps each parameter to the argument that replaces it, or returns
+     * null if substituting would change the order or number of times an
+     * argument is evaluated in a way that matters. Literals and variables
+     * can be read any number of times, since nothing in the body writes;
+     * any other argument must be pure, used exactly once, and used in
+     * argument order with the others like it.
+     */
+    private static Map<String, AST> bindArguments(FunctionStmt function, AST body, List<AST> arguments) {
+        List<String> reads = TreeScan.of(body).reads;
+        Map<String, AST> bound = new HashMap<>();
+        int lastComputed = -1;
+        for (int i = 0; i < arguments.size(); i++) {
+            String parameter = function.getParameters().get(i).getName().getLexeme();
+            AST argument = arguments.get(i);
+            int uses = 0;
+            for (String read : reads) {
+                if (read.equals(parameter)) {
+                    uses++;
+                }
+            }
+            bound.put(parameter, argument);
+            if (argument instanceof LiteralExpr) {
+                continue;
+            }
+            // Dropping a variable read could hide an undefined global
+            if (uses == 0) {
+                return null;
+            }
+            if (argument instanceof VariableExpr) {
+                continue;
+            }
+            if (uses != 1 || TreeScan.of(argument).hasEffects()) {
+                return null;
+            }
+            int position = reads.indexOf(parameter);
+            if (position < lastComputed) {
+                return null;
+            }
+            lastComputed = position;
+        }
+        return bound;
+    }
+
+    private static String declaredName(AST declaration) {
+        if (declaration instanceof FunctionStmt) {
+            return ((FunctionStmt) declaration).getName().getLexeme();
+        }
+        if (declaration instanceof VarStmt) {
+            return ((VarStmt) declaration).getName().getLexeme();
+        }
+        if (declaration instanceof ClassStmt) {
+            return ((ClassStmt) declaration).getName().getLexeme();
+        }
+        return null;
+    }
+
+    /**
+     * Replaces parameter reads with arguments.
+     */
+    private static final class Substitution extends ASTTransformer {
+        private final Map<String, AST> arguments;
+
+        Substitution(Map<String, AST> arguments) {
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Object visitVariableExpr(VariableExpr expr) {
+            AST argument = arguments.get(expr.getToken().getLexeme());
+            return argument != null ? argument : expr;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.velox.compiler.optimizer;
+
+import com.velox.compiler.ast.*;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.token.Token;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Moves loop-invariant expressions out of while loops and unrolls small
+ * counted loops.
+ *
+ * An expression is invariant if it is pure and every variable it reads
+ * keeps its value for the whole loop: nothing in the loop assigns or
+ * redeclares it, and, if the loop makes calls, it is a local of the
+ * current frame that no nested function refers to, so no callee can reach
+ * it. Only expressions the loop evaluates on every iteration before any
+ * effect, and before any operator left in the loop that can fail, are
+ * moved, up to and including the value of its first store, so a moved
+ * expression that fails does so before the same effects and failures as
+ * it would have in the loop. They go into a temporary declared ahead of the
+ * loop, and the loop is guarded by its condition so the temporary is
+ * computed only if the loop runs:
+ *
+ *   while (c) { ... e ... }   =>   if (c) { var t = e; while (c) { ... t ... } }
+ *
+ * A counted loop, a variable declared with a number right before a loop
+ * that compares it with a number and steps it by a number as its last
+ * statement, is replaced by copies of its body if it runs at most
+ * {@value #MAX_UNROLLED_TRIPS} times and the copies stay within
+ * {@value #MAX_UNROLLED_NODES} nodes.
+ */
+final class LoopOptimizationPass extends ASTTransformer implements Optimizer.OptimizationPass {
+    static final int MAX_UNROLLED_TRIPS = 8;
+    static final int MAX_UNROLLED_NODES = 200;
+    private static final String TEMPORARY_PREFIX = "$invariant";
+
+    // Locals of the frames being rewritten, innermost first, and the ones
+    // nested functions can reach
+    private final Deque<Set<String>> frameLocals = new ArrayDeque<>();
+    private final Deque<Set<String>> frameCaptured = new ArrayDeque<>();
+    private Set<String> taken;
+    private int temporaries;
+    private int hoisted;
+    private int unrolled;
+
+    int getHoisted() {
+        return hoisted;
+    }
+
+    int getUnrolled() {
+        return unrolled;
+    }
+
+    @Override
+    public AST optimize(AST node) {
+        hoisted = 0;
+        unrolled = 0;
+        temporaries = 0;
+        taken = TreeScan.of(node).declared;
+        AST result = transform(node);
+        taken = null;
+        return result;
+    }
+
+    @Override
+    public Object visitModuleNode(ModuleNode node) {
+        // Top-level code runs in frame 0, whose locals top-level functions
+        // see as globals, so nothing can capture them
+        Set<String> locals = new HashSet<>();
+        for (AST declaration : node.getDeclarations()) {
+            if (!(declaration instanceof FunctionStmt) && !(declaration instanceof ClassStmt)) {
+                TreeScan scan = new TreeScan();
+                scan.transform(declaration);
+                locals.addAll(scan.locals);
+            }
+        }
+        return inFrame(locals, new HashSet<>(), () -> super.visitModuleNode(node));
+    }
+
+    @Override
+    public Object visitFunctionStmt(FunctionStmt stmt) {
+        TreeScan scan = TreeScan.of(stmt);
+        return inFrame(scan.locals, scan.captured, () -> super.visitFunctionStmt(stmt));
+    }
+
+    private Object inFrame(Set<String> locals, Set<String> captured, Supplier<Object> body) {
+        frameLocals.push(locals);
+        frameCaptured.push(captured);
+        try {
+            return body.get();
+        } finally {
+            frameLocals.pop();
+            frameCaptured.pop();
+        }
+    }
+
+    @Override
+    public Object visitWhileStmt(WhileStmt stmt) {
+        AST node = (AST) super.visitWhileStmt(stmt);
+        return node instanceof WhileStmt ? hoistInvariants((WhileStmt) node) : node;
+    }
+
+    /**
+     * Rewrites a statement list, unrolling loops whose counter is declared
+     * by the statement before them.
+     */
+    @Override
+    protected List<AST> transformStatements(List<AST> statements) {
+        List<AST> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (AST statement : statements) {
+            AST replacement;
+            if (statement instanceof WhileStmt) {
+                AST loop = (AST) super.visitWhileStmt((WhileStmt) statement);
+                AST previous = result.isEmpty() ? null : result.get(result.size() - 1);
+                replacement = loop instanceof WhileStmt ? unroll(previous, (WhileStmt) loop) : null;
+                if (replacement == null) {
+                    replacement = loop instanceof WhileStmt ? hoistInvariants((WhileStmt) loop) : loop;
+                }
+            } else {
+                replacement = transform(statement);
+            }
+            if (replacement != null) {
+                result.add(replacement);
+            }
+            changed |= replacement != statement;
+        }
+        return changed ? result : statements;
+    }
+
+    private AST hoistInvariants(WhileStmt loop) {
+        if (frameLocals.isEmpty() || TreeScan.of(loop.getCondition()).hasEffects()) {
+            return loop;
+        }
+        TreeScan scan = new TreeScan();
+        scan.transform(loop);
+        Set<String> variant = new HashSet<>(scan.assigned);
+        variant.addAll(scan.declared);
+        Set<String> unaliased = null;
+        if (scan.calls) {
+            unaliased = new HashSet<>(frameLocals.peek());
+            unaliased.removeAll(frameCaptured.peek());
+        }
+
+        Hoister hoister = new Hoister(variant, unaliased, loop.getToken());
+        List<AST> body = loop.getBody() instanceof BlockStmt
+            ? ((BlockStmt) loop.getBody()).getStatements()
+            : Collections.singletonList(loop.getBody());
+        List<AST> rewritten = new ArrayList<>(body);
+        hoister.hoistFrom(rewritten);
+        if (hoister.declarations.isEmpty()) {
+            return loop;
+        }
+        hoisted += hoister.declarations.size();
+
+        AST newBody = new BlockStmt(loop.getBody().getToken(), rewritten);
+        List<AST> guarded = new ArrayList<>(hoister.declarations);
+        guarded.add(new WhileStmt(loop.getToken(), loop.getCondition(), newBody));
+        return new IfStmt(loop.getToken(), loop.getCondition(), new BlockStmt(loop.getToken(), guarded), null);
+    }
+
+    /**
+     * Replaces a counted loop with copies of its body, or returns null if
+     * it is not one or is too large.
+     */
+    private AST unroll(AST previous, WhileStmt loop) {
+        if (!(previous instanceof VarStmt) || !(loop.getBody() instanceof BlockStmt)
+                || !(loop.getCondition() instanceof BinaryExpr)) {
+            return null;
+        }
+        VarStmt counter = (VarStmt) previous;
+        String name = counter.getName().getLexeme();
+        Double start = number(counter.getInitializer());
+        BinaryExpr condition = (BinaryExpr) loop.getCondition();
+        Double limit = number(condition.getRight());
+        if (start == null || limit == null || !isVariable(condition.getLeft(), name)) {
+            return null;
+        }
+
+        List<AST> statements = ((BlockStmt) loop.getBody()).getStatements();
+        if (statements.isEmpty()) {
+            return null;
+        }
+        Double step = step(statements.get(statements.size() - 1), name);
+        if (step == null || step == 0) {
+            return null;
+        }
+        TreeScan rest = new TreeScan();
+        statements.subList(0, statements.size() - 1).forEach(rest::transform);
+        if (rest.assigned.contains(name) || rest.declared.contains(name) || frameCaptured.peek().contains(name)) {
+            return null;
+        }
+
+        int trips = 0;
+        for (double value = start; compare(condition.getOperator().getType(), value, limit); value += step) {
+            if (++trips > MAX_UNROLLED_TRIPS) {
+                return null;
+            }
+        }
+        if (trips * TreeScan.of(loop.getBody()).nodes > MAX_UNROLLED_NODES) {
+            return null;
+        }
+        List<AST> copies = new ArrayList<>(trips);
+        for (int i = 0; i < trips; i++) {
+            copies.add(loop.getBody());
+        }
+        unrolled++;
+        return new BlockStmt(loop.getToken(), copies);
+    }
+
+    private static boolean compare(TokenType operator, double value, double limit) {
+        switch (operator) {
+            case LESS: return value < limit;
+            case LESS_EQUAL: return value <= limit;
+            case GREATER: return value > limit;
+            case GREATER_EQUAL: return value >= limit;
+            // Anything else is not a counted loop; a trip count past the
+            // limit makes the caller give up
+            default: return true;
+        }
+    }
+
+    /**
+     * Returns the step of a statement name = name + n or name = name - n.
+     */
+    private static Double step(AST statement, String name) {
+        if (!(statement instanceof ExpressionStmt)
+                || !(((ExpressionStmt) statement).getExpression() instanceof AssignExpr)) {
+            return null;
+        }
+        AssignExpr assign = (AssignExpr) ((ExpressionStmt) statement).getExpression();
+        if (!assign.getName().getLexeme().equals(name) || !(assign.getValue() instanceof BinaryExpr)) {
+            return null;
+        }
+        BinaryExpr value = (BinaryExpr) assign.getValue();
+        Double amount = number(value.getRight());
+        if (!isVariable(value.getLeft(), name) || amount == null) {
+            return null;
+        }
+        switch (value.getOperator().getType()) {
+            case PLUS: return amount;
+            case MINUS: return -amount;
+            default: return null;
+        }
+    }
+
+    private static Double number(AST node) {
+        if (node instanceof LiteralExpr && ((LiteralExpr) node).getValue() instanceof Double) {
+            return (Double) ((LiteralExpr) node).getValue();
+        }
+        return null;
+    }
+
+    private static boolean isVariable(AST node, String name) {
+        return node instanceof VariableExpr && ((VariableExpr) node).getToken().getLexeme().equals(name);
+    }
+
+    private String newTemporary() {
+        String name;
+        do {
+            name = TEMPORARY_PREFIX + temporaries++;
+        } while (taken.contains(name));
+        return name;
+    }
+
+    /**
+     * Replaces the largest invariant expressions in the statements a loop
+     * runs on every iteration with temporaries.
+     */
+    private final class Hoister extends ASTTransformer {
+        final List<AST> declarations = new ArrayList<>();
+        private final Map<String, String> temporaryFor = new HashMap<>();
+        private final Set<String> variant;
+        private final Set<String> unaliased;
+        private final Token at;
+        // Whether the walk has passed an operator it left in the loop that
+        // can fail, after which nothing more may be moved
+        private boolean mayHaveFailed;
+
+        /**
+         * @param unaliased if the loop makes calls, the only variables no
+         *     call can change; null if it makes none
+         */
+        Hoister(Set<String> variant, Set<String> unaliased, Token at) {
+            this.variant = variant;
+            this.unaliased = unaliased;
+            this.at = at;
+        }
+
+        /**
+         * Rewrites statements in place, from the first up to the one after
+         * which later ones may not run or may see an effect or a failure,
+         * and returns whether the walk got past all of them. Declaring a
+         * loop variable is not an effect: nothing after the loop sees it.
+         */
+        boolean hoistFrom(List<AST> statements) {
+            for (int i = 0; i < statements.size(); i++) {
+                AST statement = statements.get(i);
+                if (statement instanceof BlockStmt) {
+                    List<AST> inner = new ArrayList<>(((BlockStmt) statement).getStatements());
+                    boolean completed = hoistFrom(inner);
+                    statements.set(i, new BlockStmt(statement.getToken(), inner));
+                    if (!completed) {
+                        return false;
+                    }
+                    continue;
+                }
+                TreeScan scan = TreeScan.of(statement);
+                if (scan.calls || scan.sets) {
+                    return false;
+                }
+                if (!scan.assigned.isEmpty()) {
+                    // The walk ends at a store, whose value is still
+                    // evaluated ahead of it
+                    if (isStore(statement)) {
+                        statements.set(i, hoistFrom(statement));
+                    }
+                    return false;
+                }
+                statements.set(i, hoistFrom(statement));
+                if (mayHaveFailed || !(statement instanceof ExpressionStmt) && !(statement instanceof VarStmt)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Whether a statement assigns a variable a value that stores
+         * nothing itself.
+         */
+        private boolean isStore(AST statement) {
+            if (!(statement instanceof ExpressionStmt)
+                    || !(((ExpressionStmt) statement).getExpression() instanceof AssignExpr)) {
+                return false;
+            }
+            return TreeScan.of(((AssignExpr) ((ExpressionStmt) statement).getExpression()).getValue()).assigned.isEmpty();
+        }
+
+        /**
+         * Rewrites the expressions a statement always evaluates.
+         */
+        private AST hoistFrom(AST statement) {
+            if (statement instanceof ExpressionStmt) {
+                return new ExpressionStmt(statement.getToken(), transform(((ExpressionStmt) statement).getExpression()));
+            }
+            if (statement instanceof VarStmt) {
+                VarStmt var = (VarStmt) statement;
+                return var.getInitializer() == null ? var
+                    : new VarStmt(var.getToken(), var.getName(), transform(var.getInitializer()), var.getType());
+            }
+            if (statement instanceof PrintStmt) {
+                return new PrintStmt(statement.getToken(), transform(((PrintStmt) statement).getExpression()));
+            }
+            if (statement instanceof ReturnStmt && ((ReturnStmt) statement).getValue() != null) {
+                return new ReturnStmt(statement.getToken(), transform(((ReturnStmt) statement).getValue()));
+            }
+            if (statement instanceof IfStmt) {
+                IfStmt ifStmt = (IfStmt) statement;
+                return new IfStmt(ifStmt.getToken(), transform(ifStmt.getCondition()),
+                    ifStmt.getThenBranch(), ifStmt.getElseBranch());
+            }
+            return statement;
+        }
+
+        @Override
+        public Object visitBinaryExpr(BinaryExpr expr) {
+            if (mayHaveFailed) {
+                return expr;
+            }
+            if (isInvariant(expr)) {
+                return hoist(expr);
+            }
+            // The operands are evaluated first, then the operator
+            Object result = super.visitBinaryExpr(expr);
+            mayHaveFailed |= canFail(expr.getOperator());
+            return result;
+        }
+
+        @Override
+        public Object visitUnaryExpr(UnaryExpr expr) {
+            if (mayHaveFailed) {
+                return expr;
+            }
+            if (isInvariant(expr)) {
+                return hoist(expr);
+            }
+            Object result = super.visitUnaryExpr(expr);
+            mayHaveFailed |= canFail(expr.getOperator());
+            return result;
+        }
+
+        /**
+         * Whether an operator raises an error for some operands; only
+         * equality accepts any.
+         */
+        private boolean canFail(Token operator) {
+            return operator.getType() != TokenType.EQUAL_EQUAL && operator.getType() != TokenType.BANG_EQUAL;
+        }
+
+        private AST hoist(AST expr) {
+            String key = key(expr);
+            String name = temporaryFor.get(key);
+            if (name == null) {
+                name = newTemporary();
+                temporaryFor.put(key, name);
+                Token token = new Token(TokenType.IDENTIFIER, name, null, at.getLine(), at.getColumn());
+                declarations.add(new VarStmt(at, token, expr, null));
+            }
+            return new VariableExpr(new Token(TokenType.IDENTIFIER, name, null, at.getLine(), at.getColumn()));
+        }
+
+        private boolean isInvariant(AST expr) {
+            if (expr instanceof LiteralExpr) {
+                return true;
+            }
+            if (expr instanceof VariableExpr) {
+                String name = ((VariableExpr) expr).getToken().getLexeme();
+                return !variant.contains(name) && (unaliased == null || unaliased.contains(name));
+            }
+            if (expr instanceof GroupingExpr) {
+                return isInvariant(((GroupingExpr) expr).getExpression());
+            }
+            if (expr instanceof UnaryExpr) {
+                return isInvariant(((UnaryExpr) expr).getRight());
+            }
+            if (expr instanceof BinaryExpr) {
+                return isInvariant(((BinaryExpr) expr).getLeft()) && isInvariant(((BinaryExpr) expr).getRight());
+            }
+            return false;
+        }
+
+        /**
+         * A string equal for structurally equal invariant expressions, so
+         * copies of one expression share a temporary.
+         */
+        private String key(AST expr) {
+            if (expr instanceof LiteralExpr) {
+                Object value = ((LiteralExpr) expr).getValue();
+                return value instanceof String ? '"' + (String) value + '"' : String.valueOf(value);
+            }
+            if (expr instanceof VariableExpr) {
+                return ((VariableExpr) expr).getToken().getLexeme();
+            }
+            if (expr instanceof GroupingExpr) {
+                return key(((GroupingExpr) expr).getExpression());
+            }
+            if (expr instanceof UnaryExpr) {
+                return "(" + ((UnaryExpr) expr).getOperator().getType() + " " + key(((UnaryExpr) expr).getRight()) + ")";
+            }
+            BinaryExpr binary = (BinaryExpr) expr;
+            return "(" + binary.getOperator().getType() + " " + key(binary.getLeft()) + " " + key(binary.getRight()) + ")";
+        }
+    }
+}
@@ -1,21 +1,38 @@
 package com.velox.compiler.optimizer;
 
 public enum OptimizationLevel {
-    NONE(0),
-    BASIC(1),
-    MODERATE(2),
-    AGGRESSIVE(3);
+    NONE(0, 0),
+    BASIC(1, 0),
+    MODERATE(2, 12),
+    AGGRESSIVE(3, 40);
 
     private final int level;
+    private final int inlineBudget;
 
-    OptimizationLevel(int level) {
+    OptimizationLevel(int level, int inlineBudget) {
         this.level = level;
+        this.inlineBudget = inlineBudget;
+    }
+
+    /**
+     * Returns the level for a number, clamped to the defined ones.
+     */
+    public static OptimizationLevel of(int level) {
+        OptimizationLevel[] levels = values();
+        return levels[Math.max(0, Math.min(level, levels.length - 1))];
     }
 
     public int getLevel() {
         return level;
     }
 
+    /**
+     * Largest function body, in nodes, inlined at this level.
+     */
+    public int getInlineBudget() {
+        return inlineBudget;
+    }
+
     public boolean isAtLeast(OptimizationLevel other) {
         return this.level >= other.level;
     }
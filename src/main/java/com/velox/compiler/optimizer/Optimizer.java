@@ -1,153 +1,345 @@
 package com.velox.compiler.optimizer;
 
+import com.velox.compiler.PerformanceMonitor;
 import com.velox.compiler.ast.*;
 import com.velox.compiler.ast.expressions.*;
 import com.velox.compiler.ast.statements.*;
 import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.ir.CopyPropagation;
+import com.velox.compiler.ir.DeadCodeElimination;
+import com.velox.compiler.ir.GlobalValueNumbering;
+import com.velox.compiler.ir.IrFunction;
+import com.velox.compiler.token.Token;
+import com.velox.compiler.token.TokenType;
 import java.util.*;
 
 public class Optimizer {
     private final List<OptimizationPass> passes;
+    private final PerformanceMonitor performanceMonitor;
+    private final ConstantFoldingPass constantFolding = new ConstantFoldingPass();
+    private final DeadCodeEliminationPass deadCode = new DeadCodeEliminationPass();
+    private final InliningPass inlining = new InliningPass();
+    private final LoopOptimizationPass loops = new LoopOptimizationPass();
+    private final CopyPropagation copyPropagation = new CopyPropagation();
+    private final GlobalValueNumbering valueNumbering = new GlobalValueNumbering();
+    private final DeadCodeElimination irDeadCode = new DeadCodeElimination();
     private int optimizationLevel;
     
     public Optimizer() {
+        this(null);
+    }
+    
+    /**
+     * Creates an optimizer that reports what its bytecode passes removed
+     * to a performance monitor.
+     */
+    public Optimizer(PerformanceMonitor performanceMonitor) {
         this.passes = new ArrayList<>();
+        this.performanceMonitor = performanceMonitor;
         this.optimizationLevel = 0;
         initializePasses();
     }
     
     public void setLevel(int level) {
         this.optimizationLevel = level;
+        inlining.setBudget(OptimizationLevel.of(level).getInlineBudget());
+    }
+    
+    /**
+     * Overrides the largest function body, in nodes, the level inlines.
+     * Zero turns inlining off.
+     */
+    public void setInlineBudget(int budget) {
+        inlining.setBudget(budget);
     }
     
     private void initializePasses() {
-        passes.add(new ConstantFoldingPass());
-        passes.add(new DeadCodeEliminationPass());
-        passes.add(new InliningPass());
-        passes.add(new LoopOptimizationPass());
+        passes.add(constantFolding);
+        passes.add(deadCode);
+        passes.add(inlining);
+        passes.add(loops);
         passes.add(new StrengthReductionPass());
     }
     
+    /**
+     * Runs the peephole pass over emitted code, in place. It only removes
+     * work the code generator's templates leave behind, so it runs at every
+     * level.
+     */
     public Bytecode optimize(Bytecode bytecode) {
-        // For now, just return the bytecode as is
-        // TODO: Implement bytecode-level optimizations
+        PeepholeOptimizer peephole = new PeepholeOptimizer(bytecode);
+        peephole.run();
+        if (performanceMonitor != null) {
+            performanceMonitor.recordCount("peephole.jumps_threaded", peephole.getJumpsThreaded());
+            performanceMonitor.recordCount("peephole.jumps_removed", peephole.getJumpsRemoved());
+            performanceMonitor.recordCount("peephole.push_pops_removed", peephole.getPushPopsRemoved());
+            performanceMonitor.recordCount("peephole.constants_folded", peephole.getConstantsFolded());
+            performanceMonitor.recordCount("peephole.dead_stores_removed", peephole.getDeadStoresRemoved());
+            performanceMonitor.recordCount("peephole.unreachable_removed", peephole.getUnreachableRemoved());
+            performanceMonitor.recordCount("peephole.instructions_removed", peephole.getRemovedCount());
+        }
         return bytecode;
     }
     
-    public void optimize(AST node) {
+    /**
+     * Runs the IR passes the level enables over a function, in place:
+     * copy propagation and dead code elimination from BASIC, and global
+     * value numbering ahead of them from MODERATE.
+     */
+    public IrFunction optimize(IrFunction function) {
+        OptimizationLevel level = OptimizationLevel.of(optimizationLevel);
+        if (!level.isAtLeast(OptimizationLevel.BASIC)) {
+            return function;
+        }
+        copyPropagation.run(function);
+        long propagated = copyPropagation.getPropagated();
+        long numbered = 0;
+        if (level.isAtLeast(OptimizationLevel.MODERATE) && valueNumbering.run(function)) {
+            numbered = valueNumbering.getNumbered();
+            // Merged values can leave PHIs with one input
+            copyPropagation.run(function);
+            propagated += copyPropagation.getPropagated();
+        }
+        irDeadCode.run(function);
+        if (performanceMonitor != null) {
+            performanceMonitor.recordCount("ir.copies_propagated", propagated);
+            performanceMonitor.recordCount("ir.values_numbered", numbered);
+            performanceMonitor.recordCount("ir.instructions_removed", irDeadCode.getRemoved());
+        }
+        return function;
+    }
+    
+    /**
+     * Runs the tree passes the level enables and returns the rewritten
+     * tree. The node passed in is left as it was; unchanged subtrees are
+     * shared with the result.
+     */
+    public AST optimize(AST node) {
+        AST result = node;
         for (int i = 0; i <= optimizationLevel && i < passes.size(); i++) {
-            passes.get(i).optimize(node);
+            result = passes.get(i).optimize(result);
         }
+        if (performanceMonitor != null) {
+            performanceMonitor.recordCount("ast.constants_folded", constantFolding.getFolded());
+            performanceMonitor.recordCount("ast.branches_removed", deadCode.getBranchesRemoved());
+            performanceMonitor.recordCount("ast.statements_removed", deadCode.getStatementsRemoved());
+            performanceMonitor.recordCount("ast.calls_inlined", inlining.getInlined());
+            performanceMonitor.recordCount("ast.invariants_hoisted", loops.getHoisted());
+            performanceMonitor.recordCount("ast.loops_unrolled", loops.getUnrolled());
+        }
+        return result;
     }
     
     // Constant Folding Pass
-    private static class ConstantFoldingPass implements OptimizationPass {
+    static class ConstantFoldingPass extends ASTTransformer implements OptimizationPass {
+        private int folded;
+        
         @Override
-        public void optimize(AST node) {
-            if (node instanceof BinaryExpr) {
-                BinaryExpr binExpr = (BinaryExpr) node;
-                if (binExpr.getLeft() instanceof LiteralExpr && 
-                    binExpr.getRight() instanceof LiteralExpr) {
-                    Object result = evaluateBinaryExpression(
-                        binExpr.getOperator().getLexeme(),
-                        ((LiteralExpr) binExpr.getLeft()).getValue(),
-                        ((LiteralExpr) binExpr.getRight()).getValue()
-                    );
-                    if (result != null) {
-                        // AST mutation not implemented: would replace node with new LiteralExpr(result)
-                        // node.replaceWith(new LiteralExpr(result));
-                    }
+        public AST optimize(AST node) {
+            folded = 0;
+            return transform(node);
+        }
+        
+        int getFolded() {
+            return folded;
+        }
+        
+        @Override
+        public Object visitBinaryExpr(BinaryExpr expr) {
+            AST node = (AST) super.visitBinaryExpr(expr);
+            if (!(node instanceof BinaryExpr)) {
+                return node;
+            }
+            BinaryExpr binExpr = (BinaryExpr) node;
+            if (binExpr.getLeft() instanceof LiteralExpr && 
+                binExpr.getRight() instanceof LiteralExpr) {
+                Object result = evaluateBinaryExpression(
+                    binExpr.getOperator().getType(),
+                    ((LiteralExpr) binExpr.getLeft()).getValue(),
+                    ((LiteralExpr) binExpr.getRight()).getValue()
+                );
+                if (result != null) {
+                    folded++;
+                    return literal(result, binExpr.getOperator());
                 }
             }
+            return binExpr;
+        }
+        
+        @Override
+        public Object visitUnaryExpr(UnaryExpr expr) {
+            AST node = (AST) super.visitUnaryExpr(expr);
+            if (!(node instanceof UnaryExpr) || !(((UnaryExpr) node).getRight() instanceof LiteralExpr)) {
+                return node;
+            }
+            UnaryExpr unary = (UnaryExpr) node;
+            Object value = ((LiteralExpr) unary.getRight()).getValue();
+            TokenType operator = unary.getOperator().getType();
+            if (operator == TokenType.MINUS && value instanceof Double) {
+                folded++;
+                return literal(-(Double) value, unary.getOperator());
+            }
+            if (operator == TokenType.BANG && value instanceof Boolean) {
+                folded++;
+                return literal(!(Boolean) value, unary.getOperator());
+            }
+            return unary;
+        }
+        
+        @Override
+        public Object visitGroupingExpr(GroupingExpr expr) {
+            AST node = (AST) super.visitGroupingExpr(expr);
+            if (node instanceof GroupingExpr && ((GroupingExpr) node).getExpression() instanceof LiteralExpr) {
+                return ((GroupingExpr) node).getExpression();
+            }
+            return node;
         }
         
-        private Object evaluateBinaryExpression(String operator, Object left, Object right) {
-            if (left instanceof Number && right instanceof Number) {
-                double l = ((Number) left).doubleValue();
-                double r = ((Number) right).doubleValue();
+        /**
+         * Evaluates an operator on two literal values as the VM would, or
+         * returns null if that is not known at compile time or would fail
+         * at runtime, as division by zero does.
+         */
+        private Object evaluateBinaryExpression(TokenType operator, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                double l = (Double) left;
+                double r = (Double) right;
                 
                 switch (operator) {
-                    case "+": return l + r;
-                    case "-": return l - r;
-                    case "*": return l * r;
-                    case "/": return r != 0 ? l / r : null;
-                    case "%": return r != 0 ? l % r : null;
+                    case PLUS: return l + r;
+                    case MINUS: return l - r;
+                    case STAR: return l * r;
+                    case SLASH: return r != 0 ? l / r : null;
+                    case LESS: return l < r;
+                    case LESS_EQUAL: return l <= r;
+                    case GREATER: return l > r;
+                    case GREATER_EQUAL: return l >= r;
+                    default: break;
                 }
             }
-            return null;
+            if (left instanceof String && right instanceof String) {
+                int compared = ((String) left).compareTo((String) right);
+                switch (operator) {
+                    case LESS: return compared < 0;
+                    case LESS_EQUAL: return compared <= 0;
+                    case GREATER: return compared > 0;
+                    case GREATER_EQUAL: return compared >= 0;
+                    default: break;
+                }
+            }
+            switch (operator) {
+                case PLUS:
+                    // Concatenation, which the VM does when either side is a string
+                    if (left instanceof String || right instanceof String) {
+                        return String.valueOf(left) + right;
+                    }
+                    return null;
+                case EQUAL_EQUAL: return Objects.equals(left, right);
+                case BANG_EQUAL: return !Objects.equals(left, right);
+                default: return null;
+            }
+        }
+        
+        private static LiteralExpr literal(Object value, Token at) {
+            TokenType type = value instanceof Boolean
+                ? ((Boolean) value ? TokenType.TRUE : TokenType.FALSE)
+                : value instanceof String ? TokenType.STRING : TokenType.NUMBER;
+            return new LiteralExpr(new Token(type, String.valueOf(value), value, at.getLine(), at.getColumn()), value);
         }
     }
     
     // Dead Code Elimination Pass
-    private static class DeadCodeEliminationPass implements OptimizationPass {
+    static class DeadCodeEliminationPass extends ASTTransformer implements OptimizationPass {
+        private int branchesRemoved;
+        private int statementsRemoved;
+        
         @Override
-        public void optimize(AST node) {
-            if (node instanceof IfStmt) {
-                IfStmt ifNode = (IfStmt) node;
-                if (ifNode.getCondition() instanceof LiteralExpr) {
-                    LiteralExpr condition = (LiteralExpr) ifNode.getCondition();
-                    if (condition.getValue() instanceof Boolean) {
-                        // AST mutation not implemented: would replace node with then/else branch or remove
-                        // if ((Boolean)condition.getValue()) node.replaceWith(ifNode.getThenBranch());
-                        // else if (ifNode.getElseBranch() != null) node.replaceWith(ifNode.getElseBranch());
-                        // else node.remove();
-                    }
-                }
+        public AST optimize(AST node) {
+            branchesRemoved = 0;
+            statementsRemoved = 0;
+            return transform(node);
+        }
+        
+        int getBranchesRemoved() {
+            return branchesRemoved;
+        }
+        
+        int getStatementsRemoved() {
+            return statementsRemoved;
+        }
+        
+        @Override
+        public Object visitIfStmt(IfStmt stmt) {
+            AST node = (AST) super.visitIfStmt(stmt);
+            if (!(node instanceof IfStmt)) {
+                return node;
             }
+            IfStmt ifNode = (IfStmt) node;
+            if (!(ifNode.getCondition() instanceof LiteralExpr)) {
+                return ifNode;
+            }
+            branchesRemoved++;
+            boolean taken = VirtualMachine.isTruthy(((LiteralExpr) ifNode.getCondition()).getValue());
+            return taken ? ifNode.getThenBranch() : ifNode.getElseBranch();
         }
-    }
-    
-    // Inlining Pass
-    private static class InliningPass implements OptimizationPass {
+        
         @Override
-        public void optimize(AST node) {
-            if (node instanceof CallExpr) {
-                // FunctionStmt func = findFunction(((CallExpr)node).getCallee());
-                // if (func != null && isInlineable(func)) {
-                //     inlineFunction((CallExpr)node, func);
-                // }
+        public Object visitWhileStmt(WhileStmt stmt) {
+            AST node = (AST) super.visitWhileStmt(stmt);
+            if (node instanceof WhileStmt && ((WhileStmt) node).getCondition() instanceof LiteralExpr
+                    && !VirtualMachine.isTruthy(((LiteralExpr) ((WhileStmt) node).getCondition()).getValue())) {
+                branchesRemoved++;
+                return null;
             }
+            return node;
         }
-        // private FunctionStmt findFunction(AST callee) { return null; }
-        // private boolean isInlineable(FunctionStmt func) { return true; }
-        // private void inlineFunction(CallExpr call, FunctionStmt func) {}
-    }
-    
-    // Loop Optimization Pass
-    private static class LoopOptimizationPass implements OptimizationPass {
+        
         @Override
-        public void optimize(AST node) {
-            if (node instanceof WhileStmt) {
-                WhileStmt whileNode = (WhileStmt) node;
-                optimizeLoop(whileNode);
+        public Object visitExpressionStmt(ExpressionStmt stmt) {
+            AST node = (AST) super.visitExpressionStmt(stmt);
+            if (node instanceof ExpressionStmt && ((ExpressionStmt) node).getExpression() instanceof LiteralExpr) {
+                statementsRemoved++;
+                return null;
             }
+            return node;
         }
         
-        private void optimizeLoop(WhileStmt node) {
-            // Hoist invariant expressions (not implemented)
-            // List<AST> invariants = findInvariants(node);
-            // for (AST invariant : invariants) {
-            //     hoistInvariant(node, invariant);
-            // }
-            // Unroll small loops (not implemented)
-            // if (isSmallLoop(node)) {
-            //     unrollLoop(node);
-            // }
-        }
-        // private List<AST> findInvariants(WhileStmt node) { return new ArrayList<>(); }
-        // private void hoistInvariant(WhileStmt node, AST invariant) {}
-        // private boolean isSmallLoop(WhileStmt node) { return true; }
-        // private void unrollLoop(WhileStmt node) {}
+        /**
+         * Also drops the statements after a return, except function
+         * declarations, which other code may still name.
+         */
+        @Override
+        protected List<AST> transformStatements(List<AST> statements) {
+            List<AST> result = super.transformStatements(statements);
+            int end = 0;
+            while (end < result.size() && !(result.get(end) instanceof ReturnStmt)) {
+                end++;
+            }
+            if (end >= result.size() - 1) {
+                return result;
+            }
+            List<AST> kept = new ArrayList<>(result.subList(0, end + 1));
+            for (AST statement : result.subList(end + 1, result.size())) {
+                if (statement instanceof FunctionStmt) {
+                    kept.add(statement);
+                } else {
+                    statementsRemoved++;
+                }
+            }
+            return kept.size() == result.size() ? result : kept;
+        }
     }
     
     // Strength Reduction Pass
     private static class StrengthReductionPass implements OptimizationPass {
         @Override
-        public void optimize(AST node) {
+        public AST optimize(AST node) {
             if (node instanceof BinaryExpr) {
                 BinaryExpr binExpr = (BinaryExpr) node;
                 reduceStrength(binExpr);
             }
+            return node;
         }
         
         private void reduceStrength(BinaryExpr node) {
@@ -169,7 +361,7 @@ public class Optimizer {
     }
     
     // Optimization Pass Interface
-    private interface OptimizationPass {
-        void optimize(AST node);
+    interface OptimizationPass {
+        AST optimize(AST node);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,658 @@
+package com.velox.compiler.optimizer;
+
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.Constant;
+import com.velox.compiler.bytecode.ExceptionHandler;
+import com.velox.compiler.bytecode.Function;
+import com.velox.compiler.bytecode.LineTable;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Rewrites emitted bytecode instruction by instruction, removing the work
+ * the code generator's statement templates leave behind:
+ *
+ * <ul>
+ *   <li>jump threading: a jump to an unconditional jump goes straight to
+ *       its target, and a jump to the next instruction is dropped;</li>
+ *   <li>push/pop elimination: a value pushed without side effects and
+ *       popped right away is never pushed, and DUP, SET, POP becomes SET;</li>
+ *   <li>constant folding: operators on constants become a constant, and a
+ *       conditional jump on a constant becomes a jump or nothing;</li>
+ *   <li>dead stores: a store to a local its function never reads becomes a
+ *       POP;</li>
+ *   <li>unreachable code is removed.</li>
+ * </ul>
+ *
+ * The code is decoded into a list of nodes with jump targets as node
+ * indices, rewritten until nothing changes, and encoded again, so jump
+ * distances, function entries, exception handler ranges and the line
+ * table are recomputed rather than patched. A rule that spans several
+ * instructions only applies when no jump lands in the middle of them.
+ */
+final class PeepholeOptimizer {
+    private static final int MAX_ROUNDS = 16;
+
+    private final Bytecode bytecode;
+    private final List<Node> nodes = new ArrayList<>();
+    // Node index of each defined function's entry, parallel to functions
+    private final List<Function> functions = new ArrayList<>();
+    private final List<Integer> entries = new ArrayList<>();
+    // Node indices of each exception handler's range and catch code, and
+    // its function's root in owners(), parallel to handlers
+    private final List<ExceptionHandler> handlers = new ArrayList<>();
+    private final List<int[]> handlerNodes = new ArrayList<>();
+    private final List<Integer> handlerRoots = new ArrayList<>();
+    private BitSet targets = new BitSet();
+
+    private int jumpsThreaded;
+    private int jumpsRemoved;
+    private int pushPopsRemoved;
+    private int constantsFolded;
+    private int deadStoresRemoved;
+    private int unreachableRemoved;
+
+    PeepholeOptimizer(Bytecode bytecode) {
+        this.bytecode = bytecode;
+    }
+
+    /**
+     * Optimizes the program in place. Programs built from Instruction
+     * objects rather than emitted code are left alone.
+     */
+    void run() {
+        if (bytecode.getCode().isEmpty() || !decode()) {
+            return;
+        }
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            findTargets();
+            boolean changed = threadJumps();
+            // Threading can land jumps on new instructions
+            findTargets();
+            changed |= foldAndEliminate();
+            changed |= removeDeadStores();
+            changed |= removeUnreachable();
+            if (!changed) {
+                break;
+            }
+        }
+        encode();
+    }
+
+    /** Jumps retargeted past the unconditional jumps they landed on. */
+    int getJumpsThreaded() {
+        return jumpsThreaded;
+    }
+
+    /** Instructions removed: jumps to the next instruction. */
+    int getJumpsRemoved() {
+        return jumpsRemoved;
+    }
+
+    /** Instructions removed: pushes popped right away and their POPs. */
+    int getPushPopsRemoved() {
+        return pushPopsRemoved;
+    }
+
+    /** Instructions removed by folding operators and branches on constants. */
+    int getConstantsFolded() {
+        return constantsFolded;
+    }
+
+    /** Instructions removed after turning stores nobody reads into POPs. */
+    int getDeadStoresRemoved() {
+        return deadStoresRemoved;
+    }
+
+    /** Instructions removed because no path reaches them. */
+    int getUnreachableRemoved() {
+        return unreachableRemoved;
+    }
+
+    int getRemovedCount() {
+        return jumpsRemoved + pushPopsRemoved + constantsFolded + deadStoresRemoved + unreachableRemoved;
+    }
+
+    private boolean decode() {
+        List<Byte> code = bytecode.getCode();
+        LineTable lines = bytecode.getLineTable();
+        int size = code.size();
+        int[] indexOf = new int[size + 1];
+        Arrays.fill(indexOf, -1);
+        List<Integer> ends = new ArrayList<>();
+        int offset = 0;
+        while (offset < size) {
+            indexOf[offset] = nodes.size();
+            boolean wide = opcodeAt(code, offset) == OpCode.WIDE;
+            OpCode opcode = opcodeAt(code, wide ? offset + 1 : offset);
+            int width = wide ? 2 : opcode.operandWidth();
+            int operandStart = offset + (wide ? 2 : 1);
+            if (operandStart + width > size) {
+                return false;
+            }
+            int operand = 0;
+            for (int i = operandStart; i < operandStart + width; i++) {
+                operand = operand << 8 | code.get(i) & 0xFF;
+            }
+            nodes.add(new Node(opcode, operand, lines.getLine(offset)));
+            offset = operandStart + width;
+            ends.add(offset);
+        }
+        indexOf[size] = nodes.size();
+
+        // Jump distances are relative to the end of the jump
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (node.opcode == OpCode.JUMP || node.opcode == OpCode.JUMP_IF_FALSE || node.opcode == OpCode.LOOP) {
+                int target = node.opcode == OpCode.LOOP ? ends.get(i) - node.operand : ends.get(i) + node.operand;
+                if (target < 0 || target > size || indexOf[target] < 0) {
+                    return false;
+                }
+                node.target = indexOf[target];
+                if (node.opcode == OpCode.LOOP) {
+                    node.opcode = OpCode.JUMP;
+                }
+            }
+        }
+        for (Function function : bytecode.getFunctions()) {
+            if (!function.isDefined()) {
+                continue;
+            }
+            int entry = function.getOffset();
+            if (entry > size || indexOf[entry] < 0) {
+                return false;
+            }
+            functions.add(function);
+            entries.add(indexOf[entry]);
+        }
+        for (ExceptionHandler handler : bytecode.getHandlers()) {
+            int f = functions.indexOf(handler.getFunction());
+            if (handler.getFunction() != null && f < 0) {
+                return false;
+            }
+            int[] positions = {handler.getStart(), handler.getEnd(), handler.getTarget()};
+            for (int p = 0; p < positions.length; p++) {
+                if (positions[p] > size || indexOf[positions[p]] < 0) {
+                    return false;
+                }
+                positions[p] = indexOf[positions[p]];
+            }
+            handlers.add(handler);
+            handlerNodes.add(positions);
+            handlerRoots.add(handler.getFunction() == null ? 1 : f + 2);
+        }
+        return true;
+    }
+
+    private void findTargets() {
+        targets = new BitSet(nodes.size() + 1);
+        targets.set(0);
+        for (Node node : nodes) {
+            if (!node.removed && node.target >= 0) {
+                targets.set(resolve(node.target));
+            }
+        }
+        for (int entry : entries) {
+            targets.set(resolve(entry));
+        }
+        // Nothing is combined across the edges of a try block
+        for (int[] positions : handlerNodes) {
+            for (int position : positions) {
+                targets.set(resolve(position));
+            }
+        }
+    }
+
+    private boolean threadJumps() {
+        boolean changed = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (node.removed || node.target < 0) {
+                continue;
+            }
+            int target = resolve(node.target);
+            // Follow chains of unconditional jumps, stopping at cycles
+            for (int hops = 0; hops < nodes.size() && target < nodes.size(); hops++) {
+                Node next = nodes.get(target);
+                if (next.opcode != OpCode.JUMP || next == node) {
+                    break;
+                }
+                int further = resolve(next.target);
+                // There is no backward conditional jump
+                if (node.opcode == OpCode.JUMP_IF_FALSE && further <= i) {
+                    break;
+                }
+                target = further;
+            }
+            if (target != resolve(node.target)) {
+                node.target = target;
+                jumpsThreaded++;
+                changed = true;
+            }
+            if (target == nextLive(i)) {
+                if (node.opcode == OpCode.JUMP) {
+                    node.removed = true;
+                    jumpsRemoved++;
+                } else {
+                    // Falls through either way, but the condition is popped
+                    node.opcode = OpCode.POP;
+                    node.target = -1;
+                    jumpsRemoved++;
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean foldAndEliminate() {
+        boolean changed = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node first = nodes.get(i);
+            if (first.removed) {
+                continue;
+            }
+            int j = nextLive(i);
+            if (j >= nodes.size() || targets.get(j)) {
+                continue;
+            }
+            Node second = nodes.get(j);
+
+            if (isPurePush(first) && second.opcode == OpCode.POP) {
+                first.removed = true;
+                second.removed = true;
+                pushPopsRemoved += 2;
+                changed = true;
+                continue;
+            }
+
+            if (second.opcode == OpCode.JUMP_IF_FALSE && isConstantPush(first)) {
+                first.removed = true;
+                if (VirtualMachine.isTruthy(constantValue(first))) {
+                    second.removed = true;
+                    constantsFolded += 2;
+                } else {
+                    second.opcode = OpCode.JUMP;
+                    constantsFolded++;
+                }
+                changed = true;
+                continue;
+            }
+
+            if (first.opcode == OpCode.CONSTANT && second.opcode == OpCode.NEGATE
+                    && constantValue(first) instanceof Double) {
+                first.operand = bytecode.constantIndex(Constant.of(-(Double) constantValue(first)));
+                second.removed = true;
+                constantsFolded++;
+                changed = true;
+                continue;
+            }
+
+            int k = nextLive(j);
+            if (k >= nodes.size() || targets.get(k)) {
+                continue;
+            }
+            Node third = nodes.get(k);
+
+            if (first.opcode == OpCode.DUP && isStore(second) && third.opcode == OpCode.POP) {
+                first.removed = true;
+                third.removed = true;
+                pushPopsRemoved += 2;
+                changed = true;
+                continue;
+            }
+
+            if (first.opcode == OpCode.CONSTANT && second.opcode == OpCode.CONSTANT) {
+                Object folded = fold(third.opcode, constantValue(first), constantValue(second));
+                if (folded != null) {
+                    set(first, folded);
+                    second.removed = true;
+                    third.removed = true;
+                    constantsFolded += 2;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Turns stores to locals their function never reads into POPs, which
+     * push/pop elimination then removes along with a pure value. Top-level
+     * locals stay, since the host can read them after the program runs, as
+     * do the locals of a function whose frame a local function reads in
+     * place.
+     */
+    private boolean removeDeadStores() {
+        Set<Function> enclosing = new HashSet<>();
+        for (Function function : bytecode.getFunctions()) {
+            if (function.getEnclosing() != null) {
+                enclosing.add(function.getEnclosing());
+            }
+        }
+        int[] owner = owners();
+        boolean changed = false;
+        for (int f = 0; f < functions.size(); f++) {
+            if (enclosing.contains(functions.get(f))) {
+                continue;
+            }
+            int root = f + 2;
+            BitSet read = new BitSet();
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                if (node.removed || owner[i] != root) {
+                    continue;
+                }
+                if (node.opcode == OpCode.GET_LOCAL) {
+                    read.set(node.operand);
+                } else if (node.opcode == OpCode.CLOSURE) {
+                    Function closed = (Function) constantValue(node);
+                    for (int u = 0; u < closed.getUpvalueCount(); u++) {
+                        if (closed.getCaptureKind(u) == Function.CAPTURE_LOCAL) {
+                            read.set(closed.getCaptureIndex(u));
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                if (!node.removed && owner[i] == root && node.opcode == OpCode.SET_LOCAL && !read.get(node.operand)) {
+                    node.opcode = OpCode.POP;
+                    node.operand = 0;
+                    deadStoresRemoved++;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean removeUnreachable() {
+        int[] owner = owners();
+        boolean changed = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (!node.removed && owner[i] == 0) {
+                node.removed = true;
+                unreachableRemoved++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns, for each node, which entry reaches it: 1 for the top-level
+     * code, f + 2 for the f-th function, 0 for none and -1 for several.
+     * Function bodies are jumped over, so the top level never runs into
+     * them.
+     */
+    private int[] owners() {
+        int[] owner = new int[nodes.size()];
+        walk(owner, 0, 1);
+        for (int f = 0; f < entries.size(); f++) {
+            walk(owner, entries.get(f), f + 2);
+        }
+        return owner;
+    }
+
+    private void walk(int[] owner, int start, int root) {
+        Deque<Integer> work = new ArrayDeque<>();
+        BitSet seen = new BitSet(nodes.size());
+        work.push(resolve(start));
+        while (!work.isEmpty()) {
+            int i = work.pop();
+            if (i >= nodes.size() || seen.get(i)) {
+                continue;
+            }
+            seen.set(i);
+            owner[i] = owner[i] == 0 || owner[i] == root ? root : -1;
+            Node node = nodes.get(i);
+            if (node.target >= 0) {
+                work.push(resolve(node.target));
+            }
+            // Code a handler covers may continue at its catch code. The
+            // bodies of nested functions lie in the range too, but a handler
+            // only catches in its own function.
+            for (int h = 0; h < handlerNodes.size(); h++) {
+                int[] positions = handlerNodes.get(h);
+                if (handlerRoots.get(h) == root && i >= resolve(positions[0]) && i < resolve(positions[1])) {
+                    work.push(resolve(positions[2]));
+                }
+            }
+            if (node.opcode != OpCode.JUMP && node.opcode != OpCode.RETURN
+                    && node.opcode != OpCode.HALT && node.opcode != OpCode.THROW) {
+                work.push(nextLive(i));
+            }
+        }
+    }
+
+    private void encode() {
+        int count = nodes.size();
+        int[] offsets = new int[count + 1];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = offset;
+            if (!nodes.get(i).removed) {
+                offset += length(nodes.get(i));
+            }
+        }
+        offsets[count] = offset;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(offset);
+        LineTable lines = new LineTable();
+        for (int i = 0; i < count; i++) {
+            Node node = nodes.get(i);
+            if (node.removed) {
+                continue;
+            }
+            lines.add(offsets[i], node.line);
+            if (node.target >= 0) {
+                int target = resolve(node.target);
+                int end = offsets[i] + 3;
+                boolean backward = target <= i;
+                if (backward && node.opcode == OpCode.JUMP_IF_FALSE) {
+                    throw new IllegalStateException("Conditional jump at " + i + " would jump backward");
+                }
+                int distance = backward ? end - offsets[target] : offsets[target] - end;
+                if (distance > Bytecode.MAX_WIDE_OPERAND) {
+                    throw new IllegalStateException("Jump too far after optimization: " + distance + " bytes");
+                }
+                out.write((backward ? OpCode.LOOP : node.opcode).ordinal());
+                out.write(distance >> 8);
+                out.write(distance);
+            } else if (node.opcode.operandWidth() == 3) {
+                out.write(node.opcode.ordinal());
+                out.write(node.operand >> 16);
+                out.write(node.operand >> 8);
+                out.write(node.operand);
+            } else if (node.opcode.hasOperand() && node.operand > Bytecode.MAX_OPERAND) {
+                out.write(OpCode.WIDE.ordinal());
+                out.write(node.opcode.ordinal());
+                out.write(node.operand >> 8);
+                out.write(node.operand);
+            } else if (node.opcode.hasOperand()) {
+                out.write(node.opcode.ordinal());
+                out.write(node.operand);
+            } else {
+                out.write(node.opcode.ordinal());
+            }
+        }
+        bytecode.replaceCode(out.toByteArray(), lines);
+        for (int f = 0; f < functions.size(); f++) {
+            Function function = functions.get(f);
+            bytecode.defineFunction(function, offsets[resolve(entries.get(f))], function.getFrameSize());
+        }
+        for (int h = 0; h < handlers.size(); h++) {
+            int[] positions = handlerNodes.get(h);
+            bytecode.defineHandler(handlers.get(h), offsets[resolve(positions[0])],
+                offsets[resolve(positions[1])], offsets[resolve(positions[2])]);
+        }
+    }
+
+    private static int length(Node node) {
+        if (node.target >= 0) {
+            return 3;
+        }
+        if (!node.opcode.hasOperand()) {
+            return 1;
+        }
+        if (node.opcode.operandWidth() == 3) {
+            return 4;
+        }
+        return node.operand > Bytecode.MAX_OPERAND ? 4 : 2;
+    }
+
+    /**
+     * Returns the first live node at or after an index, which is where
+     * control lands when it reaches a removed node.
+     */
+    private int resolve(int index) {
+        while (index < nodes.size() && nodes.get(index).removed) {
+            index++;
+        }
+        return index;
+    }
+
+    private int nextLive(int index) {
+        return resolve(index + 1);
+    }
+
+    private static boolean isPurePush(Node node) {
+        switch (node.opcode) {
+            case CONSTANT:
+            case NIL:
+            case TRUE:
+            case FALSE:
+            case GET_LOCAL:
+            case GET_UPVALUE:
+            case GET_ENCLOSING:
+            case DUP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isConstantPush(Node node) {
+        switch (node.opcode) {
+            case CONSTANT:
+            case NIL:
+            case TRUE:
+            case FALSE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isStore(Node node) {
+        switch (node.opcode) {
+            case SET_LOCAL:
+            case SET_GLOBAL:
+            case SET_UPVALUE:
+            case SET_ENCLOSING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private Object constantValue(Node node) {
+        switch (node.opcode) {
+            case CONSTANT: return bytecode.getConstant(node.operand).getValue();
+            case CLOSURE: return bytecode.getConstant(node.operand).getValue();
+            case TRUE: return Boolean.TRUE;
+            case FALSE: return Boolean.FALSE;
+            default: return null;
+        }
+    }
+
+    /**
+     * Turns a node into a push of a folded value.
+     */
+    private void set(Node node, Object value) {
+        if (value instanceof Boolean) {
+            node.opcode = (Boolean) value ? OpCode.TRUE : OpCode.FALSE;
+            node.operand = 0;
+        } else {
+            node.opcode = OpCode.CONSTANT;
+            node.operand = bytecode.constantIndex(Constant.of(value));
+        }
+    }
+
+    /**
+     * Evaluates an operator on two constants as the VM would, or returns
+     * null if it cannot be folded: the operator is not a pure binary one,
+     * the operands are not both numbers or both strings, or the operation
+     * would fail at runtime.
+     */
+    private static Object fold(OpCode opcode, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            double l = (Double) left;
+            double r = (Double) right;
+            switch (opcode) {
+                case ADD: case DADD: return l + r;
+                case SUBTRACT: case DSUB: return l - r;
+                case MULTIPLY: case DMUL: return l * r;
+                case DIVIDE: case DDIV: return r != 0 ? l / r : null;
+                case LESS: case DLT: return l < r;
+                case LESS_EQUAL: case DLE: return l <= r;
+                case GREATER: case DGT: return l > r;
+                case GREATER_EQUAL: case DGE: return l >= r;
+                case EQUAL: return Objects.equals(left, right);
+                case NOT_EQUAL: return !Objects.equals(left, right);
+                default: return null;
+            }
+        }
+        if (left instanceof String && right instanceof String) {
+            String l = (String) left;
+            String r = (String) right;
+            switch (opcode) {
+                case ADD: return l + r;
+                case LESS: return l.compareTo(r) < 0;
+                case LESS_EQUAL: return l.compareTo(r) <= 0;
+                case GREATER: return l.compareTo(r) > 0;
+                case GREATER_EQUAL: return l.compareTo(r) >= 0;
+                case EQUAL: return l.equals(r);
+                case NOT_EQUAL: return !l.equals(r);
+                default: return null;
+            }
+        }
+        return null;
+    }
+
+    private static OpCode opcodeAt(List<Byte> code, int offset) {
+        int ordinal = code.get(offset) & 0xFF;
+        OpCode[] opcodes = OpCode.values();
+        if (ordinal >= opcodes.length) {
+            throw new IllegalStateException("Invalid opcode " + ordinal + " at offset " + offset);
+        }
+        return opcodes[ordinal];
+    }
+
+    private static final class Node {
+        OpCode opcode;
+        int operand;
+        // Node index a jump lands on, or -1
+        int target = -1;
+        final int line;
+        boolean removed;
+
+        Node(OpCode opcode, int operand, int line) {
+            this.opcode = opcode;
+            this.operand = operand;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.velox.compiler.optimizer;
+
+import com.velox.compiler.ast.*;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.TryStmt;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects what the tree passes need to know about a subtree: the names it
+ * declares and assigns, the variables it reads in evaluation order, which
+ * names functions nested in it refer to, what effects it may have, and its
+ * size in nodes.
+ */
+final class TreeScan extends ASTTransformer {
+    /** Names declared anywhere in the subtree. */
+    final Set<String> declared = new HashSet<>();
+    /** Names declared outside nested functions: locals of the scanned frame. */
+    final Set<String> locals = new HashSet<>();
+    /** Names read or assigned inside nested functions. */
+    final Set<String> captured = new HashSet<>();
+    /** Variables read outside nested functions, in evaluation order. */
+    final List<String> reads = new ArrayList<>();
+    /** Names assigned anywhere in the subtree. */
+    final Set<String> assigned = new HashSet<>();
+    boolean calls;
+    boolean sets;
+    boolean gets;
+    boolean selfReferences;
+    int nodes;
+    private int depth;
+
+    /**
+     * Scans a node. A declaration's own name belongs to the enclosing
+     * scope, so for a function this scans its parameters and body, for a
+     * variable its initializer and for a class its methods.
+     */
+    static TreeScan of(AST node) {
+        TreeScan scan = new TreeScan();
+        if (node instanceof FunctionStmt) {
+            scan.visitFunctionBody((FunctionStmt) node);
+        } else if (node instanceof VarStmt) {
+            scan.transform(((VarStmt) node).getInitializer());
+        } else if (node instanceof ClassStmt) {
+            ((ClassStmt) node).getMethods().forEach(scan::visitFunctionBody);
+        } else {
+            scan.transform(node);
+        }
+        return scan;
+    }
+
+    /**
+     * Whether evaluating the subtree can do anything besides produce a
+     * value or fail.
+     */
+    boolean hasEffects() {
+        return calls || sets || !assigned.isEmpty();
+    }
+
+    /**
+     * Whether the subtree only combines literals and variables with
+     * operators, so it can be moved or copied freely as long as the
+     * variables hold the same values.
+     */
+    boolean isPure() {
+        return !hasEffects() && !gets && !selfReferences;
+    }
+
+    @Override
+    public AST transform(AST node) {
+        if (node != null) {
+            nodes++;
+        }
+        return super.transform(node);
+    }
+
+    private void visitFunctionBody(FunctionStmt function) {
+        for (Parameter parameter : function.getParameters()) {
+            declare(parameter.getName().getLexeme());
+        }
+        function.getBody().forEach(this::transform);
+    }
+
+    private void declare(String name) {
+        declared.add(name);
+        if (depth == 0) {
+            locals.add(name);
+        }
+    }
+
+    @Override
+    public Object visitFunctionStmt(FunctionStmt stmt) {
+        declare(stmt.getName().getLexeme());
+        depth++;
+        visitFunctionBody(stmt);
+        depth--;
+        return stmt;
+    }
+
+    @Override
+    public Object visitVarStmt(VarStmt stmt) {
+        declare(stmt.getName().getLexeme());
+        return super.visitVarStmt(stmt);
+    }
+
+    @Override
+    public Object visitTryStmt(TryStmt stmt) {
+        declare(stmt.getCatchName().getLexeme());
+        return super.visitTryStmt(stmt);
+    }
+
+    @Override
+    public Object visitClassStmt(ClassStmt stmt) {
+        declare(stmt.getName().getLexeme());
+        depth++;
+        stmt.getMethods().forEach(this::visitFunctionBody);
+        depth--;
+        return stmt;
+    }
+
+    @Override
+    public Object visitVariableExpr(VariableExpr expr) {
+        String name = expr.getToken().getLexeme();
+        if (depth == 0) {
+            reads.add(name);
+        } else {
+            captured.add(name);
+        }
+        return expr;
+    }
+
+    @Override
+    public Object visitAssignExpr(AssignExpr expr) {
+        String name = expr.getName().getLexeme();
+        assigned.add(name);
+        if (depth > 0) {
+            captured.add(name);
+        }
+        return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Object visitCallExpr(CallExpr expr) {
+        calls = true;
+        return super.visitCallExpr(expr);
+    }
+
+    @Override
+    public Object visitSetExpr(SetExpr expr) {
+        sets = true;
+        return super.visitSetExpr(expr);
+    }
+
+    @Override
+    public Object visitGetExpr(GetExpr expr) {
+        gets = true;
+        return super.visitGetExpr(expr);
+    }
+
+    @Override
+    public Object visitThisExpr(ThisExpr expr) {
+        selfReferences = true;
+        return expr;
+    }
+
+    @Override
+    public Object visitSuperExpr(SuperExpr expr) {
+        selfReferences = true;
+        return expr;
+    }
+}
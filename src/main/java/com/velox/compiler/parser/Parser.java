@@ -144,7 +144,7 @@ public class Parser {
                 expr = finishCall(expr);
             } else if (match(TokenType.DOT)) {
                 Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
-                expr = new GetExpr((Expression)expr, name);
+                expr = new GetExpr(expr, name);
             } else {
                 break;
             }
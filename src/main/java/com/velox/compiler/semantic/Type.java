@@ -6,6 +6,7 @@ public enum Type {
     NIL,
     BOOLEAN,
     NUMBER,
+    INTEGER,
     STRING,
     FUNCTION,
     OBJECT,
@@ -2,6 +2,8 @@ package com.velox.compiler.semantic;
 
 import com.velox.compiler.ast.AST;
 import com.velox.compiler.ast.ClassNode;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.ast.VarStmt;
 import com.velox.compiler.ast.expressions.*;
 import com.velox.compiler.ast.statements.*;
 import com.velox.compiler.error.ErrorHandler;
@@ -19,45 +21,84 @@ public class TypeChecker {
         this.errorHandler = errorHandler;
         this.scopes = new Stack<>();
         this.currentReturnType = Type.VOID;
+        // Global scope
+        enterScope();
     }
 
     public void check(AST node) {
+        if (node instanceof ModuleNode) {
+            checkModule((ModuleNode) node);
+        } else if (node instanceof BlockStmt) {
+            checkBlockStmt((BlockStmt) node);
+        } else if (node instanceof VarStmt) {
+            checkVarStmt((VarStmt) node);
+        } else if (node instanceof ExpressionStmt) {
+            check(((ExpressionStmt) node).getExpression());
+        } else if (node instanceof BinaryExpr) {
+            checkBinaryExpr((BinaryExpr) node);
+        } else if (node instanceof UnaryExpr) {
+            checkUnaryExpr((UnaryExpr) node);
+        } else if (node instanceof LiteralExpr) {
+            checkLiteralExpr((LiteralExpr) node);
+        } else if (node instanceof VariableExpr) {
+            checkVariableExpr((VariableExpr) node);
+        } else if (node instanceof AssignExpr) {
+            checkAssignExpr((AssignExpr) node);
+        } else if (node instanceof CallExpr) {
+            checkCallExpr((CallExpr) node);
+        } else if (node instanceof GetExpr) {
+            checkGetExpr((GetExpr) node);
+        } else if (node instanceof SetExpr) {
+            checkSetExpr((SetExpr) node);
+        } else if (node instanceof ThisExpr) {
+            checkThisExpr((ThisExpr) node);
+        } else if (node instanceof SuperExpr) {
+            checkSuperExpr((SuperExpr) node);
+        } else if (node instanceof GroupingExpr) {
+            checkGroupingExpr((GroupingExpr) node);
+        } else if (node instanceof IfStmt) {
+            checkIfStmt((IfStmt) node);
+        } else if (node instanceof WhileStmt) {
+            checkWhileStmt((WhileStmt) node);
+        } else if (node instanceof ReturnStmt) {
+            checkReturnStmt((ReturnStmt) node);
+        } else if (node instanceof TryStmt) {
+            checkTryStmt((TryStmt) node);
+        } else if (node instanceof ThrowStmt) {
+            check(((ThrowStmt) node).getValue());
+        }
+    }
+
+    private void checkModule(ModuleNode module) {
+        for (AST declaration : module.getDeclarations()) {
+            check(declaration);
+        }
+    }
+
+    private void checkBlockStmt(BlockStmt block) {
         enterScope();
         try {
-            if (node instanceof BinaryExpr) {
-                checkBinaryExpr((BinaryExpr) node);
-            } else if (node instanceof UnaryExpr) {
-                checkUnaryExpr((UnaryExpr) node);
-            } else if (node instanceof LiteralExpr) {
-                checkLiteralExpr((LiteralExpr) node);
-            } else if (node instanceof VariableExpr) {
-                checkVariableExpr((VariableExpr) node);
-            } else if (node instanceof AssignExpr) {
-                checkAssignExpr((AssignExpr) node);
-            } else if (node instanceof CallExpr) {
-                checkCallExpr((CallExpr) node);
-            } else if (node instanceof GetExpr) {
-                checkGetExpr((GetExpr) node);
-            } else if (node instanceof SetExpr) {
-                checkSetExpr((SetExpr) node);
-            } else if (node instanceof ThisExpr) {
-                checkThisExpr((ThisExpr) node);
-            } else if (node instanceof SuperExpr) {
-                checkSuperExpr((SuperExpr) node);
-            } else if (node instanceof GroupingExpr) {
-                checkGroupingExpr((GroupingExpr) node);
-            } else if (node instanceof IfStmt) {
-                checkIfStmt((IfStmt) node);
-            } else if (node instanceof WhileStmt) {
-                checkWhileStmt((WhileStmt) node);
-            } else if (node instanceof ReturnStmt) {
-                checkReturnStmt((ReturnStmt) node);
+            for (AST statement : block.getStatements()) {
+                check(statement);
             }
         } finally {
             exitScope();
         }
     }
 
+    private void checkVarStmt(VarStmt stmt) {
+        Type type = Type.ANY;
+        if (stmt.getInitializer() != null) {
+            check(stmt.getInitializer());
+            type = getType(stmt.getInitializer());
+        }
+        if (type == Type.NIL) {
+            // An uninitialized variable may later hold anything
+            type = Type.ANY;
+        }
+        defineVariable(stmt.getName(), type);
+    }
+
     private void checkBinaryExpr(BinaryExpr expr) {
         check(expr.getLeft());
         check(expr.getRight());
@@ -69,16 +110,23 @@ public class TypeChecker {
             case PLUS:
                 if (leftType == Type.STRING || rightType == Type.STRING) {
                     setType(expr, Type.STRING);
-                } else if (leftType == Type.NUMBER && rightType == Type.NUMBER) {
-                    setType(expr, Type.NUMBER);
+                } else if (isNumeric(leftType) && isNumeric(rightType)) {
+                    setType(expr, arithmeticType(leftType, rightType));
                 } else {
                     error(expr.getOperator(), "Operands must be numbers or strings");
                 }
                 break;
             case MINUS:
             case STAR:
+                if (isNumeric(leftType) && isNumeric(rightType)) {
+                    setType(expr, arithmeticType(leftType, rightType));
+                } else {
+                    error(expr.getOperator(), "Operands must be numbers");
+                }
+                break;
             case SLASH:
-                if (leftType == Type.NUMBER && rightType == Type.NUMBER) {
+                // Division always produces a floating-point result
+                if (isNumeric(leftType) && isNumeric(rightType)) {
                     setType(expr, Type.NUMBER);
                 } else {
                     error(expr.getOperator(), "Operands must be numbers");
@@ -86,7 +134,7 @@ public class TypeChecker {
                 break;
             case EQUAL_EQUAL:
             case BANG_EQUAL:
-                if (leftType == rightType) {
+                if (leftType == rightType || (isNumeric(leftType) && isNumeric(rightType))) {
                     setType(expr, Type.BOOLEAN);
                 } else {
                     error(expr.getOperator(), "Operands must be of the same type");
@@ -96,7 +144,7 @@ public class TypeChecker {
             case GREATER_EQUAL:
             case LESS:
             case LESS_EQUAL:
-                if (leftType == Type.NUMBER && rightType == Type.NUMBER) {
+                if (isNumeric(leftType) && isNumeric(rightType)) {
                     setType(expr, Type.BOOLEAN);
                 } else {
                     error(expr.getOperator(), "Operands must be numbers");
@@ -114,8 +162,8 @@ public class TypeChecker {
         
         switch (expr.getOperator().getType()) {
             case MINUS:
-                if (rightType == Type.NUMBER) {
-                    setType(expr, Type.NUMBER);
+                if (isNumeric(rightType)) {
+                    setType(expr, rightType);
                 } else {
                     error(expr.getOperator(), "Operand must be a number");
                 }
@@ -128,8 +176,8 @@ public class TypeChecker {
                 }
                 break;
             case PLUS_PLUS:
-                if (rightType == Type.NUMBER) {
-                    setType(expr, Type.NUMBER);
+                if (isNumeric(rightType)) {
+                    setType(expr, rightType);
                 } else {
                     error(expr.getOperator(), "Operand must be a number");
                 }
@@ -146,6 +194,8 @@ public class TypeChecker {
             setType(expr, Type.NIL);
         } else if (value instanceof Boolean) {
             setType(expr, Type.BOOLEAN);
+        } else if (value instanceof Long || value instanceof Integer) {
+            setType(expr, Type.INTEGER);
         } else if (value instanceof Number) {
             setType(expr, Type.NUMBER);
         } else if (value instanceof String) {
@@ -169,7 +219,8 @@ public class TypeChecker {
         Type variableType = resolveVariable(expr.getName());
         if (variableType == null) {
             defineVariable(expr.getName(), valueType);
-        } else if (variableType != valueType) {
+        } else if (variableType != valueType && variableType != Type.ANY
+                && !(variableType == Type.NUMBER && valueType == Type.INTEGER)) {
             error(expr.getName(), "Cannot assign " + valueType + " to " + variableType);
         }
         
@@ -279,6 +330,18 @@ public class TypeChecker {
         }
     }
 
+    private void checkTryStmt(TryStmt stmt) {
+        check(stmt.getBody());
+        enterScope();
+        try {
+            // Any value can be thrown
+            defineVariable(stmt.getCatchName(), Type.ANY);
+            check(stmt.getCatchBody());
+        } finally {
+            exitScope();
+        }
+    }
+
     private void enterScope() {
         scopes.push(new HashMap<>());
     }
@@ -305,11 +368,22 @@ public class TypeChecker {
         return null;
     }
 
+    private static boolean isNumeric(Type type) {
+        return type == Type.NUMBER || type == Type.INTEGER;
+    }
+
+    private static Type arithmeticType(Type left, Type right) {
+        return left == Type.INTEGER && right == Type.INTEGER ? Type.INTEGER : Type.NUMBER;
+    }
+
     private void setType(AST node, Type type) {
         nodeTypes.put(node, type);
     }
 
-    private Type getType(AST node) {
+    /**
+     * Returns the type proven for a checked node, or ANY if none was.
+     */
+    public Type getType(AST node) {
         return nodeTypes.getOrDefault(node, Type.ANY);
     }
 
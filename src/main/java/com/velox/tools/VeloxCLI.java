@@ -1,12 +1,19 @@
 package com.velox.tools;
 
+import com.velox.compiler.Compiler;
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.BytecodeFile;
+import com.velox.compiler.bytecode.Profiler;
+import com.velox.compiler.bytecode.VirtualMachine;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
 public class VeloxCLI {
     private static final String VERSION = "0.1.0";
+    private static final int PROFILE_REPORT_SIZE = 10;
     private static final String USAGE = """
         Velox %s - A high-performance programming language
         
@@ -18,8 +25,15 @@ public class VeloxCLI {
             -f, --format <file>     Format a Velox source file
             -l, --lint <file>       Lint a Velox source file
             -r, --repl              Start the Velox REPL
-            -c, --compile <file>    Compile a Velox source file
+            -c, --compile <file> [jar]
+                                    Compile a Velox source file, to a
+                                    runnable JAR if one is named
             -i, --interpret <file>  Interpret a Velox source file
+            -p, --profile <file> [stacks]
+                                    Interpret a Velox source file while
+                                    sampling it, print its hottest lines
+                                    and write collapsed stacks for a
+                                    flame graph if a file is named
         """.formatted(VERSION);
     
     public static void main(String[] args) {
@@ -39,6 +53,7 @@ public class VeloxCLI {
                 case "-r", "--repl" -> new Repl().start();
                 case "-c", "--compile" -> handleCompile(args);
                 case "-i", "--interpret" -> handleInterpret(args);
+                case "-p", "--profile" -> handleProfile(args);
                 default -> {
                     System.err.println("Unknown command: " + command);
                     System.out.println(USAGE);
@@ -96,14 +111,36 @@ public class VeloxCLI {
         }
         
         try {
-            String source = Files.readString(Paths.get(args[1]));
-            // TODO: Implement compilation
-            System.out.println("Compilation not yet implemented");
+            Path sourcePath = Paths.get(args[1]);
+            String source = Files.readString(sourcePath);
+            if (args.length > 2) {
+                Path jarPath = Paths.get(args[2]);
+                new Compiler().compileToJar(source, className(sourcePath), jarPath);
+                System.out.println("Compiled " + sourcePath + " to " + jarPath);
+                return;
+            }
+            Path cachePath = BytecodeFile.cachePath(sourcePath);
+            BytecodeFile.write(new Compiler().compile(source), BytecodeFile.hash(source), cachePath);
+            System.out.println("Compiled " + sourcePath + " to " + cachePath);
         } catch (IOException e) {
-            System.err.println("Error reading file: " + e.getMessage());
+            System.err.println("Error compiling file: " + e.getMessage());
         }
     }
     
+    /**
+     * Names the main class of a compiled JAR after its source file, e.g.
+     * hello_world for hello-world.vlx.
+     */
+    private static String className(Path sourcePath) {
+        String name = sourcePath.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        name = name.replaceAll("[^A-Za-z0-9_]", "_");
+        return name.isEmpty() || Character.isDigit(name.charAt(0)) ? "_" + name : name;
+    }
+    
     private static void handleInterpret(String[] args) {
         if (args.length < 2) {
             System.err.println("Error: No file specified for interpretation");
@@ -111,11 +148,61 @@ public class VeloxCLI {
         }
         
         try {
-            String source = Files.readString(Paths.get(args[1]));
-            // TODO: Implement interpretation
-            System.out.println("Interpretation not yet implemented");
+            Bytecode bytecode = load(Paths.get(args[1]));
+            new VirtualMachine(bytecode).execute();
         } catch (IOException e) {
             System.err.println("Error reading file: " + e.getMessage());
         }
     }
+    
+    private static void handleProfile(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Error: No file specified for profiling");
+            return;
+        }
+        
+        try {
+            VirtualMachine vm = new VirtualMachine(load(Paths.get(args[1])));
+            Profiler profiler = new Profiler(vm);
+            profiler.start();
+            try {
+                vm.execute();
+            } finally {
+                profiler.stop();
+                // The report goes to stderr, out of the way of the program's output
+                System.err.print(profiler.report(PROFILE_REPORT_SIZE));
+            }
+            if (args.length > 2) {
+                Files.writeString(Paths.get(args[2]), profiler.collapsed());
+            }
+        } catch (IOException e) {
+            System.err.println("Error profiling file: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Returns the compiled program for a source file, from its .vlxc cache
+     * file when that was compiled from the same source. Otherwise the source
+     * is compiled and the cache file rewritten for the next run.
+     */
+    private static Bytecode load(Path sourcePath) throws IOException {
+        String source = Files.readString(sourcePath);
+        byte[] hash = BytecodeFile.hash(source);
+        Path cachePath = BytecodeFile.cachePath(sourcePath);
+        try {
+            Bytecode cached = BytecodeFile.read(cachePath, hash);
+            if (cached != null) {
+                return cached;
+            }
+        } catch (IOException e) {
+            // A damaged cache file is replaced below
+        }
+        Bytecode bytecode = new Compiler().compile(source);
+        try {
+            BytecodeFile.write(bytecode, hash, cachePath);
+        } catch (IOException e) {
+            // Running does not depend on the cache, e.g. in a read-only directory
+        }
+        return bytecode;
+    }
 } 
\ No newline at end of file
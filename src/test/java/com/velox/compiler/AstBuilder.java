@@ -0,0 +1,147 @@
+package com.velox.compiler;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.ClassStmt;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.ast.Parameter;
+import com.velox.compiler.ast.VarStmt;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.token.Token;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds ASTs for tests, which compile programs without going through the
+ * parser. Every token is placed at line 1, column 1.
+ */
+public final class AstBuilder {
+    private AstBuilder() {
+    }
+
+    public static ModuleNode module(AST... declarations) {
+        ModuleNode module = new ModuleNode(token(TokenType.IDENTIFIER, "main"), "main");
+        for (AST declaration : declarations) {
+            module.addDeclaration(declaration);
+        }
+        return module;
+    }
+
+    public static FunctionStmt function(String name, List<String> parameters, AST... body) {
+        List<Parameter> params = new ArrayList<>();
+        for (String parameter : parameters) {
+            params.add(parameter(parameter));
+        }
+        return new FunctionStmt(token(TokenType.FUN, "fun"), identifier(name), params, Arrays.asList(body), null);
+    }
+
+    public static Parameter parameter(String name) {
+        return new Parameter(identifier(name), identifier(name), null);
+    }
+
+    public static ClassStmt klass(String name, VariableExpr superclass, FunctionStmt... methods) {
+        return new ClassStmt(token(TokenType.CLASS, "class"), identifier(name), superclass, Arrays.asList(methods));
+    }
+
+    public static VarStmt var(String name, AST initializer) {
+        return new VarStmt(token(TokenType.VAR, "var"), identifier(name), initializer, null);
+    }
+
+    public static BlockStmt block(AST... statements) {
+        return new BlockStmt(token(TokenType.LEFT_BRACE, "{"), Arrays.asList(statements));
+    }
+
+    public static WhileStmt loop(AST condition, AST... body) {
+        return new WhileStmt(token(TokenType.WHILE, "while"), condition, block(body));
+    }
+
+    public static ExpressionStmt expression(AST expression) {
+        return new ExpressionStmt(token(TokenType.SEMICOLON, ";"), expression);
+    }
+
+    public static PrintStmt print(AST expression) {
+        return new PrintStmt(token(TokenType.PRINT, "print"), expression);
+    }
+
+    public static ReturnStmt returns(AST value) {
+        return new ReturnStmt(token(TokenType.RETURN, "return"), value);
+    }
+
+    public static TryStmt tryCatch(AST body, String name, AST catchBody) {
+        return new TryStmt(token(TokenType.TRY, "try"), body, identifier(name), catchBody);
+    }
+
+    public static ThrowStmt throwing(AST value) {
+        return new ThrowStmt(token(TokenType.THROW, "throw"), value);
+    }
+
+    public static AssignExpr assign(String name, AST value) {
+        return new AssignExpr(identifier(name), value);
+    }
+
+    public static CallExpr call(String callee, AST... arguments) {
+        return call(variable(callee), arguments);
+    }
+
+    public static CallExpr call(AST callee, AST... arguments) {
+        return new CallExpr(callee, token(TokenType.RIGHT_PAREN, ")"), Arrays.asList(arguments));
+    }
+
+    /**
+     * object.name(arguments)
+     */
+    public static CallExpr invoke(AST object, String name, AST... arguments) {
+        return call(get(object, name), arguments);
+    }
+
+    public static GetExpr get(AST object, String name) {
+        return new GetExpr(object, identifier(name));
+    }
+
+    public static SetExpr set(AST object, String name, AST value) {
+        return new SetExpr(object, identifier(name), value);
+    }
+
+    public static ThisExpr self() {
+        return new ThisExpr(token(TokenType.THIS, "this"));
+    }
+
+    public static SuperExpr superMethod(String name) {
+        return new SuperExpr(token(TokenType.SUPER, "super"), identifier(name));
+    }
+
+    /**
+     * A binary expression whose operator token is lexed as the operator's
+     * name.
+     */
+    public static BinaryExpr binary(TokenType operator, AST left, AST right) {
+        return binary(operator, operator.name(), left, right);
+    }
+
+    public static BinaryExpr binary(TokenType operator, String lexeme, AST left, AST right) {
+        return new BinaryExpr(token(operator, lexeme), left, right);
+    }
+
+    public static VariableExpr variable(String name) {
+        return new VariableExpr(identifier(name));
+    }
+
+    public static LiteralExpr number(double value) {
+        return new LiteralExpr(token(TokenType.NUMBER, String.valueOf(value)), value);
+    }
+
+    public static LiteralExpr string(String value) {
+        return new LiteralExpr(token(TokenType.STRING, value), value);
+    }
+
+    public static Token identifier(String name) {
+        return token(TokenType.IDENTIFIER, name);
+    }
+
+    public static Token token(TokenType type, String lexeme) {
+        return new Token(type, lexeme, null, 1, 1);
+    }
+}
@@ -0,0 +1,139 @@
+package com.velox.compiler.aot;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.error.CompilationError;
+import com.velox.compiler.optimizer.OptimizationLevel;
+import com.velox.compiler.optimizer.Optimizer;
+import com.velox.compiler.token.TokenType;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModuleCompilerTest {
+
+    @Test
+    void testFunctionsBecomeStaticMethods() throws Exception {
+        // fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+        Class<?> compiled = load(compile(fibonacci()));
+
+        Method fib = compiled.getMethod("fib", Object.class);
+        assertEquals(610.0, fib.invoke(null, 15.0));
+    }
+
+    @Test
+    void testMainRunsTheTopLevelCode() throws Exception {
+        // fun greet(name) { return "hello " + name; }
+        // var i = 0; var s = 0; while (i < 4) { s = s + i; i = i + 1; }
+        // print s; print greet("world"); print s > 5;
+        FunctionStmt greet = function("greet", Arrays.asList("name"),
+            returns(binary(TokenType.PLUS, string("hello "), variable("name"))));
+        Class<?> compiled = load(compile(greet,
+            var("i", number(0)),
+            var("s", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), number(4)),
+                expression(assign("s", binary(TokenType.PLUS, variable("s"), variable("i")))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            print(variable("s")),
+            print(call("greet", string("world"))),
+            print(binary(TokenType.GREATER, variable("s"), number(5)))));
+
+        assertEquals("6.0\nhello world\ntrue\n", runMain(compiled));
+    }
+
+    @Test
+    void testRuntimeErrorsMatchTheInterpreter() throws Exception {
+        // fun half(x) { return x / 0; } fun missing() { return nothing; }
+        FunctionStmt half = function("half", Arrays.asList("x"),
+            returns(binary(TokenType.SLASH, variable("x"), number(0))));
+        FunctionStmt missing = function("missing", new ArrayList<>(), returns(variable("nothing")));
+        Class<?> compiled = load(compile(half, missing));
+
+        assertEquals("Division by zero", failure(compiled.getMethod("half", Object.class), 1.0));
+        assertEquals("Invalid operands for division", failure(compiled.getMethod("half", Object.class), "a"));
+        assertEquals("Undefined global variable: nothing", failure(compiled.getMethod("missing")));
+    }
+
+    @Test
+    void testFunctionValuesAreRejected() {
+        // fun id(x) { return x; } var f = id;
+        FunctionStmt id = function("id", Arrays.asList("x"), returns(variable("x")));
+        CompilationError error = assertThrows(CompilationError.class, () -> compile(id, var("f", variable("id"))));
+        assertTrue(error.getMessage().contains("function id as a value"), error.getMessage());
+    }
+
+    @Test
+    void testJarRunsWithoutTheCompiler() throws Exception {
+        Path directory = Files.createTempDirectory("velox-aot");
+        Path jar = directory.resolve("fib.jar");
+        RunnableJar.write(jar, "fib", compile(fibonacci(), print(call("fib", number(20)))));
+
+        try (JarFile file = new JarFile(jar.toFile())) {
+            assertEquals("fib", file.getManifest().getMainAttributes().getValue("Main-Class"));
+            assertNotNull(file.getEntry("fib.class"));
+            assertNotNull(file.getEntry("com/velox/compiler/bytecode/Operators.class"));
+            assertEquals(2, file.size() - 1);
+        }
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-jar", jar.toString()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        assertEquals(0, process.waitFor(), output);
+        assertEquals("6765.0", output.trim());
+    }
+
+    private static FunctionStmt fibonacci() {
+        return function("fib", Arrays.asList("n"),
+            new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS, variable("n"), number(2)),
+                returns(variable("n")), null),
+            returns(binary(TokenType.PLUS,
+                call("fib", binary(TokenType.MINUS, variable("n"), number(1))),
+                call("fib", binary(TokenType.MINUS, variable("n"), number(2))))));
+    }
+
+    private static byte[] compile(AST... declarations) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(OptimizationLevel.MODERATE.getLevel());
+        return new ModuleCompiler(optimizer::optimize).compile(module(declarations), "fib");
+    }
+
+    private static Class<?> load(byte[] classFile) {
+        return new ClassLoader(ModuleCompilerTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(null, classFile, 0, classFile.length);
+            }
+        }.define();
+    }
+
+    private static String runMain(Class<?> compiled) throws Exception {
+        PrintStream original = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true));
+        try {
+            compiled.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } finally {
+            System.setOut(original);
+        }
+        return output.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    private static String failure(Method method, Object... arguments) throws Exception {
+        try {
+            method.invoke(null, arguments);
+        } catch (InvocationTargetException e) {
+            return e.getCause().getMessage();
+        }
+        fail("Expected " + method.getName() + " to fail");
+        return null;
+    }
+}
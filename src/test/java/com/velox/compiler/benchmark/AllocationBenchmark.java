@@ -0,0 +1,87 @@
+package com.velox.compiler.benchmark;
+
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.Constant;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.bytecode.instructions.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Heap allocation profile of a numeric counting loop, comparing the generic
+ * arithmetic opcodes with the typed ones.
+ *
+ * Not a JUnit test; run it directly against the compiled classes:
+ * java -cp target/classes:target/test-classes com.velox.compiler.benchmark.AllocationBenchmark [iterations]
+ */
+public class AllocationBenchmark {
+    private static final int DEFAULT_ITERATIONS = 10_000_000;
+    private static final int WARMUP_RUNS = 3;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        Bytecode generic = countingLoop(iterations,
+            new CompareInstruction(CompareInstruction.Operator.LESS_THAN), new AddInstruction());
+        Bytecode typed = countingLoop(iterations,
+            new TypedArithmeticInstruction(OpCode.DLT), new TypedArithmeticInstruction(OpCode.DADD));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            profile("generic LESS/ADD", engine, generic, iterations, threads);
+            profile("typed DLT/DADD", engine, typed, iterations, threads);
+        }
+    }
+
+    /**
+     * Builds the bytecode for: var i = 0; while (i < n) { i = i + 1; } with
+     * double literals, as the lexer produces them.
+     */
+    static Bytecode countingLoop(int iterations, Instruction less, Instruction add) {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(new Constant(0.0, Constant.ConstantType.FLOAT));
+        bytecode.addConstant(new Constant((double) iterations, Constant.ConstantType.FLOAT));
+        bytecode.addConstant(new Constant(1.0, Constant.ConstantType.FLOAT));
+
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new StoreLocalInstruction(0));
+        int loopStart = bytecode.getInstructionCount();
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(less);
+        bytecode.addInstruction(new JumpIfFalseInstruction(loopStart + 9));
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(2));
+        bytecode.addInstruction(add);
+        bytecode.addInstruction(new StoreLocalInstruction(0));
+        bytecode.addInstruction(new JumpInstruction(loopStart));
+        bytecode.addInstruction(new HaltInstruction());
+        return bytecode;
+    }
+
+    private static void profile(String name, ExecutionEngine engine, Bytecode bytecode, int iterations,
+                                com.sun.management.ThreadMXBean threads) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            run(engine, bytecode);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        run(engine, bytecode);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        System.out.printf("%-18s %-12s %10.1f MB allocated  %6.2f bytes/iteration  %8.2f ms%n",
+            name, engine, allocated / 1_000_000.0, allocated / (double) iterations, elapsed / 1_000_000.0);
+    }
+
+    private static void run(ExecutionEngine engine, Bytecode bytecode) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+    }
+}
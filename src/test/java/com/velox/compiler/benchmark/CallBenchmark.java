@@ -0,0 +1,192 @@
+package com.velox.compiler.benchmark;
+
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.Constant;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.Function;
+import com.velox.compiler.bytecode.Instruction;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.bytecode.instructions.*;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Call-heavy recursive benchmarks: time and heap allocated per run.
+ *
+ * Not a JUnit test; run it directly against the compiled classes:
+ * java -cp target/classes:target/test-classes com.velox.compiler.benchmark.CallBenchmark
+ */
+public class CallBenchmark {
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+    private static final int FIB_N = 25;
+    private static final int ACK_M = 3;
+    private static final int ACK_N = 6;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            run("fib(" + FIB_N + ")", engine, fibonacci(FIB_N, false, false), threads);
+            run("fib(" + FIB_N + ") typed", engine, fibonacci(FIB_N, true, false), threads);
+            run("fib(" + FIB_N + ") direct", engine, fibonacci(FIB_N, true, true), threads);
+            run("ack(" + ACK_M + "," + ACK_N + ")", engine, ackermann(ACK_M, ACK_N, false), threads);
+            run("ack(" + ACK_M + "," + ACK_N + ") typed", engine, ackermann(ACK_M, ACK_N, true), threads);
+        }
+    }
+
+    /**
+     * fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+     * Direct calls name fib by constant instead of pushing it.
+     */
+    static Bytecode fibonacci(int n, boolean typed, boolean direct) {
+        Bytecode bytecode = new Bytecode();
+        Function function = bytecode.declareFunction("fib", 1);
+        bytecode.addConstant(Constant.of(function));
+        bytecode.addConstant(integer(n, typed));
+        bytecode.addConstant(integer(2, typed));
+        bytecode.addConstant(integer(1, typed));
+
+        pushCallee(bytecode, direct);
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(call(1, direct));
+        bytecode.addInstruction(new HaltInstruction());
+
+        int fib = bytecode.getInstructionCount();
+        bytecode.defineFunction(function, fib, 1);
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(2));
+        bytecode.addInstruction(less(typed));
+        bytecode.addInstruction(new JumpIfFalseInstruction(fib + 6));
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new ReturnInstruction());
+        pushCallee(bytecode, direct);
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(subtract(typed));
+        bytecode.addInstruction(call(1, direct));
+        pushCallee(bytecode, direct);
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(2));
+        bytecode.addInstruction(subtract(typed));
+        bytecode.addInstruction(call(1, direct));
+        bytecode.addInstruction(add(typed));
+        bytecode.addInstruction(new ReturnInstruction());
+        return bytecode;
+    }
+
+    /**
+     * fun ack(m, n) {
+     *   if (m < 1) return n + 1;
+     *   if (n < 1) return ack(m - 1, 1);
+     *   return ack(m - 1, ack(m, n - 1));
+     * }
+     */
+    static Bytecode ackermann(int m, int n, boolean typed) {
+        Bytecode bytecode = new Bytecode();
+        Function function = bytecode.declareFunction("ack", 2);
+        bytecode.addConstant(Constant.of(function));
+        bytecode.addConstant(integer(m, typed));
+        bytecode.addConstant(integer(n, typed));
+        bytecode.addConstant(integer(1, typed));
+
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new LoadConstantInstruction(2));
+        bytecode.addInstruction(new CallInstruction(2));
+        bytecode.addInstruction(new HaltInstruction());
+
+        int ack = bytecode.getInstructionCount();
+        bytecode.defineFunction(function, ack, 2);
+        bytecode.addInstruction(new LoadLocalInstruction(0));          // m < 1
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(less(typed));
+        bytecode.addInstruction(new JumpIfFalseInstruction(ack + 8));
+        bytecode.addInstruction(new LoadLocalInstruction(1));          // return n + 1
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(add(typed));
+        bytecode.addInstruction(new ReturnInstruction());
+        bytecode.addInstruction(new LoadLocalInstruction(1));          // n < 1
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(less(typed));
+        bytecode.addInstruction(new JumpIfFalseInstruction(ack + 19));
+        bytecode.addInstruction(new LoadConstantInstruction(0));       // return ack(m - 1, 1)
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(subtract(typed));
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(new CallInstruction(2));
+        bytecode.addInstruction(new ReturnInstruction());
+        bytecode.addInstruction(new LoadConstantInstruction(0));       // return ack(m - 1, ack(m, n - 1))
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(subtract(typed));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadLocalInstruction(1));
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(subtract(typed));
+        bytecode.addInstruction(new CallInstruction(2));
+        bytecode.addInstruction(new CallInstruction(2));
+        bytecode.addInstruction(new ReturnInstruction());
+        return bytecode;
+    }
+
+    private static void pushCallee(Bytecode bytecode, boolean direct) {
+        if (!direct) {
+            bytecode.addInstruction(new LoadConstantInstruction(0));
+        }
+    }
+
+    private static Instruction call(int argumentCount, boolean direct) {
+        return direct ? new CallDirectInstruction(0) : new CallInstruction(argumentCount);
+    }
+
+    private static Constant integer(int value, boolean typed) {
+        return typed
+            ? new Constant((long) value, Constant.ConstantType.INTEGER)
+            : new Constant(value, Constant.ConstantType.INTEGER);
+    }
+
+    private static Instruction less(boolean typed) {
+        return typed ? new TypedArithmeticInstruction(OpCode.ILT)
+            : new CompareInstruction(CompareInstruction.Operator.LESS_THAN);
+    }
+
+    private static Instruction add(boolean typed) {
+        return typed ? new TypedArithmeticInstruction(OpCode.IADD) : new AddInstruction();
+    }
+
+    private static Instruction subtract(boolean typed) {
+        return typed ? new TypedArithmeticInstruction(OpCode.ISUB) : new SubtractInstruction();
+    }
+
+    private static void run(String name, ExecutionEngine engine, Bytecode bytecode,
+                            com.sun.management.ThreadMXBean threads) {
+        Supplier<VirtualMachine> vms = () -> {
+            VirtualMachine vm = new VirtualMachine(bytecode, 4096, 1024);
+            vm.setEngine(engine);
+            return vm;
+        };
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            vms.get().execute();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            VirtualMachine vm = vms.get();
+            long before = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            vm.execute();
+            best = Math.min(best, System.nanoTime() - start);
+            allocated += threads.getThreadAllocatedBytes(thread) - before;
+        }
+
+        System.out.printf("%-20s %-12s best %8.2f ms  %10.2f MB allocated per run%n",
+            name, engine, best / 1_000_000.0, allocated / (double) MEASURED_RUNS / 1_000_000.0);
+    }
+}
@@ -0,0 +1,115 @@
+package com.velox.compiler.benchmark;
+
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.Constant;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.bytecode.instructions.*;
+
+/**
+ * Microbenchmarks for the bytecode interpreter.
+ *
+ * Not a JUnit test; run it directly against the compiled classes:
+ * java -cp target/classes:target/test-classes com.velox.compiler.benchmark.InterpreterBenchmark [iterations]
+ */
+public class InterpreterBenchmark {
+    private static final int DEFAULT_ITERATIONS = 1_000_000;
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+
+        // Nine instructions per iteration, plus setup, the final test and HALT
+        long instructions = 9L * iterations + 7;
+        Bytecode loop = countingLoop(iterations);
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            run("while (i < n) i = i + 1", engine, loop, instructions);
+        }
+
+        // Two more instructions to set the global up
+        Bytecode globalLoop = globalLimitLoop(iterations);
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            run("while (i < limit) i = i + 1", engine, globalLoop, instructions + 2);
+        }
+    }
+
+    /**
+     * Builds the bytecode for: var i = 0; while (i < n) { i = i + 1; }
+     */
+    static Bytecode countingLoop(int iterations) {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(new Constant(0, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(iterations, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(1, Constant.ConstantType.INTEGER));
+
+        bytecode.addInstruction(new LoadConstantInstruction(0));  // 0
+        bytecode.addInstruction(new StoreLocalInstruction(0));    // i = 0
+        int loopStart = bytecode.getInstructionCount();
+        bytecode.addInstruction(new LoadLocalInstruction(0));     // i
+        bytecode.addInstruction(new LoadConstantInstruction(1));  // n
+        bytecode.addInstruction(new CompareInstruction(CompareInstruction.Operator.LESS_THAN));
+        bytecode.addInstruction(new JumpIfFalseInstruction(loopStart + 9));
+        bytecode.addInstruction(new LoadLocalInstruction(0));     // i
+        bytecode.addInstruction(new LoadConstantInstruction(2));  // 1
+        bytecode.addInstruction(new AddInstruction());            // i + 1
+        bytecode.addInstruction(new StoreLocalInstruction(0));    // i = i + 1
+        bytecode.addInstruction(new JumpInstruction(loopStart));
+        bytecode.addInstruction(new HaltInstruction());
+        return bytecode;
+    }
+
+    /**
+     * Builds the counting loop with its bound read from a global each
+     * iteration: limit = n; var i = 0; while (i < limit) { i = i + 1; }
+     */
+    static Bytecode globalLimitLoop(int iterations) {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(new Constant(0, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(iterations, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(1, Constant.ConstantType.INTEGER));
+
+        bytecode.addInstruction(new LoadConstantInstruction(1));  // n
+        bytecode.addInstruction(new StoreGlobalInstruction("limit"));
+        bytecode.addInstruction(new LoadConstantInstruction(0));  // 0
+        bytecode.addInstruction(new StoreLocalInstruction(0));    // i = 0
+        int loopStart = bytecode.getInstructionCount();
+        bytecode.addInstruction(new LoadLocalInstruction(0));     // i
+        bytecode.addInstruction(new LoadGlobalInstruction("limit"));
+        bytecode.addInstruction(new CompareInstruction(CompareInstruction.Operator.LESS_THAN));
+        bytecode.addInstruction(new JumpIfFalseInstruction(loopStart + 9));
+        bytecode.addInstruction(new LoadLocalInstruction(0));     // i
+        bytecode.addInstruction(new LoadConstantInstruction(2));  // 1
+        bytecode.addInstruction(new AddInstruction());            // i + 1
+        bytecode.addInstruction(new StoreLocalInstruction(0));    // i = i + 1
+        bytecode.addInstruction(new JumpInstruction(loopStart));
+        bytecode.addInstruction(new HaltInstruction());
+        return bytecode;
+    }
+
+    private static void run(String name, ExecutionEngine engine, Bytecode bytecode, long instructions) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            time(engine, bytecode);
+        }
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long elapsed = time(engine, bytecode);
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+
+        double mean = total / (double) MEASURED_RUNS;
+        System.out.printf("%-30s %-12s best %8.2f ms  mean %8.2f ms  %8.1f M instr/s%n",
+            name, engine, best / 1_000_000.0, mean / 1_000_000.0, instructions * 1000.0 / best);
+    }
+
+    private static long time(ExecutionEngine engine, Bytecode bytecode) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        long start = System.nanoTime();
+        vm.execute();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,93 @@
+package com.velox.compiler.benchmark;
+
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.Function;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.optimizer.OptimizationLevel;
+import com.velox.compiler.optimizer.Optimizer;
+import com.velox.compiler.token.TokenType;
+import java.util.Arrays;
+import static com.velox.compiler.AstBuilder.*;
+
+/**
+ * The stack engines against the register and JIT engines on the same compiled
+ * programs: LoopBenchmark's nested arithmetic loops, and recursive calls.
+ * Property access is left out, since neither form of the code supports it
+ * yet.
+ *
+ * Not a JUnit test; run it directly against the compiled classes:
+ * java -cp target/classes:target/test-classes com.velox.compiler.benchmark.RegisterBenchmark
+ */
+public class RegisterBenchmark {
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+    private static final int LOOP_OUTER = 200_000;
+    private static final int FIB_N = 25;
+
+    public static void main(String[] args) {
+        Bytecode loops = compile(LoopBenchmark.program(LOOP_OUTER));
+        Bytecode calls = compile(fibonacci(FIB_N));
+        describe(loops, "run");
+        describe(calls, "fib");
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            run("loops", engine, loops);
+        }
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            run("fib(" + FIB_N + ")", engine, calls);
+        }
+    }
+
+    /**
+     * fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+     * var r = fib(n);
+     */
+    static ModuleNode fibonacci(int n) {
+        return module(
+            function("fib", Arrays.asList("n"),
+                new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS, variable("n"), number(2)),
+                    returns(variable("n")), null),
+                returns(binary(TokenType.PLUS,
+                    call("fib", binary(TokenType.MINUS, variable("n"), number(1))),
+                    call("fib", binary(TokenType.MINUS, variable("n"), number(2)))))),
+            var("r", call("fib", number(n))));
+    }
+
+    private static Bytecode compile(ModuleNode program) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(OptimizationLevel.MODERATE.getLevel());
+        CodeGenerator generator = new CodeGenerator();
+        generator.setIrOptimizer(optimizer::optimize);
+        return optimizer.optimize(generator.generate((ModuleNode) optimizer.optimize(program)));
+    }
+
+    private static void describe(Bytecode bytecode, String name) {
+        Function function = bytecode.getFunction(name);
+        System.out.printf("%s: %d register instructions, %d registers%n", name,
+            function.getRegisterCode().getInstructionCount(), function.getRegisterCode().getRegisterCount());
+    }
+
+    private static void run(String name, ExecutionEngine engine, Bytecode bytecode) {
+        Object result = null;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            result = execute(engine, bytecode);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long start = System.nanoTime();
+            execute(engine, bytecode);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-10s %-12s best %8.2f ms  result %s%n", name, engine, best / 1_000_000.0, result);
+    }
+
+    private static Object execute(ExecutionEngine engine, Bytecode bytecode) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+        return vm.getLocal(0);
+    }
+}
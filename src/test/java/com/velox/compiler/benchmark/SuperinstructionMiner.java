@@ -0,0 +1,127 @@
+package com.velox.compiler.benchmark;
+
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.optimizer.OptimizationLevel;
+import com.velox.compiler.optimizer.Optimizer;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mines the benchmark programs for the opcode sequences worth fusing into
+ * superinstructions. Each program is compiled at every optimization level
+ * and traced on the INSTRUCTION engine; every run of 2 to 4 instructions
+ * executed back to back, with no jump between them, is counted. It then
+ * prints the most frequent sequences and how many dispatches the fused
+ * packed code saves on the same traces.
+ *
+ * Not a JUnit test; run it directly against the compiled classes:
+ * java -cp target/classes:target/test-classes com.velox.compiler.benchmark.SuperinstructionMiner [top]
+ */
+public class SuperinstructionMiner {
+    private static final int DEFAULT_TOP = 25;
+    private static final int MAX_LENGTH = 4;
+    private static final OpCode[] OPCODES = OpCode.values();
+
+    public static void main(String[] args) {
+        int top = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TOP;
+        Map<String, Long> sequences = new HashMap<>();
+        long dispatches = 0;
+        long fusedDispatches = 0;
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            for (ModuleNode program : new ModuleNode[] {LoopBenchmark.program(200), RegisterBenchmark.fibonacci(12)}) {
+                Bytecode bytecode = compile(program, level);
+                int[] packed = bytecode.getPackedCode();
+                List<Integer> trace = trace(bytecode);
+                for (int length = 2; length <= MAX_LENGTH; length++) {
+                    for (int i = 0; i + length <= trace.size(); i++) {
+                        if (straight(trace, i, length)) {
+                            sequences.merge(sequence(bytecode, trace, i, length), 1L, Long::sum);
+                        }
+                    }
+                }
+                dispatches += trace.size();
+                for (int i = 0; i < trace.size(); i++) {
+                    int fused = fusedLength(OPCODES[packed[trace.get(i)] & 0xFF]);
+                    if (fused > 1 && straight(trace, i, Math.min(fused, trace.size() - i))) {
+                        i += fused - 1;
+                    }
+                    fusedDispatches++;
+                }
+            }
+        }
+        sequences.entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue(), a.getValue()))
+            .limit(top)
+            .forEach(entry -> System.out.printf("%8d  %s%n", entry.getValue(), entry.getKey()));
+        System.out.printf("%d dispatches unfused, %d with superinstructions (%.1f%% fewer)%n",
+            dispatches, fusedDispatches, 100.0 * (dispatches - fusedDispatches) / dispatches);
+    }
+
+    private static Bytecode compile(ModuleNode program, OptimizationLevel level) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(level.getLevel());
+        CodeGenerator generator = new CodeGenerator();
+        generator.setIrOptimizer(optimizer::optimize);
+        return optimizer.optimize(generator.generate((ModuleNode) optimizer.optimize(program)));
+    }
+
+    /**
+     * Returns the program counters the INSTRUCTION engine runs, read from
+     * its debug output.
+     */
+    private static List<Integer> trace(Bytecode bytecode) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(ExecutionEngine.INSTRUCTION);
+        vm.setDebugMode(true);
+        vm.setDebugOutput(new PrintStream(output));
+        vm.execute();
+        List<Integer> trace = new ArrayList<>();
+        for (String line : output.toString().split("\\R")) {
+            if (line.startsWith("PC: ")) {
+                trace.add(Integer.parseInt(line.substring(4).trim()));
+            }
+        }
+        return trace;
+    }
+
+    private static boolean straight(List<Integer> trace, int start, int length) {
+        for (int k = 1; k < length; k++) {
+            if (trace.get(start + k) != trace.get(start + k - 1) + 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String sequence(Bytecode bytecode, List<Integer> trace, int start, int length) {
+        StringBuilder sequence = new StringBuilder();
+        for (int k = 0; k < length; k++) {
+            if (k > 0) {
+                sequence.append("; ");
+            }
+            sequence.append(bytecode.getInstruction(trace.get(start + k)).getOpCode());
+        }
+        return sequence.toString();
+    }
+
+    /** Instructions a superinstruction in the packed code stands for. */
+    private static int fusedLength(OpCode opcode) {
+        switch (opcode) {
+            case GET_LOCALS: return 2;
+            case ADD_LOCAL_CONSTANT:
+            case LESS_LOCALS_JUMP:
+            case LESS_LOCAL_CONSTANT_JUMP: return 4;
+            default: return 1;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.token.TokenType;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static com.velox.compiler.bytecode.ClosureTest.*;
+import static com.velox.compiler.bytecode.FunctionCallTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BytecodeFileTest {
+
+    @Test
+    void testLoadedProgramRunsLikeTheOriginal() throws IOException {
+        // fun makeAdder(n) { fun add(x) { return x + n; } return add; }  var add2 = makeAdder(2);
+        // fun twice(x) { return x * 2; }  var r = add2(twice(20)); var s = "done";
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("makeAdder", Arrays.asList("n"),
+                function("add", Arrays.asList("x"),
+                    returns(binary(TokenType.PLUS, "+", variable("x"), variable("n")))),
+                returns(variable("add"))),
+            var("add2", call("makeAdder", number(2))),
+            function("twice", Arrays.asList("x"),
+                returns(binary(TokenType.STAR, "*", variable("x"), number(2)))),
+            var("r", call("add2", call("twice", number(20)))),
+            var("s", string("done"))));
+        byte[] hash = BytecodeFile.hash("source");
+        Path file = Files.createTempDirectory("vlxc").resolve("main.vlxc");
+        BytecodeFile.write(bytecode, hash, file);
+
+        Bytecode loaded = BytecodeFile.read(file, hash);
+
+        assertNotNull(loaded);
+        assertEquals(bytecode.getCode(), loaded.getCode());
+        assertEquals(bytecode.getLine(3), loaded.getLine(3));
+        assertEquals(bytecode.getConstants().size(), loaded.getConstants().size());
+        Function add = loaded.getFunction("add");
+        assertEquals(1, add.getArity());
+        assertEquals(1, add.getUpvalueCount());
+        assertEquals(bytecode.getFunction("add").getOffset(), add.getOffset());
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = run(loaded, engine);
+            assertEquals(42.0, vm.getLocal(1), engine.name());
+            assertEquals("done", vm.getLocal(2), engine.name());
+        }
+    }
+
+    @Test
+    void testStaleOrMissingFileIsAMiss() throws IOException {
+        Bytecode bytecode = new CodeGenerator().generate(module(var("r", number(1))));
+        Path file = Files.createTempDirectory("vlxc").resolve("main.vlxc");
+
+        assertNull(BytecodeFile.read(file, BytecodeFile.hash("a")));
+        BytecodeFile.write(bytecode, BytecodeFile.hash("a"), file);
+        assertNotNull(BytecodeFile.read(file, BytecodeFile.hash("a")));
+        assertNull(BytecodeFile.read(file, BytecodeFile.hash("b")));
+
+        Files.write(file, new byte[] {1, 2, 3});
+        assertNull(BytecodeFile.read(file, BytecodeFile.hash("a")));
+    }
+
+    @Test
+    void testTruncatedFileIsReported() throws IOException {
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            add(),
+            var("r", call("add", number(1), number(2)))));
+        Path file = Files.createTempDirectory("vlxc").resolve("main.vlxc");
+        BytecodeFile.write(bytecode, BytecodeFile.hash("a"), file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertThrows(IOException.class, () -> BytecodeFile.read(file, BytecodeFile.hash("a")));
+    }
+
+    @Test
+    void testCacheLivesNextToTheSource() {
+        assertEquals(Paths.get("src", "main.vlxc"), BytecodeFile.cachePath(Paths.get("src", "main.vlx")));
+        assertEquals(Paths.get("script.vlxc"), BytecodeFile.cachePath(Paths.get("script")));
+    }
+}
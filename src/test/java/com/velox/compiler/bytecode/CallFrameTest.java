@@ -0,0 +1,131 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.bytecode.instructions.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CallFrameTest {
+
+    @Test
+    void testRecursiveFibonacciOnBothEngines() {
+        Bytecode bytecode = fibonacci(15);
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(610, vm.pop(), engine.name());
+            assertTrue(vm.getStack().isEmpty(), engine.name());
+            assertEquals(1, vm.getCallStack().size(), engine.name());
+        }
+    }
+
+    @Test
+    void testArgumentsBecomeLocalsInPlace() {
+        // fun f(a, b) { var c; c = a - b; return c; }  f(10, 3)
+        Bytecode bytecode = new Bytecode();
+        Function f = bytecode.declareFunction("f", 2);
+        bytecode.addConstant(Constant.of(f));
+        bytecode.addConstant(new Constant(10, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(3, Constant.ConstantType.INTEGER));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new LoadConstantInstruction(2));
+        bytecode.addInstruction(new CallInstruction(2));
+        bytecode.addInstruction(new HaltInstruction());
+        bytecode.defineFunction(f, bytecode.getInstructionCount(), 3);
+        bytecode.addInstruction(new LoadLocalInstruction(2));     // c starts out nil
+        bytecode.addInstruction(new PopInstruction());
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadLocalInstruction(1));
+        bytecode.addInstruction(new SubtractInstruction());
+        bytecode.addInstruction(new StoreLocalInstruction(2));
+        bytecode.addInstruction(new LoadLocalInstruction(2));
+        bytecode.addInstruction(new ReturnInstruction());
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(7, vm.pop(), engine.name());
+            assertTrue(vm.getStack().isEmpty(), engine.name());
+        }
+    }
+
+    @Test
+    void testLocalOutsideFrameIsRejected() {
+        Bytecode bytecode = new Bytecode();
+        Function f = bytecode.declareFunction("f", 0);
+        bytecode.addConstant(Constant.of(f));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new CallInstruction(0));
+        bytecode.addInstruction(new HaltInstruction());
+        bytecode.defineFunction(f, bytecode.getInstructionCount(), 0);
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new ReturnInstruction());
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            RuntimeException error = assertThrows(RuntimeException.class, vm::execute);
+            assertTrue(error.getMessage().contains("outside a frame"), engine.name());
+        }
+    }
+
+    @Test
+    void testHostCallAndReturn() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addFunction("twice", 0);
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new ReturnInstruction());
+
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.callFunction("twice", new Object[] {21});
+        assertEquals(2, vm.getFrameCount());
+        assertEquals(21, vm.getLocal(0));
+        assertEquals(1, vm.getCallStack().get(1).getBasePointer());
+
+        vm.returnFromFunction(42);
+        assertEquals(1, vm.getFrameCount());
+        assertEquals(42, vm.pop());
+        assertTrue(vm.getStack().isEmpty());
+    }
+
+    /**
+     * fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+     */
+    static Bytecode fibonacci(int n) {
+        Bytecode bytecode = new Bytecode();
+        Function function = bytecode.declareFunction("fib", 1);
+        bytecode.addConstant(Constant.of(function));
+        bytecode.addConstant(new Constant(n, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(2, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(1, Constant.ConstantType.INTEGER));
+
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new CallInstruction(1));
+        bytecode.addInstruction(new HaltInstruction());
+
+        int fib = bytecode.getInstructionCount();
+        bytecode.defineFunction(function, fib, 1);
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(2));
+        bytecode.addInstruction(new CompareInstruction(CompareInstruction.Operator.LESS_THAN));
+        bytecode.addInstruction(new JumpIfFalseInstruction(fib + 6));
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new ReturnInstruction());
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(3));
+        bytecode.addInstruction(new SubtractInstruction());
+        bytecode.addInstruction(new CallInstruction(1));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(2));
+        bytecode.addInstruction(new SubtractInstruction());
+        bytecode.addInstruction(new CallInstruction(1));
+        bytecode.addInstruction(new AddInstruction());
+        bytecode.addInstruction(new ReturnInstruction());
+        return bytecode;
+    }
+}
@@ -0,0 +1,216 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static com.velox.compiler.bytecode.FunctionCallTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClosureTest {
+
+    @Test
+    void testEscapingClosureKeepsItsVariable() {
+        // fun makeCounter() { var count = 0; fun next() { count = count + 1; return count; } return next; }
+        // var c = makeCounter(); c(); c(); var d = makeCounter(); var r = c(); var s = d();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("makeCounter", new ArrayList<>(),
+                var("count", number(0)),
+                function("next", new ArrayList<>(),
+                    expression(assign("count", binary(TokenType.PLUS, "+", variable("count"), number(1)))),
+                    returns(variable("count"))),
+                returns(variable("next"))),
+            var("c", call("makeCounter")),
+            expression(call("c")),
+            expression(call("c")),
+            var("d", call("makeCounter")),
+            var("r", call("c")),
+            var("s", call("d"))));
+
+        assertTrue(opcodes(bytecode).contains(OpCode.CLOSURE));
+        assertEquals(1, bytecode.getFunction("next").getUpvalueCount());
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = run(bytecode, engine);
+            assertTrue(vm.getLocal(0) instanceof Closure, engine.name());
+            assertEquals(3.0, vm.getLocal(2), engine.name());
+            assertEquals(1.0, vm.getLocal(3), engine.name());
+        }
+    }
+
+    @Test
+    void testClosuresShareACapturedVariable() {
+        // fun make() { var x = 1; fun set(v) { x = v; } fun get() { return x; } setter = set; getter = get; }
+        // make(); setter(5); var r = getter();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("make", new ArrayList<>(),
+                var("x", number(1)),
+                function("set", Arrays.asList("v"), expression(assign("x", variable("v")))),
+                function("get", new ArrayList<>(), returns(variable("x"))),
+                expression(assign("setter", variable("set"))),
+                expression(assign("getter", variable("get")))),
+            expression(call("make")),
+            expression(call("setter", number(5))),
+            var("r", call("getter"))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(5.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testCurrying() {
+        // fun add(a) { fun plus(b) { return a + b; } return plus; }  var r = add(3)(4);
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("add", Arrays.asList("a"),
+                function("plus", Arrays.asList("b"),
+                    returns(binary(TokenType.PLUS, "+", variable("a"), variable("b")))),
+                returns(variable("plus"))),
+            var("r", call(call("add", number(3)), number(4)))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(7.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testEachIterationCapturesAFreshVariable() {
+        // fun f() {
+        //   var i = 0;
+        //   while (i < 3) { var j = i; fun get() { return j; } if (i == 0) first = get; i = i + 1; }
+        //   return first();
+        // }
+        // var r = f();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("f", new ArrayList<>(),
+                var("i", number(0)),
+                loop(binary(TokenType.LESS, "<", variable("i"), number(3)),
+                    var("j", variable("i")),
+                    function("get", new ArrayList<>(), returns(variable("j"))),
+                    new IfStmt(token(TokenType.IF, "if"),
+                        binary(TokenType.EQUAL_EQUAL, "==", variable("i"), number(0)),
+                        expression(assign("first", variable("get"))),
+                        null),
+                    expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1))))),
+                returns(call("first"))),
+            var("r", call("f"))));
+
+        assertTrue(opcodes(bytecode).contains(OpCode.CLOSE_UPVALUES));
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(0.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testNonEscapingFunctionSharesTheEnclosingFrame() {
+        // fun sum(n) {
+        //   var total = 0;
+        //   fun loop(i) { if (i > n) return; total = total + i; loop(i + 1); }
+        //   loop(1);
+        //   return total;
+        // }
+        // var r = sum(10);
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("sum", Arrays.asList("n"),
+                var("total", number(0)),
+                function("loop", Arrays.asList("i"),
+                    new IfStmt(token(TokenType.IF, "if"),
+                        binary(TokenType.GREATER, ">", variable("i"), variable("n")),
+                        returns(null),
+                        null),
+                    expression(assign("total", binary(TokenType.PLUS, "+", variable("total"), variable("i")))),
+                    expression(call("loop", binary(TokenType.PLUS, "+", variable("i"), number(1))))),
+                expression(call("loop", number(1))),
+                returns(variable("total"))),
+            var("r", call("sum", number(10)))));
+
+        assertFalse(opcodes(bytecode).contains(OpCode.CLOSURE));
+        assertTrue(opcodes(bytecode).contains(OpCode.SET_ENCLOSING));
+        assertEquals(0, bytecode.getFunction("loop").getUpvalueCount());
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(55.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testClosureInsideNonEscapingFunctionCapturesTheSharedFrame() {
+        // fun outer() {
+        //   var x = 1;
+        //   fun helper() { fun get() { return x; } return get; }
+        //   var g = helper(); x = 2;
+        //   return g();
+        // }
+        // var r = outer();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("outer", new ArrayList<>(),
+                var("x", number(1)),
+                function("helper", new ArrayList<>(),
+                    function("get", new ArrayList<>(), returns(variable("x"))),
+                    returns(variable("get"))),
+                var("g", call("helper")),
+                expression(assign("x", number(2))),
+                returns(call("g"))),
+            var("r", call("outer"))));
+
+        assertEquals(bytecode.getFunction("outer"), bytecode.getFunction("helper").getEnclosing());
+        assertEquals(Function.CAPTURE_ENCLOSING, bytecode.getFunction("get").getCaptureKind(0));
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(2.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testLocalFunctionsAreOnlyCalledWhereTheyAreInScope() {
+        // fun outer() { { var x = 1; fun a() { return x; } r = a(); } var y = 2; return a(); }
+        // var r = 0; outer();
+        // The second call fails whether or not a escapes (var g = a; in the block)
+        for (boolean escapes : new boolean[] {false, true}) {
+            List<AST> block = new ArrayList<>(Arrays.asList(
+                var("x", number(1)),
+                function("a", new ArrayList<>(), returns(variable("x"))),
+                expression(assign("r", call("a")))));
+            if (escapes) {
+                block.add(var("g", variable("a")));
+            }
+            Bytecode bytecode = new CodeGenerator().generate(module(
+                var("r", number(0)),
+                function("outer", new ArrayList<>(),
+                    block(block.toArray(new AST[0])),
+                    var("y", number(2)),
+                    returns(call("a"))),
+                expression(call("outer"))));
+
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                VirtualMachine vm = new VirtualMachine(bytecode);
+                vm.setEngine(engine);
+                RuntimeException error = assertThrows(RuntimeException.class, vm::execute);
+                assertTrue(error.getMessage().contains("Undefined global variable: a"), error.getMessage());
+            }
+        }
+    }
+
+    @Test
+    void testCallsAheadOfALocalFunctionDoNotReachIt() {
+        // fun a() { return 1; }
+        // fun outer() { var before = a(); fun a() { return 2; } return before * 10 + a(); }
+        // var r = outer();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("a", new ArrayList<>(), returns(number(1))),
+            function("outer", new ArrayList<>(),
+                var("before", call("a")),
+                function("a", new ArrayList<>(), returns(number(2))),
+                returns(binary(TokenType.PLUS, "+",
+                    binary(TokenType.STAR, "*", variable("before"), number(10)), call("a")))),
+            var("r", call("outer"))));
+
+        assertFalse(opcodes(bytecode).contains(OpCode.CLOSURE));
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(12.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.error.VeloxException;
+import com.velox.compiler.optimizer.OptimizationLevel;
+import com.velox.compiler.optimizer.Optimizer;
+import com.velox.compiler.token.TokenType;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExceptionHandlingTest {
+
+    @Test
+    void testThrowsUnwindToTheNearestHandler() {
+        // fun thrower(n) { if (n > 2) { throw n * 2; } return n; }
+        // fun twice(x) { return thrower(x) + thrower(x); }
+        // fun guarded(n) { try { return twice(n); } catch (e) { return -e; } }
+        // var total = 0; var i = 0;
+        // while (i < 5) {
+        //     try { total = total + twice(i) * 10; } catch (e) { total = total + e; }
+        //     i = i + 1;
+        // }
+        // var g = guarded(1) + guarded(4);
+        FunctionStmt thrower = function("thrower", Collections.singletonList("n"),
+            new IfStmt(token(TokenType.IF, "if"), binary(TokenType.GREATER, variable("n"), number(2)),
+                block(throwing(binary(TokenType.STAR, variable("n"), number(2)))), null),
+            returns(variable("n")));
+        FunctionStmt twice = function("twice", Collections.singletonList("x"),
+            returns(binary(TokenType.PLUS, call("thrower", variable("x")), call("thrower", variable("x")))));
+        FunctionStmt guarded = function("guarded", Collections.singletonList("n"),
+            tryCatch(block(returns(call("twice", variable("n")))),
+                "e", block(returns(new UnaryExpr(token(TokenType.MINUS, "-"), variable("e"))))));
+        ModuleNode module = module(thrower, twice, guarded,
+            var("total", number(0)),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), number(5)),
+                tryCatch(
+                    block(expression(assign("total", binary(TokenType.PLUS, variable("total"),
+                        binary(TokenType.STAR, call("twice", variable("i")), number(10)))))),
+                    "e", block(expression(assign("total",
+                        binary(TokenType.PLUS, variable("total"), variable("e")))))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            var("g", binary(TokenType.PLUS, call("guarded", number(1)), call("guarded", number(4)))));
+
+        // 0 + 20 + 40, then 6 and 8 caught; 2 - 8
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                VirtualMachine vm = run(compile(module, level), engine);
+                assertEquals(74.0, vm.getLocal(0), level + " " + engine);
+                assertEquals(-6.0, vm.getLocal(2), level + " " + engine);
+                assertTrue(vm.getStack().isEmpty(), level + " " + engine);
+            }
+        }
+    }
+
+    @Test
+    void testNestedHandlersCatchRuntimeErrorsAndRethrows() {
+        // var log = "";
+        // try {
+        //     try { var n = nil; n.x; } catch (e) { log = e; throw "again"; }
+        // } catch (e) { log = log + "|" + e; }
+        ModuleNode module = module(
+            var("log", string("")),
+            tryCatch(
+                block(tryCatch(
+                    block(var("n", new LiteralExpr(token(TokenType.NIL, "nil"), null)),
+                        expression(get(variable("n"), "x"))),
+                    "e", block(expression(assign("log", variable("e"))), throwing(string("again"))))),
+                "e", block(expression(assign("log",
+                    binary(TokenType.PLUS, binary(TokenType.PLUS, variable("log"), string("|")), variable("e")))))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals("Only instances have properties, got: null|again",
+                run(compile(module, OptimizationLevel.AGGRESSIVE), engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testCaughtErrorsReadTheSameOnEveryEngine() {
+        // fun f(a, b) { var log = "";
+        //     try { a <= b; } catch (e) { log = e; }
+        //     try { a - b; } catch (e) { log = log + "|" + e; }
+        //     try { !a; } catch (e) { log = log + "|" + e; }
+        //     try { -a; } catch (e) { log = log + "|" + e; }
+        //     return log; }
+        // var r = f("ab", 1);
+        ModuleNode module = module(
+            function("f", Arrays.asList("a", "b"),
+                var("log", string("")),
+                tryCatch(block(expression(binary(TokenType.LESS_EQUAL, variable("a"), variable("b")))),
+                    "e", block(expression(assign("log", variable("e"))))),
+                tryCatch(block(expression(binary(TokenType.MINUS, variable("a"), variable("b")))),
+                    "e", block(expression(assign("log", append(variable("e")))))),
+                tryCatch(block(expression(new UnaryExpr(token(TokenType.BANG, "!"), variable("a")))),
+                    "e", block(expression(assign("log", append(variable("e")))))),
+                tryCatch(block(expression(new UnaryExpr(token(TokenType.MINUS, "-"), variable("a")))),
+                    "e", block(expression(assign("log", append(variable("e")))))),
+                returns(variable("log"))),
+            var("r", call("f", string("ab"), number(1))));
+
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                assertEquals("Invalid operands for comparison|Invalid operands for subtraction"
+                        + "|Invalid operands for logical NOT|Invalid operand for negation",
+                    run(compile(module, level), engine).getLocal(0), level + " " + engine);
+            }
+        }
+    }
+
+    private static BinaryExpr append(AST value) {
+        return binary(TokenType.PLUS, binary(TokenType.PLUS, variable("log"), string("|")), value);
+    }
+
+    @Test
+    void testCatchingClosesUpvaluesOfTheTryBlock() {
+        // The catch variable reuses v's slot; the closure must not see it
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                assertEquals(1.0, run(compile(closureInTry(), level), engine).getLocal(0), level + " " + engine);
+            }
+        }
+    }
+
+    @Test
+    void testHandlerTablesSurviveTheBytecodeCache() throws IOException {
+        Bytecode bytecode = compile(closureInTry(), OptimizationLevel.AGGRESSIVE);
+        byte[] hash = BytecodeFile.hash("source");
+        Path file = Files.createTempDirectory("vlxc").resolve("main.vlxc");
+        BytecodeFile.write(bytecode, hash, file);
+
+        Bytecode loaded = BytecodeFile.read(file, hash);
+
+        assertNotNull(loaded);
+        assertEquals(1, loaded.getHandlers().size());
+        ExceptionHandler handler = loaded.getHandlers().get(0);
+        assertEquals("make", handler.getFunction().getName());
+        assertEquals(bytecode.getHandlers().get(0).toString(), handler.toString());
+        assertEquals(1.0, run(loaded, ExecutionEngine.SWITCH).getLocal(0));
+    }
+
+    /**
+     * fun make() {
+     *     var f = nil;
+     *     try { var v = 1; fun get() { return v; } f = get; throw "x"; } catch (e) { }
+     *     return f();
+     * }
+     * var r = make();
+     */
+    private static ModuleNode closureInTry() {
+        FunctionStmt make = function("make", Collections.emptyList(),
+            var("f", new LiteralExpr(token(TokenType.NIL, "nil"), null)),
+            tryCatch(
+                block(var("v", number(1)),
+                    function("get", Collections.emptyList(), returns(variable("v"))),
+                    expression(assign("f", variable("get"))),
+                    throwing(string("x"))),
+                "e", block()),
+            returns(call("f")));
+        return module(make, var("r", call("make")));
+    }
+
+    @Test
+    void testUncaughtThrowHasNoJavaStackTrace() {
+        ModuleNode module = module(var("r", number(1)), throwing(string("boom")));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            Bytecode bytecode = new CodeGenerator().generate(module);
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            VeloxException error = assertThrows(VeloxException.class, vm::execute);
+            assertEquals("boom", error.getValue(), engine.name());
+            assertEquals(0, error.getStackTrace().length, engine.name());
+            assertEquals(1, vm.getErrors().size(), engine.name());
+        }
+    }
+
+    @Test
+    void testVmErrorsAreCaughtAsTheirReason() {
+        // fun down(n) { return down(n + 1); }  var r = nil;  try { down(0); } catch (e) { r = e; }
+        ModuleNode module = module(
+            function("down", Arrays.asList("n"),
+                returns(call("down", binary(TokenType.PLUS, variable("n"), number(1))))),
+            var("r", null),
+            tryCatch(block(expression(call("down", number(0)))), "e",
+                block(expression(assign("r", variable("e"))))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            Bytecode bytecode = new CodeGenerator().generate(module);
+            assertEquals("Stack overflow: call depth exceeds " + VirtualMachine.DEFAULT_MAX_FRAMES,
+                run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testVmBugsAreNotCaught() {
+        // var r = nil;  try { r = 1; } catch (e) { r = e; }
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            var("r", null),
+            tryCatch(block(expression(assign("r", number(1)))), "e",
+                block(expression(assign("r", variable("e")))))));
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setExecutionListener(new ExecutionListener() {
+            @Override
+            public void onInstruction(VirtualMachine vm, int index) {
+                // In the middle of the try block
+                if (index == 3) {
+                    throw new IllegalStateException("bug");
+                }
+            }
+        });
+
+        assertThrows(IllegalStateException.class, vm::execute);
+    }
+
+    private static Bytecode compile(ModuleNode program, OptimizationLevel level) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(level.getLevel());
+        CodeGenerator generator = new CodeGenerator();
+        generator.setIrOptimizer(optimizer::optimize);
+        return optimizer.optimize(generator.generate((ModuleNode) optimizer.optimize(program)));
+    }
+
+    private static VirtualMachine run(Bytecode bytecode, ExecutionEngine engine) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+        return vm;
+    }
+}
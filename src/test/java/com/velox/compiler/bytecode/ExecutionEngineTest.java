@@ -0,0 +1,102 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.bytecode.instructions.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.token.TokenType;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExecutionEngineTest {
+
+    @Test
+    void testWhileLoopRunsOnBothEngines() {
+        // var i = 0; while (i < 10) { i = i + 1; }
+        ModuleNode module = module(
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, "<", variable("i"), number(10)),
+                expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1))))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = run(module, engine);
+            assertEquals(10.0, vm.getLocal(0), engine.name());
+            assertTrue(vm.getStack().isEmpty(), engine.name());
+        }
+    }
+
+    @Test
+    void testIfElseTakesTheRightBranchOnBothEngines() {
+        // var x = 0; if (3 > 5) x = 1; else x = 2;
+        ModuleNode module = module(
+            var("x", number(0)),
+            new IfStmt(token(TokenType.IF, "if"),
+                binary(TokenType.GREATER, ">", number(3), number(5)),
+                expression(assign("x", number(1))),
+                expression(assign("x", number(2)))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = run(module, engine);
+            assertEquals(2.0, vm.getLocal(0), engine.name());
+            assertTrue(vm.getStack().isEmpty(), engine.name());
+        }
+    }
+
+    @Test
+    void testGlobalsOnBothEngines() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(new Constant(20, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(22, Constant.ConstantType.INTEGER));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new StoreGlobalInstruction("answer"));
+        bytecode.addInstruction(new LoadGlobalInstruction("answer"));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new AddInstruction());
+        bytecode.addInstruction(new StoreGlobalInstruction("answer"));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(42, vm.getGlobal("answer"), engine.name());
+        }
+    }
+
+    @Test
+    void testThrowIsRecordedInDebugMode() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(new Constant("boom", Constant.ConstantType.STRING));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new ThrowInstruction());
+
+        // Debug mode always runs on the instrumented INSTRUCTION loop
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setDebugMode(true);
+        vm.setDebugOutput(new PrintStream(new ByteArrayOutputStream()));
+        vm.execute();
+        assertEquals(1, vm.getErrors().size());
+        assertTrue(vm.getErrors().get(0).getMessage().contains("boom"));
+    }
+
+    @Test
+    void testPackedCodeEndsWithHalt() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.emit(OpCode.TRUE);
+        bytecode.emit(OpCode.POP);
+
+        int[] packed = bytecode.getPackedCode();
+        assertEquals(3, packed.length);
+        assertEquals(OpCode.HALT, Linker.opcode(packed[2]));
+    }
+
+    private static VirtualMachine run(ModuleNode module, ExecutionEngine engine) {
+        Bytecode bytecode = new CodeGenerator().generate(module);
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+        return vm;
+    }
+}
@@ -0,0 +1,108 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.error.VeloxException;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExecutionListenerTest {
+
+    @Test
+    void testCallsAndReturnsAreReportedOnEveryEngine() {
+        // fun fib(n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }  var r = fib(4);
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("fib", Collections.singletonList("n"),
+                new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS, variable("n"), number(2)),
+                    block(returns(variable("n"))), null),
+                returns(binary(TokenType.PLUS,
+                    call("fib", binary(TokenType.MINUS, variable("n"), number(1))),
+                    call("fib", binary(TokenType.MINUS, variable("n"), number(2)))))),
+            var("r", call("fib", number(4)))));
+
+        int steps = -1;
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            Recorder recorder = new Recorder();
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.setExecutionListener(recorder);
+            vm.execute();
+
+            assertEquals(3.0, vm.getLocal(0), engine.name());
+            assertEquals(Collections.nCopies(9, "call fib"), recorder.calls, engine.name());
+            assertEquals(9, recorder.returns, engine.name());
+            assertEquals(engine, vm.getEngine());
+            if (steps >= 0) {
+                assertEquals(steps, recorder.instructions, engine.name());
+            }
+            steps = recorder.instructions;
+        }
+    }
+
+    @Test
+    void testThrowsAreReportedBeforeTheyAreCaught() {
+        // var r = 0;  try { throw "x"; } catch (e) { r = e; }
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            var("r", number(0)),
+            tryCatch(block(throwing(string("x"))), "e", block(expression(assign("r", variable("e")))))));
+        Recorder recorder = new Recorder();
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setExecutionListener(recorder);
+        vm.execute();
+
+        assertEquals("x", vm.getLocal(0));
+        assertEquals(1, recorder.thrown.size());
+        assertEquals("x", ((VeloxException) recorder.thrown.get(0)).getValue());
+    }
+
+    @Test
+    void testStoppingEndsTheRunBeforeAnInstruction() {
+        // var a = 1;  var b = 2;
+        Bytecode bytecode = new CodeGenerator().generate(module(var("a", number(1)), var("b", number(2))));
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setExecutionListener(new ExecutionListener() {
+            @Override
+            public void onInstruction(VirtualMachine vm, int index) {
+                if (index == 1) {
+                    vm.stop();
+                }
+            }
+        });
+        vm.execute();
+
+        assertEquals(1, vm.getProgramCounter());
+        assertEquals(Collections.singletonList(1.0), vm.getStack());
+    }
+
+    private static final class Recorder implements ExecutionListener {
+        int instructions;
+        int returns;
+        final List<String> calls = new ArrayList<>();
+        final List<RuntimeException> thrown = new ArrayList<>();
+
+        @Override
+        public void onInstruction(VirtualMachine vm, int index) {
+            instructions++;
+        }
+
+        @Override
+        public void onCall(VirtualMachine vm, Function function) {
+            calls.add("call " + function.getName());
+        }
+
+        @Override
+        public void onReturn(VirtualMachine vm, Function function) {
+            returns++;
+        }
+
+        @Override
+        public void onThrow(VirtualMachine vm, RuntimeException exception, int index) {
+            thrown.add(exception);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.optimizer.OptimizationLevel;
+import com.velox.compiler.optimizer.Optimizer;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FunctionCallTest {
+
+    @Test
+    void testTopLevelCallsAreDirect() {
+        // fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }  var r = fib(10);
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("fib", Arrays.asList("n"),
+                new IfStmt(token(TokenType.IF, "if"),
+                    binary(TokenType.LESS, "<", variable("n"), number(2)),
+                    returns(variable("n")),
+                    null),
+                returns(
+                    binary(TokenType.PLUS, "+",
+                        call("fib", binary(TokenType.MINUS, "-", variable("n"), number(1))),
+                        call("fib", binary(TokenType.MINUS, "-", variable("n"), number(2)))))),
+            var("r", call("fib", number(10)))));
+
+        assertTrue(opcodes(bytecode).contains(OpCode.CALL_DIRECT));
+        assertFalse(opcodes(bytecode).contains(OpCode.CALL));
+        assertEquals(1, bytecode.getFunction("fib").getArity());
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = run(bytecode, engine);
+            assertEquals(55.0, vm.getLocal(0), engine.name());
+            assertTrue(vm.getStack().isEmpty(), engine.name());
+        }
+    }
+
+    @Test
+    void testCallAheadOfDeclaration() {
+        // var r = twice(4);  fun twice(x) { return x + x; }
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            var("r", call("twice", number(4))),
+            function("twice", Arrays.asList("x"),
+                returns(binary(TokenType.PLUS, "+", variable("x"), variable("x"))))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(8.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testFunctionValuesAreCalledThroughTheStack() {
+        // fun add(a, b) { return a + b; }  var f = add;  var r = f(1, 2);
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            add(),
+            var("f", variable("add")),
+            var("r", call("f", number(1), number(2)))));
+
+        assertTrue(opcodes(bytecode).contains(OpCode.CALL));
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = run(bytecode, engine);
+            assertTrue(vm.getLocal(0) instanceof Function, engine.name());
+            assertEquals(3.0, vm.getLocal(1), engine.name());
+        }
+    }
+
+    @Test
+    void testLocalFunctionThatDoesNotEscapeIsCalledDirectly() {
+        // fun outer() { fun inner(x) { return x * 2; } return inner(21); }  var r = outer();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("outer", new ArrayList<>(),
+                function("inner", Arrays.asList("x"),
+                    returns(binary(TokenType.STAR, "*", variable("x"), number(2)))),
+                returns(call("inner", number(21)))),
+            var("r", call("outer"))));
+
+        // inner needs neither a closure nor a local slot
+        assertEquals(0, bytecode.getFunction("outer").getFrameSize());
+        assertEquals(bytecode.getFunction("outer"), bytecode.getFunction("inner").getEnclosing());
+        assertFalse(opcodes(bytecode).contains(OpCode.CALL));
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(42.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testArityIsCheckedWhenTheCallRuns() {
+        // add(1);  and  var f = add; f(1);
+        List<ModuleNode> programs = Arrays.asList(
+            module(add(), expression(call("add", number(1)))),
+            module(add(), var("f", variable("add")), expression(call("f", number(1)))));
+        for (ModuleNode program : programs) {
+            for (OptimizationLevel level : OptimizationLevel.values()) {
+                Bytecode bytecode = compile(program, level);
+                for (ExecutionEngine engine : ExecutionEngine.values()) {
+                    VirtualMachine vm = new VirtualMachine(bytecode);
+                    vm.setEngine(engine);
+                    RuntimeException error = assertThrows(RuntimeException.class, vm::execute);
+                    assertTrue(error.getMessage().contains("Expected 2 arguments but got 1"), level + " " + engine);
+                }
+            }
+        }
+
+        // A wrong call that never runs is no error:
+        // fun k(x) { if (false) { add(1); } return x; }  var r = k(3);
+        ModuleNode unreached = module(add(),
+            function("k", Arrays.asList("x"),
+                new IfStmt(token(TokenType.IF, "if"), new LiteralExpr(token(TokenType.FALSE, "false"), false),
+                    block(expression(call("add", number(1)))),
+                    null),
+                returns(variable("x"))),
+            var("r", call("k", number(3))));
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            Bytecode bytecode = compile(unreached, level);
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                assertEquals(3.0, run(bytecode, engine).getLocal(0), level + " " + engine);
+            }
+        }
+    }
+
+    @Test
+    void testFunctionsTheProgramReassignsAreCalledThroughTheirGlobal() {
+        // fun one() { return 1; }  fun two() { return 2; }  one = two;  var r = one();
+        ModuleNode program = module(
+            function("one", new ArrayList<>(), returns(number(1))),
+            function("two", new ArrayList<>(), returns(number(2))),
+            expression(assign("one", variable("two"))),
+            var("r", call("one")));
+
+        assertFalse(opcodes(new CodeGenerator().generate(program)).contains(OpCode.CALL_DIRECT));
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            Bytecode bytecode = compile(program, level);
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                assertEquals(2.0, run(bytecode, engine).getLocal(0), level + " " + engine);
+            }
+        }
+    }
+
+    static Bytecode compile(ModuleNode program, OptimizationLevel level) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(level.getLevel());
+        CodeGenerator generator = new CodeGenerator();
+        generator.setIrOptimizer(optimizer::optimize);
+        return optimizer.optimize(generator.generate((ModuleNode) optimizer.optimize(program)));
+    }
+
+    @Test
+    void testCallingANonFunctionFails() {
+        // var x = 1; x();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            var("x", number(1)),
+            expression(call("x"))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            RuntimeException error = assertThrows(RuntimeException.class, vm::execute);
+            assertTrue(error.getMessage().contains("Can only call functions"), engine.name());
+        }
+    }
+
+    @Test
+    void testDirectCallNeedsAFixedArity() {
+        Bytecode bytecode = new Bytecode();
+        Function f = bytecode.addFunction("f", 0);
+        bytecode.emit(OpCode.CALL_DIRECT, f);
+
+        assertThrows(IllegalStateException.class, bytecode::getPackedCode);
+    }
+
+    static VirtualMachine run(Bytecode bytecode, ExecutionEngine engine) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+        return vm;
+    }
+
+    static List<OpCode> opcodes(Bytecode bytecode) {
+        List<OpCode> opcodes = new ArrayList<>();
+        for (int i = 0; i < bytecode.getInstructionCount(); i++) {
+            opcodes.add(bytecode.getInstruction(i).getOpCode());
+        }
+        return opcodes;
+    }
+
+    static FunctionStmt add() {
+        return function("add", Arrays.asList("a", "b"),
+            returns(binary(TokenType.PLUS, "+", variable("a"), variable("b"))));
+    }
+}
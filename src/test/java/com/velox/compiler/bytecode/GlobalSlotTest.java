@@ -0,0 +1,78 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.bytecode.instructions.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GlobalSlotTest {
+
+    @Test
+    void testGlobalsAreResolvedToSlotsWhenLinked() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.emit(OpCode.CONSTANT, 1.0);
+        bytecode.emit(OpCode.SET_GLOBAL, "a");
+        bytecode.emit(OpCode.CONSTANT, 2.0);
+        bytecode.emit(OpCode.SET_GLOBAL, "b");
+        bytecode.emit(OpCode.GET_GLOBAL, "a");
+
+        int[] packed = bytecode.getPackedCode();
+        assertEquals(0, bytecode.getGlobals().lookup("a"));
+        assertEquals(1, bytecode.getGlobals().lookup("b"));
+        assertEquals(OpCode.SET_GLOBAL, Linker.opcode(packed[3]));
+        assertEquals(1, Linker.operand(packed[3]));
+        assertEquals(0, Linker.operand(packed[4]));
+    }
+
+    @Test
+    void testHostGlobalsAreVisibleToCode() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addInstruction(new LoadGlobalInstruction("config"));
+        bytecode.addInstruction(new StoreGlobalInstruction("copy"));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.setGlobal("config", "on");
+            vm.execute();
+            assertEquals("on", vm.getGlobal("copy"), engine.name());
+            assertEquals("on", vm.getGlobal(vm.getGlobalTable().lookup("copy")), engine.name());
+        }
+    }
+
+    @Test
+    void testUndefinedGlobalIsReportedByName() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addInstruction(new LoadGlobalInstruction("missing"));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            RuntimeException error = assertThrows(RuntimeException.class, vm::execute);
+            assertTrue(error.getMessage().contains("missing"), engine.name());
+        }
+        assertNull(new VirtualMachine(bytecode).getGlobal("never-seen"));
+    }
+
+    @Test
+    void testCachedSlotFollowsTheTable() {
+        // One instruction object shared by programs whose slots differ
+        LoadGlobalInstruction load = new LoadGlobalInstruction("x");
+
+        Bytecode first = new Bytecode();
+        first.addInstruction(load);
+        Bytecode second = new Bytecode();
+        second.getGlobals().resolve("padding");
+        second.addInstruction(load);
+
+        VirtualMachine firstVm = new VirtualMachine(first);
+        firstVm.setGlobal("x", 1);
+        firstVm.execute();
+        assertEquals(1, firstVm.pop());
+
+        VirtualMachine secondVm = new VirtualMachine(second);
+        secondVm.setGlobal("padding", 0);
+        secondVm.setGlobal("x", 2);
+        secondVm.execute();
+        assertEquals(2, secondVm.pop());
+    }
+}
@@ -0,0 +1,115 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.token.TokenType;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JitTest {
+
+    @Test
+    void testHotFunctionIsCompiled() {
+        // fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+        FunctionStmt fib = function("fib", Arrays.asList("n"),
+            new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS, variable("n"), number(2)),
+                returns(variable("n")), null),
+            returns(binary(TokenType.PLUS,
+                call("fib", binary(TokenType.MINUS, variable("n"), number(1))),
+                call("fib", binary(TokenType.MINUS, variable("n"), number(2))))));
+        VirtualMachine vm = run(compile(fib, var("r", call("fib", number(15)))), 10);
+
+        assertEquals(610.0, vm.getLocal(0));
+        assertEquals(1, vm.getCompilations());
+        assertEquals(0, vm.getDeoptimizations());
+    }
+
+    @Test
+    void testLongLoopSwitchesToCompiledCode() {
+        // fun count(n) { var i = 0; var s = 0; while (i < n) { s = s + i; i = i + 1; } return s; }
+        FunctionStmt count = function("count", Arrays.asList("n"),
+            var("i", number(0)),
+            var("s", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), variable("n")),
+                expression(assign("s", binary(TokenType.PLUS, variable("s"), variable("i")))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            returns(variable("s")));
+        VirtualMachine vm = run(compile(count, var("r", call("count", number(1000)))), 100);
+
+        // Called once, so only the back edge can have compiled it
+        assertEquals(499500.0, vm.getLocal(0));
+        assertEquals(1, vm.getCompilations());
+    }
+
+    @Test
+    void testFailedTypeCheckFallsBackToTheInterpreter() {
+        // fun plus(a, b) { return a + b; }
+        // fun warm(n) { var i = 0; while (i < n) { plus(i, i); i = i + 1; } return plus("a", "b"); }
+        FunctionStmt plus = function("plus", Arrays.asList("a", "b"),
+            returns(binary(TokenType.PLUS, variable("a"), variable("b"))));
+        FunctionStmt warm = function("warm", Arrays.asList("n"),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), variable("n")),
+                expression(call("plus", variable("i"), variable("i"))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            returns(call("plus", string("a"), string("b"))));
+        Bytecode bytecode = compile(plus, warm, var("r", call("warm", number(50))));
+        VirtualMachine vm = run(bytecode, 10);
+
+        assertEquals("ab", vm.getLocal(0));
+        assertEquals(1, vm.getDeoptimizations());
+        // plus was seen adding strings, so it compiles again without the check
+        VirtualMachine again = run(bytecode, 10);
+        assertEquals("ab", again.getLocal(0));
+        assertEquals(0, again.getDeoptimizations());
+    }
+
+    @Test
+    void testDeoptimizingInsideALoopResumesWhereItStopped() {
+        // fun mix(n) { var s = 0; var i = 0; while (i < n) { if (i == 500) s = "s"; s = s + i; i = i + 1; } return s; }
+        FunctionStmt mix = function("mix", Arrays.asList("n"),
+            var("s", number(0)),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), variable("n")),
+                new IfStmt(token(TokenType.IF, "if"), binary(TokenType.EQUAL_EQUAL, variable("i"), number(500)),
+                    expression(assign("s", string("s"))), null),
+                expression(assign("s", binary(TokenType.PLUS, variable("s"), variable("i")))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            returns(variable("s")));
+        Bytecode bytecode = compile(mix, var("r", call("mix", number(503))));
+
+        Object expected = interpret(bytecode);
+        VirtualMachine vm = run(bytecode, 100);
+        assertEquals(expected, vm.getLocal(0));
+        assertEquals("s500.0501.0502.0", vm.getLocal(0));
+        assertEquals(1, vm.getDeoptimizations());
+    }
+
+    private static Bytecode compile(AST... declarations) {
+        CodeGenerator generator = new CodeGenerator();
+        generator.setIrOptimizer(UnaryOperator.identity());
+        return generator.generate(module(declarations));
+    }
+
+    private static VirtualMachine run(Bytecode bytecode, int threshold) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(ExecutionEngine.JIT);
+        vm.setJitThreshold(threshold);
+        vm.execute();
+        assertTrue(vm.getStack().isEmpty());
+        return vm;
+    }
+
+    private static Object interpret(Bytecode bytecode) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(ExecutionEngine.REGISTER);
+        vm.execute();
+        return vm.getLocal(0);
+    }
+}
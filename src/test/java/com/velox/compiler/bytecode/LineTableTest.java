@@ -0,0 +1,100 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.VarStmt;
+import com.velox.compiler.ast.expressions.CallExpr;
+import com.velox.compiler.ast.expressions.VariableExpr;
+import com.velox.compiler.ast.statements.ExpressionStmt;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.error.RuntimeError;
+import com.velox.compiler.token.Token;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static com.velox.compiler.bytecode.FunctionCallTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineTableTest {
+
+    @Test
+    void testLookupFindsTheEnclosingRun() {
+        LineTable table = new LineTable();
+        table.add(0, 1);
+        table.add(3, 1);
+        table.add(5, 2);
+        table.add(9, 4);
+
+        assertEquals(3, table.size());
+        assertEquals(1, table.getLine(0));
+        assertEquals(1, table.getLine(4));
+        assertEquals(2, table.getLine(5));
+        assertEquals(2, table.getLine(8));
+        assertEquals(4, table.getLine(100));
+        assertEquals(0, new LineTable().getLine(0));
+    }
+
+    @Test
+    void testLookupAcrossManyRuns() {
+        // Lines going back and forth, as for function bodies emitted in line
+        LineTable table = new LineTable();
+        for (int run = 0; run < 1000; run++) {
+            table.add(run * 7, run % 2 == 0 ? run : 5000 - run);
+        }
+
+        assertEquals(1000, table.size());
+        for (int run = 0; run < 1000; run++) {
+            int line = run % 2 == 0 ? run : 5000 - run;
+            assertEquals(line, table.getLine(run * 7));
+            assertEquals(line, table.getLine(run * 7 + 6));
+            assertEquals(run * 7, table.getStart(run));
+            assertEquals(line, table.getRunLine(run));
+        }
+        assertTrue(table.getEncodedSize() < 1000 * 4);
+    }
+
+    @Test
+    void testLineWithoutCodeIsDropped() {
+        LineTable table = new LineTable();
+        table.add(0, 1);
+        table.add(4, 2);
+        table.add(4, 3);
+        table.add(4, 1);
+
+        assertEquals(1, table.size());
+        assertEquals(1, table.getLine(7));
+        table.add(6, 2);
+        assertThrows(IllegalArgumentException.class, () -> table.add(5, 3));
+    }
+
+    @Test
+    void testRuntimeErrorsReportTheSourceLine() {
+        // 1: var x = 1;
+        // 2: var y = x;
+        // 3: x();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            new VarStmt(at(TokenType.VAR, "var", 1), at(TokenType.IDENTIFIER, "x", 1), number(1), null),
+            new VarStmt(at(TokenType.VAR, "var", 2), at(TokenType.IDENTIFIER, "y", 2),
+                new VariableExpr(at(TokenType.IDENTIFIER, "x", 2)), null),
+            new ExpressionStmt(at(TokenType.SEMICOLON, ";", 3),
+                new CallExpr(new VariableExpr(at(TokenType.IDENTIFIER, "x", 3)),
+                    at(TokenType.RIGHT_PAREN, ")", 3), new ArrayList<>()))));
+
+        assertEquals(3, bytecode.getLineTable().size());
+        assertEquals(1, bytecode.getLine(0));
+        int call = opcodes(bytecode).indexOf(OpCode.CALL);
+        assertEquals(3, bytecode.getLine(call));
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            assertThrows(RuntimeException.class, vm::execute);
+            RuntimeError error = vm.getErrors().get(0);
+            assertEquals(call, error.getInstructionIndex(), engine.name());
+            assertEquals(3, error.getLine(), engine.name());
+            assertTrue(error.getMessage().contains("line 3"), engine.name());
+        }
+    }
+
+    private static Token at(TokenType type, String lexeme, int line) {
+        return new Token(type, lexeme, null, line, 1);
+    }
+}
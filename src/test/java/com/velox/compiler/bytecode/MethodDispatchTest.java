@@ -0,0 +1,155 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.ClassStmt;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.optimizer.OptimizationLevel;
+import com.velox.compiler.optimizer.Optimizer;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MethodDispatchTest {
+
+    @Test
+    void testOverridesKeepTheirVtableIndex() {
+        VeloxClass base = new VeloxClass("Base");
+        base.defineMethod("a", "Base.a");
+        base.defineMethod("b", "Base.b");
+        VeloxClass derived = new VeloxClass("Derived");
+        derived.inherit(base);
+        derived.defineMethod("c", "Derived.c");
+        derived.defineMethod("b", "Derived.b");
+
+        assertEquals(base.methodIndex("b"), derived.methodIndex("b"));
+        assertEquals(2, derived.methodIndex("c"));
+        assertEquals("Derived.b", derived.findMethod("b"));
+        assertEquals("Base.a", derived.findMethod("a"));
+        assertEquals("Base.b", base.findMethod("b"));
+        assertEquals(-1, base.methodIndex("c"));
+    }
+
+    @Test
+    void testVirtualAndSuperCalls() {
+        // class A { init(n) { this.n = n; } value() { return this.n; } describe() { return this.value(); } }
+        // class B < A { init(n) { super.init(n * 2); } value() { return super.value() + 1; } }
+        // var total = 0; var i = 0;
+        // while (i < 10) { total = total + A(i).describe() + B(i).describe(); i = i + 1; }
+        ModuleNode module = module(classA(), classB(),
+            var("total", number(0)),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), number(10)),
+                expression(assign("total", binary(TokenType.PLUS, variable("total"), binary(TokenType.PLUS,
+                    invoke(call(variable("A"), variable("i")), "describe"),
+                    invoke(call(variable("B"), variable("i")), "describe"))))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))));
+
+        // A(i) gives i, B(i) gives 2i + 1: 45 + 100
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                Bytecode bytecode = compile(module, level);
+                assertEquals(145.0, run(bytecode, engine).getLocal(0), level + " " + engine);
+
+                // this.value() saw both classes; super.value() only A
+                List<Integer> sizes = new ArrayList<>();
+                for (MethodCache cache : bytecode.getMethodCaches()) {
+                    if (cache != null && cache.getName().equals("value")) {
+                        sizes.add(cache.size());
+                    }
+                }
+                Collections.sort(sizes);
+                assertEquals(Arrays.asList(1, 2), sizes, level + " " + engine);
+            }
+        }
+    }
+
+    @Test
+    void testMethodsOfDifferentClassesDoNotCollide() {
+        // class A { f() { return 1; } } class B { f() { return 2; } } var r = A().f() + B().f() * 10;
+        ClassStmt a = klass("A", null, function("f", Collections.emptyList(), returns(number(1))));
+        ClassStmt b = klass("B", null, function("f", Collections.emptyList(), returns(number(2))));
+        ModuleNode module = module(a, b, var("r", binary(TokenType.PLUS, invoke(call(variable("A")), "f"),
+            binary(TokenType.STAR, invoke(call(variable("B")), "f"), number(10)))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(21.0, run(compile(module, OptimizationLevel.AGGRESSIVE), engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testFieldsAndBoundSuperMethods() {
+        // fun twice(x) { return x * 2; }
+        // class C < A { init() { super.init(5); this.g = twice; } get() { var m = super.value; return m(); } }
+        // var c = C(); var r = c.g(3) + c.get();
+        FunctionStmt twice = function("twice", Collections.singletonList("x"),
+            returns(binary(TokenType.STAR, variable("x"), number(2))));
+        ClassStmt c = klass("C", variable("A"),
+            function("init", Collections.emptyList(),
+                expression(call(superMethod("init"), number(5))),
+                expression(set(self(), "g", variable("twice")))),
+            function("get", Collections.emptyList(),
+                var("m", superMethod("value")),
+                returns(call(variable("m")))));
+        ModuleNode module = module(twice, classA(), c,
+            var("c", call(variable("C"))),
+            var("r", binary(TokenType.PLUS, invoke(variable("c"), "g", number(3)), invoke(variable("c"), "get"))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(11.0, run(compile(module, OptimizationLevel.NONE), engine).getLocal(1), engine.name());
+        }
+    }
+
+    @Test
+    void testDispatchErrors() {
+        ModuleNode undefined = module(classA(), var("r", invoke(call(variable("A"), number(1)), "missing")));
+        RuntimeException error = assertThrows(RuntimeException.class,
+            () -> run(compile(undefined, OptimizationLevel.NONE), ExecutionEngine.SWITCH));
+        assertEquals("Undefined property: missing", error.getMessage());
+
+        ModuleNode arity = module(classA(), var("r", invoke(call(variable("A"), number(1)), "value", number(2))));
+        error = assertThrows(RuntimeException.class,
+            () -> run(compile(arity, OptimizationLevel.NONE), ExecutionEngine.INSTRUCTION));
+        assertEquals("Expected 0 arguments but got 1 in call to A.value", error.getMessage());
+
+        ModuleNode noSuperclass = module(klass("D", null,
+            function("f", Collections.emptyList(), returns(call(superMethod("f"))))));
+        error = assertThrows(RuntimeException.class, () -> new CodeGenerator().generate(noSuperclass));
+        assertEquals("Cannot use 'super' in a class with no superclass: D", error.getMessage());
+    }
+
+    private static ClassStmt classA() {
+        return klass("A", null,
+            function("init", Collections.singletonList("n"), expression(set(self(), "n", variable("n")))),
+            function("value", Collections.emptyList(), returns(get(self(), "n"))),
+            function("describe", Collections.emptyList(), returns(invoke(self(), "value"))));
+    }
+
+    private static ClassStmt classB() {
+        return klass("B", variable("A"),
+            function("init", Collections.singletonList("n"),
+                expression(call(superMethod("init"), binary(TokenType.STAR, variable("n"), number(2))))),
+            function("value", Collections.emptyList(),
+                returns(binary(TokenType.PLUS, call(superMethod("value")), number(1)))));
+    }
+
+    private static Bytecode compile(ModuleNode program, OptimizationLevel level) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(level.getLevel());
+        CodeGenerator generator = new CodeGenerator();
+        generator.setIrOptimizer(optimizer::optimize);
+        return optimizer.optimize(generator.generate((ModuleNode) optimizer.optimize(program)));
+    }
+
+    private static VirtualMachine run(Bytecode bytecode, ExecutionEngine engine) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+        return vm;
+    }
+}
@@ -0,0 +1,92 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.token.TokenType;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProfilerTest {
+
+    @Test
+    void testSamplesAreCollapsedByStack() {
+        Bytecode bytecode = fib();
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        Profiler profiler = new Profiler(vm);
+        // Sample before every instruction instead of on a timer
+        vm.setExecutionListener(new ExecutionListener() {
+            @Override
+            public void onInstruction(VirtualMachine vm, int index) {
+                profiler.sample();
+            }
+        });
+        vm.execute();
+
+        Map<String, Long> stacks = profiler.getStacks();
+        assertTrue(stacks.containsKey("<main>"));
+        assertTrue(stacks.containsKey("<main>;fib;fib;fib"));
+        assertFalse(stacks.containsKey("<main>;fib;fib;fib;fib"));
+        long total = stacks.values().stream().mapToLong(Long::longValue).sum();
+        assertEquals(profiler.getSamples(), total);
+
+        String collapsed = profiler.collapsed();
+        assertEquals(stacks.size(), collapsed.split("\n").length);
+        assertTrue(collapsed.contains("<main>;fib;fib " + stacks.get("<main>;fib;fib") + "\n"));
+
+        String[] report = profiler.report(3).split("\\R");
+        assertEquals(total + " samples", report[0]);
+        assertEquals(4, report.length);
+        assertTrue(report[1].matches(" *[0-9.]+% +[0-9]+  fib:[0-9]+"), report[1]);
+    }
+
+    @Test
+    void testSamplingThreadSamplesARunningVm() throws InterruptedException {
+        VirtualMachine vm = new VirtualMachine(fib());
+        Profiler profiler = new Profiler(vm, 1000);
+        vm.setExecutionListener(new ExecutionListener() {
+            @Override
+            public void onCall(VirtualMachine vm, Function function) {
+                if (vm.getFrameCount() == 2) {
+                    sleep();
+                }
+            }
+        });
+        profiler.start();
+        vm.execute();
+        profiler.stop();
+
+        assertTrue(profiler.getSamples() > 0);
+        assertTrue(profiler.getStacks().keySet().stream().allMatch(stack -> stack.startsWith("<main>")));
+        assertThrows(IllegalArgumentException.class, () -> new Profiler(vm, 0));
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * fun fib(n) {
+     *     if (n < 2) { return n; }
+     *     return fib(n - 1) + fib(n - 2);
+     * }
+     * var r = fib(3);
+     */
+    private static Bytecode fib() {
+        return new CodeGenerator().generate(module(
+            function("fib", Collections.singletonList("n"),
+                new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS, variable("n"), number(2)),
+                    block(returns(variable("n"))), null),
+                returns(binary(TokenType.PLUS,
+                    call("fib", binary(TokenType.MINUS, variable("n"), number(1))),
+                    call("fib", binary(TokenType.MINUS, variable("n"), number(2)))))),
+            var("r", call("fib", number(3)))));
+    }
+}
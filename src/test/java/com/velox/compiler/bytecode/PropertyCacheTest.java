@@ -0,0 +1,166 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.ClassStmt;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PropertyCacheTest {
+
+    @Test
+    void testFieldReadsInALoopStayMonomorphic() {
+        // class Point { init(x, y) { this.x = x; this.y = y; } sum() { return this.x + this.y; } }
+        // var p = Point(1, 2); var total = 0; var i = 0;
+        // while (i < 10) { total = total + p.x; i = i + 1; }
+        // total = total + p.sum();
+        ModuleNode module = module(point(),
+            var("p", call(variable("Point"), number(1), number(2))),
+            var("total", number(0)),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), number(10)),
+                expression(assign("total", binary(TokenType.PLUS, variable("total"), get(variable("p"), "x")))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            expression(assign("total", binary(TokenType.PLUS, variable("total"), call(get(variable("p"), "sum"))))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            Bytecode bytecode = new CodeGenerator().generate(module);
+            VirtualMachine vm = run(bytecode, engine);
+            assertEquals(13.0, vm.getLocal(1), engine.name());
+            for (PropertyCache cache : bytecode.getPropertyCaches()) {
+                if (cache != null && cache.size() > 0) {
+                    assertEquals(1, cache.size(), engine + " " + cache.getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testInstancesAssigningTheSameFieldsShareAShape() {
+        VeloxClass klass = new VeloxClass("Point");
+        Instance a = new Instance(klass);
+        Instance b = new Instance(klass);
+        a.set("x", 1.0);
+        a.set("y", 2.0);
+        b.set("x", 3.0);
+        b.set("y", 4.0);
+
+        assertSame(a.getShape(), b.getShape());
+        assertEquals(1, a.getShape().slot("y"));
+        assertEquals(-1, a.getShape().slot("z"));
+        // A different order is a different layout
+        Instance c = new Instance(klass);
+        c.set("y", 5.0);
+        c.set("x", 6.0);
+        assertNotSame(a.getShape(), c.getShape());
+        assertEquals(6.0, c.get("x"));
+        // Shapes belong to one class
+        Instance d = new Instance(new VeloxClass("Other"));
+        d.set("x", 7.0);
+        d.set("y", 8.0);
+        assertNotSame(a.getShape(), d.getShape());
+    }
+
+    @Test
+    void testSitesGoPolymorphicThenMegamorphic() {
+        PropertyCache get = new PropertyCache("x");
+        PropertyCache set = new PropertyCache("x");
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i <= PropertyCache.POLYMORPHIC_LIMIT; i++) {
+            Instance instance = new Instance(new VeloxClass("C" + i));
+            set.set(instance, (double) i);
+            instances.add(instance);
+        }
+        assertTrue(set.isMegamorphic());
+
+        for (int i = 0; i < PropertyCache.POLYMORPHIC_LIMIT; i++) {
+            assertEquals((double) i, get.get(instances.get(i)));
+            assertEquals(i + 1, get.size());
+        }
+        assertFalse(get.isMegamorphic());
+        // Every cached shape still reads its own field
+        for (int i = 0; i < PropertyCache.POLYMORPHIC_LIMIT; i++) {
+            assertEquals((double) i, get.get(instances.get(i)));
+        }
+        assertEquals((double) PropertyCache.POLYMORPHIC_LIMIT, get.get(instances.get(PropertyCache.POLYMORPHIC_LIMIT)));
+        assertTrue(get.isMegamorphic());
+        assertEquals(2.0, get.get(instances.get(2)));
+    }
+
+    @Test
+    void testCachedTransitionAddsTheField() {
+        VeloxClass klass = new VeloxClass("Point");
+        PropertyCache setX = new PropertyCache("x");
+        PropertyCache setY = new PropertyCache("y");
+        Instance a = new Instance(klass);
+        setX.set(a, 1.0);
+        setY.set(a, 2.0);
+
+        // The second instance takes both transitions from the caches
+        Instance b = new Instance(klass);
+        setX.set(b, 3.0);
+        setY.set(b, 4.0);
+        assertSame(a.getShape(), b.getShape());
+        assertEquals(1, setX.size());
+        assertEquals(3.0, b.get("x"));
+        assertEquals(4.0, b.get("y"));
+    }
+
+    @Test
+    void testSubclassInheritsAndOverridesMethods() {
+        // class A { name() { return "a"; } greet() { return this.name(); } }
+        // class B < A { name() { return "b"; } }
+        ClassStmt a = klass("A", null,
+            function("name", Collections.emptyList(), returns(string("a"))),
+            function("greet", Collections.emptyList(), returns(invoke(self(), "name"))));
+        ClassStmt b = klass("B", variable("A"),
+            function("name", Collections.emptyList(), returns(string("b"))));
+        ModuleNode module = module(a, b,
+            var("r", binary(TokenType.PLUS, call(get(call(variable("A")), "greet")), call(get(call(variable("B")), "greet")))));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals("ab", run(new CodeGenerator().generate(module), engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testPropertyErrors() {
+        ModuleNode missing = module(point(), var("p", call(variable("Point"), number(1), number(2))),
+            var("z", get(variable("p"), "z")));
+        RuntimeException error = assertThrows(RuntimeException.class,
+            () -> run(new CodeGenerator().generate(missing), ExecutionEngine.SWITCH));
+        assertEquals("Undefined property: z", error.getMessage());
+
+        ModuleNode number = module(var("n", number(1)), var("x", get(variable("n"), "x")));
+        error = assertThrows(RuntimeException.class,
+            () -> run(new CodeGenerator().generate(number), ExecutionEngine.INSTRUCTION));
+        assertEquals("Only instances have properties, got: 1.0", error.getMessage());
+
+        ModuleNode arity = module(point(), var("p", call(variable("Point"), number(1))));
+        error = assertThrows(RuntimeException.class,
+            () -> run(new CodeGenerator().generate(arity), ExecutionEngine.SWITCH));
+        assertEquals("Expected 2 arguments but got 1 in call to Point.init", error.getMessage());
+    }
+
+    private static ClassStmt point() {
+        return klass("Point", null,
+            function("init", Arrays.asList("x", "y"),
+                expression(set(self(), "x", variable("x"))),
+                expression(set(self(), "y", variable("y")))),
+            function("sum", Collections.emptyList(),
+                returns(binary(TokenType.PLUS, get(self(), "x"), get(self(), "y")))));
+    }
+
+    private static VirtualMachine run(Bytecode bytecode, ExecutionEngine engine) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+        return vm;
+    }
+}
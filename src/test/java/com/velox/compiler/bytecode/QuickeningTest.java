@@ -0,0 +1,104 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.bytecode.instructions.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuickeningTest {
+    // r = a op b: GET_GLOBAL, GET_GLOBAL, op, SET_GLOBAL
+    private static final int OPERATION_PC = 2;
+
+    @Test
+    void testInstructionIsQuickenedForItsOperands() {
+        Bytecode bytecode = binary(new AddInstruction());
+
+        VirtualMachine vm = run(bytecode, 1.5, 2.0);
+        assertEquals(3.5, vm.getGlobal("r"));
+        assertEquals(1, vm.getQuickenings());
+        assertEquals(OpCode.ADD_NUMBERS, opcode(bytecode));
+        assertEquals(Quickening.State.MONOMORPHIC, state(bytecode));
+
+        // The quickened form runs from then on
+        vm = run(bytecode, 4.0, 0.5);
+        assertEquals(4.5, vm.getGlobal("r"));
+        assertEquals(0, vm.getQuickenings());
+        assertEquals(0, vm.getDequickenings());
+    }
+
+    @Test
+    void testStringsQuickenConcatenation() {
+        Bytecode bytecode = binary(new AddInstruction());
+
+        assertEquals("velox", run(bytecode, "vel", "ox").getGlobal("r"));
+        assertEquals(OpCode.ADD_STRINGS, opcode(bytecode));
+        assertEquals("ab", run(bytecode, "a", "b").getGlobal("r"));
+    }
+
+    @Test
+    void testFailedCheckGoesBackToGeneric() {
+        Bytecode bytecode = binary(new AddInstruction());
+        run(bytecode, 1.0, 2.0);
+
+        VirtualMachine vm = run(bytecode, "a", "b");
+        assertEquals("ab", vm.getGlobal("r"));
+        assertEquals(1, vm.getDequickenings());
+        assertEquals(OpCode.ADD, opcode(bytecode));
+        assertEquals(Quickening.State.POLYMORPHIC, state(bytecode));
+
+        // Having seen two kinds, it stays generic
+        vm = run(bytecode, 1.0, 2.0);
+        assertEquals(3.0, vm.getGlobal("r"));
+        assertEquals(0, vm.getQuickenings());
+        assertEquals(OpCode.ADD, opcode(bytecode));
+
+        assertEquals(3L, run(bytecode, 1L, 2L).getGlobal("r"));
+        assertEquals(Quickening.State.MEGAMORPHIC, state(bytecode));
+    }
+
+    @Test
+    void testQuickenedFormsKeepTheirErrors() {
+        Bytecode bytecode = binary(new DivideInstruction());
+        run(bytecode, 1.0, 2.0);
+        assertEquals(OpCode.DIVIDE_NUMBERS, opcode(bytecode));
+
+        RuntimeException error = assertThrows(RuntimeException.class, () -> run(bytecode, 1.0, 0.0));
+        assertEquals("Division by zero", error.getMessage());
+    }
+
+    @Test
+    void testComparisonsAreQuickened() {
+        Bytecode bytecode = binary(new LessInstruction());
+
+        assertEquals(true, run(bytecode, 1.0, 2.0).getGlobal("r"));
+        assertEquals(OpCode.LESS_NUMBERS, opcode(bytecode));
+        assertEquals(false, run(bytecode, 3.0, 2.0).getGlobal("r"));
+        assertEquals(true, run(bytecode, "a", "b").getGlobal("r"));
+        assertEquals(OpCode.LESS, opcode(bytecode));
+    }
+
+    private static Bytecode binary(Instruction operation) {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addInstruction(new LoadGlobalInstruction("a"));
+        bytecode.addInstruction(new LoadGlobalInstruction("b"));
+        bytecode.addInstruction(operation);
+        bytecode.addInstruction(new StoreGlobalInstruction("r"));
+        return bytecode;
+    }
+
+    private static VirtualMachine run(Bytecode bytecode, Object a, Object b) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(ExecutionEngine.SWITCH);
+        vm.setGlobal("a", a);
+        vm.setGlobal("b", b);
+        vm.execute();
+        return vm;
+    }
+
+    private static OpCode opcode(Bytecode bytecode) {
+        return Linker.opcode(bytecode.getPackedCode()[OPERATION_PC]);
+    }
+
+    private static Quickening.State state(Bytecode bytecode) {
+        return Quickening.state(bytecode.getTypeFeedback()[OPERATION_PC]);
+    }
+}
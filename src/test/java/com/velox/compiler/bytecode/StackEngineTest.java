@@ -0,0 +1,69 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.bytecode.instructions.*;
+import com.velox.compiler.error.RuntimeError;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StackEngineTest {
+    private Bytecode bytecode;
+
+    @BeforeEach
+    void setUp() {
+        bytecode = new Bytecode();
+        bytecode.addConstant(new Constant(1, Constant.ConstantType.INTEGER));
+    }
+
+    @Test
+    void testOperandStackOverflowIsDetected() {
+        for (int i = 0; i < 5; i++) {
+            bytecode.addInstruction(new LoadConstantInstruction(0));
+        }
+        VirtualMachine vm = new VirtualMachine(bytecode, 4, 8);
+
+        RuntimeError error = assertThrows(RuntimeError.class, vm::execute);
+        assertTrue(error.getMessage().contains("Stack overflow"));
+    }
+
+    @Test
+    void testCallDepthOverflowIsDetected() {
+        // fun loop() { loop(); }
+        Function loop = bytecode.addFunction("loop", 0);
+        bytecode.addConstant(Constant.of(loop));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new CallInstruction(0));
+        VirtualMachine vm = new VirtualMachine(bytecode, 64, 16);
+
+        RuntimeError error = assertThrows(RuntimeError.class, vm::execute);
+        assertTrue(error.getMessage().contains("call depth"));
+    }
+
+    @Test
+    void testStackViewTracksPushAndPop() {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        assertTrue(vm.getStack().isEmpty());
+
+        vm.push(1);
+        vm.push("two");
+        assertEquals(2, vm.getStack().size());
+        assertEquals("two", vm.getStack().get(1));
+
+        assertEquals("two", vm.pop());
+        assertEquals(1, vm.getStack().size());
+        assertThrows(UnsupportedOperationException.class, () -> vm.getStack().add(3));
+    }
+
+    @Test
+    void testTopLevelLocalsSurviveExecute() {
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new HaltInstruction());
+        VirtualMachine vm = new VirtualMachine(bytecode);
+
+        vm.setLocal(0, 7);
+        vm.execute();
+        assertEquals(7, vm.pop());
+        assertFalse(vm.isRunning());
+        assertEquals(1, vm.getCallStack().size());
+    }
+}
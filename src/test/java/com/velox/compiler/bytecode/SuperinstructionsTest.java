@@ -0,0 +1,78 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.bytecode.instructions.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.optimizer.Optimizer;
+import com.velox.compiler.token.TokenType;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SuperinstructionsTest {
+
+    @Test
+    void testLoopTestAndCounterAreFused() {
+        // var i = 0; while (i < 10) { i = i + 1; }
+        ModuleNode module = module(
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, "<", variable("i"), number(10)),
+                expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1))))));
+        // The peephole pass turns the counter's DUP; SET_LOCAL; POP into SET_LOCAL
+        Bytecode bytecode = new Optimizer().optimize(new CodeGenerator().generate(module));
+
+        assertTrue(contains(bytecode, OpCode.LESS_LOCAL_CONSTANT_JUMP));
+        assertTrue(contains(bytecode, OpCode.ADD_LOCAL_CONSTANT));
+        assertEquals(10.0, run(bytecode).getLocal(0));
+    }
+
+    @Test
+    void testOtherOperandsRunTheOriginalInstructions() {
+        // var s = "a"; s = s + "b";
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(Constant.of("a"));
+        bytecode.addConstant(Constant.of("b"));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new StoreLocalInstruction(0));
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new AddInstruction());
+        bytecode.addInstruction(new StoreLocalInstruction(0));
+
+        assertEquals(OpCode.ADD_LOCAL_CONSTANT, Linker.opcode(bytecode.getPackedCode()[2]));
+        assertEquals("ab", run(bytecode).getLocal(0));
+    }
+
+    @Test
+    void testJumpIntoTheMiddleOfASequence() {
+        // Pushes 10, then jumps past the GET_LOCAL: local 0 = 10 + 1
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(Constant.of(10.0));
+        bytecode.addConstant(Constant.of(1.0));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new JumpInstruction(3));
+        bytecode.addInstruction(new LoadLocalInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new AddInstruction());
+        bytecode.addInstruction(new StoreLocalInstruction(0));
+
+        assertEquals(OpCode.ADD_LOCAL_CONSTANT, Linker.opcode(bytecode.getPackedCode()[2]));
+        assertEquals(11.0, run(bytecode).getLocal(0));
+    }
+
+    private static boolean contains(Bytecode bytecode, OpCode opcode) {
+        for (int word : bytecode.getPackedCode()) {
+            if (Linker.opcode(word) == opcode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static VirtualMachine run(Bytecode bytecode) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(ExecutionEngine.SWITCH);
+        vm.execute();
+        return vm;
+    }
+}
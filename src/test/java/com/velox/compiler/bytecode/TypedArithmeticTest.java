@@ -0,0 +1,112 @@
+package com.velox.compiler.bytecode;
+
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.bytecode.instructions.*;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.error.ErrorHandler;
+import com.velox.compiler.semantic.TypeChecker;
+import com.velox.compiler.token.TokenType;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TypedArithmeticTest {
+
+    @Test
+    void testProvenNumbersUseTypedOpcodes() {
+        // var i = 0; while (i < 10) { i = i + 1; }
+        ModuleNode module = module(
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, "<", variable("i"), number(10)),
+                expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1))))));
+
+        ErrorHandler errors = new ErrorHandler();
+        TypeChecker checker = new TypeChecker(errors);
+        checker.check(module);
+        assertFalse(errors.hadError(), errors.toString());
+
+        CodeGenerator generator = new CodeGenerator();
+        generator.setTypeChecker(checker);
+        Bytecode bytecode = generator.generate(module);
+        assertTrue(bytecode.getCode().contains((byte) OpCode.DLT.ordinal()));
+        assertTrue(bytecode.getCode().contains((byte) OpCode.DADD.ordinal()));
+        assertFalse(bytecode.getCode().contains((byte) OpCode.ADD.ordinal()));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(10.0, vm.getLocal(0), engine.name());
+            assertTrue(vm.getStack().isEmpty(), engine.name());
+        }
+    }
+
+    @Test
+    void testUnprovenOperandsKeepGenericOpcodes() {
+        // x is never declared, so its type is unknown
+        ModuleNode module = module(
+            expression(binary(TokenType.PLUS, "+", variable("x"), number(1))));
+
+        TypeChecker checker = new TypeChecker(new ErrorHandler());
+        checker.check(module);
+        CodeGenerator generator = new CodeGenerator();
+        generator.setTypeChecker(checker);
+        Bytecode bytecode = generator.generate(module);
+
+        assertTrue(bytecode.getCode().contains((byte) OpCode.ADD.ordinal()));
+    }
+
+    @Test
+    void testIntegerOpcodesOnBothEngines() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(new Constant(40L, Constant.ConstantType.INTEGER));
+        bytecode.addConstant(new Constant(2L, Constant.ConstantType.INTEGER));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new TypedArithmeticInstruction(OpCode.IADD));
+        bytecode.addInstruction(new DupInstruction());
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new TypedArithmeticInstruction(OpCode.IGT));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(true, vm.pop(), engine.name());
+            assertEquals(42L, vm.pop(), engine.name());
+        }
+    }
+
+    @Test
+    void testTypedOpcodesRejectWrongOperands() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(new Constant("text", Constant.ConstantType.STRING));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new TypedArithmeticInstruction(OpCode.DADD));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            RuntimeException error = assertThrows(RuntimeException.class, vm::execute);
+            assertTrue(error.getMessage().contains("must be numbers"), engine.name());
+        }
+    }
+
+    @Test
+    void testTypedDivisionByZero() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.addConstant(new Constant(1.0, Constant.ConstantType.FLOAT));
+        bytecode.addConstant(new Constant(0.0, Constant.ConstantType.FLOAT));
+        bytecode.addInstruction(new LoadConstantInstruction(0));
+        bytecode.addInstruction(new LoadConstantInstruction(1));
+        bytecode.addInstruction(new TypedArithmeticInstruction(OpCode.DDIV));
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            RuntimeException error = assertThrows(RuntimeException.class, vm::execute);
+            assertTrue(error.getMessage().contains("Division by zero"), engine.name());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.velox.compiler.bytecode;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WideOperandTest {
+
+    @Test
+    void testConstantIndexAbove255UsesWidePrefix() {
+        Bytecode bytecode = new Bytecode();
+        for (int i = 0; i < 300; i++) {
+            bytecode.emit(OpCode.CONSTANT, (double) i);
+            bytecode.emit(OpCode.POP);
+        }
+        bytecode.emit(OpCode.CONSTANT, 299.0);
+        bytecode.emit(OpCode.CONSTANT, 1000.0);
+
+        assertEquals(301, bytecode.getConstants().size());
+        int size = bytecode.getCode().size();
+        assertEquals(OpCode.WIDE.ordinal(), bytecode.getCode().get(size - 4) & 0xFF);
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(1000.0, vm.pop(), engine.name());
+            assertEquals(299.0, vm.pop(), engine.name());
+        }
+    }
+
+    @Test
+    void testWideLocalSlot() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.emit(OpCode.CONSTANT, 7.0);
+        bytecode.emit(OpCode.SET_LOCAL, 400);
+        bytecode.emit(OpCode.GET_LOCAL, 400);
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(7.0, vm.pop(), engine.name());
+        }
+    }
+
+    @Test
+    void testJumpOverMoreThan255Bytes() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.emit(OpCode.FALSE);
+        int jump = bytecode.emitJump(OpCode.JUMP_IF_FALSE);
+        for (int i = 0; i < 200; i++) {
+            bytecode.emit(OpCode.CONSTANT, 1.0);
+            bytecode.emit(OpCode.POP);
+        }
+        bytecode.patchJump(jump);
+        bytecode.emit(OpCode.TRUE);
+
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(true, vm.pop(), engine.name());
+            assertTrue(vm.getStack().isEmpty(), engine.name());
+        }
+    }
+
+    @Test
+    void testEqualConstantsShareOneEntry() {
+        Bytecode bytecode = new Bytecode();
+        bytecode.emit(OpCode.GET_GLOBAL, "x");
+        bytecode.emit(OpCode.GET_GLOBAL, "x");
+        bytecode.emit(OpCode.CONSTANT, 1.0);
+        bytecode.emit(OpCode.CONSTANT, (Object) 1);
+
+        assertEquals(3, bytecode.getConstants().size());
+    }
+
+    @Test
+    void testOversizedOperandsAreRejected() {
+        Bytecode bytecode = new Bytecode();
+        assertThrows(IllegalArgumentException.class,
+            () -> bytecode.emit(OpCode.GET_LOCAL, Bytecode.MAX_WIDE_OPERAND + 1));
+        assertThrows(IllegalArgumentException.class, () -> bytecode.emit(OpCode.POP, 1));
+
+        int jump = bytecode.emitJump(OpCode.JUMP);
+        for (int i = 0; i <= Bytecode.MAX_WIDE_OPERAND; i++) {
+            bytecode.emit(OpCode.NIL);
+        }
+        assertThrows(IllegalStateException.class, () -> bytecode.patchJump(jump));
+    }
+}
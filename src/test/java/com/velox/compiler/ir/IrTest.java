@@ -0,0 +1,223 @@
+package com.velox.compiler.ir;
+
+import com.velox.compiler.PerformanceMonitor;
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.optimizer.OptimizationLevel;
+import com.velox.compiler.optimizer.Optimizer;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IrTest {
+
+    @Test
+    void testLoopVariablesBecomePhis() {
+        // fun count(n) { var i = 0; var s = 0; while (i < n) { s = s + i; i = i + 1; } return s; }
+        FunctionStmt count = function("count", Arrays.asList("n"),
+            var("i", number(0)),
+            var("s", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), variable("n")),
+                expression(assign("s", binary(TokenType.PLUS, variable("s"), variable("i")))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            returns(variable("s")));
+
+        IrFunction ir = build(count);
+        new CopyPropagation().run(ir);
+
+        assertEquals(0, count(ir, IrOp.COPY), ir.toString());
+        // n is never assigned in the loop, so its PHI was trivial
+        BasicBlock header = ir.getBlocks().get(1);
+        assertEquals(2, header.getPhis().size(), ir.toString());
+        ir.inferTypes();
+        for (Instruction phi : header.getPhis()) {
+            assertEquals(IrType.NUMBER, phi.getType(), ir.toString());
+        }
+
+        Bytecode bytecode = compile(OptimizationLevel.BASIC, count, var("r", call("count", number(10))));
+        assertTrue(opcodes(bytecode).contains(OpCode.DADD));
+        assertResult(45.0, bytecode);
+    }
+
+    @Test
+    void testValueNumberingMergesRepeatedExpressions() {
+        // fun f(a, b) { var x = (a + b) * (a + b); if (a < b) { x = x + (a + b); } return x; }
+        FunctionStmt f = function("f", Arrays.asList("a", "b"),
+            var("x", binary(TokenType.STAR, sum(), sum())),
+            new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS, variable("a"), variable("b")),
+                block(expression(assign("x", binary(TokenType.PLUS, variable("x"), sum())))), null),
+            returns(variable("x")));
+
+        IrFunction ir = build(f);
+        new CopyPropagation().run(ir);
+        GlobalValueNumbering numbering = new GlobalValueNumbering();
+        numbering.run(ir);
+
+        assertEquals(2, numbering.getNumbered(), ir.toString());
+        assertEquals(2, count(ir, IrOp.ADD), ir.toString());
+        assertResult(12.0, compile(OptimizationLevel.MODERATE, f, var("r", call("f", number(1), number(2)))));
+        assertResult(16.0, compile(OptimizationLevel.MODERATE, f, var("r", call("f", number(3), number(1)))));
+    }
+
+    @Test
+    void testDeadCodeKeepsOperationsThatMayThrow() {
+        // fun g(a) { var p = a * 2; var q = 3 * 4; var d = 1 / a; var e = a == 1; return 0; }
+        FunctionStmt g = function("g", Arrays.asList("a"),
+            var("p", binary(TokenType.STAR, variable("a"), number(2))),
+            var("q", binary(TokenType.STAR, number(3), number(4))),
+            var("d", binary(TokenType.SLASH, number(1), variable("a"))),
+            var("e", binary(TokenType.EQUAL_EQUAL, variable("a"), number(1))),
+            returns(number(0)));
+
+        IrFunction ir = build(g);
+        new CopyPropagation().run(ir);
+        DeadCodeElimination deadCode = new DeadCodeElimination();
+        deadCode.run(ir);
+
+        // 3 * 4 and a == 1 cannot fail; a * 2 and 1 / a can
+        assertEquals(2, deadCode.getRemoved(), ir.toString());
+        assertEquals(1, count(ir, IrOp.MULTIPLY), ir.toString());
+        assertEquals(1, count(ir, IrOp.DIVIDE), ir.toString());
+
+        Bytecode bytecode = compile(OptimizationLevel.AGGRESSIVE, g, var("r", call("g", number(0))));
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertThrows(RuntimeException.class, () -> run(bytecode, engine));
+        }
+    }
+
+    @Test
+    void testPhisThatReadEachOtherAreCopiedTogether() {
+        // fun swap(n) { var a = 1; var b = 2; var i = 0;
+        //   while (i < n) { var t = a; a = b; b = t; i = i + 1; } return a * 10 + b; }
+        FunctionStmt swap = function("swap", Arrays.asList("n"),
+            var("a", number(1)),
+            var("b", number(2)),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), variable("n")),
+                var("t", variable("a")),
+                expression(assign("a", variable("b"))),
+                expression(assign("b", variable("t"))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            returns(binary(TokenType.PLUS, binary(TokenType.STAR, variable("a"), number(10)), variable("b"))));
+
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            assertResult(21.0, compile(level, swap, var("r", call("swap", number(3)))));
+            assertResult(12.0, compile(level, swap, var("r", call("swap", number(4)))));
+        }
+    }
+
+    @Test
+    void testRecursionAndGlobalsKeepTheirOrder() {
+        // fun fact(n) { if (n <= 1) return 1; return n * fact(n - 1); }
+        FunctionStmt fact = function("fact", Arrays.asList("n"),
+            new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS_EQUAL, variable("n"), number(1)),
+                returns(number(1)), null),
+            returns(binary(TokenType.STAR, variable("n"),
+                call("fact", binary(TokenType.MINUS, variable("n"), number(1))))));
+        // fun store(v) { total = v; print total; return total + fact(3); }
+        FunctionStmt store = function("store", Arrays.asList("v"),
+            expression(assign("total", variable("v"))),
+            print(variable("total")),
+            returns(binary(TokenType.PLUS, variable("total"), call("fact", number(3)))));
+
+        assertResult(3628800.0, compile(OptimizationLevel.AGGRESSIVE, fact, var("r", call("fact", number(10)))));
+        Bytecode bytecode = compile(OptimizationLevel.AGGRESSIVE, fact, store, var("r", call("store", number(4))));
+        assertTrue(opcodes(bytecode).contains(OpCode.SET_GLOBAL));
+        assertTrue(opcodes(bytecode).contains(OpCode.GET_GLOBAL));
+        assertResult(10.0, bytecode);
+    }
+
+    @Test
+    void testFunctionsDeclaringFunctionsAreLeftToTheCodeGenerator() {
+        // fun outer(x) { fun inner() { return x; } return inner(); }
+        FunctionStmt outer = function("outer", Arrays.asList("x"),
+            function("inner", Collections.emptyList(), returns(variable("x"))),
+            returns(call("inner")));
+
+        assertNull(new IrBuilder(Collections.emptyMap()).build(outer));
+        assertResult(7.0, compile(OptimizationLevel.AGGRESSIVE, outer, var("r", call("outer", number(7)))));
+    }
+
+    @Test
+    void testOptimizerRecordsIrCounts() {
+        FunctionStmt f = function("f", Arrays.asList("a"),
+            var("x", binary(TokenType.PLUS, variable("a"), number(1))),
+            var("y", binary(TokenType.PLUS, variable("a"), number(1))),
+            var("unused", binary(TokenType.STAR, number(2), number(3))),
+            returns(binary(TokenType.STAR, variable("x"), variable("y"))));
+        PerformanceMonitor monitor = new PerformanceMonitor();
+        Optimizer optimizer = new Optimizer(monitor);
+        optimizer.setLevel(OptimizationLevel.MODERATE.getLevel());
+
+        optimizer.optimize(build(f));
+
+        assertEquals(3, monitor.getCount("ir.copies_propagated"));
+        assertEquals(1, monitor.getCount("ir.values_numbered"));
+        assertEquals(1, monitor.getCount("ir.instructions_removed"));
+    }
+
+    private static IrFunction build(FunctionStmt function) {
+        IrFunction ir = new IrBuilder(Collections.emptyMap()).build(function);
+        assertNotNull(ir);
+        return ir;
+    }
+
+    private static Bytecode compile(OptimizationLevel level, AST... declarations) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(level.getLevel());
+        CodeGenerator generator = new CodeGenerator();
+        generator.setIrOptimizer(optimizer::optimize);
+        return optimizer.optimize(generator.generate(module(declarations)));
+    }
+
+    private static void assertResult(Object expected, Bytecode bytecode) {
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(expected, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    private static VirtualMachine run(Bytecode bytecode, ExecutionEngine engine) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+        return vm;
+    }
+
+    private static List<OpCode> opcodes(Bytecode bytecode) {
+        List<OpCode> opcodes = new ArrayList<>();
+        for (int i = 0; i < bytecode.getInstructionCount(); i++) {
+            opcodes.add(bytecode.getInstruction(i).getOpCode());
+        }
+        return opcodes;
+    }
+
+    private static int count(IrFunction ir, IrOp op) {
+        int count = 0;
+        for (BasicBlock block : ir.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.getOp() == op) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** (a + b) */
+    private static GroupingExpr sum() {
+        return new GroupingExpr(token(TokenType.LEFT_PAREN, "("),
+            binary(TokenType.PLUS, variable("a"), variable("b")));
+    }
+}
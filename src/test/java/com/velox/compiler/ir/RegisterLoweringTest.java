@@ -0,0 +1,157 @@
+package com.velox.compiler.ir;
+
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.RegisterCode;
+import com.velox.compiler.bytecode.RegisterOp;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.optimizer.OptimizationLevel;
+import com.velox.compiler.optimizer.Optimizer;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegisterLoweringTest {
+
+    @Test
+    void testCountedLoopIsThreeAddressCode() {
+        // fun count(n) { var i = 0; var s = 0; while (i < n) { s = s + i; i = i + 1; } return s; }
+        FunctionStmt count = function("count", Arrays.asList("n"),
+            var("i", number(0)),
+            var("s", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), variable("n")),
+                expression(assign("s", binary(TokenType.PLUS, variable("s"), variable("i")))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            returns(variable("s")));
+        Bytecode bytecode = compile(count, var("r", call("count", number(10))));
+
+        RegisterCode code = bytecode.getFunction("count").getRegisterCode();
+        assertNotNull(code);
+        List<RegisterOp> ops = ops(code);
+        // n is a parameter and so boxed: the loop test is generic, the sums are not
+        assertEquals(2, count(ops, RegisterOp.DADD), code.toString());
+        assertEquals(0, count(ops, RegisterOp.ADD), code.toString());
+        assertTrue(ops.contains(RegisterOp.LESS), code.toString());
+        assertResult(45.0, bytecode);
+    }
+
+    @Test
+    void testComparisonOfNumbersFusesIntoTheBranch() {
+        // fun count() { var i = 0; while (i < 100) { i = i + 1; } return i; }
+        FunctionStmt count = function("count", new ArrayList<>(),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), number(100)),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            returns(variable("i")));
+        Bytecode bytecode = compile(count, var("r", call("count")));
+
+        RegisterCode code = bytecode.getFunction("count").getRegisterCode();
+        List<RegisterOp> ops = ops(code);
+        assertTrue(ops.contains(RegisterOp.JUMP_IF_NOT_DLT), code.toString());
+        assertFalse(ops.contains(RegisterOp.DLT), code.toString());
+        // The increment writes the loop variable's register directly; only
+        // the initial value is copied in
+        assertEquals(1, count(ops, RegisterOp.DMOVE), code.toString());
+        assertResult(100.0, bytecode);
+    }
+
+    @Test
+    void testNumbersAreBoxedWhereAnyValueMayAppear() {
+        // fun label(n) { var s = "n"; var i = 0; while (i < n) { s = s + i; i = i + 1; } return s; }
+        FunctionStmt label = function("label", Arrays.asList("n"),
+            var("s", string("n")),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, variable("i"), variable("n")),
+                expression(assign("s", binary(TokenType.PLUS, variable("s"), variable("i")))),
+                expression(assign("i", binary(TokenType.PLUS, variable("i"), number(1))))),
+            returns(variable("s")));
+        Bytecode bytecode = compile(label, var("r", call("label", number(3))));
+
+        assertTrue(ops(bytecode.getFunction("label").getRegisterCode()).contains(RegisterOp.BOX));
+        assertResult("n0.01.02.0", bytecode);
+    }
+
+    @Test
+    void testCallsCrossBetweenRegisterAndStackCode() {
+        // fun twice(x) { return x * 2; }
+        // fun shared(n) { fun inner() { return n; } return twice(inner()); }
+        // fun top(n) { return shared(n) + 1; }
+        FunctionStmt twice = function("twice", Arrays.asList("x"),
+            returns(binary(TokenType.STAR, variable("x"), number(2))));
+        FunctionStmt shared = function("shared", Arrays.asList("n"),
+            function("inner", new ArrayList<>(), returns(variable("n"))),
+            returns(call("twice", call("inner"))));
+        FunctionStmt top = function("top", Arrays.asList("n"),
+            returns(binary(TokenType.PLUS, call("shared", variable("n")), number(1))));
+        Bytecode bytecode = compile(twice, shared, top, var("r", call("top", number(5))));
+
+        assertNotNull(bytecode.getFunction("twice").getRegisterCode());
+        assertNull(bytecode.getFunction("shared").getRegisterCode());
+        assertNotNull(bytecode.getFunction("top").getRegisterCode());
+        assertResult(11.0, bytecode);
+    }
+
+    @Test
+    void testUnboundedRecursionOverflows() {
+        // fun down(n) { return down(n + 1); }
+        FunctionStmt down = function("down", Arrays.asList("n"),
+            returns(call("down", binary(TokenType.PLUS, variable("n"), number(1)))));
+        Bytecode bytecode = compile(down, var("r", call("down", number(0))));
+
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(ExecutionEngine.REGISTER);
+        RuntimeException error = assertThrows(RuntimeException.class, vm::execute);
+        assertTrue(error.getMessage().contains("Stack overflow"), error.getMessage());
+    }
+
+    private static Bytecode compile(AST... declarations) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(OptimizationLevel.MODERATE.getLevel());
+        CodeGenerator generator = new CodeGenerator();
+        generator.setIrOptimizer(optimizer::optimize);
+        return optimizer.optimize(generator.generate(module(declarations)));
+    }
+
+    private static void assertResult(Object expected, Bytecode bytecode) {
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            VirtualMachine vm = new VirtualMachine(bytecode);
+            vm.setEngine(engine);
+            vm.execute();
+            assertEquals(expected, vm.getLocal(0), engine.name());
+            assertTrue(vm.getStack().isEmpty(), engine.name());
+        }
+    }
+
+    private static List<RegisterOp> ops(RegisterCode code) {
+        List<RegisterOp> ops = new ArrayList<>();
+        int[] words = code.getCode();
+        for (int pc = 0; pc < words.length; ) {
+            RegisterOp op = RegisterOp.of(words[pc]);
+            ops.add(op);
+            pc += 1 + op.getOperandCount();
+            if (op == RegisterOp.CALL || op == RegisterOp.CALL_DIRECT) {
+                pc += words[pc - 1];
+            }
+        }
+        return ops;
+    }
+
+    private static int count(List<RegisterOp> ops, RegisterOp op) {
+        int count = 0;
+        for (RegisterOp each : ops) {
+            if (each == op) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,305 @@
+package com.velox.compiler.optimizer;
+
+import com.velox.compiler.PerformanceMonitor;
+import com.velox.compiler.ast.AST;
+import com.velox.compiler.ast.FunctionStmt;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.ast.VarStmt;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.token.TokenType;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static com.velox.compiler.optimizer.OptimizerTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AstOptimizerTest {
+
+    @Test
+    void testLiteralExpressionsAreFolded() {
+        // var a = (2 + 3) * 4; var b = "n" + 1; var c = "a" < "b"; var d = -a == -20; var e = !true; var z = 1 / 0;
+        ModuleNode program = module(
+            var("a", binary(TokenType.STAR, "*",
+                new GroupingExpr(token(TokenType.LEFT_PAREN, "("), binary(TokenType.PLUS, "+", number(2), number(3))),
+                number(4))),
+            var("b", binary(TokenType.PLUS, "+", string("n"), number(1))),
+            var("c", binary(TokenType.LESS, "<", string("a"), string("b"))),
+            var("d", binary(TokenType.EQUAL_EQUAL, "==",
+                new UnaryExpr(token(TokenType.MINUS, "-"), number(20)), number(-20))),
+            var("e", new UnaryExpr(token(TokenType.BANG, "!"), new LiteralExpr(token(TokenType.TRUE, "true"), true))),
+            var("z", binary(TokenType.SLASH, "/", number(1), number(0))));
+
+        ModuleNode folded = (ModuleNode) new Optimizer().optimize(program);
+
+        List<AST> declarations = folded.getDeclarations();
+        assertEquals(20.0, initializer(declarations.get(0)));
+        assertEquals("n1.0", initializer(declarations.get(1)));
+        assertEquals(true, initializer(declarations.get(2)));
+        assertEquals(true, initializer(declarations.get(3)));
+        assertEquals(false, initializer(declarations.get(4)));
+        // Division by zero is left to fail at runtime
+        assertTrue(((VarStmt) declarations.get(5)).getInitializer() instanceof BinaryExpr);
+        // The input tree is not changed
+        assertTrue(((VarStmt) program.getDeclarations().get(0)).getInitializer() instanceof BinaryExpr);
+        assertSame(program.getDeclarations().get(5), declarations.get(5));
+    }
+
+    @Test
+    void testConstantBranchesAreRemoved() {
+        // var r = 0; if (1 < 2) { r = 1; } else { r = 2; } if (false) { r = 3; } while (false) { r = 4; }
+        ModuleNode program = module(
+            var("r", number(0)),
+            new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS, "<", number(1), number(2)),
+                block(expression(assign("r", number(1)))),
+                block(expression(assign("r", number(2))))),
+            new IfStmt(token(TokenType.IF, "if"), new LiteralExpr(token(TokenType.FALSE, "false"), false),
+                block(expression(assign("r", number(3)))), null),
+            loop(new LiteralExpr(token(TokenType.FALSE, "false"), false), expression(assign("r", number(4)))));
+        Optimizer optimizer = new Optimizer(new PerformanceMonitor());
+        optimizer.setLevel(1);
+
+        ModuleNode optimized = (ModuleNode) optimizer.optimize(program);
+
+        assertEquals(2, optimized.getDeclarations().size());
+        assertTrue(optimized.getDeclarations().get(1) instanceof BlockStmt);
+        Bytecode bytecode = new CodeGenerator().generate(optimized);
+        assertFalse(opcodes(bytecode).contains(OpCode.JUMP_IF_FALSE));
+        assertTrue(bytecode.getInstructionCount() < new CodeGenerator().generate(program).getInstructionCount());
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(1.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testStatementsAfterReturnAreDropped() {
+        // fun f() { return 1; f = 2; fun g() { return 3; } } var r = f();
+        ModuleNode program = module(
+            function("f", Arrays.asList(),
+                returns(number(1)),
+                expression(assign("f", number(2))),
+                function("g", Arrays.asList(), returns(number(3)))),
+            var("r", call("f")));
+        PerformanceMonitor monitor = new PerformanceMonitor();
+        Optimizer optimizer = new Optimizer(monitor);
+        optimizer.setLevel(1);
+
+        ModuleNode optimized = (ModuleNode) optimizer.optimize(program);
+
+        assertEquals(2, ((FunctionStmt) optimized.getDeclarations().get(0)).getBody().size());
+        assertEquals(1, monitor.getCount("ast.statements_removed"));
+        assertEquals(1.0, run(new CodeGenerator().generate(optimized), ExecutionEngine.SWITCH).getLocal(0));
+    }
+
+    @Test
+    void testSmallFunctionsAreInlinedIntoLoops() {
+        // fun square(x) { return x * x; }  fun twice(x) { return square(x) + square(x); }
+        // fun sum(n) { var i = 0; var t = 0; while (i < n) { t = t + twice(i); i = i + 1; } return t; }
+        // fun fact(n) { return n * fact(n - 1); }  fun local() { var square = 1; return square(3); }
+        // var r = sum(4);
+        ModuleNode program = module(
+            function("square", Arrays.asList("x"), returns(binary(TokenType.STAR, "*", variable("x"), variable("x")))),
+            function("twice", Arrays.asList("x"),
+                returns(binary(TokenType.PLUS, "+", call("square", variable("x")), call("square", variable("x"))))),
+            function("sum", Arrays.asList("n"),
+                var("i", number(0)),
+                var("t", number(0)),
+                loop(binary(TokenType.LESS, "<", variable("i"), variable("n")),
+                    expression(assign("t", binary(TokenType.PLUS, "+", variable("t"), call("twice", variable("i"))))),
+                    expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1))))),
+                returns(variable("t"))),
+            function("fact", Arrays.asList("n"),
+                returns(binary(TokenType.STAR, "*", variable("n"),
+                    call("fact", binary(TokenType.MINUS, "-", variable("n"), number(1)))))),
+            function("local", Arrays.asList(), var("square", number(1)), returns(call("square", number(3)))),
+            var("r", call("sum", number(4))));
+        PerformanceMonitor monitor = new PerformanceMonitor();
+        Optimizer optimizer = new Optimizer(monitor);
+        optimizer.setLevel(OptimizationLevel.MODERATE.getLevel());
+
+        ModuleNode optimized = (ModuleNode) optimizer.optimize(program);
+
+        // Both calls in twice, then twice itself in sum
+        assertEquals(3, monitor.getCount("ast.calls_inlined"));
+        Bytecode bytecode = new CodeGenerator().generate(optimized);
+        assertEquals(1, opcodes(bytecode).stream().filter(OpCode.CALL_DIRECT::equals).count() - 1);
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(28.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+        // Recursive and shadowed calls are kept
+        assertSame(program.getDeclarations().get(3), optimized.getDeclarations().get(3));
+        assertSame(program.getDeclarations().get(4), optimized.getDeclarations().get(4));
+    }
+
+    @Test
+    void testInliningRespectsBudgetAndArguments() {
+        // fun add(a, b) { return a + b; }  fun one() { return 1; }  var r = add(one(), 2);  var s = add(1, 2) * 3;
+        ModuleNode program = module(
+            function("add", Arrays.asList("a", "b"), returns(binary(TokenType.PLUS, "+", variable("a"), variable("b")))),
+            function("one", Arrays.asList(), returns(number(1))),
+            var("r", call("add", call("one"), number(2))),
+            var("s", binary(TokenType.STAR, "*", call("add", number(1), number(2)), number(3))));
+        Optimizer optimizer = new Optimizer();
+        optimizer.setLevel(OptimizationLevel.AGGRESSIVE.getLevel());
+
+        ModuleNode optimized = (ModuleNode) optimizer.optimize(program);
+
+        // one() is inlined and then add(1, 2) folds; a call argument is
+        // never moved after the body, but here it became a literal first
+        assertEquals(3.0, ((LiteralExpr) ((VarStmt) optimized.getDeclarations().get(2)).getInitializer()).getValue());
+        assertEquals(9.0, ((LiteralExpr) ((VarStmt) optimized.getDeclarations().get(3)).getInitializer()).getValue());
+
+        optimizer.setInlineBudget(2);
+        ModuleNode limited = (ModuleNode) optimizer.optimize(program);
+        assertTrue(((VarStmt) limited.getDeclarations().get(3)).getInitializer() instanceof BinaryExpr);
+        assertTrue(((BinaryExpr) ((VarStmt) limited.getDeclarations().get(3)).getInitializer()).getLeft() instanceof CallExpr);
+    }
+
+    @Test
+    void testInvariantsAreHoistedAndCountedLoopsUnrolled() {
+        // fun run(n) { var total = 0; var i = 0;
+        //   while (i < n) { var j = 0; while (j < 4) { total = total + (n * 2 + 1) * j; j = j + 1; } i = i + 1; }
+        //   return total; }
+        // var r = run(5);
+        ModuleNode program = module(nestedLoops(), var("r", call("run", number(5))));
+        PerformanceMonitor monitor = new PerformanceMonitor();
+        Optimizer optimizer = new Optimizer(monitor);
+        optimizer.setLevel(OptimizationLevel.AGGRESSIVE.getLevel());
+
+        ModuleNode optimized = (ModuleNode) optimizer.optimize(program);
+
+        assertEquals(1, monitor.getCount("ast.loops_unrolled"));
+        assertEquals(1, monitor.getCount("ast.invariants_hoisted"));
+        Bytecode bytecode = new CodeGenerator().generate(optimized);
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            // 5 * 11 * (0 + 1 + 2 + 3)
+            assertEquals(330.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testValuesCallsCanChangeStayInTheLoop() {
+        // fun f() { var i = 0; var k = 1; var t = 0;
+        //   fun bump() { k = k + 1; return 0; }
+        //   while (i < 3) { t = t + k * 2; bump(); i = i + 1; }
+        //   return t; }
+        // var r = f();
+        ModuleNode program = module(
+            function("f", Arrays.asList(),
+                var("i", number(0)),
+                var("k", number(1)),
+                var("t", number(0)),
+                function("bump", Arrays.asList(),
+                    expression(assign("k", binary(TokenType.PLUS, "+", variable("k"), number(1)))),
+                    returns(number(0))),
+                loop(binary(TokenType.LESS, "<", variable("i"), number(3)),
+                    expression(assign("t", binary(TokenType.PLUS, "+", variable("t"),
+                        binary(TokenType.STAR, "*", variable("k"), number(2))))),
+                    expression(call("bump")),
+                    expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1))))),
+                returns(variable("t"))),
+            var("r", call("f")));
+        PerformanceMonitor monitor = new PerformanceMonitor();
+        Optimizer optimizer = new Optimizer(monitor);
+        optimizer.setLevel(OptimizationLevel.AGGRESSIVE.getLevel());
+
+        ModuleNode optimized = (ModuleNode) optimizer.optimize(program);
+
+        assertEquals(0, monitor.getCount("ast.invariants_hoisted"));
+        assertEquals(12.0, run(new CodeGenerator().generate(optimized), ExecutionEngine.SWITCH).getLocal(0));
+    }
+
+    @Test
+    void testStoresAheadOfAFailingInvariantStillHappen() {
+        // var g = 0;
+        // fun f(s) { var i = 0; try { while (i < 3) { g = 1; var v = s - 1; i = i + 1; } } catch (e) { } return g; }
+        // var r = f("ab");
+        ModuleNode program = module(
+            var("g", number(0)),
+            function("f", Arrays.asList("s"),
+                var("i", number(0)),
+                tryCatch(
+                    block(loop(binary(TokenType.LESS, "<", variable("i"), number(3)),
+                        expression(assign("g", number(1))),
+                        var("v", binary(TokenType.MINUS, "-", variable("s"), number(1))),
+                        expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1)))))),
+                    "e", block()),
+                returns(variable("g"))),
+            var("r", call("f", string("ab"))));
+        PerformanceMonitor monitor = new PerformanceMonitor();
+        Optimizer optimizer = new Optimizer(monitor);
+        optimizer.setLevel(OptimizationLevel.AGGRESSIVE.getLevel());
+
+        ModuleNode optimized = (ModuleNode) optimizer.optimize(program);
+
+        assertEquals(0, monitor.getCount("ast.invariants_hoisted"));
+        Bytecode bytecode = new CodeGenerator().generate(optimized);
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(1.0, run(bytecode, engine).getLocal(1), engine.name());
+        }
+    }
+
+    @Test
+    void testInvariantsAfterAFailingOperatorStayInTheLoop() {
+        // var s = "str"; var k = "kk"; var i = 0; var r = nil;
+        // try { while (i < 3) { var y = s - i; var t = k * 2; i = i + 1; } } catch (e) { r = e; }
+        ModuleNode program = module(
+            var("s", string("str")),
+            var("k", string("kk")),
+            var("i", number(0)),
+            var("r", null),
+            tryCatch(
+                block(loop(binary(TokenType.LESS, "<", variable("i"), number(3)),
+                    var("y", binary(TokenType.MINUS, "-", variable("s"), variable("i"))),
+                    var("t", binary(TokenType.STAR, "*", variable("k"), number(2))),
+                    expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1)))))),
+                "e", block(expression(assign("r", variable("e"))))));
+
+        for (OptimizationLevel level : OptimizationLevel.values()) {
+            PerformanceMonitor monitor = new PerformanceMonitor();
+            Optimizer optimizer = new Optimizer(monitor);
+            optimizer.setLevel(level.getLevel());
+            Bytecode bytecode = new CodeGenerator().generate((ModuleNode) optimizer.optimize(program));
+
+            assertEquals(0, monitor.getCount("ast.invariants_hoisted"), level.name());
+            for (ExecutionEngine engine : ExecutionEngine.values()) {
+                assertEquals("Invalid operands for subtraction", run(bytecode, engine).getLocal(3),
+                    level + " " + engine);
+            }
+        }
+    }
+
+    /**
+     * fun run(n) { var total = 0; var i = 0;
+     *   while (i < n) { var j = 0; while (j < 4) { total = total + (n * 2 + 1) * j; j = j + 1; } i = i + 1; }
+     *   return total; }
+     */
+    static FunctionStmt nestedLoops() {
+        return function("run", Arrays.asList("n"),
+            var("total", number(0)),
+            var("i", number(0)),
+            loop(binary(TokenType.LESS, "<", variable("i"), variable("n")),
+                var("j", number(0)),
+                loop(binary(TokenType.LESS, "<", variable("j"), number(4)),
+                    expression(assign("total", binary(TokenType.PLUS, "+", variable("total"),
+                        binary(TokenType.STAR, "*",
+                            new GroupingExpr(token(TokenType.LEFT_PAREN, "("),
+                                binary(TokenType.PLUS, "+",
+                                    binary(TokenType.STAR, "*", variable("n"), number(2)), number(1))),
+                            variable("j"))))),
+                    expression(assign("j", binary(TokenType.PLUS, "+", variable("j"), number(1))))),
+                expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1))))),
+            returns(variable("total")));
+    }
+
+    private static Object initializer(AST declaration) {
+        AST initializer = ((VarStmt) declaration).getInitializer();
+        assertTrue(initializer instanceof LiteralExpr, String.valueOf(initializer));
+        return ((LiteralExpr) initializer).getValue();
+    }
+}
@@ -0,0 +1,193 @@
+package com.velox.compiler.optimizer;
+
+import com.velox.compiler.PerformanceMonitor;
+import com.velox.compiler.ast.ModuleNode;
+import com.velox.compiler.ast.VarStmt;
+import com.velox.compiler.ast.expressions.*;
+import com.velox.compiler.ast.statements.*;
+import com.velox.compiler.bytecode.Bytecode;
+import com.velox.compiler.bytecode.ExecutionEngine;
+import com.velox.compiler.bytecode.OpCode;
+import com.velox.compiler.bytecode.VirtualMachine;
+import com.velox.compiler.codegen.CodeGenerator;
+import com.velox.compiler.token.Token;
+import com.velox.compiler.token.TokenType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static com.velox.compiler.AstBuilder.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OptimizerTest {
+
+    @Test
+    void testPushPopAndAssignmentStatements() {
+        // var x = 1; 7; x = 5;
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            var("x", number(1)),
+            expression(number(7)),
+            expression(assign("x", number(5)))));
+        int before = bytecode.getInstructionCount();
+
+        PeepholeOptimizer peephole = optimize(bytecode);
+
+        assertEquals(Arrays.asList(OpCode.CONSTANT, OpCode.SET_LOCAL, OpCode.CONSTANT, OpCode.SET_LOCAL),
+            opcodes(bytecode));
+        assertEquals(4, peephole.getPushPopsRemoved());
+        assertEquals(before - 4, bytecode.getInstructionCount());
+        assertEquals(5.0, run(bytecode, ExecutionEngine.SWITCH).getLocal(0));
+    }
+
+    @Test
+    void testConstantsAreFolded() {
+        // var x = 2 * 3 + 4; var y = -x; var s = "a" + "b"; var b = 1 < 2;
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            var("x", binary(TokenType.PLUS, "+", binary(TokenType.STAR, "*", number(2), number(3)), number(4))),
+            var("y", new UnaryExpr(token(TokenType.MINUS, "-"), number(8))),
+            var("s", binary(TokenType.PLUS, "+", string("a"), string("b"))),
+            var("b", binary(TokenType.LESS, "<", number(1), number(2))),
+            var("z", binary(TokenType.SLASH, "/", number(1), number(0)))));
+
+        optimize(bytecode);
+
+        List<OpCode> opcodes = opcodes(bytecode);
+        assertFalse(opcodes.contains(OpCode.ADD));
+        assertFalse(opcodes.contains(OpCode.MULTIPLY));
+        assertFalse(opcodes.contains(OpCode.NEGATE));
+        assertFalse(opcodes.contains(OpCode.LESS));
+        // Division by zero still fails at runtime
+        assertTrue(opcodes.contains(OpCode.DIVIDE));
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        assertThrows(RuntimeException.class, vm::execute);
+        assertEquals(10.0, vm.getLocal(0));
+        assertEquals(-8.0, vm.getLocal(1));
+        assertEquals("ab", vm.getLocal(2));
+        assertEquals(true, vm.getLocal(3));
+    }
+
+    @Test
+    void testBranchOnConstantKeepsOnlyTheTakenSide() {
+        // var r = 0; if (false) { r = 1; } else { r = 2; }
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            var("r", number(0)),
+            new IfStmt(token(TokenType.IF, "if"), new LiteralExpr(token(TokenType.FALSE, "false"), false),
+                block(expression(assign("r", number(1)))),
+                block(expression(assign("r", number(2)))))));
+
+        PeepholeOptimizer peephole = optimize(bytecode);
+
+        assertEquals(Arrays.asList(OpCode.CONSTANT, OpCode.SET_LOCAL, OpCode.CONSTANT, OpCode.SET_LOCAL),
+            opcodes(bytecode));
+        assertTrue(peephole.getUnreachableRemoved() > 0);
+        assertEquals(2.0, run(bytecode, ExecutionEngine.INSTRUCTION).getLocal(0));
+    }
+
+    @Test
+    void testJumpsToJumpsAreThreaded() {
+        // A chain JUMP a; a: JUMP b; b: JUMP c; c: TRUE
+        Bytecode bytecode = new Bytecode();
+        bytecode.emit(OpCode.FALSE);
+        int skip = bytecode.emitJump(OpCode.JUMP_IF_FALSE);
+        bytecode.emit(OpCode.NIL);
+        bytecode.emit(OpCode.SET_LOCAL, 0);
+        bytecode.patchJump(skip);
+        int a = bytecode.emitJump(OpCode.JUMP);
+        bytecode.patchJump(a);
+        int b = bytecode.emitJump(OpCode.JUMP);
+        bytecode.emit(OpCode.NIL);
+        bytecode.patchJump(b);
+        bytecode.emit(OpCode.TRUE);
+        bytecode.emit(OpCode.SET_LOCAL, 0);
+
+        PeepholeOptimizer peephole = optimize(bytecode);
+
+        assertEquals(Arrays.asList(OpCode.TRUE, OpCode.SET_LOCAL), opcodes(bytecode));
+        assertTrue(peephole.getJumpsThreaded() + peephole.getJumpsRemoved() > 0);
+        assertEquals(true, run(bytecode, ExecutionEngine.SWITCH).getLocal(0));
+    }
+
+    @Test
+    void testStoresNoOneReadsAreRemoved() {
+        // fun f(a) { var unused = a; var used = 2; fun g() { return used; } return g; }  var r = f(1)();
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            function("f", Arrays.asList("a"),
+                var("unused", variable("a")),
+                var("used", number(2)),
+                function("g", new ArrayList<>(), returns(variable("used"))),
+                returns(variable("g"))),
+            var("r", call(call("f", number(1))))));
+
+        PeepholeOptimizer peephole = optimize(bytecode);
+
+        // unused goes; used is captured, g is read, and top-level r stays
+        assertEquals(1, peephole.getDeadStoresRemoved());
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(2.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testLoopsRunTheSameAfterOptimization() {
+        // fun sum(n) { var i = 0; var total = 0; while (i < n) { if (i < 3) { total = total + i; } i = i + 1; } return total; }
+        // var r = sum(10);
+        ModuleNode program = module(
+            function("sum", Arrays.asList("n"),
+                var("i", number(0)),
+                var("total", number(0)),
+                loop(binary(TokenType.LESS, "<", variable("i"), variable("n")),
+                    new IfStmt(token(TokenType.IF, "if"), binary(TokenType.LESS, "<", variable("i"), number(3)),
+                        block(expression(assign("total",
+                            binary(TokenType.PLUS, "+", variable("total"), variable("i"))))),
+                        null),
+                    expression(assign("i", binary(TokenType.PLUS, "+", variable("i"), number(1))))),
+                returns(variable("total"))),
+            var("r", call("sum", number(10))));
+        Bytecode bytecode = new CodeGenerator().generate(program);
+        int before = bytecode.getInstructionCount();
+        PerformanceMonitor monitor = new PerformanceMonitor();
+
+        new Optimizer(monitor).optimize(bytecode);
+
+        assertTrue(bytecode.getInstructionCount() < before);
+        assertEquals(before - bytecode.getInstructionCount(), monitor.getCount("peephole.instructions_removed"));
+        for (ExecutionEngine engine : ExecutionEngine.values()) {
+            assertEquals(3.0, run(bytecode, engine).getLocal(0), engine.name());
+        }
+    }
+
+    @Test
+    void testLinesFollowTheirInstructions() {
+        // 1: 7;
+        // 2: var x = 1;
+        Bytecode bytecode = new CodeGenerator().generate(module(
+            new ExpressionStmt(new Token(TokenType.SEMICOLON, ";", null, 1, 1), number(7)),
+            new VarStmt(new Token(TokenType.VAR, "var", null, 2, 1), identifier("x"), number(1), null)));
+
+        optimize(bytecode);
+
+        assertEquals(OpCode.CONSTANT, bytecode.getInstruction(0).getOpCode());
+        assertEquals(2, bytecode.getLine(0));
+    }
+
+    static PeepholeOptimizer optimize(Bytecode bytecode) {
+        PeepholeOptimizer peephole = new PeepholeOptimizer(bytecode);
+        peephole.run();
+        return peephole;
+    }
+
+    static VirtualMachine run(Bytecode bytecode, ExecutionEngine engine) {
+        VirtualMachine vm = new VirtualMachine(bytecode);
+        vm.setEngine(engine);
+        vm.execute();
+        return vm;
+    }
+
+    static List<OpCode> opcodes(Bytecode bytecode) {
+        List<OpCode> opcodes = new ArrayList<>();
+        for (int i = 0; i < bytecode.getInstructionCount(); i++) {
+            opcodes.add(bytecode.getInstruction(i).getOpCode());
+        }
+        return opcodes;
+    }
+}